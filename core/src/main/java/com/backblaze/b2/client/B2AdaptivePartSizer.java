@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.util.B2Preconditions;
+
+/**
+ * B2AdaptivePartSizer picks the part size and the number of parts in flight
+ * for large file uploads from how well previous parts have done, instead of
+ * always using the recommendedPartSize from the account authorization.
+ *
+ * It learns from the time each successful b2_upload_part attempt took,
+ * as reported to B2RetryPolicy.succeeded() by the B2Retryer.  From those it
+ * keeps a moving average of each part's throughput:
+ *
+ *   * the part size is picked so that a part takes about targetPartMillis
+ *     to upload.  on a fast link that means bigger parts, and on a slow or
+ *     high-latency link, the per-request overhead shows up as lower per-part
+ *     throughput, so we stop making parts that are too small to be worth it.
+ *
+ *   * the number of parts in flight starts at initialPartsInFlight.  after
+ *     each "round" (as many parts as were in flight), we estimate the
+ *     aggregate throughput.  while adding a part in flight keeps making it
+ *     better, we add another.  if it gets noticeably worse, we back off one.
+ *     otherwise, we stay put since the uplink seems to be saturated.
+ *
+ * The part size times the number of parts in flight never goes over
+ * maxBytesInFlight (except that we always allow one part), so memory
+ * use stays bounded even when parts get bigger.  The part size never
+ * goes over b2's maximum part size.
+ *
+ * Until we've seen a part succeed, we just use the recommendedPartSize.
+ *
+ * To use it, give one to B2StorageClientImpl (or the B2StorageHttpClientBuilder).
+ * The client's getFilePolicy() will then be based on it, and its large file
+ * uploads will use and feed it.  It's meant to be shared by all the uploads
+ * from a client, so it can learn from all of them.
+ *
+ * NOTE: resuming an upload or finishing one with finishUploadingLargeFile()
+ *       picks the parts it was started with, so changing the part size since
+ *       doesn't make parts get uploaded again.
+ *
+ * THREAD-SAFETY: this class is thread-safe.  all of its state is protected
+ *                by synchronized(this).
+ */
+public class B2AdaptivePartSizer {
+    // how much weight each new part's throughput gets in the moving average.
+    private static final double NEW_SAMPLE_WEIGHT = 0.3;
+
+    // how much the aggregate throughput has to change between rounds before
+    // we change the number of parts in flight.
+    private static final double SIGNIFICANT_CHANGE = 0.1;
+
+    private final long maxBytesInFlight;
+    private final long targetPartMillis;
+    private final int maxPartsInFlight;
+
+    // null until the first part succeeds.
+    private Double bytesPerMilliOrNull;
+
+    private int partsInFlight;
+
+    // the current round.
+    private long roundBytes;
+    private long roundMillis;
+    private int roundParts;
+
+    // the aggregate throughput of the previous round, or null if there hasn't been one.
+    private Double previousRoundBytesPerMilliOrNull;
+
+    private B2AdaptivePartSizer(long maxBytesInFlight,
+                                long targetPartMillis,
+                                int initialPartsInFlight,
+                                int maxPartsInFlight) {
+        B2Preconditions.checkArgument(maxBytesInFlight > 0, "maxBytesInFlight must be positive.");
+        B2Preconditions.checkArgument(targetPartMillis > 0, "targetPartMillis must be positive.");
+        B2Preconditions.checkArgument(maxPartsInFlight > 0, "maxPartsInFlight must be positive.");
+        B2Preconditions.checkArgument(initialPartsInFlight > 0 && initialPartsInFlight <= maxPartsInFlight,
+                "initialPartsInFlight must be between 1 and maxPartsInFlight.");
+
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.targetPartMillis = targetPartMillis;
+        this.maxPartsInFlight = maxPartsInFlight;
+        this.partsInFlight = initialPartsInFlight;
+    }
+
+    /**
+     * @param minimumPartSize the smallest part size we're allowed to use.
+     * @param recommendedPartSize the part size to use until we know better.
+     * @return the part size to use for the next large file.
+     */
+    synchronized long pickPartSize(long minimumPartSize,
+                                   long recommendedPartSize) {
+        if (bytesPerMilliOrNull == null) {
+            return recommendedPartSize;
+        }
+
+        final long partSize = (long) (bytesPerMilliOrNull * targetPartMillis);
+        final long maxPartSize = Math.min(B2StorageLimits.MAX_PART_SIZE, maxBytesInFlight);
+        return Math.max(minimumPartSize, Math.min(maxPartSize, partSize));
+    }
+
+    /**
+     * @param partSize the size of the parts that will be in flight.
+     * @return how many parts of that size we should have in flight at once.
+     */
+    synchronized int pickPartsInFlight(long partSize) {
+        final long fitInMemory = Math.max(1, maxBytesInFlight / Math.max(1, partSize));
+        return (int) Math.min(partsInFlight, fitInMemory);
+    }
+
+    /**
+     * Records how long it took to upload a part.
+     *
+     * @param partLength the number of bytes in the part.
+     * @param tookMillis how long the successful attempt took.
+     */
+    synchronized void partSucceeded(long partLength,
+                                    long tookMillis) {
+        // a part that took no measurable time tells us the link is fast,
+        // but not how fast, so just pretend it took a millisecond.
+        final long millis = Math.max(1, tookMillis);
+        final double bytesPerMilli = ((double) partLength) / millis;
+
+        if (bytesPerMilliOrNull == null) {
+            bytesPerMilliOrNull = bytesPerMilli;
+        } else {
+            bytesPerMilliOrNull = (NEW_SAMPLE_WEIGHT * bytesPerMilli) + ((1 - NEW_SAMPLE_WEIGHT) * bytesPerMilliOrNull);
+        }
+
+        roundBytes += partLength;
+        roundMillis += millis;
+        roundParts++;
+        if (roundParts >= partsInFlight) {
+            finishRound();
+        }
+    }
+
+    private void finishRound() {
+        // each part was going at roughly roundBytes/roundMillis and there were
+        // partsInFlight of them going at once.
+        final double roundBytesPerMilli = partsInFlight * (((double) roundBytes) / roundMillis);
+
+        if (previousRoundBytesPerMilliOrNull == null ||
+                roundBytesPerMilli >= previousRoundBytesPerMilliOrNull * (1 + SIGNIFICANT_CHANGE)) {
+            // more parts in flight is still helping (or we don't know yet).
+            partsInFlight = Math.min(maxPartsInFlight, partsInFlight + 1);
+        } else if (roundBytesPerMilli <= previousRoundBytesPerMilliOrNull * (1 - SIGNIFICANT_CHANGE)) {
+            // they're getting in each other's way.
+            partsInFlight = Math.max(1, partsInFlight - 1);
+        }
+
+        previousRoundBytesPerMilliOrNull = roundBytesPerMilli;
+        roundBytes = 0;
+        roundMillis = 0;
+        roundParts = 0;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private long maxBytesInFlight = 500L * 1000 * 1000;
+        private long targetPartMillis = 20 * 1000;
+        private int initialPartsInFlight = 4;
+        private int maxPartsInFlight = 32;
+
+        /**
+         * @param maxBytesInFlight the most bytes of parts we'll have in flight at
+         *                         once, summed over all parts.  defaults to 500 MB.
+         * @return this builder.
+         */
+        public Builder setMaxBytesInFlight(long maxBytesInFlight) {
+            this.maxBytesInFlight = maxBytesInFlight;
+            return this;
+        }
+
+        /**
+         * @param targetPartMillis how long we'd like each part to take to upload.
+         *                         defaults to 20 seconds.
+         * @return this builder.
+         */
+        public Builder setTargetPartMillis(long targetPartMillis) {
+            this.targetPartMillis = targetPartMillis;
+            return this;
+        }
+
+        /**
+         * @param initialPartsInFlight how many parts to have in flight before we've
+         *                             learned anything.  defaults to 4.
+         * @return this builder.
+         */
+        public Builder setInitialPartsInFlight(int initialPartsInFlight) {
+            this.initialPartsInFlight = initialPartsInFlight;
+            return this;
+        }
+
+        /**
+         * @param maxPartsInFlight the most parts we'll ever have in flight at once
+         *                         for a single large file.  defaults to 32.
+         * @return this builder.
+         */
+        public Builder setMaxPartsInFlight(int maxPartsInFlight) {
+            this.maxPartsInFlight = maxPartsInFlight;
+            return this;
+        }
+
+        public B2AdaptivePartSizer build() {
+            return new B2AdaptivePartSizer(
+                    maxBytesInFlight,
+                    targetPartMillis,
+                    initialPartsInFlight,
+                    maxPartsInFlight);
+        }
+    }
+}
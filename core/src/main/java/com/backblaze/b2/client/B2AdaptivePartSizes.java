@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.structures.B2AccountAuthorization;
+
+/**
+ * B2AdaptivePartSizes is the B2FilePolicy used when the client has a
+ * B2AdaptivePartSizer.  Its recommendedPartSize comes from the sizer when
+ * it's created, so all the parts picked for one large file are consistent.
+ * The number of parts in flight is asked for every time, so it can change
+ * during a long upload.
+ *
+ * THREAD-SAFETY: this class is thread-safe because the sizer is.
+ */
+class B2AdaptivePartSizes extends B2PartSizes {
+    private final B2AdaptivePartSizer sizer;
+
+    private B2AdaptivePartSizes(long minimumPartSize,
+                                long recommendedPartSize,
+                                B2AdaptivePartSizer sizer) {
+        super(minimumPartSize, recommendedPartSize);
+        this.sizer = sizer;
+    }
+
+    /**
+     * @param auth the accountAuthorization with the minimum and recommended sizes.
+     * @param sizer the sizer to pick sizes with and to tell about uploaded parts.
+     * @return a B2AdaptivePartSizes with the part size the sizer currently wants.
+     */
+    static B2AdaptivePartSizes from(B2AccountAuthorization auth,
+                                    B2AdaptivePartSizer sizer) {
+        final long minimumPartSize = auth.getAbsoluteMinimumPartSize();
+        return new B2AdaptivePartSizes(
+                minimumPartSize,
+                sizer.pickPartSize(minimumPartSize, auth.getRecommendedPartSize()),
+                sizer);
+    }
+
+    @Override
+    int pickMaxPartsInFlight(int maxPartsInFlight) {
+        return Math.min(maxPartsInFlight, sizer.pickPartsInFlight(getRecommendedPartSize()));
+    }
+
+    @Override
+    void partSucceeded(long partLength,
+                       long tookMillis) {
+        sizer.partSucceeded(partLength, tookMillis);
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentFileWriter;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.exceptions.B2RuntimeException;
+import com.backblaze.b2.client.structures.B2DownloadByIdRequest;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.client.structures.B2ParallelDownloadRequest;
+import com.backblaze.b2.util.B2Preconditions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * B2BatchDownloader downloads many files into a local directory, such as
+ * all of the files from a listing of a bucket or a prefix.
+ *
+ * The listing is read on the calling thread while the files are downloaded
+ * on the executor, so the next page of the listing is fetched while the
+ * files from the previous page are still downloading.  Before each file is
+ * started, we wait until there's room for it:
+ *   * at most maxFilesInFlight files are downloaded at a time, and
+ *   * at most maxBytesInFlight bytes of them.  A file that's bigger than
+ *     maxBytesInFlight is started when nothing else is in flight.
+ *
+ * Files of at least largeFileThreshold bytes are downloaded with several
+ * ranged requests at once, using downloadByIdInParallel() on the same
+ * executor.  At most maxLargeFilesInFlight of those are downloaded at a
+ * time, and each one only counts the bytes of the chunks it has in flight
+ * against maxBytesInFlight.  Since a large file's task waits for its chunks,
+ * the executor must be able to run
+ *   maxFilesInFlight + (maxLargeFilesInFlight * maxChunksInFlightPerFile)
+ * tasks at the same time, or the downloads might deadlock.
+ *
+ * Each file is written to the destination directory at the path given by
+ * its name, creating directories as needed.  Only versions that are uploads
+ * are downloaded; hide markers, folders and unfinished large files are
+ * skipped.  Only the first version of each name is looked at, so given a
+ * listing of versions, we download the newest version of each file, and
+ * nothing for a file whose newest version is a hide marker.  Names that
+ * would put a file outside of the destination directory are failures.
+ *
+ * A file that fails doesn't stop the others; its exception is recorded in
+ * the result.  If the listing fails, we stop listing, wait for the files in
+ * flight, and throw the listing's exception.
+ *
+ * The caller retains ownership of the executor and is responsible for
+ * shutting it down.
+ *
+ * THREAD-SAFETY: this class is thread-safe.  if several threads call
+ *                downloadAll() at once, the limits apply to all of
+ *                their files together.
+ */
+public class B2BatchDownloader {
+    private final B2StorageClient client;
+    private final ExecutorService executor;
+    private final File destinationDir;
+    private final int maxFilesInFlight;
+    private final long maxBytesInFlight;
+    private final long largeFileThreshold;
+    private final int maxLargeFilesInFlight;
+    private final long chunkSize;
+    private final int maxChunksInFlightPerFile;
+
+    // guarded by 'this'.
+    private int filesInFlight;
+    private int largeFilesInFlight;
+    private long bytesInFlight;
+
+    private B2BatchDownloader(Builder builder) {
+        this.client = builder.client;
+        this.executor = builder.executor;
+        this.destinationDir = builder.destinationDir;
+        this.maxFilesInFlight = builder.maxFilesInFlight;
+        this.maxBytesInFlight = builder.maxBytesInFlight;
+        this.largeFileThreshold = builder.largeFileThreshold;
+        this.maxLargeFilesInFlight = builder.maxLargeFilesInFlight;
+        this.chunkSize = builder.chunkSize;
+        this.maxChunksInFlightPerFile = builder.maxChunksInFlightPerFile;
+    }
+
+    public static Builder builder(B2StorageClient client,
+                                  ExecutorService executor,
+                                  File destinationDir) {
+        return new Builder(client, executor, destinationDir);
+    }
+
+    /**
+     * Downloads all of the uploaded files in the versions, like the ones from
+     * client.fileNames().  The versions of each name must be next to each
+     * other, newest first, the way b2 lists them, so a listing from
+     * client.fileVersions() downloads the newest version of each file.
+     *
+     * @param versions the files to download.
+     * @return what happened.  when this returns, all of the files have
+     *         either been downloaded or have failed.
+     * @throws B2Exception if the listing fails or we're interrupted.  in that
+     *                     case, the downloads already started are finished first.
+     */
+    public Result downloadAll(Iterable<B2FileVersion> versions) throws B2Exception {
+        final Result result = new Result();
+        String previousNameOrNull = null;
+        try {
+            for (B2FileVersion version : versions) {
+                // only the newest version of each name goes to the destination.
+                final boolean isOlderVersion = version.getFileName().equals(previousNameOrNull);
+                previousNameOrNull = version.getFileName();
+                if (isOlderVersion || !version.isUpload()) {
+                    continue;
+                }
+
+                final File destination;
+                try {
+                    destination = destinationFor(version.getFileName());
+                } catch (B2LocalException e) {
+                    result.failed(version, e);
+                    continue;
+                }
+
+                final boolean isLarge = version.getContentLength() >= largeFileThreshold;
+                final long bytes = isLarge ?
+                        Math.min(version.getContentLength(), chunkSize * maxChunksInFlightPerFile) :
+                        version.getContentLength();
+                waitForRoom(isLarge, bytes, result);
+                try {
+                    executor.execute(() -> download(version, destination, isLarge, bytes, result));
+                } catch (RejectedExecutionException e) {
+                    finished(isLarge, bytes, result);
+                    throw new B2LocalException("trouble", "executor rejected the download of " + version.getFileName() + ": " + e, e);
+                }
+            }
+        } catch (B2RuntimeException e) {
+            // the listing's iterator failed.
+            waitForAll(result);
+            if (e.getCause() instanceof B2Exception) {
+                throw (B2Exception) e.getCause();
+            }
+            throw e;
+        } catch (B2Exception e) {
+            waitForAll(result);
+            throw e;
+        }
+
+        waitForAll(result);
+        return result;
+    }
+
+    private void download(B2FileVersion version,
+                          File destination,
+                          boolean isLarge,
+                          long bytes,
+                          Result result) {
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            destination.getParentFile().mkdirs();
+            if (isLarge) {
+                final B2ParallelDownloadRequest request = B2ParallelDownloadRequest
+                        .builder(version.getFileId(), destination)
+                        .setChunkSize(chunkSize)
+                        .setMaxChunksInFlight(maxChunksInFlightPerFile)
+                        .build();
+                client.downloadByIdInParallel(request, executor);
+            } else {
+                final B2DownloadByIdRequest request = B2DownloadByIdRequest
+                        .builder(version.getFileId())
+                        .build();
+                client.downloadById(request, B2ContentFileWriter.builder(destination).build());
+            }
+            result.succeeded(version);
+        } catch (B2Exception e) {
+            result.failed(version, e);
+        } catch (RuntimeException e) {
+            result.failed(version, new B2LocalException("trouble", "exception downloading " + version.getFileName() + ": " + e, e));
+        } finally {
+            finished(isLarge, bytes, result);
+        }
+    }
+
+    private File destinationFor(String fileName) throws B2LocalException {
+        try {
+            final File dir = destinationDir.getCanonicalFile();
+            final File destination = new File(dir, fileName).getCanonicalFile();
+            if (!destination.getPath().startsWith(dir.getPath() + File.separator)) {
+                throw new B2LocalException("trouble", "'" + fileName + "' would be outside of " + destinationDir);
+            }
+            return destination;
+        } catch (IOException e) {
+            throw new B2LocalException("trouble", "can't figure out where to put '" + fileName + "': " + e, e);
+        }
+    }
+
+    private synchronized void waitForRoom(boolean isLarge,
+                                          long bytes,
+                                          Result result) throws B2LocalException {
+        try {
+            while (filesInFlight >= maxFilesInFlight ||
+                    (isLarge && largeFilesInFlight >= maxLargeFilesInFlight) ||
+                    (filesInFlight > 0 && bytesInFlight + bytes > maxBytesInFlight)) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new B2LocalException("interrupted", "interrupted while waiting to start a download: " + e, e);
+        }
+
+        filesInFlight++;
+        if (isLarge) {
+            largeFilesInFlight++;
+        }
+        bytesInFlight += bytes;
+        result.pending++;
+    }
+
+    private synchronized void finished(boolean isLarge,
+                                       long bytes,
+                                       Result result) {
+        filesInFlight--;
+        if (isLarge) {
+            largeFilesInFlight--;
+        }
+        bytesInFlight -= bytes;
+        result.pending--;
+        notifyAll();
+    }
+
+    /**
+     * Waits for all of the result's files to finish.  The downloads are
+     * already running, so we finish waiting for them even if we're interrupted.
+     */
+    private synchronized void waitForAll(Result result) {
+        boolean interrupted = false;
+        while (result.pending > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Result tells what happened to the files in one call to downloadAll().
+     */
+    public static class Result {
+        // guarded by the B2BatchDownloader, not by this.
+        private int pending;
+
+        // guarded by 'this'.
+        private long filesDownloaded;
+        private long bytesDownloaded;
+        private final Map<String, B2Exception> failures = new LinkedHashMap<>();
+
+        private synchronized void succeeded(B2FileVersion version) {
+            filesDownloaded++;
+            bytesDownloaded += version.getContentLength();
+        }
+
+        private synchronized void failed(B2FileVersion version,
+                                         B2Exception e) {
+            failures.put(version.getFileName(), e);
+        }
+
+        public synchronized long getFilesDownloaded() {
+            return filesDownloaded;
+        }
+
+        public synchronized long getBytesDownloaded() {
+            return bytesDownloaded;
+        }
+
+        /**
+         * @return a new map from the name of each file that failed to why it failed,
+         *         in the order they failed.
+         */
+        public synchronized Map<String, B2Exception> getFailures() {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+        }
+    }
+
+    public static class Builder {
+        private final B2StorageClient client;
+        private final ExecutorService executor;
+        private final File destinationDir;
+        private int maxFilesInFlight = 8;
+        private long maxBytesInFlight = 512L * 1024 * 1024;
+        private long largeFileThreshold = 200L * 1024 * 1024;
+        private int maxLargeFilesInFlight = 2;
+        private long chunkSize = 32 * 1024 * 1024;
+        private int maxChunksInFlightPerFile = 4;
+
+        Builder(B2StorageClient client,
+                ExecutorService executor,
+                File destinationDir) {
+            this.client = client;
+            this.executor = executor;
+            this.destinationDir = destinationDir;
+        }
+
+        /**
+         * @param maxFilesInFlight how many files to download at once.  defaults to 8.
+         */
+        public Builder setMaxFilesInFlight(int maxFilesInFlight) {
+            this.maxFilesInFlight = maxFilesInFlight;
+            return this;
+        }
+
+        /**
+         * @param maxBytesInFlight how many bytes of files to download at once.  defaults to 512 MB.
+         */
+        public Builder setMaxBytesInFlight(long maxBytesInFlight) {
+            this.maxBytesInFlight = maxBytesInFlight;
+            return this;
+        }
+
+        /**
+         * @param largeFileThreshold files at least this big are downloaded with several
+         *                           ranged requests at once.  defaults to 200 MB.
+         */
+        public Builder setLargeFileThreshold(long largeFileThreshold) {
+            this.largeFileThreshold = largeFileThreshold;
+            return this;
+        }
+
+        /**
+         * @param maxLargeFilesInFlight how many large files to download at once.  defaults to 2.
+         */
+        public Builder setMaxLargeFilesInFlight(int maxLargeFilesInFlight) {
+            this.maxLargeFilesInFlight = maxLargeFilesInFlight;
+            return this;
+        }
+
+        /**
+         * @param chunkSize the size of the ranges large files are downloaded in.  defaults to 32 MB.
+         */
+        public Builder setChunkSize(long chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param maxChunksInFlightPerFile how many ranges of each large file to download at once.
+         *                                 defaults to 4.
+         */
+        public Builder setMaxChunksInFlightPerFile(int maxChunksInFlightPerFile) {
+            this.maxChunksInFlightPerFile = maxChunksInFlightPerFile;
+            return this;
+        }
+
+        public B2BatchDownloader build() {
+            B2Preconditions.checkArgument(maxFilesInFlight > 0, "maxFilesInFlight must be positive.");
+            B2Preconditions.checkArgument(maxBytesInFlight > 0, "maxBytesInFlight must be positive.");
+            B2Preconditions.checkArgument(largeFileThreshold > 0, "largeFileThreshold must be positive.");
+            B2Preconditions.checkArgument(maxLargeFilesInFlight > 0, "maxLargeFilesInFlight must be positive.");
+            B2Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive.");
+            B2Preconditions.checkArgument(maxChunksInFlightPerFile > 0, "maxChunksInFlightPerFile must be positive.");
+            return new B2BatchDownloader(this);
+        }
+    }
+}
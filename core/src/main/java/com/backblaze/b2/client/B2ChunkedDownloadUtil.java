@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.structures.B2DownloadByIdRequest;
+import com.backblaze.b2.util.B2ByteRange;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * B2ChunkedDownloadUtil has the pieces that are the same for every way
+ * of downloading a file as a series of ranged requests, such as
+ * B2ParallelFileDownloader and B2ReadAheadDownloadStream.
+ */
+interface B2ChunkedDownloadUtil {
+    // the status b2 uses when a range starts past the end of the file.
+    int RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * Downloads the first chunk of a file whose length we don't know yet.
+     * If the file is empty, there's no range to ask for, so it asks for
+     * the whole file instead.
+     *
+     * @param client the client to download with.
+     * @param fileId the file to download.
+     * @param chunkSize the most bytes to ask for.
+     * @param sink the sink to give the response to.
+     * @throws B2Exception if there's trouble downloading, or if the sink throws.
+     */
+    static void downloadFirstChunk(B2StorageClient client,
+                                   String fileId,
+                                   long chunkSize,
+                                   B2ContentSink sink) throws B2Exception {
+        try {
+            client.downloadById(makeRangeRequest(fileId, 0, chunkSize), sink);
+        } catch (B2Exception e) {
+            if (e.getStatus() != RANGE_NOT_SATISFIABLE) {
+                throw e;
+            }
+            client.downloadById(B2DownloadByIdRequest.builder(fileId).build(), sink);
+        }
+    }
+
+    /**
+     * @param firstChunkHeaders the headers from the first chunk's response.
+     * @param firstChunkLength how many bytes were in the first chunk.
+     * @return the number of bytes in the whole file.
+     */
+    static long getContentLength(B2Headers firstChunkHeaders,
+                                 long firstChunkLength) {
+        final Long completeLengthOrNull = firstChunkHeaders.getContentRangeCompleteLengthOrNull();
+        return (completeLengthOrNull != null) ? completeLengthOrNull : firstChunkLength;
+    }
+
+    /**
+     * @return a request for 'length' bytes of the file, starting at 'start'.
+     */
+    static B2DownloadByIdRequest makeRangeRequest(String fileId,
+                                                  long start,
+                                                  long length) {
+        return B2DownloadByIdRequest
+                .builder(fileId)
+                .setRange(B2ByteRange.between(start, start + length - 1))
+                .build();
+    }
+
+    /**
+     * @return the result of the chunk's future.
+     * @throws B2Exception the chunk's B2Exception if it failed with one, or
+     *                     a B2LocalException if it failed some other way,
+     *                     was cancelled, or we were interrupted.
+     */
+    static <T> T waitForChunk(Future<T> future) throws B2Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new B2LocalException("interrupted", "interrupted while waiting for a chunk: " + e, e);
+        } catch (CancellationException e) {
+            throw new B2LocalException("trouble", "chunk was cancelled: " + e, e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof B2Exception) {
+                throw (B2Exception) cause;
+            } else {
+                throw new B2LocalException("trouble", "exception while downloading a chunk: " + cause, cause);
+            }
+        }
+    }
+}
@@ -20,16 +20,23 @@ public class B2ClientConfig {
     private final String userAgent;
     private final String masterUrl;
     private final B2TestMode testModeOrNull;
+    private final B2PartHedgingPolicy partHedgingPolicyOrNull;
+    private final int maxPrewarmedUploadPartUrls;
 
     private B2ClientConfig(B2AccountAuthorizer accountAuthorizer,
                            String userAgent,
                            String masterUrl,
-                           B2TestMode testModeOrNull) {
+                           B2TestMode testModeOrNull,
+                           B2PartHedgingPolicy partHedgingPolicyOrNull,
+                           int maxPrewarmedUploadPartUrls) {
         B2Preconditions.checkArgument(userAgent != null && userAgent.length() > 0);
+        B2Preconditions.checkArgument(maxPrewarmedUploadPartUrls >= 0, "maxPrewarmedUploadPartUrls must be non-negative.");
         this.accountAuthorizer = accountAuthorizer;
         this.userAgent = userAgent;
         this.masterUrl = masterUrl;
         this.testModeOrNull = testModeOrNull;
+        this.partHedgingPolicyOrNull = partHedgingPolicyOrNull;
+        this.maxPrewarmedUploadPartUrls = maxPrewarmedUploadPartUrls;
     }
 
     public B2AccountAuthorizer getAccountAuthorizer() {
@@ -48,6 +55,22 @@ public class B2ClientConfig {
         return testModeOrNull;
     }
 
+    /**
+     * @return the policy for hedging straggling parts of large files,
+     *         or null if they aren't hedged.
+     */
+    public B2PartHedgingPolicy getPartHedgingPolicyOrNull() {
+        return partHedgingPolicyOrNull;
+    }
+
+    /**
+     * @return the most upload part urls to get in the background as soon as a
+     *         large file is started, or zero if they're only gotten as needed.
+     */
+    public int getMaxPrewarmedUploadPartUrls() {
+        return maxPrewarmedUploadPartUrls;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -56,12 +79,14 @@ public class B2ClientConfig {
         return Objects.equals(getAccountAuthorizer(), that.getAccountAuthorizer()) &&
                 Objects.equals(getUserAgent(), that.getUserAgent()) &&
                 Objects.equals(getMasterUrl(), that.getMasterUrl()) &&
-                getTestModeOrNull() == that.getTestModeOrNull();
+                getTestModeOrNull() == that.getTestModeOrNull() &&
+                Objects.equals(getPartHedgingPolicyOrNull(), that.getPartHedgingPolicyOrNull()) &&
+                getMaxPrewarmedUploadPartUrls() == that.getMaxPrewarmedUploadPartUrls();
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(getAccountAuthorizer(), getUserAgent(), getMasterUrl(), getTestModeOrNull());
+        return Objects.hash(getAccountAuthorizer(), getUserAgent(), getMasterUrl(), getTestModeOrNull(), getPartHedgingPolicyOrNull(), getMaxPrewarmedUploadPartUrls());
     }
 
     public static Builder builder(B2AccountAuthorizer accountAuthorizer, String userAgent) {
@@ -83,6 +108,8 @@ public class B2ClientConfig {
         private final String userAgent;
         private String masterUrl;
         private B2TestMode testModeOrNull;
+        private B2PartHedgingPolicy partHedgingPolicyOrNull;
+        private int maxPrewarmedUploadPartUrls;
 
         public Builder(B2AccountAuthorizer accountAuthorizer,
                        String userAgent) {
@@ -100,12 +127,35 @@ public class B2ClientConfig {
             return this;
         }
 
+        public Builder setPartHedgingPolicyOrNull(B2PartHedgingPolicy partHedgingPolicyOrNull) {
+            this.partHedgingPolicyOrNull = partHedgingPolicyOrNull;
+            return this;
+        }
+
+        /**
+         * When this is positive, as soon as a large file is started, its upload
+         * part urls are gotten in parallel, in the background, and topped up as
+         * they're used, so the first parts don't each have to wait for one.
+         * The pool is sized to the number of parts in flight, up to this maximum.
+         *
+         * @param maxPrewarmedUploadPartUrls the most upload part urls to keep on
+         *                                   hand for a large file.  defaults to
+         *                                   zero, which turns this off.
+         * @return this builder.
+         */
+        public Builder setMaxPrewarmedUploadPartUrls(int maxPrewarmedUploadPartUrls) {
+            this.maxPrewarmedUploadPartUrls = maxPrewarmedUploadPartUrls;
+            return this;
+        }
+
         public B2ClientConfig build() {
             return new B2ClientConfig(
                     accountAuthorizer,
                     userAgent,
                     masterUrl,
-                    testModeOrNull);
+                    testModeOrNull,
+                    partHedgingPolicyOrNull,
+                    maxPrewarmedUploadPartUrls);
         }
     }
 }
@@ -51,6 +51,13 @@ class B2ContentSourceWithByteProgressListener implements B2ContentSource {
         return new B2InputStreamWithByteProgressListener(inputStream, listener);
     }
 
+    @Override
+    public InputStream createInputStreamOrNull(long start,
+                                               long length) throws IOException {
+        final InputStream inputStream = source.createInputStreamOrNull(start, length);
+        return (inputStream == null) ? null : new B2InputStreamWithByteProgressListener(inputStream, listener);
+    }
+
     @Override
     public String toString() {
         return "B2ContentSourceWithByteProgressListener{" + source + "}";
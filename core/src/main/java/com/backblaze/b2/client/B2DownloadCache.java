@@ -0,0 +1,428 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.contentSources.B2HeadersImpl;
+import com.backblaze.b2.client.exceptions.B2ConnectionBrokenException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.structures.B2DownloadByIdRequest;
+import com.backblaze.b2.util.B2Clock;
+import com.backblaze.b2.util.B2InputStreamExcerpt;
+import com.backblaze.b2.util.B2IoUtils;
+import com.backblaze.b2.util.B2Preconditions;
+import com.backblaze.b2.util.B2Sha1;
+import com.backblaze.b2.util.B2Sha1InputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * B2DownloadCache is a read-through cache of whole files on local disk, in
+ * front of downloadById().  A file's id never refers to different content,
+ * so a cached copy never goes stale.
+ *
+ * Each cached file is one file in the cache directory, named for its fileId.
+ * It has the response headers, then the content, then the SHA-1 of the
+ * content.  The SHA-1 is checked against the response's SHA-1 (if it has
+ * one) when the file is downloaded, and against the stored one every time
+ * the file is read from the cache.  A cached copy that doesn't match is
+ * removed and the file is downloaded again.
+ *
+ * Many processes on the same host can share a cache directory:
+ *   * Files are downloaded to a temporary file in the cache directory and
+ *     then renamed into place, so nobody ever sees part of a cached file.
+ *     If two processes download the same file at once, the last one wins,
+ *     which is fine since the content is the same.
+ *   * When there's more than maxBytes in the cache, the least recently used
+ *     files are deleted.  A file's last-modified time is its last use, so
+ *     all the processes agree.  Deleting a file that another process is
+ *     reading doesn't bother the reader, on operating systems that let you
+ *     delete open files.
+ *
+ * Requests for a range or with a content disposition go straight to the
+ * client; only whole files, with the headers b2 normally sends, are cached.
+ *
+ * THREAD-SAFETY: this class is thread-safe.
+ */
+public class B2DownloadCache {
+    private static final String SUFFIX = ".b2cache";
+    private static final String TEMP_PREFIX = "tmp-";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // the first thing in every cached file.  change it if the format changes.
+    private static final int MAGIC = 0xb2ca0001;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    // temporary files older than this were left behind by a process that died.
+    private static final long ABANDONED_TEMP_FILE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    // fileIds become file names, so we don't allow anything surprising in them.
+    private static final Pattern SAFE_FILE_ID = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final B2StorageClient client;
+    private final File directory;
+    private final long maxBytes;
+
+    // guarded by 'this'.
+    private long hits;
+    private long misses;
+
+    private B2DownloadCache(B2StorageClient client,
+                            File directory,
+                            long maxBytes) {
+        B2Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive.");
+        this.client = client;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public static Builder builder(B2StorageClient client,
+                                  File directory) {
+        return new Builder(client, directory);
+    }
+
+    /**
+     * Just like downloadById(request, handler), but you only have to specify
+     * the fileId instead of a request object.
+     */
+    public void downloadById(String fileId,
+                             B2ContentSink handler) throws B2Exception {
+        downloadById(B2DownloadByIdRequest.builder(fileId).build(), handler);
+    }
+
+    /**
+     * Gives the handler the file from the cache, after downloading it into
+     * the cache if it isn't there yet.
+     *
+     * @param request specifies the file.  if it has a range or a content
+     *                disposition, it's passed straight to the client.
+     * @param handler the handler to give the content to.  just like with the
+     *                client's downloadById(), it may be called more than once;
+     *                for instance, if the cached copy turns out to be corrupt
+     *                after it's started reading it.
+     * @throws B2Exception if there's trouble downloading the file or with
+     *                     the cache, or if the handler throws.
+     */
+    public void downloadById(B2DownloadByIdRequest request,
+                             B2ContentSink handler) throws B2Exception {
+        if (request.getRange() != null || request.getB2ContentDisposition() != null) {
+            client.downloadById(request, handler);
+            return;
+        }
+
+        final String fileId = request.getFileId();
+        if (readFromCache(fileId, handler)) {
+            countHit();
+            return;
+        }
+
+        countMiss();
+        client.downloadById(request, new StoringSink(fileId));
+        evictIfNeeded(fileId);
+        if (!readFromCache(fileId, handler)) {
+            throw new B2LocalException("trouble", "couldn't read " + fileId + " from the cache after downloading it.  " +
+                    "maybe maxBytes is too small?");
+        }
+    }
+
+    /**
+     * @return true iff the file is in the cache right now.
+     */
+    public boolean contains(String fileId) {
+        return fileFor(fileId).exists();
+    }
+
+    /**
+     * Removes the file from the cache, if it's there.
+     */
+    public void remove(String fileId) {
+        //noinspection ResultOfMethodCallIgnored
+        fileFor(fileId).delete();
+    }
+
+    /**
+     * @return the number of downloads that were served from the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of downloads that had to go to the network.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private synchronized void countHit() {
+        hits++;
+    }
+
+    private synchronized void countMiss() {
+        misses++;
+    }
+
+    private File fileFor(String fileId) {
+        B2Preconditions.checkArgument(SAFE_FILE_ID.matcher(fileId).matches(), "can't cache a file with id '" + fileId + "'.");
+        return new File(directory, fileId + SUFFIX);
+    }
+
+    /**
+     * @return true if the handler was given the file from the cache, or false
+     *         if it isn't there or the cached copy was corrupt (and has been
+     *         removed).
+     * @throws B2Exception if the handler throws.
+     */
+    private boolean readFromCache(String fileId,
+                                  B2ContentSink handler) throws B2Exception {
+        final File file = fileFor(fileId);
+        final InputStream fileIn;
+        try {
+            fileIn = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn, COPY_BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a cached file");
+            }
+            final B2Headers headers = readHeaders(in);
+            final long contentLength = in.readLong();
+
+            // it's being used, so it's the most recently used.
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(B2Clock.get().wallClockMillis());
+
+            final B2Sha1InputStream content = new B2Sha1InputStream(new B2InputStreamExcerpt(in, 0, contentLength));
+            B2Exception handlerException = null;
+            try {
+                handler.readContent(headers, content);
+            } catch (B2Exception e) {
+                handlerException = e;
+            } catch (IOException e) {
+                handlerException = new B2LocalException("trouble", "handler had trouble with the cached copy of " + fileId + ": " + e, e);
+            }
+
+            // the handler might not have read it all, but we need to.
+            // if the copy is corrupt, that's probably why the handler
+            // complained, so we drop the copy and let the caller go
+            // download a good one instead of passing the complaint along.
+            B2IoUtils.readToEnd(content);
+            final String storedSha1 = in.readUTF();
+            if (!B2Sha1.equalHexSha1s(storedSha1, content.hexDigest())) {
+                throw new IOException("sha1 mismatch");
+            }
+            if (handlerException != null) {
+                throw handlerException;
+            }
+            return true;
+        } catch (IOException e) {
+            // it's corrupt or truncated.  get rid of it and go get a good copy.
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return false;
+        }
+    }
+
+    private static B2Headers readHeaders(DataInputStream in) throws IOException {
+        final B2HeadersImpl.Builder builder = B2HeadersImpl.builder();
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            final String name = in.readUTF();
+            final String value = in.readUTF();
+            builder.set(name, value);
+        }
+        return builder.build();
+    }
+
+    private static void writeHeaders(DataOutputStream out,
+                                     B2Headers headers) throws IOException {
+        out.writeInt(headers.getNames().size());
+        for (String name : headers.getNames()) {
+            out.writeUTF(name);
+            out.writeUTF(headers.getValueOrNull(name));
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until there are no more than
+     * maxBytes in the cache.  It never deletes the given file, which was
+     * just added.  Along the way, it cleans up abandoned temporary files.
+     */
+    private void evictIfNeeded(String fileIdToKeep) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        final long now = B2Clock.get().wallClockMillis();
+        final File toKeep = fileFor(fileIdToKeep);
+        final List<File> entries = new ArrayList<>();
+
+        // other processes are touching these files, so we grab each time once
+        // to keep the sort consistent.
+        final Map<File, Long> lastUsed = new HashMap<>();
+        long totalBytes = 0;
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(SUFFIX)) {
+                entries.add(file);
+                lastUsed.put(file, file.lastModified());
+                totalBytes += file.length();
+            } else if (name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX) &&
+                    file.lastModified() < now - ABANDONED_TEMP_FILE_MILLIS) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+
+        entries.sort(Comparator.comparing(lastUsed::get));
+        for (File file : entries) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            if (file.equals(toKeep)) {
+                continue;
+            }
+            final long length = file.length();
+            if (file.delete()) {
+                totalBytes -= length;
+            }
+        }
+    }
+
+    /**
+     * StoringSink writes a downloaded file into the cache.  The file is only
+     * renamed into place once all of it has been written and checked.
+     */
+    private class StoringSink implements B2ContentSink {
+        private final String fileId;
+
+        StoringSink(String fileId) {
+            this.fileId = fileId;
+        }
+
+        @Override
+        public void readContent(B2Headers responseHeaders,
+                                InputStream in) throws B2Exception {
+            Path tempPath = null;
+            boolean published = false;
+            try {
+                Files.createDirectories(directory.toPath());
+                tempPath = Files.createTempFile(directory.toPath(), TEMP_PREFIX, TEMP_SUFFIX);
+
+                final long contentLength = responseHeaders.getContentLength();
+                try (FileOutputStream fileOut = new FileOutputStream(tempPath.toFile());
+                     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, COPY_BUFFER_SIZE))) {
+                    out.writeInt(MAGIC);
+                    writeHeaders(out, responseHeaders);
+                    out.writeLong(contentLength);
+
+                    final B2Sha1InputStream sha1In = new B2Sha1InputStream(in);
+                    final long bytesCopied = copy(sha1In, out);
+                    if (bytesCopied != contentLength) {
+                        throw new B2ConnectionBrokenException("read_failed", null, "expected " + contentLength +
+                                " bytes, but got " + bytesCopied);
+                    }
+
+                    final String actualSha1 = sha1In.hexDigest();
+                    final String expectedSha1OrNull = responseHeaders.getWholeFileSha1OrNull();
+                    if (expectedSha1OrNull != null && !B2Sha1.equalHexSha1s(expectedSha1OrNull, actualSha1)) {
+                        throw new B2LocalException("mismatch", "sha1 mismatch from network.  expected " +
+                                expectedSha1OrNull + ", but got " + actualSha1);
+                    }
+                    out.writeUTF(actualSha1);
+
+                    out.flush();
+                    fileOut.getFD().sync();
+                }
+
+                Files.move(tempPath, fileFor(fileId).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                published = true;
+            } catch (IOException e) {
+                throw new B2LocalException("write_failed", "failed to add " + fileId + " to the cache: " + e.getMessage(), e);
+            } finally {
+                if (tempPath != null && !published) {
+                    //noinspection ResultOfMethodCallIgnored
+                    tempPath.toFile().delete();
+                }
+            }
+        }
+
+        private long copy(InputStream in,
+                          OutputStream out) throws B2Exception {
+            final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long bytesCopied = 0;
+            while (true) {
+                final int nRead;
+                try {
+                    nRead = in.read(buffer);
+                } catch (IOException e) {
+                    throw new B2ConnectionBrokenException("read_failed", null, "read failed: " + e.getMessage(), e);
+                }
+                if (nRead < 0) {
+                    return bytesCopied;
+                }
+
+                try {
+                    out.write(buffer, 0, nRead);
+                } catch (IOException e) {
+                    throw new B2LocalException("write_failed", "write failed: " + e.getMessage(), e);
+                }
+                bytesCopied += nRead;
+            }
+        }
+    }
+
+    public static class Builder {
+        private final B2StorageClient client;
+        private final File directory;
+        private long maxBytes = 10L * 1024 * 1024 * 1024;
+
+        Builder(B2StorageClient client,
+                File directory) {
+            this.client = client;
+            this.directory = directory;
+        }
+
+        /**
+         * @param maxBytes how many bytes of cached files to keep, across all the
+         *                 processes using the directory.  the cache can go over
+         *                 this while files are being added.  defaults to 10 GB.
+         * @return this builder.
+         */
+        public Builder setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public B2DownloadCache build() {
+            return new B2DownloadCache(client, directory, maxBytes);
+        }
+    }
+}
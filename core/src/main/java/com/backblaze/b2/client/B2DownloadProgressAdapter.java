@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.structures.B2DownloadListener;
+import com.backblaze.b2.client.structures.B2DownloadProgress;
+import com.backblaze.b2.client.structures.B2DownloadState;
+import com.backblaze.b2.util.B2ByteProgressListener;
+import com.backblaze.b2.util.B2Clock;
+
+/**
+ * B2DownloadProgressAdapter turns byte-level updates into B2DownloadProgress
+ * updates and notifies the given B2DownloadListener.
+ *
+ * It measures the rate from when it was constructed, so make a new one for
+ * each attempt.  It's usually behind a B2ByteProgressFilteringListener, so
+ * it only notifies the listener every few seconds.  To keep the time since
+ * the last byte current between updates, give the stream the listener from
+ * trackingBytes() and call started(), so the download listener can ask for
+ * the progress whenever it likes.
+ *
+ * Byte-level updates say when a stream reaches its end, but only the code
+ * using the stream knows whether the download succeeded, so it calls
+ * succeeded() itself.
+ *
+ * THREAD-SAFETY: the byte-level updates must only be made from one thread
+ *                at a time, but getProgress() may be called from any thread.
+ *                the state is guarded by 'this'.
+ */
+class B2DownloadProgressAdapter implements B2ByteProgressListener {
+    private final B2DownloadListener downloadListener;
+    private final B2Clock clock;
+    private final long startByte;
+    private long length;
+
+    private final long startMillis;
+    private long lastByteMillis;
+    private long lastBytesSoFar;
+    private B2DownloadState lastState = B2DownloadState.DOWNLOADING;
+    private boolean reportedFailure;
+
+    /**
+     * @param downloadListener the listener to notify
+     * @param clock the clock to measure the rate with.
+     * @param startByte at which byte of the file does the content being downloaded start?
+     * @param length how many bytes are expected?  -1 if we don't know yet.
+     */
+    B2DownloadProgressAdapter(B2DownloadListener downloadListener,
+                              B2Clock clock,
+                              long startByte,
+                              long length) {
+        this.downloadListener = downloadListener;
+        this.clock = clock;
+        this.startByte = startByte;
+        this.length = length;
+        this.startMillis = clock.monotonicMillis();
+        this.lastByteMillis = startMillis;
+    }
+
+    /**
+     * @param length how many bytes are expected, once we know.
+     */
+    synchronized void setLength(long length) {
+        this.length = length;
+    }
+
+    @Override
+    public void progress(long nBytesSoFar) {
+        notify(nBytesSoFar, B2DownloadState.DOWNLOADING);
+    }
+
+    @Override
+    public void hitException(Exception e,
+                             long nBytesSoFar) {
+        synchronized (this) {
+            reportedFailure = true;
+        }
+        notify(nBytesSoFar, B2DownloadState.FAILED);
+    }
+
+    /**
+     * @return true iff hitException() has been called, such as by the stream
+     *         when a read failed.
+     */
+    synchronized boolean hasReportedFailure() {
+        return reportedFailure;
+    }
+
+    @Override
+    public void reachedEof(long nBytesSoFar) {
+        notify(nBytesSoFar, B2DownloadState.DOWNLOADING);
+    }
+
+    /**
+     * Called after whatever was consuming the content has finished with it successfully.
+     */
+    void succeeded(long nBytesSoFar) {
+        notify(nBytesSoFar, B2DownloadState.SUCCEEDED);
+    }
+
+    /**
+     * Tells the download listener that this attempt has started, and gives
+     * it a way to ask for the progress at any time.
+     */
+    void started() {
+        downloadListener.started(this::getProgress);
+    }
+
+    /**
+     * @param next the listener to pass every update along to.  usually a
+     *             B2ByteProgressFilteringListener wrapped around this adapter.
+     * @return a listener which notes every byte count, so that getProgress()
+     *         knows when the last byte arrived, and then passes it along.
+     */
+    B2ByteProgressListener trackingBytes(B2ByteProgressListener next) {
+        return new B2ByteProgressListener() {
+            @Override
+            public void progress(long nBytesSoFar) {
+                track(nBytesSoFar, clock.monotonicMillis());
+                next.progress(nBytesSoFar);
+            }
+
+            @Override
+            public void hitException(Exception e,
+                                     long nBytesSoFar) {
+                track(nBytesSoFar, clock.monotonicMillis());
+                next.hitException(e, nBytesSoFar);
+            }
+
+            @Override
+            public void reachedEof(long nBytesSoFar) {
+                track(nBytesSoFar, clock.monotonicMillis());
+                next.reachedEof(nBytesSoFar);
+            }
+        };
+    }
+
+    /**
+     * @return the progress as of now, using the most recent byte count
+     *         and state we've heard about.
+     */
+    synchronized B2DownloadProgress getProgress() {
+        return makeProgress(clock.monotonicMillis());
+    }
+
+    private void notify(long nBytesSoFar,
+                        B2DownloadState state) {
+        final B2DownloadProgress progress;
+        synchronized (this) {
+            final long nowMillis = clock.monotonicMillis();
+            track(nBytesSoFar, nowMillis);
+            lastState = state;
+            progress = makeProgress(nowMillis);
+        }
+
+        // not while synchronized, in case the listener calls getProgress() from another thread.
+        downloadListener.progress(progress);
+    }
+
+    private synchronized void track(long nBytesSoFar,
+                                    long nowMillis) {
+        if (nBytesSoFar > lastBytesSoFar) {
+            lastByteMillis = nowMillis;
+        }
+        lastBytesSoFar = nBytesSoFar;
+    }
+
+    // must be called while synchronized.
+    private B2DownloadProgress makeProgress(long nowMillis) {
+        // avoid dividing by zero when the first update comes right away.
+        final long elapsedMillis = Math.max(1, nowMillis - startMillis);
+        final double bytesPerSecond = (lastBytesSoFar * 1000.0) / elapsedMillis;
+
+        return new B2DownloadProgress(
+                startByte,
+                length,
+                lastBytesSoFar,
+                lastState,
+                bytesPerSecond,
+                nowMillis - lastByteMillis
+        );
+    }
+}
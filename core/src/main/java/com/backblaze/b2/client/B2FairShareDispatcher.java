@@ -0,0 +1,276 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.util.B2Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * B2FairShareDispatcher hands tasks from many "lanes" to a single executor,
+ * running at most maxTasksInFlight of them at a time.
+ *
+ * Each lane belongs to a tenant, and each tenant has a weight.  When there's
+ * room for another task, we pick the tenant that has received the least
+ * service relative to its weight (stride scheduling), and then the next lane
+ * of that tenant in round-robin order, so the lanes of one tenant take turns.
+ * A tenant that was idle doesn't get to "bank" service it didn't use; when it
+ * becomes busy again, it starts even with the busiest tenants.
+ *
+ * Each lane looks like an ExecutorService, so it can be handed to code that
+ * expects one, such as B2LargeFileUploader.  Shutting a lane down stops
+ * it from accepting new tasks; tasks that are already waiting still run,
+ * unless it's shut down with shutdownNow(), which takes them back.  Tasks
+ * that are running are never interrupted.
+ *
+ * THREAD-SAFETY: this class is thread-safe.  all of its state, and the state
+ *                of its lanes, is protected by synchronized(this).
+ */
+class B2FairShareDispatcher {
+    private final ExecutorService executor;
+    private final int maxTasksInFlight;
+
+    // the weights tenants were given.  tenants that aren't here have weight 1.
+    private final Map<String, Integer> weights;
+
+    // every tenant that has had a lane, by name.  a tenant is "busy" when
+    // some of its lanes have tasks waiting to run.
+    private final Map<String, Tenant> tenants = new TreeMap<>();
+
+    // the "pass" of the most recently picked tenant.  a tenant that becomes busy
+    // starts here if it's behind.
+    private double virtualTime;
+
+    private int tasksInFlight;
+
+    B2FairShareDispatcher(ExecutorService executor,
+                          int maxTasksInFlight,
+                          Map<String, Integer> weights) {
+        B2Preconditions.checkArgument(maxTasksInFlight > 0, "maxTasksInFlight must be positive.");
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            B2Preconditions.checkArgument(entry.getValue() > 0, "weight for tenant '" + entry.getKey() + "' must be positive.");
+        }
+        this.executor = executor;
+        this.maxTasksInFlight = maxTasksInFlight;
+        this.weights = new TreeMap<>(weights);
+    }
+
+    /**
+     * @param tenant the name of the tenant the new lane's tasks belong to.
+     * @return a new lane for the given tenant.
+     */
+    ExecutorService newLane(String tenant) {
+        return new Lane(tenant);
+    }
+
+    synchronized int getTasksInFlight() {
+        return tasksInFlight;
+    }
+
+    private synchronized void enqueue(Lane lane,
+                                      Runnable task) {
+        if (lane.isShutdown) {
+            throw new RejectedExecutionException("can't add tasks to a lane that's been shut down.");
+        }
+        lane.tasks.addLast(task);
+        if (lane.tasks.size() == 1) {
+            final Tenant tenant = tenants.computeIfAbsent(lane.tenant, name -> new Tenant(weights.getOrDefault(name, 1)));
+            if (tenant.lanes.isEmpty()) {
+                tenant.pass = Math.max(tenant.pass, virtualTime);
+            }
+            tenant.lanes.addLast(lane);
+        }
+        dispatch();
+    }
+
+    private synchronized void taskFinished(Lane lane) {
+        tasksInFlight--;
+        lane.tasksRunning--;
+        notifyAll();
+        dispatch();
+    }
+
+    private synchronized List<Runnable> drain(Lane lane) {
+        lane.isShutdown = true;
+        final List<Runnable> drained = new ArrayList<>(lane.tasks);
+        lane.tasks.clear();
+        final Tenant tenant = tenants.get(lane.tenant);
+        if (tenant != null) {
+            tenant.lanes.remove(lane);
+        }
+        notifyAll();
+        return drained;
+    }
+
+    private synchronized void dispatch() {
+        while (tasksInFlight < maxTasksInFlight) {
+            // pick the busy tenant that's furthest behind.  ties go to the first by name.
+            Tenant picked = null;
+            for (Tenant tenant : tenants.values()) {
+                if (!tenant.lanes.isEmpty() && (picked == null || tenant.pass < picked.pass)) {
+                    picked = tenant;
+                }
+            }
+            if (picked == null) {
+                return;
+            }
+            virtualTime = picked.pass;
+            picked.pass += 1.0 / picked.weight;
+
+            // take the next task from the tenant's next lane and send the lane
+            // to the back of the line if it has more.
+            final Lane lane = picked.lanes.removeFirst();
+            final Runnable task = lane.tasks.removeFirst();
+            if (!lane.tasks.isEmpty()) {
+                picked.lanes.addLast(lane);
+            }
+
+            tasksInFlight++;
+            lane.tasksRunning++;
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        taskFinished(lane);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the executor wouldn't take it, so the task will never run.
+                // fail it, so whoever is waiting for it finds out, and keep
+                // going.  the caller that got us here may be enqueuing a task
+                // for some other lane or finishing one, so it's not theirs
+                // to hear about.
+                tasksInFlight--;
+                lane.tasksRunning--;
+                if (task instanceof LaneTask) {
+                    ((LaneTask<?>) task).reject(e);
+                } else if (task instanceof Future) {
+                    ((Future<?>) task).cancel(false);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private static class Tenant {
+        private final int weight;
+        private double pass;
+
+        // the tenant's lanes that have tasks waiting, in the order they'll be served.
+        private final Deque<Lane> lanes = new ArrayDeque<>();
+
+        Tenant(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private class Lane extends AbstractExecutorService {
+        private final String tenant;
+
+        // the tasks waiting to run, and how many of the lane's tasks have been
+        // handed to the executor and haven't finished.  protected by
+        // synchronized(B2FairShareDispatcher.this).
+        private final Deque<Runnable> tasks = new ArrayDeque<>();
+        private int tasksRunning;
+        private boolean isShutdown;
+
+        Lane(String tenant) {
+            this.tenant = tenant;
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Runnable runnable,
+                                                   T value) {
+            return new LaneTask<>(Executors.callable(runnable, value));
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            return new LaneTask<>(callable);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            enqueue(this, command);
+        }
+
+        @Override
+        public void shutdown() {
+            synchronized (B2FairShareDispatcher.this) {
+                isShutdown = true;
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            // the tasks that are running are left alone.
+            return drain(this);
+        }
+
+        @Override
+        public boolean isShutdown() {
+            synchronized (B2FairShareDispatcher.this) {
+                return isShutdown;
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            synchronized (B2FairShareDispatcher.this) {
+                return isTerminatedWhileSynchronized();
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout,
+                                        TimeUnit unit) throws InterruptedException {
+            final long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (B2FairShareDispatcher.this) {
+                while (!isTerminatedWhileSynchronized()) {
+                    final long remainingNanos = deadlineNanos - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(B2FairShareDispatcher.this, remainingNanos);
+                }
+                return true;
+            }
+        }
+
+        // must be called while synchronized.
+        private boolean isTerminatedWhileSynchronized() {
+            return isShutdown && tasks.isEmpty() && tasksRunning == 0;
+        }
+    }
+
+    /**
+     * LaneTask is the future a lane makes for a submitted task.  It can be
+     * failed from outside when the executor won't run it.
+     */
+    private static class LaneTask<T> extends FutureTask<T> {
+        LaneTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        void reject(RejectedExecutionException e) {
+            setException(e);
+        }
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.structures.B2Part;
+import com.backblaze.b2.util.B2IoUtils;
+import com.backblaze.b2.util.B2Preconditions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * B2LargeFileJournal is an append-only local file that records the progress
+ * of uploading one local source as a large file, so that a process which
+ * crashed can resume the upload without listing the parts on the server and
+ * without guessing whether the source has changed since.
+ *
+ * Use one journal file per local source, (for instance, next to the source
+ * or named after it) and pass the journal to B2StorageClient.uploadLargeFile().
+ * That records which fileId belongs to the source, and then one entry after
+ * each part is uploaded successfully.
+ *
+ * Each entry is one line of tab-separated fields:
+ *
+ *   start  fileId  srcLastModifiedMillis  srcLength  partSize
+ *   part   fileId  partNumber  sha1  offset  length  srcLastModifiedMillis  srcLength
+ *
+ * partSize is the size of every part except the last one, so that resuming
+ * picks the same parts even if we'd pick a different size now.
+ *
+ * srcLastModifiedMillis is "-" when the source doesn't know it.  (tabs and
+ * newlines can't appear in any of the fields.)  Each entry is forced to disk
+ * before we go on.  If we crash while appending, the last line may be
+ * incomplete; it doesn't end with a newline, so we ignore it when reading.
+ *
+ * If there's more than one "start" entry, the last one is the current upload.
+ * Parts are only used for resuming if they're for that upload and the source's
+ * lastModified and length are the same now as when the part was uploaded.
+ *
+ * THREAD-SAFETY: this class is thread-safe.  all of its state is protected
+ *                by synchronized(this).
+ */
+public class B2LargeFileJournal implements Closeable {
+    private static final String START = "start";
+    private static final String PART = "part";
+    private static final String NO_MILLIS = "-";
+
+    private final File file;
+    private final FileChannel channel;
+
+    // the most recent start entry, or null if there isn't one.
+    private Start currentStartOrNull;
+
+    // the parts for the current start, by part number.
+    private final Map<Integer, Part> currentParts = new TreeMap<>();
+
+    private B2LargeFileJournal(File file,
+                               FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the journal, reading any entries it already has.  It will
+     * be created if it doesn't exist yet.
+     *
+     * @param file the journal file.
+     * @return the opened journal.
+     * @throws B2Exception if there's trouble reading or opening the journal.
+     */
+    public static B2LargeFileJournal open(File file) throws B2Exception {
+        final byte[] existing = file.exists() ? readAll(file) : new byte[0];
+
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new B2LocalException("write_failed", "failed to open journal " + file + ": " + e, e);
+        }
+
+        // if we crashed while appending, drop the incomplete entry, so that
+        // the next entry starts on a line of its own.
+        final int completeLength = lengthOfCompleteLines(existing);
+        if (completeLength < existing.length) {
+            try {
+                channel.truncate(completeLength);
+                channel.force(true);
+            } catch (IOException e) {
+                B2IoUtils.closeQuietly(channel);
+                throw new B2LocalException("write_failed", "failed to truncate incomplete entry from journal " + file + ": " + e, e);
+            }
+        }
+
+        final B2LargeFileJournal journal = new B2LargeFileJournal(file, channel);
+        journal.replay(existing);
+        return journal;
+    }
+
+    /**
+     * @return the fileId of the large file the journal's current upload is for,
+     *         or null if the journal doesn't have one yet.
+     */
+    public synchronized String getLargeFileIdOrNull() {
+        return (currentStartOrNull == null) ? null : currentStartOrNull.fileId;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @param srcLastModifiedMillisOrNull the source's lastModified now.
+     * @param srcLength the source's length now.
+     * @return the fileId of the current upload, if the source is the same now as
+     *         when the upload was started.  otherwise, null.
+     */
+    synchronized String getResumableLargeFileIdOrNull(Long srcLastModifiedMillisOrNull,
+                                                      long srcLength) {
+        if (currentStartOrNull == null ||
+                !currentStartOrNull.isForSource(srcLastModifiedMillisOrNull, srcLength)) {
+            return null;
+        }
+        return currentStartOrNull.fileId;
+    }
+
+    /**
+     * @return the size of the current upload's parts (except the last one).
+     * @throws IllegalStateException if there isn't a current upload.
+     */
+    synchronized long getPartSize() {
+        B2Preconditions.checkState(currentStartOrNull != null, "the journal doesn't have a current upload.");
+        return currentStartOrNull.partSize;
+    }
+
+    /**
+     * @param largeFileId the large file being resumed.
+     * @param partSpecs the parts we want the large file to have.
+     * @param srcLastModifiedMillisOrNull the source's lastModified now.
+     * @param srcLength the source's length now.
+     * @return the parts the journal says are already uploaded which exactly
+     *         match one of the partSpecs and the source as it is now.
+     */
+    synchronized Map<B2PartSpec, B2Part> getUploadedParts(String largeFileId,
+                                                          List<B2PartSpec> partSpecs,
+                                                          Long srcLastModifiedMillisOrNull,
+                                                          long srcLength) {
+        final Map<B2PartSpec, B2Part> uploaded = new TreeMap<>();
+        if (!largeFileId.equals(getLargeFileIdOrNull())) {
+            return uploaded;
+        }
+
+        for (B2PartSpec partSpec : partSpecs) {
+            final Part part = currentParts.get(partSpec.getPartNumber());
+            if (part != null &&
+                    part.offset == partSpec.getStart() &&
+                    part.length == partSpec.getLength() &&
+                    part.isForSource(srcLastModifiedMillisOrNull, srcLength)) {
+                uploaded.put(partSpec, new B2Part(largeFileId, part.partNumber, part.length, part.sha1, 0));
+            }
+        }
+        return uploaded;
+    }
+
+    /**
+     * Records that we've started a new large file for the source.
+     * Any parts of earlier uploads will no longer be used.
+     *
+     * @param partSize the size of all of the parts except the last one.
+     */
+    synchronized void started(String largeFileId,
+                              Long srcLastModifiedMillisOrNull,
+                              long srcLength,
+                              long partSize) throws B2Exception {
+        final Start start = new Start(largeFileId, srcLastModifiedMillisOrNull, srcLength, partSize);
+        append(start.toLine());
+        apply(start);
+    }
+
+    /**
+     * Records that a part of the current large file has been uploaded.
+     */
+    synchronized void partSucceeded(String largeFileId,
+                                    B2PartSpec partSpec,
+                                    String sha1,
+                                    Long srcLastModifiedMillisOrNull,
+                                    long srcLength) throws B2Exception {
+        final Part part = new Part(largeFileId,
+                partSpec.getPartNumber(),
+                sha1,
+                partSpec.getStart(),
+                partSpec.getLength(),
+                srcLastModifiedMillisOrNull,
+                srcLength);
+        append(part.toLine());
+        apply(part);
+    }
+
+    private void append(String line) throws B2Exception {
+        final ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            // force the metadata too, since the file's length changed.
+            channel.force(true);
+        } catch (IOException e) {
+            throw new B2LocalException("write_failed", "failed to append to journal " + file + ": " + e, e);
+        }
+    }
+
+    private void replay(byte[] existing) throws B2Exception {
+        final String text = new String(existing, StandardCharsets.UTF_8);
+        int lineStart = 0;
+        int lineNumber = 1;
+        while (true) {
+            final int newline = text.indexOf('\n', lineStart);
+            if (newline < 0) {
+                // anything left over is an entry we didn't finish writing.
+                break;
+            }
+            final String line = text.substring(lineStart, newline);
+            if (!line.isEmpty()) {
+                replayLine(line, lineNumber);
+            }
+            lineStart = newline + 1;
+            lineNumber++;
+        }
+    }
+
+    private void replayLine(String line,
+                            int lineNumber) throws B2Exception {
+        final String[] fields = line.split("\t", -1);
+        try {
+            if (START.equals(fields[0]) && fields.length == 5) {
+                apply(new Start(fields[1], parseMillisOrNull(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+                return;
+            }
+            if (PART.equals(fields[0]) && fields.length == 8) {
+                apply(new Part(fields[1],
+                        Integer.parseInt(fields[2]),
+                        fields[3],
+                        Long.parseLong(fields[4]),
+                        Long.parseLong(fields[5]),
+                        parseMillisOrNull(fields[6]),
+                        Long.parseLong(fields[7])));
+                return;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to complain.
+        }
+        throw new B2LocalException("trouble", "journal " + file + " has an unexpected entry on line " + lineNumber + ": '" + line + "'");
+    }
+
+    private void apply(Start start) {
+        currentStartOrNull = start;
+        currentParts.clear();
+    }
+
+    private void apply(Part part) {
+        if (currentStartOrNull != null && currentStartOrNull.fileId.equals(part.fileId)) {
+            currentParts.put(part.partNumber, part);
+        }
+    }
+
+    // returns the length of the bytes up to and including the last newline.
+    private static int lengthOfCompleteLines(byte[] bytes) {
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static byte[] readAll(File file) throws B2Exception {
+        try (InputStream in = new FileInputStream(file)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            B2IoUtils.copy(in, out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new B2LocalException("read_failed", "failed to read journal " + file + ": " + e, e);
+        }
+    }
+
+    private static Long parseMillisOrNull(String field) {
+        return NO_MILLIS.equals(field) ? null : Long.parseLong(field);
+    }
+
+    private static String formatMillis(Long millisOrNull) {
+        return (millisOrNull == null) ? NO_MILLIS : millisOrNull.toString();
+    }
+
+    private static void checkField(String field) {
+        B2Preconditions.checkArgument(field.indexOf('\t') < 0 && field.indexOf('\n') < 0,
+                "journal fields can't contain tabs or newlines: '" + field + "'");
+    }
+
+    private static class Start {
+        final String fileId;
+        final Long srcLastModifiedMillisOrNull;
+        final long srcLength;
+        final long partSize;
+
+        Start(String fileId,
+              Long srcLastModifiedMillisOrNull,
+              long srcLength,
+              long partSize) {
+            checkField(fileId);
+            this.fileId = fileId;
+            this.srcLastModifiedMillisOrNull = srcLastModifiedMillisOrNull;
+            this.srcLength = srcLength;
+            this.partSize = partSize;
+        }
+
+        boolean isForSource(Long srcLastModifiedMillisOrNull,
+                            long srcLength) {
+            return Objects.equals(this.srcLastModifiedMillisOrNull, srcLastModifiedMillisOrNull) &&
+                    this.srcLength == srcLength;
+        }
+
+        String toLine() {
+            return START + "\t" + fileId + "\t" + formatMillis(srcLastModifiedMillisOrNull) + "\t" + srcLength + "\t" + partSize;
+        }
+    }
+
+    private static class Part {
+        final String fileId;
+        final int partNumber;
+        final String sha1;
+        final long offset;
+        final long length;
+        final Long srcLastModifiedMillisOrNull;
+        final long srcLength;
+
+        Part(String fileId,
+             int partNumber,
+             String sha1,
+             long offset,
+             long length,
+             Long srcLastModifiedMillisOrNull,
+             long srcLength) {
+            checkField(fileId);
+            checkField(sha1);
+            this.fileId = fileId;
+            this.partNumber = partNumber;
+            this.sha1 = sha1;
+            this.offset = offset;
+            this.length = length;
+            this.srcLastModifiedMillisOrNull = srcLastModifiedMillisOrNull;
+            this.srcLength = srcLength;
+        }
+
+        boolean isForSource(Long srcLastModifiedMillisOrNull,
+                            long srcLength) {
+            return Objects.equals(this.srcLastModifiedMillisOrNull, srcLastModifiedMillisOrNull) &&
+                    this.srcLength == srcLength;
+        }
+
+        String toLine() {
+            return PART + "\t" + fileId + "\t" + partNumber + "\t" + sha1 + "\t" + offset + "\t" + length + "\t" +
+                    formatMillis(srcLastModifiedMillisOrNull) + "\t" + srcLength;
+        }
+    }
+}
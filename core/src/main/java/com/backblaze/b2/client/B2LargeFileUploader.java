@@ -9,16 +9,17 @@ import com.backblaze.b2.client.contentSources.B2ContentTypes;
 import com.backblaze.b2.client.contentSources.B2Headers;
 import com.backblaze.b2.client.exceptions.B2Exception;
 import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.exceptions.B2NotFoundException;
 import com.backblaze.b2.client.structures.B2FileVersion;
 import com.backblaze.b2.client.structures.B2FinishLargeFileRequest;
+import com.backblaze.b2.client.structures.B2GetFileInfoRequest;
 import com.backblaze.b2.client.structures.B2Part;
 import com.backblaze.b2.client.structures.B2StartLargeFileRequest;
 import com.backblaze.b2.client.structures.B2UploadFileRequest;
 import com.backblaze.b2.client.structures.B2UploadListener;
-import com.backblaze.b2.client.structures.B2UploadPartRequest;
-import com.backblaze.b2.client.structures.B2UploadPartUrlResponse;
+import com.backblaze.b2.client.structures.B2UploadProgress;
 import com.backblaze.b2.client.structures.B2UploadState;
-import com.backblaze.b2.util.B2ByteProgressListener;
+import com.backblaze.b2.util.B2Clock;
 import com.backblaze.b2.util.B2Collections;
 import com.backblaze.b2.util.B2Preconditions;
 
@@ -28,10 +29,16 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 class B2LargeFileUploader {
@@ -43,6 +50,10 @@ class B2LargeFileUploader {
     private final B2PartSizes partSizes;
     private final B2UploadFileRequest request;
     private final long contentLength;
+    private final int maxPartsInFlight;
+    private final B2PartHedgingPolicy hedgingPolicyOrNull;
+    private final int maxPrewarmedPartUrls;
+    private final B2LargeFileJournal journalOrNull;
 
     B2LargeFileUploader(B2Retryer retryer,
                         B2StorageClientWebifier webifier,
@@ -51,7 +62,13 @@ class B2LargeFileUploader {
                         ExecutorService executor,
                         B2PartSizes partSizes,
                         B2UploadFileRequest request,
-                        long contentLength) {
+                        long contentLength,
+                        int maxPartsInFlight,
+                        B2PartHedgingPolicy hedgingPolicyOrNull,
+                        int maxPrewarmedPartUrls,
+                        B2LargeFileJournal journalOrNull) {
+        B2Preconditions.checkArgument(maxPartsInFlight > 0, "maxPartsInFlight must be positive.");
+
         this.retryer = retryer;
         this.webifier = webifier;
         this.accountAuthCache = accountAuthCache;
@@ -61,6 +78,10 @@ class B2LargeFileUploader {
 
         this.request = request;
         this.contentLength = contentLength;
+        this.maxPartsInFlight = maxPartsInFlight;
+        this.hedgingPolicyOrNull = hedgingPolicyOrNull;
+        this.maxPrewarmedPartUrls = maxPrewarmedPartUrls;
+        this.journalOrNull = journalOrNull;
     }
 
     B2FileVersion uploadLargeFile() throws B2Exception {
@@ -73,10 +94,58 @@ class B2LargeFileUploader {
                 retryPolicySupplier.get()
         );
 
+        if (journalOrNull != null) {
+            journalOrNull.started(largeFileVersion.getFileId(),
+                    getSrcLastModifiedMillisOrNull(),
+                    contentLength,
+                    allPartSpecs.get(0).getLength());
+        }
+
         final Map<B2PartSpec, B2Part> uploadedAlready = B2Collections.mapOf();
         return uploadPartsAndFinish(largeFileVersion, allPartSpecs, uploadedAlready);
     }
 
+    /**
+     * If the journal has an upload of this source, and the source hasn't changed
+     * since, this finishes it, using the parts the journal says are already
+     * uploaded.  There's no need to list the parts on the server.
+     *
+     * Otherwise, it uploads the file from scratch, recording it in the journal.
+     * Note that if there was an earlier upload which can't be used anymore,
+     * it is not cancelled here.
+     */
+    B2FileVersion uploadOrResumeLargeFile() throws B2Exception {
+        B2Preconditions.checkState(journalOrNull != null, "there must be a journal to resume from.");
+
+        final Long srcLastModifiedMillisOrNull = getSrcLastModifiedMillisOrNull();
+        final String largeFileId = journalOrNull.getResumableLargeFileIdOrNull(srcLastModifiedMillisOrNull, contentLength);
+        if (largeFileId == null) {
+            return uploadLargeFile();
+        }
+
+        final B2FileVersion largeFileVersion;
+        try {
+            largeFileVersion = retryer.doRetry("b2_get_file_info",
+                    accountAuthCache,
+                    () -> webifier.getFileInfo(accountAuthCache.get(), B2GetFileInfoRequest.builder(largeFileId).build()),
+                    retryPolicySupplier.get());
+        } catch (B2NotFoundException e) {
+            // it's been cancelled (or finished by someone else?).  either way, start over.
+            return uploadLargeFile();
+        }
+        if (!largeFileVersion.isStart()) {
+            return uploadLargeFile();
+        }
+        throwIfLargeFileVersionDoesntSeemToMatchRequest(largeFileVersion, contentLength, request);
+
+        final List<B2PartSpec> allPartSpecs = pickPartsForResuming(journalOrNull.getPartSize());
+        final Map<B2PartSpec, B2Part> uploadedAlready = journalOrNull.getUploadedParts(largeFileId,
+                allPartSpecs,
+                srcLastModifiedMillisOrNull,
+                contentLength);
+        return uploadPartsAndFinish(largeFileVersion, allPartSpecs, uploadedAlready);
+    }
+
     B2FileVersion finishUploadingLargeFile(B2FileVersion largeFileVersion,
                                            List<B2Part> alreadyUploadedParts) throws B2Exception {
         throwIfLargeFileVersionDoesntSeemToMatchRequest(largeFileVersion, contentLength, request);
@@ -84,15 +153,16 @@ class B2LargeFileUploader {
         // sort the alreadyUploadedParts so it's easy to walk through them in order.
         alreadyUploadedParts.sort(Comparator.comparingInt(B2Part::getPartNumber));
 
-        // we could use the part#1's size as the recommendedPartSize,
-        // but sometimes we won't have part#1, so we could pick the lowest-numbered part's size
-        // or the most common size, or we could just compute from scratch...
-        final List<B2PartSpec> allPartSpecs = partSizes.pickParts(contentLength);
+        // use part#1's size to pick the same parts as when the upload was started,
+        // even if we'd pick a different size now.  if we don't have part#1, we
+        // compute from scratch.
+        final Long firstPartSizeOrNull = (!alreadyUploadedParts.isEmpty() && alreadyUploadedParts.get(0).getPartNumber() == 1) ?
+                alreadyUploadedParts.get(0).getContentLength() :
+                null;
+        final List<B2PartSpec> allPartSpecs = pickPartsForResuming(firstPartSizeOrNull);
 
         // figure out which parts that have already been uploaded that we can use.
-        // note that if the recommended part size has changed, we will end up
-        // reuploading all the parts.  any parts that don't match won't be
-        // used when we finish the file later.
+        // any parts that don't match won't be used when we finish the file later.
         final Map<B2PartSpec, B2Part> alreadyUploadedSpecs = new TreeMap<>();
         {
             int iPartSpec = 0;
@@ -111,6 +181,22 @@ class B2LargeFileUploader {
         return uploadPartsAndFinish(largeFileVersion, allPartSpecs, alreadyUploadedSpecs);
     }
 
+    /**
+     * @param partSizeOrNull the size of the parts (except the last one) the upload
+     *                       was started with, if we know it.
+     * @return the parts the upload was started with, if we know them, otherwise
+     *         the parts we'd pick now.
+     */
+    List<B2PartSpec> pickPartsForResuming(Long partSizeOrNull) {
+        if (partSizeOrNull != null) {
+            final List<B2PartSpec> specs = B2PartSizes.pickPartsOfSizeOrNull(contentLength, partSizeOrNull);
+            if (specs != null) {
+                return specs;
+            }
+        }
+        return partSizes.pickParts(contentLength);
+    }
+
     /**
      * Compares attributes of largeFileVersion with our request.  If they don't seem
      * to represent the same content, it throws a B2Exception.
@@ -160,6 +246,14 @@ class B2LargeFileUploader {
         return builder.toString();
     }
 
+    private Long getSrcLastModifiedMillisOrNull() throws B2Exception {
+        try {
+            return request.getContentSource().getSrcLastModifiedMillisOrNull();
+        } catch (IOException e) {
+            throw new B2LocalException("trouble", "failed to get contentSource's lastModified: " + e, e);
+        }
+    }
+
     private static String getSha1FromRequest(B2UploadFileRequest request) throws B2Exception {
         try {
             return request.getContentSource().getSha1OrNull();
@@ -181,66 +275,169 @@ class B2LargeFileUploader {
     private B2FileVersion uploadPartsAndFinish(B2FileVersion largeFileVersion,
                                                List<B2PartSpec> allPartSpecs,
                                                Map<B2PartSpec, B2Part> uploadedAlready) throws B2Exception {
-        // create a cache for upload part urls.  it's specific to the largeFile, so we don't need
-        // to keep it outside this method.  we could *consider* keeping it in case we had too many
-        // errors and ended up resuming later, but there's a good chance the urls would be bad
-        // and it's ok to not optimize for that failure case.
-
         final B2UploadListener listener = request.getListener();
         final int partCount = allPartSpecs.size();
+        final Long srcLastModifiedMillisOrNull = (journalOrNull == null) ? null : getSrcLastModifiedMillisOrNull();
+
+        // if we're hedging stragglers, a part may be uploaded twice at once,
+        // and the listener should only hear about the attempt that wins.
+        final B2StragglerDetector detectorOrNull = (hedgingPolicyOrNull == null) ? null : new B2StragglerDetector(hedgingPolicyOrNull);
+        final B2UploadListener partListener = (detectorOrNull == null) ? listener : new FirstSuccessListener(listener);
 
-        final B2UploadPartUrlCache uploadPartUrlCache = new B2UploadPartUrlCache(
+        final B2PartUploader partUploader = new B2PartUploader(
+                retryer,
                 webifier,
                 accountAuthCache,
-                largeFileVersion.getFileId());
+                largeFileVersion.getFileId(),
+                partListener,
+                partSizes);
+
+        // parts[i] is the B2Part for allPartSpecs[i], once we have it.
+        final B2Part[] parts = new B2Part[partCount];
+
+        // the indexes of the parts we still need to upload, in order.
+        final List<Integer> toUpload = new ArrayList<>();
+        for (int iPart = 0; iPart < partCount; iPart++) {
+            final B2PartSpec partSpec = allPartSpecs.get(iPart);
+
+            // tell the listener that this part will be waiting to start.
+            listener.progress(B2UploadProgressUtil.forPart(partSpec, partCount, 0, B2UploadState.WAITING_TO_START));
+
+            final B2Part alreadyUploadedPart = uploadedAlready.get(partSpec);
+            if (alreadyUploadedPart == null) {
+                toUpload.add(iPart);
+            } else {
+                // there's nothing to do for this part, so resolve it right here instead of
+                // bothering the executor.  tell the listener about our prior success as soon as we can.
+                parts[iPart] = alreadyUploadedPart;
+                listener.progress(B2UploadProgressUtil.forPartSucceeded(partSpec, partCount));
+            }
+        }
 
-        final List<String> partSha1s = new ArrayList<>();
-        final List<Future<B2Part>> uploadedPartFutures = new ArrayList<>();
+        // keep at most maxPartsInFlight parts submitted to the executor.  each task
+        // puts its attempt on finishedAttempts when it's done, so we can submit
+        // another part as soon as any part finishes, not just the oldest one.
+        // the partSizes get a say in how many of those we actually use, and
+        // they may change their mind as parts finish.
+        //
+        // if we're hedging, a part that's taking much longer than the median
+        // gets a second attempt in hedgesInFlight.  whichever attempt succeeds
+        // first wins and the other one is cancelled.  the part only fails if
+        // both attempts fail.
+        final BlockingQueue<Attempt> finishedAttempts = new LinkedBlockingQueue<>();
+
+        // get the urls for the first parts in parallel, before the parts need them.
+        if (maxPrewarmedPartUrls > 0 && !toUpload.isEmpty()) {
+            final int poolSize = Math.min(maxPrewarmedPartUrls, Math.min(toUpload.size(), partSizes.pickMaxPartsInFlight(maxPartsInFlight)));
+            partUploader.prewarmUrls(poolSize, executor);
+        }
+
+        final Map<Integer, Future<B2Part>> inFlight = new TreeMap<>();
+        final Map<Integer, Future<B2Part>> hedgesInFlight = new TreeMap<>();
+        final Set<Integer> hedgedParts = new TreeSet<>();
+        final Map<Integer, Long> startMillisByPart = new ConcurrentHashMap<>();
         try {
-            // upload parts.
-            for (B2PartSpec partSpec : allPartSpecs) {
-                // tell the listener that this part will be waiting to start.
-                listener.progress(B2UploadProgressUtil.forPart(partSpec, partCount, 0, B2UploadState.WAITING_TO_START));
-
-                final B2Part alreadyUploadedPart = uploadedAlready.get(partSpec);
-                if (alreadyUploadedPart == null) {
-                    // do the upload
-                    uploadedPartFutures.add(executor.submit(() -> uploadOnePart(uploadPartUrlCache, request, partCount, partSpec)));
-                } else {
-                    // tell the listener about our prior success as soon as we can.
-                    listener.progress(B2UploadProgressUtil.forPartSucceeded(partSpec, partCount));
+            int iNextToUpload = 0;
+            while (iNextToUpload < toUpload.size() || !inFlight.isEmpty() || !hedgesInFlight.isEmpty()) {
+                // refill.  a part is in flight as long as either of its attempts is.
+                while (iNextToUpload < toUpload.size() &&
+                        countPartsInFlight(inFlight, hedgesInFlight) < partSizes.pickMaxPartsInFlight(maxPartsInFlight)) {
+                    final int iPart = toUpload.get(iNextToUpload);
+                    iNextToUpload++;
+
+                    inFlight.put(iPart, submitAttempt(new Attempt(iPart, false),
+                            allPartSpecs.get(iPart),
+                            partCount,
+                            partUploader,
+                            largeFileVersion.getFileId(),
+                            srcLastModifiedMillisOrNull,
+                            detectorOrNull,
+                            startMillisByPart,
+                            finishedAttempts));
+                }
 
-                    // shortcut the upload by just returning the previously uploaded B2Part.
-                    // i could change the code to not submit all the tasks, but this is straight-forward,
-                    // so i'll start with this for now.
-                    uploadedPartFutures.add(executor.submit(() -> alreadyUploadedPart));
+                // hedge any stragglers.  this tells us how long we can wait before
+                // the next part becomes a straggler, or null to wait as long as it takes.
+                Long maxWaitMillisOrNull = null;
+                final Long stragglerMillisOrNull = (detectorOrNull == null) ? null : detectorOrNull.getStragglerMillisOrNull();
+                if (stragglerMillisOrNull != null) {
+                    final long nowMillis = B2Clock.get().monotonicMillis();
+                    for (int iPart : inFlight.keySet()) {
+                        if (hedgedParts.contains(iPart)) {
+                            continue;
+                        }
+                        final Long startMillis = startMillisByPart.get(iPart);
+
+                        // if it hasn't started running yet, check again in a while.
+                        final long runningMillis = (startMillis == null) ? 0 : (nowMillis - startMillis);
+                        if (runningMillis < stragglerMillisOrNull) {
+                            final long waitMillis = stragglerMillisOrNull - runningMillis;
+                            maxWaitMillisOrNull = (maxWaitMillisOrNull == null) ? waitMillis : Math.min(maxWaitMillisOrNull, waitMillis);
+                        } else if (hedgesInFlight.size() < detectorOrNull.getMaxHedgesInFlight()) {
+                            hedgedParts.add(iPart);
+                            hedgesInFlight.put(iPart, submitAttempt(new Attempt(iPart, true),
+                                    allPartSpecs.get(iPart),
+                                    partCount,
+                                    partUploader,
+                                    largeFileVersion.getFileId(),
+                                    srcLastModifiedMillisOrNull,
+                                    detectorOrNull,
+                                    startMillisByPart,
+                                    finishedAttempts));
+                        }
+                        // otherwise, it'll get its chance when one of the hedges finishes.
+                    }
+                }
+
+                // wait for any one of them to finish.
+                final Attempt finished = takeFinishedAttempt(finishedAttempts, maxWaitMillisOrNull);
+                if (finished == null) {
+                    // time to look for stragglers again.
+                    continue;
                 }
-            }
 
-            B2Preconditions.checkState(partCount == uploadedPartFutures.size(), "didn't we add a future for every spec?");
-
-            for (Future<B2Part> future : uploadedPartFutures) {
-                try {
-                    partSha1s.add(future.get().getContentSha1());
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new B2LocalException("interrupted", "interrupted while trying to upload parts: " + e, e);
-                } catch (ExecutionException e) {
-                    Throwable cause = e.getCause();
-                    if (cause instanceof B2Exception) {
-                        throw (B2Exception) e.getCause();
-                    } else {
-                        throw new B2LocalException("trouble", "exception while trying to upload parts: " + cause, cause);
+                final Map<Integer, Future<B2Part>> attempts = finished.isHedge ? hedgesInFlight : inFlight;
+                final Map<Integer, Future<B2Part>> otherAttempts = finished.isHedge ? inFlight : hedgesInFlight;
+                final Future<B2Part> future = attempts.remove(finished.iPart);
+                if (future == null) {
+                    // this is the loser of a hedge which we've already cancelled.
+                    B2Preconditions.checkState(hedgedParts.contains(finished.iPart), "part #" + (finished.iPart + 1) + " finished, but it wasn't in flight?");
+                    continue;
+                }
+
+                final Future<B2Part> otherOrNull = otherAttempts.get(finished.iPart);
+                if (otherOrNull == null) {
+                    parts[finished.iPart] = getPart(future);
+                } else {
+                    try {
+                        parts[finished.iPart] = getPart(future);
+                    } catch (B2Exception e) {
+                        // the other attempt still has a chance.
+                        continue;
                     }
+
+                    // the first success wins.
+                    otherAttempts.remove(finished.iPart);
+                    otherOrNull.cancel(true);
                 }
             }
         } finally {
-            // we've either called get() on all of the futures, or we've hit an exception and
-            // we aren't going to wait for the others.  let's call cancel on all of them.
-            // the ones that have finished already, won't mind and the others will be stopped.
-            for (Future<B2Part> future : uploadedPartFutures) {
+            partUploader.stopPrewarmingUrls();
+
+            // we've either gotten all of the parts, or we've hit an exception and
+            // we aren't going to wait for the others.  let's call cancel on the ones
+            // still in flight so they'll be stopped.
+            for (Future<B2Part> future : inFlight.values()) {
                 future.cancel(true);
             }
+            for (Future<B2Part> future : hedgesInFlight.values()) {
+                future.cancel(true);
+            }
+        }
+
+        final List<String> partSha1s = new ArrayList<>();
+        for (B2Part part : parts) {
+            partSha1s.add(part.getContentSha1());
         }
 
         // finish the large file.
@@ -250,44 +447,124 @@ class B2LargeFileUploader {
         return retryer.doRetry("b2_finish_large_file", accountAuthCache, () -> webifier.finishLargeFile(accountAuthCache.get(), finishRequest), new B2DefaultRetryPolicy());
     }
 
-    private B2Part uploadOnePart(B2UploadPartUrlCache uploadPartUrlCache,
-                                 B2UploadFileRequest request,
-                                 int partCount,
-                                 B2PartSpec partSpec) throws B2Exception {
-        return retryer.doRetry("b2_upload_part",
-                accountAuthCache,
-                (isRetry) -> {
-                    final B2ByteProgressListener progressAdapter = new B2UploadProgressAdapter(request.getListener(),
-                            partSpec.getPartNumber() - 1,
-                            partCount,
-                            partSpec.getStart(),
-                            partSpec.getLength());
-                    final B2ByteProgressFilteringListener progressListener = new B2ByteProgressFilteringListener(progressAdapter);
+    private Future<B2Part> submitAttempt(Attempt attempt,
+                                         B2PartSpec partSpec,
+                                         int partCount,
+                                         B2PartUploader partUploader,
+                                         String largeFileId,
+                                         Long srcLastModifiedMillisOrNull,
+                                         B2StragglerDetector detectorOrNull,
+                                         Map<Integer, Long> startMillisByPart,
+                                         BlockingQueue<Attempt> finishedAttempts) {
+        final B2ContentSource partSource = new B2PartOfContentSource(request.getContentSource(), partSpec.start, partSpec.length);
+        return executor.submit(() -> {
+            try {
+                final long startMillis = B2Clock.get().monotonicMillis();
+                if (!attempt.isHedge) {
+                    // stragglers are measured from when their first attempt started running.
+                    startMillisByPart.put(attempt.iPart, startMillis);
+                }
 
-                    try {
-                        final B2UploadPartUrlResponse uploadPartUrlResponse = uploadPartUrlCache.get(isRetry);
+                final B2Part part = partUploader.uploadPart(partCount, partSpec, partSource, attempt.isHedge);
+                if (detectorOrNull != null) {
+                    detectorOrNull.partFinished(B2Clock.get().monotonicMillis() - startMillis);
+                }
+                if (journalOrNull != null) {
+                    journalOrNull.partSucceeded(largeFileId,
+                            partSpec,
+                            part.getContentSha1(),
+                            srcLastModifiedMillisOrNull,
+                            contentLength);
+                }
+                return part;
+            } finally {
+                finishedAttempts.add(attempt);
+            }
+        });
+    }
 
+    private static int countPartsInFlight(Map<Integer, Future<B2Part>> inFlight,
+                                          Map<Integer, Future<B2Part>> hedgesInFlight) {
+        int count = inFlight.size();
+        for (Integer iPart : hedgesInFlight.keySet()) {
+            if (!inFlight.containsKey(iPart)) {
+                count++;
+            }
+        }
+        return count;
+    }
 
-                        request.getListener().progress(B2UploadProgressUtil.forPart(partSpec, partCount, 0, B2UploadState.STARTING));
+    /**
+     * @return the next finished attempt, or null if maxWaitMillisOrNull is
+     *         non-null and nothing finished in that time.
+     */
+    private static Attempt takeFinishedAttempt(BlockingQueue<Attempt> finishedAttempts,
+                                               Long maxWaitMillisOrNull) throws B2LocalException {
+        try {
+            if (maxWaitMillisOrNull == null) {
+                return finishedAttempts.take();
+            }
+            return finishedAttempts.poll(Math.max(1, maxWaitMillisOrNull), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new B2LocalException("interrupted", "interrupted while trying to upload parts: " + e, e);
+        }
+    }
 
+    private static B2Part getPart(Future<B2Part> future) throws B2Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new B2LocalException("interrupted", "interrupted while trying to upload parts: " + e, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof B2Exception) {
+                throw (B2Exception) e.getCause();
+            } else {
+                throw new B2LocalException("trouble", "exception while trying to upload parts: " + cause, cause);
+            }
+        }
+    }
 
-                        B2ContentSource source = new B2PartOfContentSource(request.getContentSource(), partSpec.start, partSpec.length);
-                        source = new B2ContentSourceWithByteProgressListener(source, progressListener);
+    /**
+     * An Attempt identifies one submitted upload of a part.  A part has one
+     * attempt, plus one more if it's hedged.  (Retries happen inside an attempt.)
+     */
+    private static class Attempt {
+        final int iPart;
+        final boolean isHedge;
+
+        Attempt(int iPart,
+                boolean isHedge) {
+            this.iPart = iPart;
+            this.isHedge = isHedge;
+        }
+    }
 
-                        final B2UploadPartRequest partRequest = B2UploadPartRequest
-                                .builder(partSpec.partNumber, source)
-                                .build();
+    /**
+     * When a part is hedged, the hedge only reports its success, but the
+     * original attempt may succeed too, or fail because we cancelled it.
+     * Once either attempt has succeeded, the listener doesn't need to hear
+     * anything else about the part.
+     */
+    private static class FirstSuccessListener implements B2UploadListener {
+        private final B2UploadListener listener;
+        private final Set<Integer> succeededPartIndexes = ConcurrentHashMap.newKeySet();
 
-                        final B2Part part = webifier.uploadPart(uploadPartUrlResponse, partRequest);
-                        uploadPartUrlCache.unget(uploadPartUrlResponse);
+        FirstSuccessListener(B2UploadListener listener) {
+            this.listener = listener;
+        }
 
-                        request.getListener().progress(B2UploadProgressUtil.forPartSucceeded(partSpec, partCount));
-                        return part;
-                    } catch (Exception e) {
-                        request.getListener().progress(B2UploadProgressUtil.forPartFailed(partSpec, partCount, progressListener.getBytesSoFar()));
-                        throw e;
-                    }
-                },
-                new B2DefaultRetryPolicy());
+        @Override
+        public void progress(B2UploadProgress progress) {
+            if (progress.getState() == B2UploadState.SUCCEEDED) {
+                if (succeededPartIndexes.add(progress.getPartIndex())) {
+                    listener.progress(progress);
+                }
+            } else if (!succeededPartIndexes.contains(progress.getPartIndex())) {
+                listener.progress(progress);
+            }
+        }
     }
 }
@@ -5,13 +5,10 @@
 package com.backblaze.b2.client;
 
 import com.backblaze.b2.client.exceptions.B2Exception;
-import com.backblaze.b2.client.structures.B2FileVersion;
 import com.backblaze.b2.client.structures.B2ListFileNamesRequest;
 import com.backblaze.b2.client.structures.B2ListFileNamesResponse;
 import com.backblaze.b2.client.structures.B2ListFilesResponse;
 
-import java.util.Iterator;
-
 public class B2ListFileNamesIterable extends B2ListFilesIterableBase {
     private final B2ListFileNamesRequest request;
 
@@ -46,7 +43,7 @@ public class B2ListFileNamesIterable extends B2ListFilesIterableBase {
     }
 
     @Override
-    Iterator<B2FileVersion> createIter() throws B2Exception {
+    IterBase createIter() throws B2Exception {
         return new Iter();
     }
 }
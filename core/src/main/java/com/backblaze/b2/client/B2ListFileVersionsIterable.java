@@ -5,13 +5,10 @@
 package com.backblaze.b2.client;
 
 import com.backblaze.b2.client.exceptions.B2Exception;
-import com.backblaze.b2.client.structures.B2FileVersion;
 import com.backblaze.b2.client.structures.B2ListFileVersionsRequest;
 import com.backblaze.b2.client.structures.B2ListFileVersionsResponse;
 import com.backblaze.b2.client.structures.B2ListFilesResponse;
 
-import java.util.Iterator;
-
 public class B2ListFileVersionsIterable extends B2ListFilesIterableBase {
     private final B2ListFileVersionsRequest request;
 
@@ -47,7 +44,7 @@ public class B2ListFileVersionsIterable extends B2ListFilesIterableBase {
     }
 
     @Override
-    Iterator<B2FileVersion> createIter() throws B2Exception {
+    IterBase createIter() throws B2Exception {
         return new Iter();
     }
 }
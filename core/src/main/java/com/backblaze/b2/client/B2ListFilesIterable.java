@@ -2,15 +2,81 @@
  * Copyright 2017, Backblaze Inc. All Rights Reserved.
  * License https://www.backblaze.com/using_b2_code.html
  */
-
 package com.backblaze.b2.client;
 
 import com.backblaze.b2.client.structures.B2FileVersion;
 
+import java.util.Spliterator;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * This interface collects the APIs we provide on our B2FileVersion iterables.
- * For now, it's just the Iterable-ness.  Someday, I expect it, or some interfaces
+ * For now, it's mostly the Iterable-ness.  Someday, I expect it, or some interfaces
  * to provide some kind of "get resume point" functionality.
  */
 public interface B2ListFilesIterable extends Iterable<B2FileVersion> {
+
+    /**
+     * Returns an iterable over the same files whose iterators fetch the next
+     * pages of the listing on the executor while you're still working through
+     * the current one, so you don't have to wait for a round trip to the
+     * server every time you get to the end of a page.
+     *
+     * Each iterator fetches the first page before it's returned, just like
+     * the regular iterators, and keeps at most prefetchDepth pages ahead of
+     * the one you're on.  If fetching a page fails, next() throws the same
+     * B2RuntimeException a regular iterator would have when it got to that
+     * page.  An iterator you stop using stops fetching once it's
+     * prefetchDepth pages ahead, so there's nothing to close.
+     *
+     * The default implementation doesn't prefetch; it returns this.
+     *
+     * @param executor the executor to fetch pages with.
+     * @param prefetchDepth how many pages to fetch ahead.  must be positive.
+     * @return an iterable over the same files.
+     */
+    default B2ListFilesIterable prefetching(ExecutorService executor,
+                                            int prefetchDepth) {
+        return this;
+    }
+
+    /**
+     * Returns a spliterator over the files which splits along the pages of
+     * the listing, so a parallel stream works on a page at a time while the
+     * next pages are being fetched.  It waits to hand out another page while
+     * four of the pages it handed out haven't been picked up yet.
+     *
+     * It doesn't create an iterator until it's used.
+     *
+     * @return a spliterator over the files.
+     */
+    @Override
+    default Spliterator<B2FileVersion> spliterator() {
+        return new B2ListFilesSpliterator(this, B2ListFilesSpliterator.DEFAULT_MAX_PAGES_BUFFERED);
+    }
+
+    /**
+     * Returns a sequential stream over the files.  Call parallel() on it to
+     * work on the files in parallel without collecting the whole listing
+     * first.
+     *
+     * @return a stream over the files.
+     */
+    default Stream<B2FileVersion> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Like stream(), but you choose how many pages may be waiting to be
+     * picked up by a thread.  Each page holds up to the request's
+     * maxFileCount files.
+     *
+     * @param maxPagesBuffered how many pages may be waiting.  must be positive.
+     * @return a stream over the files.
+     */
+    default Stream<B2FileVersion> stream(int maxPagesBuffered) {
+        return StreamSupport.stream(new B2ListFilesSpliterator(this, maxPagesBuffered), false);
+    }
 }
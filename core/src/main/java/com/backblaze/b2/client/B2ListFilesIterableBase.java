@@ -5,17 +5,23 @@
 package com.backblaze.b2.client;
 
 import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
 import com.backblaze.b2.client.exceptions.B2RuntimeException;
 import com.backblaze.b2.client.structures.B2FileVersion;
 import com.backblaze.b2.client.structures.B2ListFilesResponse;
 import com.backblaze.b2.util.B2Preconditions;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 public abstract class B2ListFilesIterableBase implements B2ListFilesIterable {
     private final B2StorageClientImpl b2Client;
 
-    protected abstract class IterBase implements Iterator<B2FileVersion> {
+    protected abstract class IterBase implements B2ListFilesPageIterator {
         private int currentIndex;
 
         IterBase() throws B2Exception {
@@ -44,6 +50,24 @@ public abstract class B2ListFilesIterableBase implements B2ListFilesIterable {
             return version;
         }
 
+        @Override
+        public List<B2FileVersion> nextPage() {
+            if (!hasNext()) {
+                throw new IllegalStateException("don't call when hasNext() returns false!");
+            }
+
+            final List<B2FileVersion> files = getCurrentResponseOrNull().getFiles();
+            final List<B2FileVersion> page = files.subList(currentIndex, files.size());
+            currentIndex = files.size();
+            try {
+                advanceIfNeeded();
+            } catch (B2Exception e) {
+                throw new B2RuntimeException("failed to advance iterator: " + e.getMessage(), e);
+            }
+
+            return page;
+        }
+
         private void advanceIfNeeded() throws B2Exception {
             if (hasNext()) {
                 // no need to advance.
@@ -86,6 +110,163 @@ public abstract class B2ListFilesIterableBase implements B2ListFilesIterable {
         abstract protected void advance() throws B2Exception;
     }
 
+    /**
+     * PrefetchingIter yields the same files as an IterBase, but it has an
+     * IterBase fetch the pages on the executor, up to prefetchDepth pages
+     * ahead of the page being iterated over.
+     *
+     * Each page depends on the one before it, so at most one page is being
+     * fetched at a time.  The fetch for the next page starts as soon as the
+     * previous page arrives, as long as there's room for it.
+     *
+     * THREAD-SAFETY: like other iterators, it should only be used from one
+     * thread at a time.  It synchronizes with its own fetches.
+     */
+    private class PrefetchingIter implements B2ListFilesPageIterator {
+        private final ExecutorService executor;
+        private final int prefetchDepth;
+
+        // only used by the constructor and then by one fetch at a time.
+        private final IterBase pageSource;
+
+        // the page we're iterating over, and where we are in it.
+        private List<B2FileVersion> currentFiles;
+        private int currentIndex;
+        private boolean currentIsLast;
+
+        // these are guarded by 'this'.
+        private final Deque<B2ListFilesResponse> fetchedPages = new ArrayDeque<>();
+        private boolean fetching;
+        private boolean fetchedLastPage;
+        private B2Exception fetchFailureOrNull;
+
+        PrefetchingIter(ExecutorService executor,
+                        int prefetchDepth) throws B2Exception {
+            this.executor = executor;
+            this.prefetchDepth = prefetchDepth;
+
+            // constructing it fetches the first page.
+            this.pageSource = createIter();
+            final B2ListFilesResponse firstPage = pageSource.getCurrentResponseOrNull();
+            synchronized (this) {
+                fetchedPages.addLast(firstPage);
+                fetchedLastPage = firstPage.atEnd();
+            }
+            advanceIfNeeded();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return currentIndex < currentFiles.size();
+        }
+
+        @Override
+        public B2FileVersion next() {
+            if (!hasNext()) {
+                throw new IllegalStateException("don't call when hasNext() returns false!");
+            }
+
+            final B2FileVersion version = currentFiles.get(currentIndex);
+            currentIndex++;
+            try {
+                advanceIfNeeded();
+            } catch (B2Exception e) {
+                throw new B2RuntimeException("failed to advance iterator: " + e.getMessage(), e);
+            }
+
+            return version;
+        }
+
+        @Override
+        public List<B2FileVersion> nextPage() {
+            if (!hasNext()) {
+                throw new IllegalStateException("don't call when hasNext() returns false!");
+            }
+
+            final List<B2FileVersion> page = currentFiles.subList(currentIndex, currentFiles.size());
+            currentIndex = currentFiles.size();
+            try {
+                advanceIfNeeded();
+            } catch (B2Exception e) {
+                throw new B2RuntimeException("failed to advance iterator: " + e.getMessage(), e);
+            }
+
+            return page;
+        }
+
+        private void advanceIfNeeded() throws B2Exception {
+            // keep going until we're on a page with something in it or we're out of pages.
+            while ((currentFiles == null || !hasNext()) && !currentIsLast) {
+                final B2ListFilesResponse page = takeFetchedPage();
+                currentFiles = page.getFiles();
+                currentIndex = 0;
+                currentIsLast = page.atEnd();
+            }
+        }
+
+        private synchronized B2ListFilesResponse takeFetchedPage() throws B2Exception {
+            startFetchingIfNeeded();
+            while (fetchedPages.isEmpty() && fetchFailureOrNull == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new B2LocalException("interrupted", "interrupted while waiting for the next page: " + e, e);
+                }
+            }
+
+            // pages that arrived before a failure are still good.
+            if (fetchedPages.isEmpty()) {
+                throw fetchFailureOrNull;
+            }
+            final B2ListFilesResponse page = fetchedPages.removeFirst();
+            startFetchingIfNeeded();
+            return page;
+        }
+
+        // must be called while synchronized.
+        private void startFetchingIfNeeded() {
+            if (fetching || fetchedLastPage || fetchFailureOrNull != null || fetchedPages.size() >= prefetchDepth) {
+                return;
+            }
+            fetching = true;
+            try {
+                executor.execute(this::fetchNextPage);
+            } catch (RejectedExecutionException e) {
+                // nothing is fetching, so the failure has to be recorded here
+                // or the iterator would wait for a page that never comes.
+                fetching = false;
+                fetchFailureOrNull = new B2LocalException("trouble", "executor rejected fetching the next page: " + e, e);
+                notifyAll();
+            }
+        }
+
+        private void fetchNextPage() {
+            B2ListFilesResponse page = null;
+            B2Exception failure = null;
+            try {
+                pageSource.advance();
+                page = pageSource.getCurrentResponseOrNull();
+            } catch (B2Exception e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new B2LocalException("trouble", "exception while fetching the next page: " + e, e);
+            }
+
+            synchronized (this) {
+                fetching = false;
+                if (failure != null) {
+                    fetchFailureOrNull = failure;
+                } else {
+                    fetchedPages.addLast(page);
+                    fetchedLastPage = page.atEnd();
+                    startFetchingIfNeeded();
+                }
+                notifyAll();
+            }
+        }
+    }
+
     B2ListFilesIterableBase(B2StorageClientImpl b2Client) {
         this.b2Client = b2Client;
     }
@@ -99,10 +280,23 @@ public abstract class B2ListFilesIterableBase implements B2ListFilesIterable {
         }
     }
 
+    @Override
+    public B2ListFilesIterable prefetching(ExecutorService executor,
+                                           int prefetchDepth) {
+        B2Preconditions.checkArgument(prefetchDepth > 0, "prefetchDepth must be positive.");
+        return () -> {
+            try {
+                return new PrefetchingIter(executor, prefetchDepth);
+            } catch (B2Exception e) {
+                throw new B2RuntimeException("failed to create/advance iterator: " + e.getMessage(), e);
+            }
+        };
+    }
+
     protected B2StorageClientImpl getClient() {
         return b2Client;
     }
 
     // creates a new iterator.  you should probably subclass IterBase.
-    abstract Iterator<B2FileVersion> createIter() throws B2Exception;
+    abstract IterBase createIter() throws B2Exception;
 }
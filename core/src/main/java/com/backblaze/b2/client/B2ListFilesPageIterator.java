@@ -0,0 +1,28 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.structures.B2FileVersion;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * B2ListFilesPageIterator is an iterator over a listing which can also hand
+ * out the rest of the page it's on all at once.  B2ListFilesSpliterator uses
+ * it to split listings along the pages that have already been fetched.
+ */
+interface B2ListFilesPageIterator extends Iterator<B2FileVersion> {
+    /**
+     * Returns the files which next() would have returned for the rest of the
+     * current page, and moves on to the next page.  Like next(), it may need
+     * to fetch the next page and throws a B2RuntimeException if that fails.
+     *
+     * Only call this when hasNext() returns true.
+     *
+     * @return the rest of the current page.  it's never empty.
+     */
+    List<B2FileVersion> nextPage();
+}
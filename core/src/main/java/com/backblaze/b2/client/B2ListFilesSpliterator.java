@@ -0,0 +1,227 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.exceptions.B2RuntimeException;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.util.B2Preconditions;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * B2ListFilesSpliterator is a Spliterator over a listing which splits along
+ * the pages of the listing.
+ *
+ * Each trySplit() hands out the rest of the page the listing's iterator is
+ * on, so a parallel stream works on whole pages at a time while the thread
+ * doing the splitting fetches the next ones.  If the iterator can't hand out
+ * pages, it hands out BATCH_SIZE files at a time instead.
+ *
+ * Left to itself, the stream framework would keep splitting until it had
+ * fetched the whole listing, no matter how slowly the pages were being worked
+ * on.  To keep memory bounded, trySplit() waits while maxPagesBuffered pages
+ * it handed out haven't been picked up by a thread yet.  A page counts as
+ * picked up as soon as anything is asked of it other than its
+ * characteristics().  The wait is a ForkJoinPool.ManagedBlocker, so a pool
+ * that's waiting on us can bring in another thread to pick up the pages.
+ *
+ * The iterator isn't created until it's needed, so creating the spliterator
+ * doesn't fetch anything.
+ *
+ * THREAD-SAFETY: like other spliterators, each one should only be used from
+ * one thread at a time.  The spliterators it hands out may be used from other
+ * threads.
+ */
+class B2ListFilesSpliterator implements Spliterator<B2FileVersion> {
+    static final int DEFAULT_MAX_PAGES_BUFFERED = 4;
+
+    // how many files to hand out at once when the iterator can't hand out pages.
+    static final int BATCH_SIZE = 1000;
+
+    private static final int CHARACTERISTICS = ORDERED | NONNULL;
+
+    private final Iterable<B2FileVersion> listing;
+    private final PageBudget budget;
+
+    private Iterator<B2FileVersion> iteratorOrNull;
+
+    B2ListFilesSpliterator(Iterable<B2FileVersion> listing,
+                           int maxPagesBuffered) {
+        B2Preconditions.checkArgument(maxPagesBuffered > 0, "maxPagesBuffered must be positive.");
+        this.listing = listing;
+        this.budget = new PageBudget(maxPagesBuffered);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super B2FileVersion> action) {
+        final Iterator<B2FileVersion> iterator = getIterator();
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        action.accept(iterator.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super B2FileVersion> action) {
+        getIterator().forEachRemaining(action);
+    }
+
+    @Override
+    public Spliterator<B2FileVersion> trySplit() {
+        final Iterator<B2FileVersion> iterator = getIterator();
+        if (!iterator.hasNext()) {
+            return null;
+        }
+
+        budget.acquire();
+        final List<B2FileVersion> page;
+        try {
+            page = takePage(iterator);
+        } catch (RuntimeException e) {
+            budget.release();
+            throw e;
+        }
+        return new PageSpliterator(page.spliterator(), budget);
+    }
+
+    @Override
+    public long estimateSize() {
+        if (iteratorOrNull != null && !iteratorOrNull.hasNext()) {
+            return 0;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+    private Iterator<B2FileVersion> getIterator() {
+        if (iteratorOrNull == null) {
+            iteratorOrNull = listing.iterator();
+        }
+        return iteratorOrNull;
+    }
+
+    // must only be called when iterator.hasNext().
+    private static List<B2FileVersion> takePage(Iterator<B2FileVersion> iterator) {
+        if (iterator instanceof B2ListFilesPageIterator) {
+            return ((B2ListFilesPageIterator) iterator).nextPage();
+        }
+
+        final List<B2FileVersion> batch = new ArrayList<>();
+        while (batch.size() < BATCH_SIZE && iterator.hasNext()) {
+            batch.add(iterator.next());
+        }
+        return batch;
+    }
+
+    /**
+     * PageBudget counts the pages which have been handed out but not picked
+     * up yet.
+     *
+     * THREAD-SAFETY: it's synchronized.
+     */
+    private static class PageBudget implements ForkJoinPool.ManagedBlocker {
+        private final int maxPagesBuffered;
+        private int pagesWaiting;
+
+        PageBudget(int maxPagesBuffered) {
+            this.maxPagesBuffered = maxPagesBuffered;
+        }
+
+        void acquire() {
+            try {
+                ForkJoinPool.managedBlock(this);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new B2RuntimeException("interrupted while waiting for pages to be picked up: " + e, e);
+            }
+        }
+
+        synchronized void release() {
+            pagesWaiting--;
+            notifyAll();
+        }
+
+        // takes a slot if there's one free.
+        @Override
+        public synchronized boolean isReleasable() {
+            if (pagesWaiting < maxPagesBuffered) {
+                pagesWaiting++;
+                return true;
+            }
+            return false;
+        }
+
+        // waits for a free slot and takes it.
+        @Override
+        public synchronized boolean block() throws InterruptedException {
+            while (pagesWaiting >= maxPagesBuffered) {
+                wait();
+            }
+            pagesWaiting++;
+            return true;
+        }
+    }
+
+    /**
+     * PageSpliterator is what trySplit() hands out.  It gives its slot in
+     * the budget back the first time it's used.
+     */
+    private static class PageSpliterator implements Spliterator<B2FileVersion> {
+        private final Spliterator<B2FileVersion> files;
+        private PageBudget budgetOrNull;
+
+        PageSpliterator(Spliterator<B2FileVersion> files,
+                        PageBudget budget) {
+            this.files = files;
+            this.budgetOrNull = budget;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super B2FileVersion> action) {
+            pickedUp();
+            return files.tryAdvance(action);
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super B2FileVersion> action) {
+            pickedUp();
+            files.forEachRemaining(action);
+        }
+
+        @Override
+        public Spliterator<B2FileVersion> trySplit() {
+            pickedUp();
+            return files.trySplit();
+        }
+
+        @Override
+        public long estimateSize() {
+            pickedUp();
+            return files.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return files.characteristics() | CHARACTERISTICS;
+        }
+
+        private void pickedUp() {
+            if (budgetOrNull != null) {
+                budgetOrNull.release();
+                budgetOrNull = null;
+            }
+        }
+    }
+}
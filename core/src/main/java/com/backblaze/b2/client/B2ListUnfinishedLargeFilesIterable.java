@@ -5,13 +5,10 @@
 package com.backblaze.b2.client;
 
 import com.backblaze.b2.client.exceptions.B2Exception;
-import com.backblaze.b2.client.structures.B2FileVersion;
 import com.backblaze.b2.client.structures.B2ListFilesResponse;
 import com.backblaze.b2.client.structures.B2ListUnfinishedLargeFilesRequest;
 import com.backblaze.b2.client.structures.B2ListUnfinishedLargeFilesResponse;
 
-import java.util.Iterator;
-
 public class B2ListUnfinishedLargeFilesIterable extends B2ListFilesIterableBase {
     private final B2ListUnfinishedLargeFilesRequest request;
 
@@ -46,7 +43,7 @@ public class B2ListUnfinishedLargeFilesIterable extends B2ListFilesIterableBase
     }
 
     @Override
-    Iterator<B2FileVersion> createIter() throws B2Exception {
+    IterBase createIter() throws B2Exception {
         return new Iter();
     }
 }
@@ -0,0 +1,746 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.exceptions.B2RuntimeException;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.client.structures.B2ListFileNamesRequest;
+import com.backblaze.b2.util.B2Preconditions;
+import com.backblaze.b2.util.B2StringUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * B2ListingSnapshot is a local copy of the file names under a prefix of a
+ * bucket, kept in a file so that jobs which keep looking at the same big
+ * bucket can answer "is it there?", "what is it?" and "what's in this
+ * range?" without listing the bucket each time.
+ *
+ * The snapshot has one entry per file name, like fileNames() returns.  For
+ * each one, it keeps the fileName, fileId, contentLength, contentSha1,
+ * uploadTimestamp and action.  The B2FileVersions it returns have those, a
+ * null contentType, and no fileInfo.
+ *
+ * The entries are sorted by the UTF-8 bytes of their names, which is the
+ * order b2 lists them in, and the file is memory-mapped, so lookups are a
+ * binary search over the mapping and scans read straight from it.  The
+ * file is:
+ *
+ *   header:  magic, formatVersion, segmentSize, bucketId, prefix
+ *   entries: fileName, fileId, contentLength, contentSha1, uploadTimestamp, action
+ *   offsets: the position of each entry, in order, 8-byte aligned
+ *   footer:  offsetsStart, fileCount, newestUploadTimestamp, magic, 0
+ *
+ * Numbers are big-endian.  Strings are an unsigned 16-bit length and that
+ * many bytes of UTF-8; a length of 0xffff means null.  A ByteBuffer can
+ * only map 2GB, so the file is mapped in segments of segmentSize bytes.
+ * Nothing straddles a segment boundary; entries and the footer are padded
+ * to the next segment instead.
+ *
+ * b2 can't list just the files that changed since some time, so a
+ * refresh() relists the prefixes you tell it have changed and keeps the
+ * rest of the entries as they were.  refreshAll() relists everything.
+ * Either way, the new snapshot is written to a new temporary file next to
+ * the old one and renamed over it, so the file is always a complete
+ * snapshot, even if several processes write it at once.  Use the snapshot
+ * refresh() returns; the old one still has the old entries.
+ *
+ * There's no close().  Java can't release a mapping on purpose, so the
+ * mapping is only released when the snapshot is garbage collected.  That
+ * matters on Windows, where a file can't be replaced while it's mapped:
+ * there, refreshing or re-creating a snapshot fails while this process
+ * still holds an earlier snapshot of the same file.  On Windows, keep
+ * snapshots of different generations in different files.
+ *
+ * THREAD-SAFETY: snapshots are immutable and may be used from any thread.
+ */
+public class B2ListingSnapshot {
+    private static final int MAGIC = 0x42324c53;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_FIXED_SIZE = 12;
+    private static final int FOOTER_SIZE = 32;
+    private static final int NULL_STRING_LENGTH = 0xffff;
+
+    static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+    static final int MIN_SEGMENT_SIZE = 4096;
+
+    // b2 allows at most this many names per request.
+    private static final int MAX_FILE_COUNT = 10000;
+
+    private final File file;
+    private final int segmentSize;
+    private final ByteBuffer[] segments;
+    private final String bucketId;
+    private final String prefix;
+    private final long offsetsStart;
+    private final long fileCount;
+    private final long newestUploadTimestamp;
+
+    private B2ListingSnapshot(File file,
+                              int segmentSize,
+                              ByteBuffer[] segments,
+                              long fileLength) throws B2Exception {
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.segments = segments;
+
+        final ByteBuffer header = segments[0].duplicate();
+        header.position(HEADER_FIXED_SIZE);
+        this.bucketId = readStringOrNull(header);
+        this.prefix = readStringOrNull(header);
+
+        final ByteBuffer footer = getBufferAt(fileLength - FOOTER_SIZE);
+        this.offsetsStart = footer.getLong();
+        this.fileCount = footer.getLong();
+        this.newestUploadTimestamp = footer.getLong();
+        if (footer.getInt() != MAGIC || bucketId == null || prefix == null) {
+            throw new B2LocalException("read_failed", file + " isn't a complete listing snapshot");
+        }
+    }
+
+    /**
+     * Lists the file names under the prefix and writes them to a new snapshot.
+     * If the file already exists, it's replaced.
+     *
+     * @param client the client to list with.
+     * @param file the file to keep the snapshot in.
+     * @param bucketId the bucket to list.
+     * @param prefix the prefix to list.  use "" for the whole bucket.
+     * @return the new snapshot.
+     * @throws B2Exception if there's trouble listing or writing the snapshot.
+     */
+    public static B2ListingSnapshot create(B2StorageClient client,
+                                           File file,
+                                           String bucketId,
+                                           String prefix) throws B2Exception {
+        return create(client, file, bucketId, prefix, DEFAULT_SEGMENT_SIZE);
+    }
+
+    // like create(), but lets tests use small segments.
+    static B2ListingSnapshot create(B2StorageClient client,
+                                    File file,
+                                    String bucketId,
+                                    String prefix,
+                                    int segmentSize) throws B2Exception {
+        return write(file, bucketId, prefix, listNames(client, bucketId, prefix), segmentSize);
+    }
+
+    /**
+     * Opens a snapshot which was written earlier.
+     *
+     * @param file the snapshot's file.
+     * @return the snapshot.
+     * @throws B2Exception if the file can't be read or isn't a snapshot.
+     */
+    public static B2ListingSnapshot open(File file) throws B2Exception {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long fileLength = channel.size();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_FIXED_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // keep reading.
+            }
+            header.flip();
+            if (header.remaining() < HEADER_FIXED_SIZE ||
+                    header.getInt() != MAGIC ||
+                    header.getInt() != FORMAT_VERSION) {
+                throw new B2LocalException("read_failed", file + " isn't a listing snapshot");
+            }
+            final int segmentSize = header.getInt();
+            if (segmentSize < MIN_SEGMENT_SIZE || fileLength < HEADER_FIXED_SIZE + FOOTER_SIZE) {
+                throw new B2LocalException("read_failed", file + " isn't a complete listing snapshot");
+            }
+
+            final int segmentCount = (int) ((fileLength + segmentSize - 1) / segmentSize);
+            final ByteBuffer[] segments = new ByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                final long start = (long) i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, fileLength - start));
+            }
+            return new B2ListingSnapshot(file, segmentSize, segments, fileLength);
+        } catch (IOException | RuntimeException e) {
+            throw new B2LocalException("read_failed", "failed to open listing snapshot " + file + ": " + e, e);
+        }
+    }
+
+    public String getBucketId() {
+        return bucketId;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @return the newest uploadTimestamp of any file in the snapshot, or 0
+     *         if it's empty.
+     */
+    public long getNewestUploadTimestamp() {
+        return newestUploadTimestamp;
+    }
+
+    /**
+     * @param fileName the name to look for.
+     * @return true iff the snapshot has a file with that name.
+     */
+    public boolean exists(String fileName) {
+        final byte[] key = utf8(fileName);
+        final long i = lowerBound(key);
+        return i < fileCount && compareName(getEntryPosition(i), key) == 0;
+    }
+
+    /**
+     * @param fileName the name to look for.
+     * @return the snapshot's file with that name, or null if there isn't one.
+     */
+    public B2FileVersion getOrNull(String fileName) {
+        final byte[] key = utf8(fileName);
+        final long i = lowerBound(key);
+        if (i < fileCount) {
+            final long position = getEntryPosition(i);
+            if (compareName(position, key) == 0) {
+                return readEntry(position);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param startFileName the first name to include.
+     * @param endFileNameOrNull the name to stop before, or null to go to the end.
+     * @return the snapshot's files with names in [startFileName, endFileNameOrNull), in order.
+     */
+    public Iterable<B2FileVersion> scan(String startFileName,
+                                        String endFileNameOrNull) {
+        final byte[] start = utf8(startFileName);
+        final byte[] endOrNull = (endFileNameOrNull == null) ? null : utf8(endFileNameOrNull);
+        return () -> new EntryIter(lowerBound(start), endOrNull, null);
+    }
+
+    /**
+     * @param namePrefix the prefix to look for.
+     * @return the snapshot's files whose names start with namePrefix, in order.
+     */
+    public Iterable<B2FileVersion> scanPrefix(String namePrefix) {
+        final byte[] prefixBytes = utf8(namePrefix);
+        return () -> new EntryIter(lowerBound(prefixBytes), null, prefixBytes);
+    }
+
+    /**
+     * Relists the whole prefix and replaces the snapshot's file with what
+     * it finds.
+     *
+     * @param client the client to list with.
+     * @return the new snapshot.
+     * @throws B2Exception if there's trouble listing or writing the snapshot.
+     */
+    public B2ListingSnapshot refreshAll(B2StorageClient client) throws B2Exception {
+        return refresh(client, Collections.singletonList(prefix));
+    }
+
+    /**
+     * Relists the given prefixes and replaces the snapshot's file with a
+     * new snapshot which has what it found under those prefixes and this
+     * snapshot's entries everywhere else.  The prefixes may overlap.
+     *
+     * @param client the client to list with.
+     * @param changedPrefixes the prefixes which may have changed.  each of them
+     *                        must start with this snapshot's prefix.
+     * @return the new snapshot.
+     * @throws B2Exception if there's trouble listing or writing the snapshot.
+     */
+    public B2ListingSnapshot refresh(B2StorageClient client,
+                                     Collection<String> changedPrefixes) throws B2Exception {
+        final List<String> prefixes = new ArrayList<>();
+        for (String changedPrefix : sortByUtf8(changedPrefixes)) {
+            B2Preconditions.checkArgument(changedPrefix.startsWith(prefix),
+                    "changed prefix '" + changedPrefix + "' isn't under the snapshot's prefix '" + prefix + "'.");
+
+            // the ones a prefix covers come right after it.
+            if (prefixes.isEmpty() || !changedPrefix.startsWith(prefixes.get(prefixes.size() - 1))) {
+                prefixes.add(changedPrefix);
+            }
+        }
+
+        final List<Iterable<B2FileVersion>> listings = new ArrayList<>();
+        for (String changedPrefix : prefixes) {
+            listings.add(listNames(client, bucketId, changedPrefix));
+        }
+
+        // the listings are in order, one after another, because the
+        // prefixes are sorted and none of them covers another.
+        final Iterable<B2FileVersion> merged = () -> new MergingIter(new KeptIter(prefixes), new ChainIter(listings));
+        return write(file, bucketId, prefix, merged, segmentSize);
+    }
+
+    // writes the snapshot to a temporary file, renames it over the given file, and opens it.
+    static B2ListingSnapshot write(File file,
+                                   String bucketId,
+                                   String prefix,
+                                   Iterable<B2FileVersion> versions,
+                                   int segmentSize) throws B2Exception {
+        B2Preconditions.checkArgument(segmentSize >= MIN_SEGMENT_SIZE && segmentSize % 8 == 0,
+                "segmentSize must be a multiple of 8 and at least " + MIN_SEGMENT_SIZE + ".");
+        final File tempFile;
+        try {
+            final File dir = file.getAbsoluteFile().getParentFile();
+            tempFile = Files.createTempFile(dir.toPath(), file.getName() + ".", ".tmp").toFile();
+        } catch (IOException e) {
+            throw new B2LocalException("write_failed", "failed to create a temporary file for listing snapshot " + file + ": " + e, e);
+        }
+
+        boolean succeeded = false;
+        try (Writer writer = new Writer(tempFile, segmentSize)) {
+            writer.writeHeader(bucketId, prefix);
+            for (B2FileVersion version : versions) {
+                writer.writeEntry(version);
+            }
+            writer.finish();
+            succeeded = true;
+        } catch (B2RuntimeException e) {
+            // the listing's iterator failed.
+            if (e.getCause() instanceof B2Exception) {
+                throw (B2Exception) e.getCause();
+            }
+            throw e;
+        } catch (IOException e) {
+            throw new B2LocalException("write_failed", "failed to write listing snapshot " + tempFile + ": " + e, e);
+        } finally {
+            if (!succeeded) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+        }
+
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw new B2LocalException("write_failed", "failed to rename " + tempFile + " to " + file + ": " + e, e);
+        }
+        return open(file);
+    }
+
+    private static B2ListFilesIterable listNames(B2StorageClient client,
+                                                 String bucketId,
+                                                 String prefix) throws B2Exception {
+        final B2ListFileNamesRequest.Builder builder = B2ListFileNamesRequest
+                .builder(bucketId)
+                .setMaxFileCount(MAX_FILE_COUNT);
+        if (!prefix.isEmpty()) {
+            builder.setPrefix(prefix);
+        }
+        return client.fileNames(builder.build());
+    }
+
+    // returns the index of the first entry whose name isn't less than key.
+    private long lowerBound(byte[] key) {
+        long lo = 0;
+        long hi = fileCount;
+        while (lo < hi) {
+            final long mid = (lo + hi) >>> 1;
+            if (compareName(getEntryPosition(mid), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private long getEntryPosition(long i) {
+        final long position = offsetsStart + 8 * i;
+        return segmentFor(position).getLong(offsetIn(position));
+    }
+
+    // compares the name of the entry at the position to key, without decoding it.
+    private int compareName(long position,
+                            byte[] key) {
+        final ByteBuffer segment = segmentFor(position);
+        final int at = offsetIn(position);
+        final int length = segment.getShort(at) & 0xffff;
+        final int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            final int cmp = Integer.compare(segment.get(at + 2 + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private boolean nameStartsWith(long position,
+                                   byte[] prefixBytes) {
+        final ByteBuffer segment = segmentFor(position);
+        final int at = offsetIn(position);
+        final int length = segment.getShort(at) & 0xffff;
+        if (length < prefixBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < prefixBytes.length; i++) {
+            if (segment.get(at + 2 + i) != prefixBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private B2FileVersion readEntry(long position) {
+        final ByteBuffer buffer = getBufferAt(position);
+        final String fileName = readStringOrNull(buffer);
+        final String fileId = readStringOrNull(buffer);
+        final long contentLength = buffer.getLong();
+        final String contentSha1OrNull = readStringOrNull(buffer);
+        final long uploadTimestamp = buffer.getLong();
+        final String action = readStringOrNull(buffer);
+        return new B2FileVersion(fileId, fileName, contentLength, null, contentSha1OrNull,
+                Collections.emptyMap(), action, uploadTimestamp);
+    }
+
+    // returns a buffer of its own, positioned at the given position.
+    private ByteBuffer getBufferAt(long position) {
+        final ByteBuffer buffer = segmentFor(position).duplicate();
+        buffer.position(offsetIn(position));
+        return buffer;
+    }
+
+    private ByteBuffer segmentFor(long position) {
+        return segments[(int) (position / segmentSize)];
+    }
+
+    private int offsetIn(long position) {
+        return (int) (position % segmentSize);
+    }
+
+    private static String readStringOrNull(ByteBuffer buffer) {
+        final int length = buffer.getShort() & 0xffff;
+        if (length == NULL_STRING_LENGTH) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> sortByUtf8(Collection<String> strings) {
+        final List<String> sorted = new ArrayList<>(strings);
+        sorted.sort(B2StringUtil::compareUtf8);
+        return sorted;
+    }
+
+    /**
+     * EntryIter iterates over the entries from startIndex until the names
+     * reach endOrNull or stop starting with prefixOrNull.
+     */
+    private class EntryIter implements Iterator<B2FileVersion> {
+        private final byte[] endOrNull;
+        private final byte[] prefixOrNull;
+        private long nextIndex;
+
+        EntryIter(long startIndex,
+                  byte[] endOrNull,
+                  byte[] prefixOrNull) {
+            this.nextIndex = startIndex;
+            this.endOrNull = endOrNull;
+            this.prefixOrNull = prefixOrNull;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextIndex >= fileCount) {
+                return false;
+            }
+            final long position = getEntryPosition(nextIndex);
+            return (endOrNull == null || compareName(position, endOrNull) < 0) &&
+                    (prefixOrNull == null || nameStartsWith(position, prefixOrNull));
+        }
+
+        @Override
+        public B2FileVersion next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final B2FileVersion version = readEntry(getEntryPosition(nextIndex));
+            nextIndex++;
+            return version;
+        }
+    }
+
+    /**
+     * KeptIter iterates over the entries which aren't under any of the
+     * changed prefixes.  The prefixes must be sorted, and none of them may
+     * cover another, so that they're disjoint ranges of names in order.
+     */
+    private class KeptIter implements Iterator<B2FileVersion> {
+        private final List<byte[]> prefixes = new ArrayList<>();
+        private int prefixIndex;
+        private long nextIndex;
+
+        KeptIter(List<String> sortedPrefixes) {
+            for (String prefix : sortedPrefixes) {
+                prefixes.add(utf8(prefix));
+            }
+            skipChanged();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextIndex < fileCount;
+        }
+
+        @Override
+        public B2FileVersion next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final B2FileVersion version = readEntry(getEntryPosition(nextIndex));
+            nextIndex++;
+            skipChanged();
+            return version;
+        }
+
+        private void skipChanged() {
+            while (nextIndex < fileCount) {
+                final long position = getEntryPosition(nextIndex);
+
+                // skip the prefixes which are entirely before this name.
+                while (prefixIndex < prefixes.size() &&
+                        compareName(position, prefixes.get(prefixIndex)) > 0 &&
+                        !nameStartsWith(position, prefixes.get(prefixIndex))) {
+                    prefixIndex++;
+                }
+                if (prefixIndex == prefixes.size() || !nameStartsWith(position, prefixes.get(prefixIndex))) {
+                    return;
+                }
+                nextIndex++;
+            }
+        }
+    }
+
+    /**
+     * ChainIter iterates over each of the iterables in turn.
+     */
+    private static class ChainIter implements Iterator<B2FileVersion> {
+        private final Iterator<Iterable<B2FileVersion>> iterables;
+        private Iterator<B2FileVersion> currentOrNull;
+
+        ChainIter(List<Iterable<B2FileVersion>> iterables) {
+            this.iterables = iterables.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (currentOrNull == null || !currentOrNull.hasNext()) {
+                if (!iterables.hasNext()) {
+                    return false;
+                }
+                currentOrNull = iterables.next().iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public B2FileVersion next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentOrNull.next();
+        }
+    }
+
+    /**
+     * MergingIter merges two iterators over versions in order by name.
+     */
+    private static class MergingIter implements Iterator<B2FileVersion> {
+        private final Iterator<B2FileVersion> a;
+        private final Iterator<B2FileVersion> b;
+        private B2FileVersion nextAOrNull;
+        private B2FileVersion nextBOrNull;
+
+        MergingIter(Iterator<B2FileVersion> a,
+                    Iterator<B2FileVersion> b) {
+            this.a = a;
+            this.b = b;
+            this.nextAOrNull = a.hasNext() ? a.next() : null;
+            this.nextBOrNull = b.hasNext() ? b.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextAOrNull != null || nextBOrNull != null;
+        }
+
+        @Override
+        public B2FileVersion next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final B2FileVersion version;
+            if (nextBOrNull == null ||
+                    (nextAOrNull != null && B2StringUtil.compareUtf8(nextAOrNull.getFileName(), nextBOrNull.getFileName()) <= 0)) {
+                version = nextAOrNull;
+                nextAOrNull = a.hasNext() ? a.next() : null;
+            } else {
+                version = nextBOrNull;
+                nextBOrNull = b.hasNext() ? b.next() : null;
+            }
+            return version;
+        }
+    }
+
+    /**
+     * Writer writes a snapshot file, one entry at a time, in order.  Only the
+     * entries' positions are kept in memory until the end.
+     */
+    private static class Writer implements AutoCloseable {
+        private final File file;
+        private final FileOutputStream fileOut;
+        private final DataOutputStream out;
+        private final int segmentSize;
+
+        // each entry is encoded here first, so we know whether it fits in the segment.
+        private final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        private final DataOutputStream entryOut = new DataOutputStream(entryBytes);
+
+        private long position;
+        private long[] entryPositions = new long[1024];
+        private int entryCount;
+        private byte[] previousNameOrNull;
+        private long newestUploadTimestamp;
+
+        Writer(File file,
+               int segmentSize) throws IOException {
+            this.file = file;
+            this.fileOut = new FileOutputStream(file);
+            this.out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            this.segmentSize = segmentSize;
+        }
+
+        void writeHeader(String bucketId,
+                         String prefix) throws IOException, B2Exception {
+            entryBytes.reset();
+            entryOut.writeInt(MAGIC);
+            entryOut.writeInt(FORMAT_VERSION);
+            entryOut.writeInt(segmentSize);
+            writeString(entryOut, bucketId);
+            writeString(entryOut, prefix);
+            writeWithoutStraddling();
+        }
+
+        void writeEntry(B2FileVersion version) throws IOException, B2Exception {
+            final byte[] name = utf8(version.getFileName());
+            if (previousNameOrNull != null && B2StringUtil.compareUtf8(previousNameOrNull, name) >= 0) {
+                throw new IllegalArgumentException("file names must be in increasing order, but '" +
+                        version.getFileName() + "' came after '" + new String(previousNameOrNull, StandardCharsets.UTF_8) + "'.");
+            }
+            previousNameOrNull = name;
+            newestUploadTimestamp = Math.max(newestUploadTimestamp, version.getUploadTimestamp());
+
+            entryBytes.reset();
+            writeString(entryOut, version.getFileName());
+            writeString(entryOut, version.getFileId());
+            entryOut.writeLong(version.getContentLength());
+            writeString(entryOut, version.getContentSha1());
+            entryOut.writeLong(version.getUploadTimestamp());
+            writeString(entryOut, version.getAction());
+
+            if (entryCount == entryPositions.length) {
+                entryPositions = Arrays.copyOf(entryPositions, 2 * entryCount);
+            }
+            entryPositions[entryCount] = writeWithoutStraddling();
+            entryCount++;
+        }
+
+        void finish() throws IOException, B2Exception {
+            // the offsets are 8-byte aligned, so they never straddle a segment.
+            padTo((position + 7) / 8 * 8);
+            final long offsetsStart = position;
+            for (int i = 0; i < entryCount; i++) {
+                out.writeLong(entryPositions[i]);
+            }
+            position += 8L * entryCount;
+
+            entryBytes.reset();
+            entryOut.writeLong(offsetsStart);
+            entryOut.writeLong(entryCount);
+            entryOut.writeLong(newestUploadTimestamp);
+            entryOut.writeInt(MAGIC);
+            entryOut.writeInt(0);
+            writeWithoutStraddling();
+
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        // writes what's in entryBytes, starting a new segment first if it wouldn't fit.
+        private long writeWithoutStraddling() throws IOException, B2Exception {
+            final int size = entryBytes.size();
+            if (size > segmentSize) {
+                throw new B2LocalException("write_failed", "an entry of " + size + " bytes is too big for " + file);
+            }
+            if ((position % segmentSize) + size > segmentSize) {
+                padTo((position / segmentSize + 1) * segmentSize);
+            }
+            final long start = position;
+            entryBytes.writeTo(out);
+            position += size;
+            return start;
+        }
+
+        private void padTo(long newPosition) throws IOException {
+            while (position < newPosition) {
+                out.writeByte(0);
+                position++;
+            }
+        }
+
+        private static void writeString(DataOutputStream out,
+                                        String sOrNull) throws IOException, B2Exception {
+            if (sOrNull == null) {
+                out.writeShort(NULL_STRING_LENGTH);
+                return;
+            }
+            final byte[] bytes = utf8(sOrNull);
+            if (bytes.length >= NULL_STRING_LENGTH) {
+                throw new B2LocalException("write_failed", "a string of " + bytes.length + " bytes is too long for a listing snapshot");
+            }
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
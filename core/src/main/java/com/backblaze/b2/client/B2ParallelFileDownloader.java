@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.exceptions.B2ConnectionBrokenException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.structures.B2DownloadListener;
+import com.backblaze.b2.client.structures.B2ParallelDownloadRequest;
+import com.backblaze.b2.util.B2ByteProgressListener;
+import com.backblaze.b2.util.B2Clock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * B2ParallelFileDownloader downloads one file into a local file using
+ * several ranged requests at once, as described by a B2ParallelDownloadRequest.
+ *
+ * The first chunk is downloaded on its own, because its response tells us
+ * how long the file is.  Then the rest of the chunks are handed to the
+ * executor, at most maxChunksInFlight at a time.  Each chunk writes what it
+ * reads straight to its offset in the destination with positional writes
+ * on a shared FileChannel, so the chunks never wait for each other.
+ *
+ * Each chunk is downloaded with the client's downloadById(), so each chunk
+ * is retried on its own.  When a chunk is retried, it simply writes its
+ * range again from the beginning.  A chunk which gets fewer bytes than it
+ * asked for throws a retryable exception.
+ *
+ * Ranged responses don't let us check the SHA-1 of the whole file, so this
+ * doesn't.
+ *
+ * THREAD-SAFETY: download() should only be called once, from one thread.
+ */
+class B2ParallelFileDownloader {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final B2StorageClient client;
+    private final ExecutorService executor;
+    private final B2ParallelDownloadRequest request;
+    private final B2ByteProgressListener listenerOrNull;
+
+    // if there's a download listener, these turn our byte counts into its updates.
+    // the byte-level updates are only made while synchronized on 'this'.
+    private final B2DownloadProgressAdapter downloadProgressOrNull;
+    private final B2ByteProgressListener downloadProgressFilterOrNull;
+
+    // the number of bytes written by all chunks so far.  guarded by 'this'.
+    private long bytesSoFar;
+
+    B2ParallelFileDownloader(B2StorageClient client,
+                             ExecutorService executor,
+                             B2ParallelDownloadRequest request) {
+        this.client = client;
+        this.executor = executor;
+        this.request = request;
+        this.listenerOrNull = request.getListenerOrNull();
+
+        final B2DownloadListener downloadListenerOrNull = request.getDownloadListenerOrNull();
+        if (downloadListenerOrNull != null) {
+            downloadProgressOrNull = new B2DownloadProgressAdapter(downloadListenerOrNull, B2Clock.get(), 0, -1);
+            downloadProgressFilterOrNull = downloadProgressOrNull.trackingBytes(
+                    new B2ByteProgressFilteringListener(downloadProgressOrNull));
+        } else {
+            downloadProgressOrNull = null;
+            downloadProgressFilterOrNull = null;
+        }
+    }
+
+    /**
+     * @return the headers from the first chunk's response.  they describe the
+     *         file, though their Content-Length and Content-Range are for the
+     *         first chunk.
+     * @throws B2Exception if there's trouble downloading or writing any chunk.
+     */
+    B2Headers download() throws B2Exception {
+        if (downloadProgressOrNull != null) {
+            downloadProgressOrNull.started();
+        }
+        try {
+            final B2Headers headers = downloadGuts();
+            succeeded();
+            return headers;
+        } catch (B2Exception e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    private B2Headers downloadGuts() throws B2Exception {
+        final long chunkSize = request.getChunkSize();
+        try (FileChannel channel = FileChannel.open(request.getDestination().toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            // the first chunk tells us how long the file is.
+            final ChunkSink firstChunk = new ChunkSink(channel, 0);
+            B2ChunkedDownloadUtil.downloadFirstChunk(client, request.getFileId(), chunkSize, firstChunk);
+            final B2Headers headers = firstChunk.getHeaders();
+            final long contentLength = B2ChunkedDownloadUtil.getContentLength(headers, firstChunk.getBytesWritten());
+            setContentLength(contentLength);
+
+            // now the rest of them.  they're all the same size, so waiting for the
+            // oldest one is about as good as waiting for whichever finishes first.
+            final Deque<Future<Void>> inFlight = new ArrayDeque<>();
+            try {
+                long nextChunkStart = firstChunk.getBytesWritten();
+                while (nextChunkStart < contentLength || !inFlight.isEmpty()) {
+                    while (nextChunkStart < contentLength && inFlight.size() < request.getMaxChunksInFlight()) {
+                        final long chunkStart = nextChunkStart;
+                        final long chunkLength = Math.min(chunkSize, contentLength - chunkStart);
+                        nextChunkStart += chunkLength;
+                        inFlight.addLast(executor.submit(() -> {
+                            client.downloadById(B2ChunkedDownloadUtil.makeRangeRequest(request.getFileId(), chunkStart, chunkLength),
+                                    new ChunkSink(channel, chunkStart));
+                            return null;
+                        }));
+                    }
+                    B2ChunkedDownloadUtil.waitForChunk(inFlight.removeFirst());
+                }
+            } finally {
+                // if we hit an exception, we won't be waiting for the others.
+                for (Future<Void> future : inFlight) {
+                    future.cancel(true);
+                }
+            }
+
+            channel.force(true);
+            return headers;
+        } catch (IOException e) {
+            throw new B2LocalException("write_failed", "failed to write " + request.getDestination() + ": " + e, e);
+        }
+    }
+
+    private synchronized void addBytes(long delta) {
+        bytesSoFar += delta;
+        if (listenerOrNull != null) {
+            listenerOrNull.progress(bytesSoFar);
+        }
+        if (downloadProgressFilterOrNull != null) {
+            downloadProgressFilterOrNull.progress(bytesSoFar);
+        }
+    }
+
+    private synchronized void setContentLength(long contentLength) {
+        if (downloadProgressOrNull != null) {
+            downloadProgressOrNull.setLength(contentLength);
+        }
+    }
+
+    private synchronized void succeeded() {
+        if (listenerOrNull != null) {
+            listenerOrNull.reachedEof(bytesSoFar);
+        }
+        if (downloadProgressOrNull != null) {
+            downloadProgressOrNull.succeeded(bytesSoFar);
+        }
+    }
+
+    private synchronized void failed(B2Exception e) {
+        if (listenerOrNull != null) {
+            listenerOrNull.hitException(e, bytesSoFar);
+        }
+        if (downloadProgressFilterOrNull != null) {
+            downloadProgressFilterOrNull.hitException(e, bytesSoFar);
+        }
+    }
+
+    /**
+     * ChunkSink writes one response to the destination, starting at the
+     * chunk's offset.  It may be called more than once if the chunk is retried.
+     */
+    private class ChunkSink implements B2ContentSink {
+        private final FileChannel channel;
+        private final long chunkStart;
+
+        // from the most recent attempt.
+        private B2Headers headers;
+        private long bytesWritten;
+
+        ChunkSink(FileChannel channel,
+                  long chunkStart) {
+            this.channel = channel;
+            this.chunkStart = chunkStart;
+        }
+
+        B2Headers getHeaders() {
+            return headers;
+        }
+
+        long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public void readContent(B2Headers responseHeaders,
+                                InputStream in) throws B2Exception {
+            // if this is a retry, forget about what the last attempt wrote.
+            addBytes(-bytesWritten);
+            bytesWritten = 0;
+            headers = responseHeaders;
+
+            final long expectedLength = responseHeaders.getContentLength();
+            final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            while (true) {
+                final int nRead;
+                try {
+                    nRead = in.read(buffer);
+                } catch (IOException e) {
+                    throw new B2ConnectionBrokenException("read_failed", null, "read failed: " + e.getMessage(), e);
+                }
+                if (nRead < 0) {
+                    break;
+                }
+
+                final ByteBuffer toWrite = ByteBuffer.wrap(buffer, 0, nRead);
+                try {
+                    long position = chunkStart + bytesWritten;
+                    while (toWrite.hasRemaining()) {
+                        position += channel.write(toWrite, position);
+                    }
+                } catch (IOException e) {
+                    throw new B2LocalException("write_failed", "write failed: " + e.getMessage(), e);
+                }
+                bytesWritten += nRead;
+                addBytes(nRead);
+            }
+
+            if (bytesWritten != expectedLength) {
+                throw new B2ConnectionBrokenException("read_failed", null, "expected " + expectedLength +
+                        " bytes starting at " + chunkStart + ", but got " + bytesWritten);
+            }
+        }
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.exceptions.B2RuntimeException;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.client.structures.B2ListFileNamesRequest;
+import com.backblaze.b2.client.structures.B2ListFileNamesResponse;
+import com.backblaze.b2.client.structures.B2ListFileVersionsRequest;
+import com.backblaze.b2.client.structures.B2ListFileVersionsResponse;
+import com.backblaze.b2.client.structures.B2ListFilesResponse;
+import com.backblaze.b2.util.B2Clock;
+import com.backblaze.b2.util.B2StringUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * B2ParallelListFilesIterable lists files by splitting the names into
+ * disjoint ranges, as described by a B2ParallelListingPolicy, and listing
+ * several of the ranges at once.
+ *
+ * Each page's request depends on the previous page's response, so a single
+ * listing can't go faster than one round trip per page.  Ranges don't depend
+ * on each other, though, so each range has its own cursor.  A range is done
+ * when the server says there's nothing after it or when its cursor reaches
+ * the start of the next range.  Since all of a name's versions are in the
+ * same range, this works for file versions just as well as for file names.
+ *
+ * The iterators yield every file exactly once, but NOT in name order.  The
+ * files in each range are in order, but the ranges are interleaved, since
+ * waiting for the ranges in order would mean waiting for each range to be
+ * listed before the next one could be used, which is where we started.
+ *
+ * Nothing waits on behalf of an iterator.  Each fetch is a separate task on
+ * the executor, and a range's next fetch is only started when there's room
+ * for its page, so an iterator you stop using stops fetching once
+ * maxPagesBuffered pages are waiting.  If a fetch fails, next() throws the
+ * same B2RuntimeException the regular iterators throw.
+ *
+ * THREAD-SAFETY: the iterable may be used from multiple threads.  each
+ *                iterator should only be used from one thread at a time.
+ */
+class B2ParallelListFilesIterable implements B2ListFilesIterable {
+    // how deep to look for a level with more than one name when sampling.
+    private static final int MAX_SAMPLING_DEPTH = 4;
+
+    // how many names to ask for when sampling.
+    private static final int SAMPLE_SIZE = 1000;
+
+    private final B2StorageClientImpl client;
+    private final ExecutorService executor;
+    private final B2ParallelListingPolicy policy;
+    private final PageLister pageLister;
+
+    private B2ParallelListFilesIterable(B2StorageClientImpl client,
+                                        ExecutorService executor,
+                                        B2ParallelListingPolicy policy,
+                                        PageLister pageLister) {
+        this.client = client;
+        this.executor = executor;
+        this.policy = policy;
+        this.pageLister = pageLister;
+    }
+
+    static B2ParallelListFilesIterable forFileNames(B2StorageClientImpl client,
+                                                    ExecutorService executor,
+                                                    B2ParallelListingPolicy policy,
+                                                    B2ListFileNamesRequest request) {
+        return new B2ParallelListFilesIterable(client, executor, policy, new FileNamesPageLister(client, request));
+    }
+
+    static B2ParallelListFilesIterable forFileVersions(B2StorageClientImpl client,
+                                                       ExecutorService executor,
+                                                       B2ParallelListingPolicy policy,
+                                                       B2ListFileVersionsRequest request) {
+        return new B2ParallelListFilesIterable(client, executor, policy, new FileVersionsPageLister(client, request));
+    }
+
+    @Override
+    public Iterator<B2FileVersion> iterator() {
+        try {
+            return new Iter();
+        } catch (B2Exception e) {
+            throw new B2RuntimeException("failed to create/advance iterator: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the split points, either from the policy or by sampling.
+     */
+    private List<String> getSplitPoints(B2RateLimiter rateLimiter) throws B2Exception {
+        final List<String> fromPolicy = policy.getSplitPointsOrNull();
+        if (fromPolicy != null) {
+            return fromPolicy;
+        }
+
+        // look at the names at the top of the listing, using "/" as the delimiter,
+        // so we see the top-level folders instead of the first few files.  if there's
+        // only one folder, look inside it instead.
+        String prefix = pageLister.getPrefixOrNull();
+        List<B2FileVersion> sample = null;
+        for (int depth = 0; depth < MAX_SAMPLING_DEPTH; depth++) {
+            final B2ListFileNamesRequest sampleRequest = B2ListFileNamesRequest
+                    .builder(pageLister.getBucketId())
+                    .setStartFileName(pageLister.getStartFileNameOrNull())
+                    .setPrefix(prefix)
+                    .setDelimiter("/")
+                    .setMaxFileCount(SAMPLE_SIZE)
+                    .build();
+            rateLimiter.acquire();
+            sample = client.listFileNames(sampleRequest).getFiles();
+            if (sample.size() != 1 || !sample.get(0).isFolder()) {
+                break;
+            }
+            prefix = sample.get(0).getFileName();
+        }
+
+        // spread the split points evenly over the sample.  the first name
+        // is covered by the first range, so it's never a split point.
+        final List<String> splitPoints = new ArrayList<>();
+        final int rangeCount = policy.getRangeCount();
+        for (int iRange = 1; iRange < rangeCount; iRange++) {
+            final int iName = (int) (((long) iRange) * sample.size() / rangeCount);
+            if (iName == 0) {
+                continue;
+            }
+            final String name = sample.get(iName).getFileName();
+            if (splitPoints.isEmpty() || B2StringUtil.compareUtf8(name, splitPoints.get(splitPoints.size() - 1)) > 0) {
+                splitPoints.add(name);
+            }
+        }
+        return splitPoints;
+    }
+
+    /**
+     * A Cursor says where to start the next page of a range.
+     */
+    private static class Cursor {
+        private final String fileNameOrNull;
+        private final String fileIdOrNull;
+
+        Cursor(String fileNameOrNull,
+               String fileIdOrNull) {
+            this.fileNameOrNull = fileNameOrNull;
+            this.fileIdOrNull = fileIdOrNull;
+        }
+    }
+
+    /**
+     * A PageLister knows how to list one kind of thing starting at a cursor.
+     */
+    private interface PageLister {
+        String getBucketId();
+        String getPrefixOrNull();
+        String getStartFileNameOrNull();
+
+        // the cursor for the first page of the whole listing.
+        Cursor getFirstCursor();
+
+        B2ListFilesResponse listPage(Cursor cursor) throws B2Exception;
+
+        // the cursor for the page after the given one, or null if it was the last.
+        Cursor getNextCursorOrNull(B2ListFilesResponse response);
+    }
+
+    private static class FileNamesPageLister implements PageLister {
+        private final B2StorageClientImpl client;
+        private final B2ListFileNamesRequest request;
+
+        FileNamesPageLister(B2StorageClientImpl client,
+                            B2ListFileNamesRequest request) {
+            this.client = client;
+            this.request = request;
+        }
+
+        @Override
+        public String getBucketId() {
+            return request.getBucketId();
+        }
+
+        @Override
+        public String getPrefixOrNull() {
+            return request.getPrefix();
+        }
+
+        @Override
+        public String getStartFileNameOrNull() {
+            return request.getStartFileName();
+        }
+
+        @Override
+        public Cursor getFirstCursor() {
+            return new Cursor(request.getStartFileName(), null);
+        }
+
+        @Override
+        public B2ListFilesResponse listPage(Cursor cursor) throws B2Exception {
+            return client.listFileNames(B2ListFileNamesRequest
+                    .builder(request)
+                    .setStartFileName(cursor.fileNameOrNull)
+                    .build());
+        }
+
+        @Override
+        public Cursor getNextCursorOrNull(B2ListFilesResponse response) {
+            final B2ListFileNamesResponse namesResponse = (B2ListFileNamesResponse) response;
+            return namesResponse.atEnd() ? null : new Cursor(namesResponse.getNextFileName(), null);
+        }
+    }
+
+    private static class FileVersionsPageLister implements PageLister {
+        private final B2StorageClientImpl client;
+        private final B2ListFileVersionsRequest request;
+
+        FileVersionsPageLister(B2StorageClientImpl client,
+                               B2ListFileVersionsRequest request) {
+            this.client = client;
+            this.request = request;
+        }
+
+        @Override
+        public String getBucketId() {
+            return request.getBucketId();
+        }
+
+        @Override
+        public String getPrefixOrNull() {
+            return request.getPrefix();
+        }
+
+        @Override
+        public String getStartFileNameOrNull() {
+            return request.getStartFileName();
+        }
+
+        @Override
+        public Cursor getFirstCursor() {
+            return new Cursor(request.getStartFileName(), request.getStartFileId());
+        }
+
+        @Override
+        public B2ListFilesResponse listPage(Cursor cursor) throws B2Exception {
+            // the request's builder won't replace the start, so we start from scratch.
+            final B2ListFileVersionsRequest.Builder builder = B2ListFileVersionsRequest
+                    .builder(request.getBucketId())
+                    .setMaxFileCount(request.getMaxFileCount())
+                    .setPrefix(request.getPrefix())
+                    .setDelimiter(request.getDelimiter());
+            if (cursor.fileIdOrNull != null) {
+                builder.setStart(cursor.fileNameOrNull, cursor.fileIdOrNull);
+            } else {
+                builder.setStartFileName(cursor.fileNameOrNull);
+            }
+            return client.listFileVersions(builder.build());
+        }
+
+        @Override
+        public Cursor getNextCursorOrNull(B2ListFilesResponse response) {
+            final B2ListFileVersionsResponse versionsResponse = (B2ListFileVersionsResponse) response;
+            return versionsResponse.atEnd() ?
+                    null :
+                    new Cursor(versionsResponse.getNextFileName(), versionsResponse.getNextFileId());
+        }
+    }
+
+    /**
+     * A Range is the names from startOrNull up to, but not including, endOrNull.
+     * Null means there's no limit on that side.  Only one fetch uses a range
+     * at a time.
+     */
+    private static class Range {
+        private final String startOrNull;
+        private final String endOrNull;
+        private Cursor cursor;
+
+        Range(String startOrNull,
+              String endOrNull,
+              Cursor cursor) {
+            this.startOrNull = startOrNull;
+            this.endOrNull = endOrNull;
+            this.cursor = cursor;
+        }
+
+        boolean contains(String fileName) {
+            return (startOrNull == null || B2StringUtil.compareUtf8(fileName, startOrNull) >= 0) &&
+                    (endOrNull == null || B2StringUtil.compareUtf8(fileName, endOrNull) < 0);
+        }
+    }
+
+    private class Iter implements B2ListFilesPageIterator {
+        private final B2RateLimiter rateLimiter;
+
+        // the page we're iterating over, and where we are in it.
+        private List<B2FileVersion> currentFilesOrNull;
+        private int currentIndex;
+
+        // these are guarded by 'this'.
+        private final List<Range> ranges = new ArrayList<>();
+        private int nextRangeIndex;
+        private int rangesInFlight;
+        private int fetchesInFlight;
+        private final Deque<Range> rangesWaitingForRoom = new ArrayDeque<>();
+        private final Deque<List<B2FileVersion>> fetchedPages = new ArrayDeque<>();
+        private B2Exception fetchFailureOrNull;
+
+        Iter() throws B2Exception {
+            rateLimiter = new B2RateLimiter(B2Clock.get(), policy.getMaxRequestsPerSecond());
+
+            final List<String> splitPoints = getSplitPoints(rateLimiter);
+            final String startFileNameOrNull = pageLister.getStartFileNameOrNull();
+            synchronized (this) {
+                // the first range starts at the request's own cursor, so split
+                // points at or before it would only list names it skips.
+                String start = null;
+                Cursor cursor = pageLister.getFirstCursor();
+                for (String splitPoint : splitPoints) {
+                    if (startFileNameOrNull != null && B2StringUtil.compareUtf8(splitPoint, startFileNameOrNull) <= 0) {
+                        continue;
+                    }
+                    ranges.add(new Range(start, splitPoint, cursor));
+                    start = splitPoint;
+                    cursor = new Cursor(splitPoint, null);
+                }
+                ranges.add(new Range(start, null, cursor));
+            }
+            advanceIfNeeded();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return currentFilesOrNull != null && currentIndex < currentFilesOrNull.size();
+        }
+
+        @Override
+        public B2FileVersion next() {
+            if (!hasNext()) {
+                throw new IllegalStateException("don't call when hasNext() returns false!");
+            }
+
+            final B2FileVersion version = currentFilesOrNull.get(currentIndex);
+            currentIndex++;
+            try {
+                advanceIfNeeded();
+            } catch (B2Exception e) {
+                throw new B2RuntimeException("failed to advance iterator: " + e.getMessage(), e);
+            }
+
+            return version;
+        }
+
+        @Override
+        public List<B2FileVersion> nextPage() {
+            if (!hasNext()) {
+                throw new IllegalStateException("don't call when hasNext() returns false!");
+            }
+
+            final List<B2FileVersion> page = currentFilesOrNull.subList(currentIndex, currentFilesOrNull.size());
+            currentIndex = currentFilesOrNull.size();
+            try {
+                advanceIfNeeded();
+            } catch (B2Exception e) {
+                throw new B2RuntimeException("failed to advance iterator: " + e.getMessage(), e);
+            }
+
+            return page;
+        }
+
+        private void advanceIfNeeded() throws B2Exception {
+            if (!hasNext()) {
+                currentFilesOrNull = takeFetchedPageOrNull();
+                currentIndex = 0;
+            }
+        }
+
+        /**
+         * @return the next non-empty page, or null if there aren't any more.
+         */
+        private synchronized List<B2FileVersion> takeFetchedPageOrNull() throws B2Exception {
+            startFetchesIfNeeded();
+            while (fetchedPages.isEmpty() && fetchFailureOrNull == null && !isDone()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new B2LocalException("interrupted", "interrupted while waiting for the next page: " + e, e);
+                }
+            }
+
+            // pages that arrived before a failure are still good.
+            if (fetchedPages.isEmpty()) {
+                if (fetchFailureOrNull != null) {
+                    throw fetchFailureOrNull;
+                }
+                return null;
+            }
+            final List<B2FileVersion> page = fetchedPages.removeFirst();
+            startFetchesIfNeeded();
+            return page;
+        }
+
+        // must be called while synchronized.
+        private boolean isDone() {
+            return nextRangeIndex == ranges.size() && rangesInFlight == 0;
+        }
+
+        // must be called while synchronized.
+        private void startFetchesIfNeeded() {
+            if (fetchFailureOrNull != null) {
+                return;
+            }
+            while (fetchedPages.size() + fetchesInFlight < policy.getMaxPagesBuffered()) {
+                final Range range;
+                if (!rangesWaitingForRoom.isEmpty()) {
+                    range = rangesWaitingForRoom.removeFirst();
+                } else if (nextRangeIndex < ranges.size() && rangesInFlight < policy.getMaxRangesInFlight()) {
+                    range = ranges.get(nextRangeIndex);
+                    nextRangeIndex++;
+                    rangesInFlight++;
+                } else {
+                    return;
+                }
+                fetchesInFlight++;
+                try {
+                    executor.execute(() -> fetchNextPage(range));
+                } catch (RejectedExecutionException e) {
+                    // keep the range so the bookkeeping stays right, and fail
+                    // the iterator rather than wait for a fetch that never runs.
+                    fetchesInFlight--;
+                    rangesWaitingForRoom.addFirst(range);
+                    fetchFailureOrNull = new B2LocalException("trouble", "executor rejected listing the next page: " + e, e);
+                    notifyAll();
+                    return;
+                }
+            }
+        }
+
+        private void fetchNextPage(Range range) {
+            final List<B2FileVersion> files = new ArrayList<>();
+            boolean rangeIsDone = false;
+            B2Exception failure = null;
+            try {
+                rateLimiter.acquire();
+                final B2ListFilesResponse response = pageLister.listPage(range.cursor);
+                for (B2FileVersion version : response.getFiles()) {
+                    if (range.contains(version.getFileName())) {
+                        files.add(version);
+                    }
+                }
+
+                range.cursor = pageLister.getNextCursorOrNull(response);
+                rangeIsDone = (range.cursor == null) ||
+                        (range.endOrNull != null && B2StringUtil.compareUtf8(range.cursor.fileNameOrNull, range.endOrNull) >= 0);
+            } catch (B2Exception e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new B2LocalException("trouble", "exception while listing: " + e, e);
+            }
+
+            synchronized (this) {
+                fetchesInFlight--;
+                if (failure != null) {
+                    if (fetchFailureOrNull == null) {
+                        fetchFailureOrNull = failure;
+                    }
+                } else {
+                    if (!files.isEmpty()) {
+                        fetchedPages.addLast(files);
+                    }
+                    if (rangeIsDone) {
+                        rangesInFlight--;
+                    } else {
+                        rangesWaitingForRoom.addLast(range);
+                    }
+                    startFetchesIfNeeded();
+                }
+                notifyAll();
+            }
+        }
+    }
+}
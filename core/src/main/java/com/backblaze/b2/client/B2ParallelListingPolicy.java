@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.util.B2Preconditions;
+import com.backblaze.b2.util.B2StringUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * B2ParallelListingPolicy describes how to list a bucket by splitting the
+ * file names into ranges and listing several ranges at once.
+ *
+ * The ranges are separated by split points.  Each range starts at a split
+ * point and ends just before the next one.  If you know how your names are
+ * distributed, you can supply the split points.  Otherwise, they're picked
+ * from a sample of the names at the top of the listing, using "/" as the
+ * delimiter, so the ranges line up with folders.  The listing is split into
+ * at most rangeCount ranges.
+ *
+ * At most maxRangesInFlight ranges are listed at a time, and all of them
+ * together make at most maxRequestsPerSecond requests a second, so that a
+ * big listing doesn't get us rate limited by the server.  At most
+ * maxPagesBuffered pages that haven't been iterated over yet are held in
+ * memory.
+ */
+public class B2ParallelListingPolicy {
+    private final List<String> splitPointsOrNull;
+    private final int rangeCount;
+    private final int maxRangesInFlight;
+    private final double maxRequestsPerSecond;
+    private final int maxPagesBuffered;
+
+    private B2ParallelListingPolicy(List<String> splitPointsOrNull,
+                                    int rangeCount,
+                                    int maxRangesInFlight,
+                                    double maxRequestsPerSecond,
+                                    int maxPagesBuffered) {
+        B2Preconditions.checkArgument(rangeCount > 0, "rangeCount must be positive.");
+        B2Preconditions.checkArgument(maxRangesInFlight > 0, "maxRangesInFlight must be positive.");
+        B2Preconditions.checkArgument(maxRequestsPerSecond > 0, "maxRequestsPerSecond must be positive.");
+        B2Preconditions.checkArgument(maxPagesBuffered > 0, "maxPagesBuffered must be positive.");
+
+        this.splitPointsOrNull = splitPointsOrNull;
+        this.rangeCount = rangeCount;
+        this.maxRangesInFlight = maxRangesInFlight;
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.maxPagesBuffered = maxPagesBuffered;
+    }
+
+    /**
+     * @return the sorted, distinct split points, or null if they should be
+     *         picked by sampling.
+     */
+    public List<String> getSplitPointsOrNull() {
+        return splitPointsOrNull;
+    }
+
+    public int getRangeCount() {
+        return rangeCount;
+    }
+
+    public int getMaxRangesInFlight() {
+        return maxRangesInFlight;
+    }
+
+    public double getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+
+    public int getMaxPagesBuffered() {
+        return maxPagesBuffered;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        B2ParallelListingPolicy that = (B2ParallelListingPolicy) o;
+        return Objects.equals(getSplitPointsOrNull(), that.getSplitPointsOrNull()) &&
+                getRangeCount() == that.getRangeCount() &&
+                getMaxRangesInFlight() == that.getMaxRangesInFlight() &&
+                Double.compare(that.getMaxRequestsPerSecond(), getMaxRequestsPerSecond()) == 0 &&
+                getMaxPagesBuffered() == that.getMaxPagesBuffered();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getSplitPointsOrNull(), getRangeCount(), getMaxRangesInFlight(), getMaxRequestsPerSecond(), getMaxPagesBuffered());
+    }
+
+    @Override
+    public String toString() {
+        return "B2ParallelListingPolicy{" +
+                "splitPointsOrNull=" + splitPointsOrNull +
+                ", rangeCount=" + rangeCount +
+                ", maxRangesInFlight=" + maxRangesInFlight +
+                ", maxRequestsPerSecond=" + maxRequestsPerSecond +
+                ", maxPagesBuffered=" + maxPagesBuffered +
+                '}';
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private List<String> splitPointsOrNull;
+        private int rangeCount = 16;
+        private int maxRangesInFlight = 4;
+        private double maxRequestsPerSecond = 10;
+        private int maxPagesBuffered = 16;
+
+        /**
+         * @param splitPoints the file names to start ranges at.  they don't need
+         *                    to be sorted.  if this is set, rangeCount is ignored.
+         *                    defaults to null, which means to pick them by sampling.
+         * @return this builder.
+         */
+        public Builder setSplitPoints(List<String> splitPoints) {
+            if (splitPoints == null) {
+                this.splitPointsOrNull = null;
+            } else {
+                // sorted the way b2 sorts names.
+                final TreeSet<String> sorted = new TreeSet<>(B2StringUtil::compareUtf8);
+                sorted.addAll(splitPoints);
+                this.splitPointsOrNull = Collections.unmodifiableList(new ArrayList<>(sorted));
+            }
+            return this;
+        }
+
+        /**
+         * @param rangeCount the most ranges to split the listing into when
+         *                   picking split points by sampling.  defaults to 16.
+         * @return this builder.
+         */
+        public Builder setRangeCount(int rangeCount) {
+            this.rangeCount = rangeCount;
+            return this;
+        }
+
+        /**
+         * @param maxRangesInFlight how many ranges to list at the same time.
+         *                          defaults to 4.
+         * @return this builder.
+         */
+        public Builder setMaxRangesInFlight(int maxRangesInFlight) {
+            this.maxRangesInFlight = maxRangesInFlight;
+            return this;
+        }
+
+        /**
+         * @param maxRequestsPerSecond the most list requests to start per second,
+         *                             across all of the ranges.  defaults to 10.
+         * @return this builder.
+         */
+        public Builder setMaxRequestsPerSecond(double maxRequestsPerSecond) {
+            this.maxRequestsPerSecond = maxRequestsPerSecond;
+            return this;
+        }
+
+        /**
+         * @param maxPagesBuffered the most pages to hold that haven't been
+         *                         iterated over yet.  defaults to 16.
+         * @return this builder.
+         */
+        public Builder setMaxPagesBuffered(int maxPagesBuffered) {
+            this.maxPagesBuffered = maxPagesBuffered;
+            return this;
+        }
+
+        public B2ParallelListingPolicy build() {
+            return new B2ParallelListingPolicy(
+                    splitPointsOrNull,
+                    rangeCount,
+                    maxRangesInFlight,
+                    maxRequestsPerSecond,
+                    maxPagesBuffered);
+        }
+    }
+}
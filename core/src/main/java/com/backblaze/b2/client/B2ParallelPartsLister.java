@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.structures.B2ListPartsRequest;
+import com.backblaze.b2.client.structures.B2ListPartsResponse;
+import com.backblaze.b2.client.structures.B2Part;
+import com.backblaze.b2.util.B2Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * B2ParallelPartsLister lists the parts of a large file by splitting the
+ * part numbers into ranges and listing the ranges in parallel, instead of
+ * walking through the pages one after another.
+ *
+ * Part numbers are dense integers, so a range of MAX_PARTS_PER_REQUEST part
+ * numbers can always be listed with a single request, (unless the server
+ * decides to return fewer parts than we asked for, in which case we just
+ * keep going within the range.)
+ *
+ * The caller says what the last part number it cares about is.  When we're
+ * resuming, we pick the parts from the content length, so parts numbered
+ * higher than that can't be used anyway.
+ *
+ * THREAD-SAFETY: listParts() may be called from multiple threads at once.
+ */
+class B2ParallelPartsLister {
+    // the most parts b2_list_parts will return in one response.
+    static final int MAX_PARTS_PER_REQUEST = 1000;
+
+    private final B2StorageClientImpl client;
+    private final ExecutorService executor;
+    private final int maxRequestsInFlight;
+
+    B2ParallelPartsLister(B2StorageClientImpl client,
+                          ExecutorService executor,
+                          int maxRequestsInFlight) {
+        B2Preconditions.checkArgument(maxRequestsInFlight > 0, "maxRequestsInFlight must be positive.");
+        this.client = client;
+        this.executor = executor;
+        this.maxRequestsInFlight = maxRequestsInFlight;
+    }
+
+    /**
+     * @param largeFileId the large file whose parts we want.
+     * @param lastPartNumber the highest part number we're interested in.
+     * @return the large file's parts numbered from 1 to lastPartNumber,
+     *         sorted by part number.
+     * @throws B2Exception if there's trouble listing any of the ranges.
+     */
+    List<B2Part> listParts(String largeFileId,
+                           int lastPartNumber) throws B2Exception {
+        // the ranges are in order and each range's parts are in order,
+        // so gathering them in order gives us a sorted list.
+        final List<B2Part> parts = new ArrayList<>();
+        final Deque<Future<List<B2Part>>> inFlight = new ArrayDeque<>();
+        try {
+            int nextRangeStart = 1;
+            while (nextRangeStart <= lastPartNumber || !inFlight.isEmpty()) {
+                // refill.
+                while (nextRangeStart <= lastPartNumber && inFlight.size() < maxRequestsInFlight) {
+                    final int rangeStart = nextRangeStart;
+                    final int rangeEnd = (int) Math.min(lastPartNumber, ((long) rangeStart) + MAX_PARTS_PER_REQUEST - 1);
+                    nextRangeStart = rangeEnd + 1;
+                    inFlight.addLast(executor.submit(() -> listRange(largeFileId, rangeStart, rangeEnd)));
+                }
+
+                // we need the ranges in order, so wait for the oldest one.
+                parts.addAll(getParts(inFlight.removeFirst()));
+            }
+        } finally {
+            // if we hit an exception, we won't be waiting for the others.
+            for (Future<List<B2Part>> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+        return parts;
+    }
+
+    private List<B2Part> listRange(String largeFileId,
+                                   int rangeStart,
+                                   int rangeEnd) throws B2Exception {
+        final List<B2Part> parts = new ArrayList<>();
+        Integer startPartNumber = rangeStart;
+        while (startPartNumber != null && startPartNumber <= rangeEnd) {
+            final B2ListPartsRequest request = B2ListPartsRequest
+                    .builder(largeFileId)
+                    .setStartPartNumber(startPartNumber)
+                    .setMaxPartCount(rangeEnd - startPartNumber + 1)
+                    .build();
+            final B2ListPartsResponse response = client.listParts(request);
+            for (B2Part part : response.getParts()) {
+                if (part.getPartNumber() <= rangeEnd) {
+                    parts.add(part);
+                }
+            }
+            startPartNumber = response.getNextPartNumber();
+        }
+        return parts;
+    }
+
+    private static List<B2Part> getParts(Future<List<B2Part>> future) throws B2Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new B2LocalException("interrupted", "interrupted while trying to list parts: " + e, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof B2Exception) {
+                throw (B2Exception) e.getCause();
+            } else {
+                throw new B2LocalException("trouble", "exception while trying to list parts: " + cause, cause);
+            }
+        }
+    }
+}
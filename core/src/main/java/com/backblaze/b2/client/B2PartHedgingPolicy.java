@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.util.B2Preconditions;
+
+import java.util.Objects;
+
+/**
+ * B2PartHedgingPolicy describes when to "hedge" a part of a large file
+ * which is taking much longer than the others.  Hedging means starting a
+ * second upload of the same part (which will use a different upload url,
+ * and so probably a different server) and using whichever one succeeds first.
+ *
+ * A part is a straggler when it has been running for more than
+ * stragglerFactor times the median time it took the parts that have
+ * already finished, and for at least minStragglerMillis.  We don't hedge
+ * anything until at least minFinishedParts parts have finished, so the
+ * median means something.
+ *
+ * Each part is hedged at most once, and at most maxHedgesInFlight hedges
+ * are running at any time, in addition to the regular parts in flight.
+ *
+ * Hedging makes one slow upload less likely to hold up the whole file,
+ * at the cost of sometimes uploading a part twice.
+ */
+public class B2PartHedgingPolicy {
+    private final double stragglerFactor;
+    private final long minStragglerMillis;
+    private final int minFinishedParts;
+    private final int maxHedgesInFlight;
+
+    private B2PartHedgingPolicy(double stragglerFactor,
+                                long minStragglerMillis,
+                                int minFinishedParts,
+                                int maxHedgesInFlight) {
+        B2Preconditions.checkArgument(stragglerFactor >= 1, "stragglerFactor must be at least 1.");
+        B2Preconditions.checkArgument(minStragglerMillis >= 0, "minStragglerMillis must be non-negative.");
+        B2Preconditions.checkArgument(minFinishedParts > 0, "minFinishedParts must be positive.");
+        B2Preconditions.checkArgument(maxHedgesInFlight > 0, "maxHedgesInFlight must be positive.");
+
+        this.stragglerFactor = stragglerFactor;
+        this.minStragglerMillis = minStragglerMillis;
+        this.minFinishedParts = minFinishedParts;
+        this.maxHedgesInFlight = maxHedgesInFlight;
+    }
+
+    public double getStragglerFactor() {
+        return stragglerFactor;
+    }
+
+    public long getMinStragglerMillis() {
+        return minStragglerMillis;
+    }
+
+    public int getMinFinishedParts() {
+        return minFinishedParts;
+    }
+
+    public int getMaxHedgesInFlight() {
+        return maxHedgesInFlight;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        B2PartHedgingPolicy that = (B2PartHedgingPolicy) o;
+        return Double.compare(that.getStragglerFactor(), getStragglerFactor()) == 0 &&
+                getMinStragglerMillis() == that.getMinStragglerMillis() &&
+                getMinFinishedParts() == that.getMinFinishedParts() &&
+                getMaxHedgesInFlight() == that.getMaxHedgesInFlight();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getStragglerFactor(), getMinStragglerMillis(), getMinFinishedParts(), getMaxHedgesInFlight());
+    }
+
+    @Override
+    public String toString() {
+        return "B2PartHedgingPolicy{" +
+                "stragglerFactor=" + stragglerFactor +
+                ", minStragglerMillis=" + minStragglerMillis +
+                ", minFinishedParts=" + minFinishedParts +
+                ", maxHedgesInFlight=" + maxHedgesInFlight +
+                '}';
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private double stragglerFactor = 3;
+        private long minStragglerMillis = 10 * 1000;
+        private int minFinishedParts = 5;
+        private int maxHedgesInFlight = 2;
+
+        /**
+         * @param stragglerFactor how many times the median a part must take before
+         *                        it's a straggler.  defaults to 3.
+         * @return this builder.
+         */
+        public Builder setStragglerFactor(double stragglerFactor) {
+            this.stragglerFactor = stragglerFactor;
+            return this;
+        }
+
+        /**
+         * @param minStragglerMillis a part is never a straggler before it has taken
+         *                           this long.  defaults to 10 seconds.
+         * @return this builder.
+         */
+        public Builder setMinStragglerMillis(long minStragglerMillis) {
+            this.minStragglerMillis = minStragglerMillis;
+            return this;
+        }
+
+        /**
+         * @param minFinishedParts how many parts must finish before we'll hedge any.
+         *                         defaults to 5.
+         * @return this builder.
+         */
+        public Builder setMinFinishedParts(int minFinishedParts) {
+            this.minFinishedParts = minFinishedParts;
+            return this;
+        }
+
+        /**
+         * @param maxHedgesInFlight how many hedges may be running at once.
+         *                          defaults to 2.
+         * @return this builder.
+         */
+        public Builder setMaxHedgesInFlight(int maxHedgesInFlight) {
+            this.maxHedgesInFlight = maxHedgesInFlight;
+            return this;
+        }
+
+        public B2PartHedgingPolicy build() {
+            return new B2PartHedgingPolicy(
+                    stragglerFactor,
+                    minStragglerMillis,
+                    minFinishedParts,
+                    maxHedgesInFlight);
+        }
+    }
+}
@@ -6,6 +6,7 @@ package com.backblaze.b2.client;
 
 import com.backblaze.b2.client.contentSources.B2ContentSource;
 import com.backblaze.b2.util.B2InputStreamExcerpt;
+import com.backblaze.b2.util.B2Preconditions;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -13,6 +14,10 @@ import java.io.InputStream;
 /**
  * B2PartOfContentSource implements B2ContentSource by providing an
  * excerpt of another B2ContentSource.
+ *
+ * If the underlying source can read a range directly, we use that.
+ * Otherwise, we fall back to skipping through the underlying source's
+ * whole stream up to the start of the excerpt.
  */
 class B2PartOfContentSource implements B2ContentSource {
     private final B2ContentSource source;
@@ -44,9 +49,21 @@ class B2PartOfContentSource implements B2ContentSource {
 
     @Override
     public InputStream createInputStream() throws IOException {
+        final InputStream rangeStream = source.createInputStreamOrNull(start, length);
+        if (rangeStream != null) {
+            return rangeStream;
+        }
         return new B2InputStreamExcerpt(source.createInputStream(), start, length);
     }
 
+    @Override
+    public InputStream createInputStreamOrNull(long subStart,
+                                               long subLength) throws IOException {
+        B2Preconditions.checkArgument(subStart >= 0 && subLength >= 0 && (subStart + subLength) <= length,
+                "range isn't within this part");
+        return source.createInputStreamOrNull(start + subStart, subLength);
+    }
+
     @Override
     public String toString() {
         return "B2PartOfContentSource{" +
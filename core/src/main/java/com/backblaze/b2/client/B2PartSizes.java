@@ -17,7 +17,7 @@ class B2PartSizes implements B2FilePolicy {
     private final long minimumPartSize;
     private final long recommendedPartSize;
 
-    private B2PartSizes(long minimumPartSize,
+    B2PartSizes(long minimumPartSize,
                 long recommendedPartSize) {
         this.minimumPartSize = minimumPartSize;
         this.recommendedPartSize = recommendedPartSize;
@@ -43,6 +43,26 @@ class B2PartSizes implements B2FilePolicy {
         return recommendedPartSize;
     }
 
+    /**
+     * @param maxPartsInFlight the most parts the caller is willing to have in flight.
+     * @return how many parts to have in flight right now, which is never more than
+     *         maxPartsInFlight.  this may be called more than once during an upload.
+     */
+    int pickMaxPartsInFlight(int maxPartsInFlight) {
+        return maxPartsInFlight;
+    }
+
+    /**
+     * Called after each part of a large file has been uploaded successfully.
+     * We don't care, but subclasses which learn from the timing might.
+     *
+     * @param partLength the length of the part.
+     * @param tookMillis how long the successful attempt took.
+     */
+    void partSucceeded(long partLength,
+                       long tookMillis) {
+    }
+
     @Override
     public boolean mustBeLargeFile(long contentLength) {
         return contentLength > MAX_SMALL_FILE_BYTES;
@@ -82,7 +102,15 @@ class B2PartSizes implements B2FilePolicy {
             partSize = (contentLength+1) / partCount;
             lastPartSize = contentLength - partSize;
         } else {
-            partCount = Math.min(B2StorageLimits.MAX_PARTS_PER_LARGE_FILE, (int) (contentLength / recommendedPartSize));
+            int count = (int) Math.min(B2StorageLimits.MAX_PARTS_PER_LARGE_FILE, contentLength / recommendedPartSize);
+
+            // the parts are a little bigger than recommendedPartSize, and the last
+            // one may be bigger still.  make more of them if that's too big.
+            while (count < B2StorageLimits.MAX_PARTS_PER_LARGE_FILE &&
+                    contentLength - ((count - 1) * (contentLength / count)) > B2StorageLimits.MAX_PART_SIZE) {
+                count++;
+            }
+            partCount = count;
 
             // all of the parts are the same size, except for the last one which may be bigger.
             partSize = contentLength / partCount;
@@ -93,6 +121,34 @@ class B2PartSizes implements B2FilePolicy {
         B2Preconditions.checkState(partCount >= 2);
         B2Preconditions.checkState(partSize >= minimumPartSize);
         B2Preconditions.checkState(lastPartSize >= 1);
+        return makeParts(contentLength, partCount, partSize, lastPartSize);
+    }
+
+    /**
+     * Picks the parts pickParts() would have picked when its parts (except the
+     * last one) were partSize bytes long.  This is for resuming an upload with
+     * the parts it was started with, even if we'd pick a different size now.
+     *
+     * @return the parts, or null if pickParts() couldn't have picked parts of
+     *         that size for contentLength.
+     */
+    static List<B2PartSpec> pickPartsOfSizeOrNull(long contentLength,
+                                                  long partSize) {
+        if (partSize <= 0 || partSize >= contentLength) {
+            return null;
+        }
+        final long partCount = Math.max(2, contentLength / partSize);
+        if (partCount > B2StorageLimits.MAX_PARTS_PER_LARGE_FILE) {
+            return null;
+        }
+        final long lastPartSize = contentLength - ((partCount - 1) * partSize);
+        return makeParts(contentLength, (int) partCount, partSize, lastPartSize);
+    }
+
+    private static List<B2PartSpec> makeParts(long contentLength,
+                                              int partCount,
+                                              long partSize,
+                                              long lastPartSize) {
         final List<B2PartSpec> parts = new ArrayList<>();
 
         // add all but the last part.
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentSources.B2ContentSource;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.structures.B2Part;
+import com.backblaze.b2.client.structures.B2UploadListener;
+import com.backblaze.b2.client.structures.B2UploadPartRequest;
+import com.backblaze.b2.client.structures.B2UploadPartUrlResponse;
+import com.backblaze.b2.client.structures.B2UploadState;
+import com.backblaze.b2.util.B2ByteProgressListener;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * B2PartUploader uploads the parts of a single large file, with retries,
+ * and tells the upload's listener how each part is doing.
+ *
+ * It owns the B2UploadPartUrlCache for the large file.  it's specific to
+ * the largeFile, so we don't need to keep it any longer than the uploader.
+ * we could *consider* keeping it in case we had too many errors and ended
+ * up resuming later, but there's a good chance the urls would be bad and
+ * it's ok to not optimize for that failure case.
+ *
+ * It also tells the partSizes how long each successful part took, using the
+ * timing that the B2Retryer gives to the retry policy.
+ *
+ * THREAD-SAFETY: uploadPart() may be called from multiple threads at once.
+ */
+class B2PartUploader {
+    private final B2Retryer retryer;
+    private final B2StorageClientWebifier webifier;
+    private final B2AccountAuthorizationCache accountAuthCache;
+    private final B2UploadPartUrlCache uploadPartUrlCache;
+    private final B2UploadListener listener;
+    private final B2PartSizes partSizes;
+
+    B2PartUploader(B2Retryer retryer,
+                   B2StorageClientWebifier webifier,
+                   B2AccountAuthorizationCache accountAuthCache,
+                   String largeFileId,
+                   B2UploadListener listener,
+                   B2PartSizes partSizes) {
+        this.retryer = retryer;
+        this.webifier = webifier;
+        this.accountAuthCache = accountAuthCache;
+        this.uploadPartUrlCache = new B2UploadPartUrlCache(webifier, accountAuthCache, largeFileId);
+        this.listener = listener;
+        this.partSizes = partSizes;
+    }
+
+    /**
+     * Uploads one part.
+     *
+     * @param partCount the number of parts in the large file, for progress updates.
+     * @param partSpec describes the part.
+     * @param partSource provides exactly the bytes of the part.  it will be read
+     *                   once per attempt.
+     * @return the uploaded B2Part.
+     * @throws B2Exception if the part still can't be uploaded after retrying.
+     */
+    B2Part uploadPart(int partCount,
+                      B2PartSpec partSpec,
+                      B2ContentSource partSource) throws B2Exception {
+        return uploadPart(partCount, partSpec, partSource, false);
+    }
+
+    /**
+     * Just like uploadPart(partCount, partSpec, partSource), except that it can
+     * be used for a hedge, which is a second upload of a part that's already
+     * being uploaded.
+     *
+     * A hedge always gets a fresh upload url, so it won't go to the same place
+     * as the slow attempt it's hedging.  It's quiet: the listener only hears
+     * about it if it succeeds.
+     *
+     * @param isHedge true iff this is a hedge.
+     */
+    B2Part uploadPart(int partCount,
+                      B2PartSpec partSpec,
+                      B2ContentSource partSource,
+                      boolean isHedge) throws B2Exception {
+        final B2UploadListener attemptListener = isHedge ? B2UploadListener.noopListener() : listener;
+        return retryer.doRetry("b2_upload_part",
+                accountAuthCache,
+                (isRetry) -> {
+                    final B2ByteProgressListener progressAdapter = new B2UploadProgressAdapter(attemptListener,
+                            partSpec.getPartNumber() - 1,
+                            partCount,
+                            partSpec.getStart(),
+                            partSpec.getLength());
+                    final B2ByteProgressFilteringListener progressListener = new B2ByteProgressFilteringListener(progressAdapter);
+
+                    try {
+                        final B2UploadPartUrlResponse uploadPartUrlResponse = uploadPartUrlCache.get(isRetry || isHedge);
+
+
+                        attemptListener.progress(B2UploadProgressUtil.forPart(partSpec, partCount, 0, B2UploadState.STARTING));
+
+
+                        final B2ContentSource source = new B2ContentSourceWithByteProgressListener(partSource, progressListener);
+
+                        final B2UploadPartRequest partRequest = B2UploadPartRequest
+                                .builder(partSpec.partNumber, source)
+                                .build();
+
+                        final B2Part part = webifier.uploadPart(uploadPartUrlResponse, partRequest);
+                        uploadPartUrlCache.unget(uploadPartUrlResponse);
+
+                        listener.progress(B2UploadProgressUtil.forPartSucceeded(partSpec, partCount));
+                        return part;
+                    } catch (Exception e) {
+                        attemptListener.progress(B2UploadProgressUtil.forPartFailed(partSpec, partCount, progressListener.getBytesSoFar()));
+                        throw e;
+                    }
+                },
+                new PartTimingRetryPolicy(new B2DefaultRetryPolicy(), partSpec.getLength()));
+    }
+
+    /**
+     * PartTimingRetryPolicy passes everything through to another policy,
+     * but also tells our partSizes how long the successful attempt took,
+     * so they can learn from it.
+     */
+    private class PartTimingRetryPolicy implements B2RetryPolicy {
+        private final B2RetryPolicy policy;
+        private final long partLength;
+
+        PartTimingRetryPolicy(B2RetryPolicy policy,
+                              long partLength) {
+            this.policy = policy;
+            this.partLength = partLength;
+        }
+
+        @Override
+        public void succeeded(String operation,
+                              int attemptsSoFar,
+                              long tookMillis) {
+            policy.succeeded(operation, attemptsSoFar, tookMillis);
+            partSizes.partSucceeded(partLength, tookMillis);
+        }
+
+        @Override
+        public Integer gotRetryableAfterDelay(String operation,
+                                              int attemptsSoFar,
+                                              long tookMillis,
+                                              B2Exception e) {
+            return policy.gotRetryableAfterDelay(operation, attemptsSoFar, tookMillis, e);
+        }
+
+        @Override
+        public boolean gotRetryableImmediately(String operation,
+                                               int attemptsSoFar,
+                                               long tookMillis,
+                                               B2Exception e) {
+            return policy.gotRetryableImmediately(operation, attemptsSoFar, tookMillis, e);
+        }
+
+        @Override
+        public void gotUnretryable(String operation,
+                                   int attemptsSoFar,
+                                   long tookMillis,
+                                   B2Exception e) {
+            policy.gotUnretryable(operation, attemptsSoFar, tookMillis, e);
+        }
+
+        @Override
+        public void gotUnexpectedUnretryable(String operation,
+                                             int attemptsSoFar,
+                                             long tookMillis,
+                                             Exception e) {
+            policy.gotUnexpectedUnretryable(operation, attemptsSoFar, tookMillis, e);
+        }
+    }
+
+    /**
+     * Starts getting upload part urls in the background.
+     * See B2UploadPartUrlCache.prewarm().
+     */
+    void prewarmUrls(int poolSize,
+                     ExecutorService executor) {
+        uploadPartUrlCache.prewarm(poolSize, executor);
+    }
+
+    void stopPrewarmingUrls() {
+        uploadPartUrlCache.stopPrewarming();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.util.B2Clock;
+import com.backblaze.b2.util.B2Preconditions;
+
+/**
+ * B2RateLimiter spaces out the starts of operations so that no more than
+ * permitsPerSecond of them start in any second.  Each caller reserves the
+ * next free slot and sleeps until it comes, so callers go in the order
+ * they asked, and a burst of callers is spread out instead of rejected.
+ *
+ * THREAD-SAFETY: this is thread-safe.
+ */
+class B2RateLimiter {
+    private final B2Clock clock;
+    private final double millisBetween;
+
+    // when the next permit may be used.  guarded by 'this'.
+    private double nextFreeMillis;
+
+    B2RateLimiter(B2Clock clock,
+                  double permitsPerSecond) {
+        B2Preconditions.checkArgument(permitsPerSecond > 0, "permitsPerSecond must be positive.");
+        this.clock = clock;
+        this.millisBetween = 1000.0 / permitsPerSecond;
+        this.nextFreeMillis = clock.monotonicMillis();
+    }
+
+    /**
+     * Waits until the caller may start an operation.
+     *
+     * @throws B2LocalException if interrupted while waiting.
+     */
+    void acquire() throws B2LocalException {
+        final long millisToWait = reserve();
+        if (millisToWait > 0) {
+            try {
+                Thread.sleep(millisToWait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new B2LocalException("interrupted", "interrupted while waiting to make a request: " + e, e);
+            }
+        }
+    }
+
+    /**
+     * Reserves the next free slot.
+     *
+     * @return how many milliseconds the caller must wait before using it.
+     */
+    synchronized long reserve() {
+        final long nowMillis = clock.monotonicMillis();
+
+        // don't save up permits while we're idle.
+        final double slotMillis = Math.max(nowMillis, nextFreeMillis);
+        nextFreeMillis = slotMillis + millisBetween;
+        return Math.round(slotMillis - nowMillis);
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.exceptions.B2ConnectionBrokenException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.structures.B2StreamingDownloadRequest;
+import com.backblaze.b2.util.B2IoUtils;
+import com.backblaze.b2.util.B2Sha1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.backblaze.b2.util.B2StringUtil.toHexString;
+
+/**
+ * B2ReadAheadDownloadStream is an InputStream with the contents of a file
+ * in b2, as described by a B2StreamingDownloadRequest.
+ *
+ * The first chunk is downloaded before the stream is returned, because
+ * its response tells us how long the file is, and because it's nicer to
+ * find out that the file doesn't exist from the call that opens it.  After
+ * that, the next readAheadChunks chunks are always being downloaded by the
+ * executor or waiting to be read.  Each time the reader finishes a chunk,
+ * another one is started.
+ *
+ * Each chunk is downloaded with the client's downloadById(), so each chunk
+ * is retried on its own.  If a chunk still fails, read() throws an
+ * IOException with the B2Exception as its cause.
+ *
+ * Since the chunks are read in order, we can compute the SHA-1 of the whole
+ * file as it's read, and check it against the file's SHA-1 (if b2 told us
+ * what it is) when the reader reaches the end.  A mismatch makes that last
+ * read() throw an IOException instead of returning EOF.
+ *
+ * Closing the stream cancels the chunks that haven't been read.
+ *
+ * THREAD-SAFETY: like most InputStreams, this should only be read from one thread.
+ */
+public class B2ReadAheadDownloadStream extends InputStream {
+    private final B2StorageClient client;
+    private final ExecutorService executor;
+    private final B2StreamingDownloadRequest request;
+    private final B2Headers headers;
+    private final long contentLength;
+    private final MessageDigest digest = B2Sha1.createSha1MessageDigest();
+
+    // chunks after the current one, in order.
+    private final Deque<Future<byte[]>> readAhead = new ArrayDeque<>();
+    private long nextChunkStart;
+
+    // the chunk being read.
+    private byte[] current;
+    private int currentPos;
+
+    private boolean isClosed;
+    private boolean checkedSha1;
+
+    private B2ReadAheadDownloadStream(B2StorageClient client,
+                                      ExecutorService executor,
+                                      B2StreamingDownloadRequest request,
+                                      B2Headers headers,
+                                      long contentLength,
+                                      byte[] firstChunk) {
+        this.client = client;
+        this.executor = executor;
+        this.request = request;
+        this.headers = headers;
+        this.contentLength = contentLength;
+        this.nextChunkStart = firstChunk.length;
+        startCurrent(firstChunk);
+        fillReadAhead();
+    }
+
+    /**
+     * Downloads the first chunk, starts reading ahead, and returns the stream.
+     */
+    static B2ReadAheadDownloadStream open(B2StorageClient client,
+                                          ExecutorService executor,
+                                          B2StreamingDownloadRequest request) throws B2Exception {
+        final int chunkSize = request.getChunkSize();
+        final ChunkSink firstChunk = new ChunkSink(0, chunkSize, false);
+        B2ChunkedDownloadUtil.downloadFirstChunk(client, request.getFileId(), chunkSize, firstChunk);
+
+        final B2Headers headers = firstChunk.getHeaders();
+        final long contentLength = B2ChunkedDownloadUtil.getContentLength(headers, firstChunk.getBytes().length);
+        return new B2ReadAheadDownloadStream(client, executor, request, headers, contentLength, firstChunk.getBytes());
+    }
+
+    /**
+     * @return the headers from the first chunk's response.  they describe the
+     *         file, though their Content-Length and Content-Range are for the
+     *         first chunk.
+     */
+    public B2Headers getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return the number of bytes in the whole file.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] one = new byte[1];
+        final int n = read(one, 0, 1);
+        return (n < 0) ? -1 : (one[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b,
+                    int off,
+                    int len) throws IOException {
+        if (isClosed) {
+            throw new IOException("stream is closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        while (currentPos == current.length) {
+            if (readAhead.isEmpty()) {
+                checkSha1();
+                return -1;
+            }
+            startCurrent(waitFor(readAhead.removeFirst()));
+            fillReadAhead();
+        }
+
+        final int n = Math.min(len, current.length - currentPos);
+        System.arraycopy(current, currentPos, b, off, n);
+        currentPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (current == null) ? 0 : current.length - currentPos;
+    }
+
+    @Override
+    public void close() {
+        if (!isClosed) {
+            isClosed = true;
+            current = null;
+            for (Future<byte[]> future : readAhead) {
+                future.cancel(true);
+            }
+            readAhead.clear();
+        }
+    }
+
+    private void startCurrent(byte[] chunk) {
+        current = chunk;
+        currentPos = 0;
+        digest.update(chunk);
+    }
+
+    private void fillReadAhead() {
+        while (nextChunkStart < contentLength && readAhead.size() < request.getReadAheadChunks()) {
+            final long chunkStart = nextChunkStart;
+            final int chunkLength = (int) Math.min(request.getChunkSize(), contentLength - chunkStart);
+            nextChunkStart += chunkLength;
+            readAhead.addLast(executor.submit(() -> {
+                final ChunkSink sink = new ChunkSink(chunkStart, chunkLength, true);
+                client.downloadById(B2ChunkedDownloadUtil.makeRangeRequest(request.getFileId(), chunkStart, chunkLength), sink);
+                return sink.getBytes();
+            }));
+        }
+    }
+
+    private void checkSha1() throws IOException {
+        if (checkedSha1) {
+            return;
+        }
+        checkedSha1 = true;
+
+        final String expectedSha1 = headers.getWholeFileSha1OrNull();
+        if (expectedSha1 != null) {
+            final String actualSha1 = toHexString(digest.digest());
+            if (!B2Sha1.equalHexSha1s(expectedSha1, actualSha1)) {
+                throw new IOException("sha1 mismatch from network.  expected " + expectedSha1 + ", but got " + actualSha1);
+            }
+        }
+    }
+
+    private static byte[] waitFor(Future<byte[]> future) throws IOException {
+        try {
+            return B2ChunkedDownloadUtil.waitForChunk(future);
+        } catch (B2Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException(e.getMessage());
+            }
+            throw new IOException("failed to download a chunk: " + e, e);
+        }
+    }
+
+    /**
+     * ChunkSink reads one response into memory.  It may be called more than
+     * once if the chunk is retried.
+     *
+     * The first chunk may be shorter than we asked for, since we don't know
+     * how long the file is yet.  After that, we know exactly what each chunk
+     * should be, so a response for any other range is an error.
+     */
+    private static class ChunkSink implements B2ContentSink {
+        private final long chunkStart;
+        private final int maxLength;
+        private final boolean mustBeExact;
+
+        // from the most recent attempt.
+        private B2Headers headers;
+        private byte[] bytes;
+
+        ChunkSink(long chunkStart,
+                  int maxLength,
+                  boolean mustBeExact) {
+            this.chunkStart = chunkStart;
+            this.maxLength = maxLength;
+            this.mustBeExact = mustBeExact;
+        }
+
+        B2Headers getHeaders() {
+            return headers;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void readContent(B2Headers responseHeaders,
+                                InputStream in) throws B2Exception {
+            headers = responseHeaders;
+            bytes = null;
+
+            final long expectedLength = responseHeaders.getContentLength();
+            if (mustBeExact) {
+                final Long rangeStartOrNull = responseHeaders.getContentRangeStartOrNull();
+                if (expectedLength != maxLength || rangeStartOrNull == null || rangeStartOrNull != chunkStart) {
+                    throw new B2ConnectionBrokenException("read_failed", null, "asked for bytes " + chunkStart + "-" +
+                            (chunkStart + maxLength - 1) + ", but got Content-Length " + expectedLength +
+                            " and Content-Range " + responseHeaders.getValueOrNull(B2Headers.CONTENT_RANGE));
+                }
+            }
+            if (expectedLength > maxLength) {
+                throw new B2LocalException("trouble", "asked for at most " + maxLength + " bytes starting at " +
+                        chunkStart + ", but the response has " + expectedLength);
+            }
+
+            final byte[] buffer = new byte[(int) expectedLength];
+            final int nRead;
+            try {
+                nRead = B2IoUtils.readFully(in, buffer);
+            } catch (IOException e) {
+                throw new B2ConnectionBrokenException("read_failed", null, "read failed: " + e.getMessage(), e);
+            }
+            if (nRead != expectedLength) {
+                throw new B2ConnectionBrokenException("read_failed", null, "expected " + expectedLength +
+                        " bytes starting at " + chunkStart + ", but got " + nRead);
+            }
+            bytes = buffer;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.exceptions.B2ConnectionBrokenException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.structures.B2DownloadByIdRequest;
+import com.backblaze.b2.util.B2ByteRange;
+import com.backblaze.b2.util.B2IoUtils;
+import com.backblaze.b2.util.B2Preconditions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * B2SeekableDownloadChannel is a read-only SeekableByteChannel over a file
+ * in b2.  It's for readers that jump around in a big file, like readers of
+ * zip, tar or parquet files, and only need a small part of it.
+ *
+ * The file is read in fixed-size blocks with ranged downloadById() requests,
+ * and the most recently used blocks are kept in memory.  When a read needs
+ * several blocks that aren't cached, they're fetched with one request.  When
+ * a read starts where the previous one ended, we guess that the reader is
+ * going through the file in order, and also fetch up to maxReadAheadBlocks
+ * blocks after the ones it asked for, in the same request.
+ *
+ * A read never returns more than maxCachedBlocks blocks worth of bytes, so
+ * callers that want a big buffer filled should loop, as they should with
+ * any channel.
+ *
+ * Each request is retried by the client like any other download.  If it
+ * still fails, read() throws an IOException with the B2Exception as its cause.
+ *
+ * NOTE: ranged downloads can't be checked against the file's SHA-1.
+ *
+ * THREAD-SAFETY: the methods are synchronized, so it's safe to share one
+ *                channel between threads, but they'll take turns.
+ */
+public class B2SeekableDownloadChannel implements SeekableByteChannel {
+    private final B2StorageClient client;
+    private final String fileId;
+    private final int blockSize;
+    private final int maxCachedBlocks;
+    private final int maxReadAheadBlocks;
+
+    // block number -> the bytes of that block.  every block is blockSize
+    // bytes long, except for the last block of the file.
+    private final B2BoundedLruMap<Long, byte[]> cache;
+
+    // null until we ask b2, unless it was given to the builder.
+    private Long sizeOrNull;
+
+    private long position;
+
+    // where the last read ended, so we can tell if the next one follows it.
+    private long endOfLastRead;
+
+    private boolean isOpen = true;
+
+    // for tests.
+    private long requestCount;
+
+    private B2SeekableDownloadChannel(B2StorageClient client,
+                                      String fileId,
+                                      Long sizeOrNull,
+                                      int blockSize,
+                                      int maxCachedBlocks,
+                                      int maxReadAheadBlocks) {
+        this.client = client;
+        this.fileId = fileId;
+        this.sizeOrNull = sizeOrNull;
+        this.blockSize = blockSize;
+        this.maxCachedBlocks = maxCachedBlocks;
+        this.maxReadAheadBlocks = maxReadAheadBlocks;
+        this.cache = B2BoundedLruMap.withMax(maxCachedBlocks);
+    }
+
+    public static Builder builder(B2StorageClient client,
+                                  String fileId) {
+        return new Builder(client, fileId);
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        final long size = size();
+        if (position >= size) {
+            return -1;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+
+        final long firstBlock = position / blockSize;
+        final long lastBlockInFile = (size - 1) / blockSize;
+        final long lastBlockWanted = Math.min(
+                (position + dst.remaining() - 1) / blockSize,
+                Math.min(lastBlockInFile, firstBlock + maxCachedBlocks - 1));
+        final boolean isSequential = (position == endOfLastRead);
+
+        // we copy straight from the blocks we fetch, so it doesn't matter
+        // if fetching the read-ahead blocks pushes the ones we want out
+        // of the cache.
+        final long start = position;
+        long block = firstBlock;
+        while (block <= lastBlockWanted) {
+            final byte[] cached = cache.get(block);
+            if (cached != null) {
+                copyFromBlock(block, cached, dst);
+                block++;
+                continue;
+            }
+
+            // fetch the run of missing blocks starting here.  if it reaches the
+            // end of what the reader wants and the reader seems to be reading
+            // in order, keep going a little further.
+            long runEnd = block;
+            while (runEnd < lastBlockWanted && !cache.containsKey(runEnd + 1)) {
+                runEnd++;
+            }
+            if (runEnd == lastBlockWanted && isSequential) {
+                final long readAheadEnd = Math.min(lastBlockInFile,
+                        Math.min(runEnd + maxReadAheadBlocks, block + maxCachedBlocks - 1));
+                while (runEnd < readAheadEnd && !cache.containsKey(runEnd + 1)) {
+                    runEnd++;
+                }
+            }
+
+            final List<byte[]> fetched = fetchBlocks(block, runEnd, size);
+            for (byte[] data : fetched) {
+                cache.put(block, data);
+                if (block <= lastBlockWanted && dst.hasRemaining()) {
+                    copyFromBlock(block, data, dst);
+                }
+                block++;
+            }
+        }
+
+        endOfLastRead = position;
+        return (int) (position - start);
+    }
+
+    /**
+     * Copies the part of the block at the current position into dst,
+     * as much as fits, and advances the position.
+     */
+    private void copyFromBlock(long block,
+                               byte[] data,
+                               ByteBuffer dst) {
+        final int offsetInBlock = (int) (position - block * blockSize);
+        final int length = Math.min(data.length - offsetInBlock, dst.remaining());
+        dst.put(data, offsetInBlock, length);
+        position += length;
+    }
+
+    /**
+     * Fetches blocks firstBlock through lastBlock with one ranged request.
+     */
+    private List<byte[]> fetchBlocks(long firstBlock,
+                                     long lastBlock,
+                                     long size) throws IOException {
+        final long startByte = firstBlock * blockSize;
+        final long endByte = Math.min(size, (lastBlock + 1) * blockSize) - 1;
+        final B2DownloadByIdRequest request = B2DownloadByIdRequest
+                .builder(fileId)
+                .setRange(B2ByteRange.between(startByte, endByte))
+                .build();
+        final BlocksSink sink = new BlocksSink(startByte, endByte);
+
+        requestCount++;
+        try {
+            client.downloadById(request, sink);
+        } catch (B2Exception e) {
+            throw new IOException("failed to read bytes " + startByte + "-" + endByte + " of " + fileId + ": " + e, e);
+        }
+        return sink.getBlocks();
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        B2Preconditions.checkArgument(newPosition >= 0, "newPosition must not be negative.");
+        ensureOpen();
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        if (sizeOrNull == null) {
+            try {
+                sizeOrNull = client.getFileInfo(fileId).getContentLength();
+            } catch (B2Exception e) {
+                throw new IOException("failed to get the size of " + fileId + ": " + e, e);
+            }
+        }
+        return sizeOrNull;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return isOpen;
+    }
+
+    @Override
+    public synchronized void close() {
+        isOpen = false;
+        cache.clear();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    // for tests.
+    synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * BlocksSink reads one ranged response into block-sized arrays.
+     * It may be called more than once if the request is retried.
+     */
+    private class BlocksSink implements B2ContentSink {
+        private final long startByte;
+        private final long endByte;
+
+        private final List<byte[]> blocks = new ArrayList<>();
+
+        BlocksSink(long startByte,
+                   long endByte) {
+            this.startByte = startByte;
+            this.endByte = endByte;
+        }
+
+        List<byte[]> getBlocks() {
+            return blocks;
+        }
+
+        @Override
+        public void readContent(B2Headers responseHeaders,
+                                InputStream in) throws B2Exception {
+            // if this is a retry, forget about what the last attempt read.
+            blocks.clear();
+
+            final long expectedLength = endByte - startByte + 1;
+            final long contentLength = responseHeaders.getContentLength();
+            final Long rangeStartOrNull = responseHeaders.getContentRangeStartOrNull();
+            if (contentLength != expectedLength || rangeStartOrNull == null || rangeStartOrNull != startByte) {
+                throw new B2ConnectionBrokenException("read_failed", null, "asked for bytes " + startByte + "-" +
+                        endByte + ", but got Content-Length " + contentLength + " and Content-Range " +
+                        responseHeaders.getValueOrNull(B2Headers.CONTENT_RANGE));
+            }
+
+            long remaining = expectedLength;
+            while (remaining > 0) {
+                final byte[] block = new byte[(int) Math.min(blockSize, remaining)];
+                final int nRead;
+                try {
+                    nRead = B2IoUtils.readFully(in, block);
+                } catch (IOException e) {
+                    throw new B2ConnectionBrokenException("read_failed", null, "read failed: " + e.getMessage(), e);
+                }
+                if (nRead != block.length) {
+                    throw new B2ConnectionBrokenException("read_failed", null, "expected " + expectedLength +
+                            " bytes starting at " + startByte + ", but got " +
+                            (expectedLength - remaining + nRead));
+                }
+                blocks.add(block);
+                remaining -= block.length;
+            }
+        }
+    }
+
+    public static class Builder {
+        private final B2StorageClient client;
+        private final String fileId;
+        private Long sizeOrNull;
+        private int blockSize = 1024 * 1024;
+        private int maxCachedBlocks = 16;
+        private int maxReadAheadBlocks = 4;
+
+        Builder(B2StorageClient client,
+                String fileId) {
+            this.client = client;
+            this.fileId = fileId;
+        }
+
+        /**
+         * If you already know the size of the file, say from listing it,
+         * setting it here saves a getFileInfo() call.
+         * By default, it's fetched the first time it's needed.
+         */
+        public Builder setSize(long size) {
+            this.sizeOrNull = size;
+            return this;
+        }
+
+        /**
+         * @param blockSize the number of bytes in each block.  defaults to 1MB.
+         */
+        public Builder setBlockSize(int blockSize) {
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        /**
+         * @param maxCachedBlocks the number of blocks to keep in memory.  defaults to 16.
+         */
+        public Builder setMaxCachedBlocks(int maxCachedBlocks) {
+            this.maxCachedBlocks = maxCachedBlocks;
+            return this;
+        }
+
+        /**
+         * @param maxReadAheadBlocks the number of extra blocks to fetch when
+         *                           the reader seems to be reading in order.
+         *                           0 turns off read-ahead.  defaults to 4.
+         */
+        public Builder setMaxReadAheadBlocks(int maxReadAheadBlocks) {
+            this.maxReadAheadBlocks = maxReadAheadBlocks;
+            return this;
+        }
+
+        public B2SeekableDownloadChannel build() {
+            B2Preconditions.checkArgument(sizeOrNull == null || sizeOrNull >= 0, "size must not be negative.");
+            B2Preconditions.checkArgument(blockSize > 0, "blockSize must be positive.");
+            B2Preconditions.checkArgument(maxCachedBlocks > 0, "maxCachedBlocks must be positive.");
+            B2Preconditions.checkArgument(maxReadAheadBlocks >= 0, "maxReadAheadBlocks must not be negative.");
+            return new B2SeekableDownloadChannel(client, fileId, sizeOrNull, blockSize, maxCachedBlocks, maxReadAheadBlocks);
+        }
+    }
+}
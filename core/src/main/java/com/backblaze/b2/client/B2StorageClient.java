@@ -6,7 +6,9 @@
 package com.backblaze.b2.client;
 
 import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2Headers;
 import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
 import com.backblaze.b2.client.structures.B2Bucket;
 import com.backblaze.b2.client.structures.B2CancelLargeFileRequest;
 import com.backblaze.b2.client.structures.B2CreateBucketRequest;
@@ -24,6 +26,8 @@ import com.backblaze.b2.client.structures.B2ListFileNamesRequest;
 import com.backblaze.b2.client.structures.B2ListFileVersionsRequest;
 import com.backblaze.b2.client.structures.B2ListPartsRequest;
 import com.backblaze.b2.client.structures.B2ListUnfinishedLargeFilesRequest;
+import com.backblaze.b2.client.structures.B2ParallelDownloadRequest;
+import com.backblaze.b2.client.structures.B2StreamingDownloadRequest;
 import com.backblaze.b2.client.structures.B2UpdateBucketRequest;
 import com.backblaze.b2.client.structures.B2UploadFileRequest;
 
@@ -135,8 +139,46 @@ public interface B2StorageClient extends Closeable {
      */
     B2FileVersion uploadSmallFile(B2UploadFileRequest request) throws B2Exception;
 
+    /**
+     * Starts getting upload urls for the given bucket in parallel, in the
+     * background, so that the next poolSize uploads to the bucket don't each
+     * have to wait to get one from the server first.  As the urls are used
+     * (or thrown away after trouble), more are gotten in the background to
+     * keep poolSize of them on hand, until stopPrewarmingUploadUrls() is
+     * called for the bucket.
+     *
+     * This is useful just before a burst of uploads to a bucket.  poolSize
+     * is usually the number of uploads you'll do at the same time.
+     *
+     * The default implementation does nothing.
+     *
+     * @param bucketId the bucket you're about to upload to.
+     * @param poolSize how many upload urls to keep on hand.
+     * @param executor the executor to get the urls with.  the caller retains
+     *                 ownership of the executor and is responsible for
+     *                 shutting it down.
+     */
+    default void prewarmUploadUrls(String bucketId,
+                                   int poolSize,
+                                   ExecutorService executor) {
+    }
+
+    /**
+     * Stops getting upload urls for the given bucket in the background.
+     * Any urls already on hand are still used by later uploads.
+     *
+     * The default implementation does nothing.
+     *
+     * @param bucketId the bucket to stop prewarming.
+     */
+    default void stopPrewarmingUploadUrls(String bucketId) {
+    }
+
     /**
      * Uploads the specified content as separate parts to form a B2 large file.
+     * This hands all of the parts to the executor at once.  If the executor is
+     * shared with other work, consider limiting the parts in flight with
+     * uploadLargeFile(request, executor, maxPartsInFlight).
      *
      * @param request  describes the content to upload and extra metadata about it.
      * @param executor the executor to use for uploading parts in parallel.
@@ -148,6 +190,132 @@ public interface B2StorageClient extends Closeable {
     B2FileVersion uploadLargeFile(B2UploadFileRequest request,
                                   ExecutorService executor) throws B2Exception;
 
+    /**
+     * Uploads the specified content as separate parts to form a B2 large file.
+     * At most maxPartsInFlight parts are given to the executor at a time.
+     * Whenever one of them finishes, the next part is handed to the executor.
+     *
+     * The default implementation ignores maxPartsInFlight and returns
+     * uploadLargeFile(request, executor).
+     *
+     * @param request          describes the content to upload and extra metadata about it.
+     * @param executor         the executor to use for uploading parts in parallel.
+     *                         the caller retains ownership of the executor and is
+     *                         responsible for shutting it down.
+     * @param maxPartsInFlight the maximum number of parts to upload at the same time.
+     * @return the B2FileVersion that represents it.
+     * @throws B2Exception if there's any trouble.
+     */
+    default B2FileVersion uploadLargeFile(B2UploadFileRequest request,
+                                          ExecutorService executor,
+                                          int maxPartsInFlight) throws B2Exception {
+        return uploadLargeFile(request, executor);
+    }
+
+    /**
+     * Just like uploadLargeFile(request, executor, maxPartsInFlight), except that
+     * the upload's progress is recorded in the given journal, and if the journal
+     * already has an upload of this content which hasn't finished, that upload
+     * is resumed instead of starting over.
+     *
+     * The journal records the large file's fileId and, after each part is uploaded,
+     * the part's number, sha1, offset and length, along with the contentSource's
+     * lastModified time and length.  If the contentSource's lastModified or length
+     * has changed since the journal's upload was started, a new upload is started.
+     * (The old one is left unfinished; you may cancel it if you like.)
+     *
+     * Resuming doesn't list the parts on the server; it only asks for the large
+     * file's info to make sure it's still unfinished and matches the request.
+     *
+     * The default implementation ignores the journal and returns
+     * uploadLargeFile(request, executor, maxPartsInFlight), so it always
+     * starts over.
+     *
+     * @param request          describes the content to upload and extra metadata about it.
+     * @param executor         the executor to use for uploading parts in parallel.
+     *                         the caller retains ownership of the executor and is
+     *                         responsible for shutting it down.
+     * @param maxPartsInFlight the maximum number of parts to upload at the same time.
+     * @param journal          the journal for this content.  the caller retains
+     *                         ownership of the journal and is responsible for closing it.
+     * @return the B2FileVersion that represents it.
+     * @throws B2Exception if there's any trouble.
+     */
+    default B2FileVersion uploadLargeFile(B2UploadFileRequest request,
+                                          ExecutorService executor,
+                                          int maxPartsInFlight,
+                                          B2LargeFileJournal journal) throws B2Exception {
+        return uploadLargeFile(request, executor, maxPartsInFlight);
+    }
+
+    /**
+     * Uploads content whose length isn't known ahead of time, such as the output
+     * of another program.  The request's contentSource's createInputStream() is
+     * called exactly once and the stream is read sequentially.  getContentLength()
+     * is not called.
+     *
+     * The stream is read into buffers of the recommended part size and each buffer
+     * is uploaded as a part as soon as it's full.  If the stream ends before two
+     * buffers are full, the content is uploaded as a small file instead.
+     *
+     * This holds at most (maxPartsInFlight + 1) part-sized buffers in memory.
+     *
+     * If it's uploaded as a large file, the SHA-1 of the whole content is
+     * given to the request's listener's largeFileSha1Computed().
+     *
+     * The default implementation throws a B2LocalException, since there's no
+     * way to do this with the other methods.
+     *
+     * @param request          describes the content to upload and extra metadata about it.
+     * @param executor         the executor to use for uploading parts in parallel.
+     *                         the caller retains ownership of the executor and is
+     *                         responsible for shutting it down.
+     * @param maxPartsInFlight the maximum number of parts to upload at the same time.
+     * @return the B2FileVersion that represents it.
+     * @throws B2Exception if there's any trouble.
+     */
+    default B2FileVersion uploadLargeFileFromStream(B2UploadFileRequest request,
+                                                    ExecutorService executor,
+                                                    int maxPartsInFlight) throws B2Exception {
+        throw new B2LocalException("unsupported", getClass().getName() + " doesn't support uploadLargeFileFromStream().");
+    }
+
+    /**
+     * Just like uploadLargeFile(request, executor, maxPartsInFlight), except that
+     * the content is read only once, sequentially, instead of once to compute its
+     * SHA-1 and again, part by part, to upload it.  This is useful for very big
+     * files when the contentSource doesn't already know the content's SHA-1.
+     *
+     * The request's contentSource's createInputStream() is called exactly once.
+     * Each part is read into a buffer and uploaded from that buffer, so this holds
+     * at most (maxPartsInFlight + 1) part-sized buffers in memory.
+     *
+     * While reading, this computes the SHA-1 of the whole content.  B2 only accepts
+     * LARGE_FILE_SHA1 when the large file is started, so it can't be stored with the
+     * file.  Instead, it's given to the request's listener's largeFileSha1Computed()
+     * after the file is finished.  If the contentSource does provide a SHA-1, this
+     * checks that it matches the content before finishing the file.
+     *
+     * The parts are the same as the ones uploadLargeFile() would use, so if the
+     * upload fails, you may use finishUploadingLargeFile() to finish it.
+     *
+     * The default implementation returns uploadLargeFile(request, executor,
+     * maxPartsInFlight), which reads the content twice.
+     *
+     * @param request          describes the content to upload and extra metadata about it.
+     * @param executor         the executor to use for uploading parts in parallel.
+     *                         the caller retains ownership of the executor and is
+     *                         responsible for shutting it down.
+     * @param maxPartsInFlight the maximum number of parts to upload at the same time.
+     * @return the B2FileVersion that represents it.
+     * @throws B2Exception if there's any trouble.
+     */
+    default B2FileVersion uploadLargeFileInOnePass(B2UploadFileRequest request,
+                                                   ExecutorService executor,
+                                                   int maxPartsInFlight) throws B2Exception {
+        return uploadLargeFile(request, executor, maxPartsInFlight);
+    }
+
     /**
      * Verifies that the given fileVersion represents an unfinished large file
      * and that the specified content is compatible-enough with the information
@@ -172,6 +340,30 @@ public interface B2StorageClient extends Closeable {
                                            B2UploadFileRequest request,
                                            ExecutorService executor) throws B2Exception;
 
+    /**
+     * Just like finishUploadingLargeFile(fileVersion, request, executor), except
+     * that at most maxPartsInFlight parts are given to the executor at a time.
+     * Parts that were already uploaded don't count against the limit.
+     *
+     * The default implementation ignores maxPartsInFlight and returns
+     * finishUploadingLargeFile(fileVersion, request, executor).
+     *
+     * @param fileVersion      describes the unfinished large file we want to finish.
+     * @param request          describes the content we want to use to finish the large file
+     * @param executor         the executor to use for uploading parts in parallel.
+     *                         the caller retains ownership of the executor and is
+     *                         responsible for shutting it down.
+     * @param maxPartsInFlight the maximum number of parts to upload at the same time.
+     * @return the B2FileVersion that represents the finished large file.
+     * @throws B2Exception if there's any trouble.
+     */
+    default B2FileVersion finishUploadingLargeFile(B2FileVersion fileVersion,
+                                                   B2UploadFileRequest request,
+                                                   ExecutorService executor,
+                                                   int maxPartsInFlight) throws B2Exception {
+        return finishUploadingLargeFile(fileVersion, request, executor);
+    }
+
     /**
      * Returns an iterable whose iterator yields the fileVersions that match the given request.
      *
@@ -222,6 +414,51 @@ public interface B2StorageClient extends Closeable {
         return fileNames(B2ListFileNamesRequest.builder(bucketId).setMaxFileCount(1000).build());
     }
 
+    /**
+     * Returns an iterable whose iterators yield the fileVersions that match the
+     * given request, like fileVersions(request), but which lists several ranges
+     * of file names at once, as described by the policy.  This can be much
+     * faster for a bucket with a great many files.
+     *
+     * NOTE: the files are NOT yielded in name order.  All versions of a file
+     *       name are yielded together, in their usual order.
+     *
+     * The default implementation ignores the policy and the executor and
+     * returns fileVersions(request).
+     *
+     * @param request specifies which fileVersions to list.
+     * @param policy specifies how to split up the listing.
+     * @param executor the executor to list with.  the caller retains ownership
+     *                 of the executor and is responsible for shutting it down.
+     * @return a new iterable to iterate over fileVersions that match the given request.
+     * @throws B2Exception if there's any trouble
+     */
+    default B2ListFilesIterable fileVersionsInParallel(B2ListFileVersionsRequest request,
+                                                       B2ParallelListingPolicy policy,
+                                                       ExecutorService executor) throws B2Exception {
+        return fileVersions(request);
+    }
+
+    /**
+     * Just like fileVersionsInParallel(request, policy, executor), except
+     * that it lists file names, like fileNames(request).
+     *
+     * The default implementation ignores the policy and the executor and
+     * returns fileNames(request).
+     *
+     * @param request specifies which fileNames to list.
+     * @param policy specifies how to split up the listing.
+     * @param executor the executor to list with.  the caller retains ownership
+     *                 of the executor and is responsible for shutting it down.
+     * @return a new iterable to iterate over fileNames that match the given request.
+     * @throws B2Exception if there's any trouble
+     */
+    default B2ListFilesIterable fileNamesInParallel(B2ListFileNamesRequest request,
+                                                    B2ParallelListingPolicy policy,
+                                                    ExecutorService executor) throws B2Exception {
+        return fileNames(request);
+    }
+
     /**
      * Returns an iterable whose iterator yields the fileVersions of large,
      * unfinished files that match the given request.
@@ -296,6 +533,10 @@ public interface B2StorageClient extends Closeable {
     /**
      * Asks to download the specified file by id.
      *
+     * If the request doesn't have a range and the handler is a
+     * B2ResumableContentSink, each attempt (including retries) only asks
+     * for the part of the file the handler doesn't have yet.
+     *
      * @param request specifies the file and which part of the file to request.
      * @param handler if the server starts sending us the file, the headers and input
      *                stream are passed to the handler.  NOTE: if you get an exception
@@ -321,10 +562,68 @@ public interface B2StorageClient extends Closeable {
         downloadById(B2DownloadByIdRequest.builder(fileId).build(), handler);
     }
 
+    /**
+     * Downloads the specified file into a local file, using several ranged
+     * requests on separate connections at once.  This can be much faster
+     * than downloadById() for a big file, since one connection is often
+     * limited to less than the available bandwidth.
+     *
+     * Each chunk is retried on its own, and is written straight to its place
+     * in the destination.  The destination is created if needed and any old
+     * contents are replaced.  If there's trouble, the destination may be left
+     * with only some of the content, so don't use it.
+     *
+     * NOTE: ranged downloads can't be checked against the file's SHA-1.
+     *
+     * @param request  specifies the file, the destination, and how to split it up.
+     * @param executor the executor to download the chunks with.  the caller
+     *                 retains ownership of the executor and is responsible
+     *                 for shutting it down.
+     * @return the headers from the first chunk's response.  they describe the
+     *         file, though their Content-Length and Content-Range are for the
+     *         first chunk.
+     * @throws B2Exception if there's trouble downloading or writing any chunk.
+     */
+    default B2Headers downloadByIdInParallel(B2ParallelDownloadRequest request,
+                                             ExecutorService executor) throws B2Exception {
+        return new B2ParallelFileDownloader(this, executor, request).download();
+    }
+
+    /**
+     * Opens the specified file as an InputStream.  The file is downloaded in
+     * chunks with ranged requests, and the next few chunks are downloaded in
+     * the background while you read, so you can process a file that's bigger
+     * than memory without waiting on the network between chunks.
+     *
+     * The first chunk is downloaded before this returns.  If the rest of the
+     * stream is read, the SHA-1 of the whole file is checked at the end, if
+     * b2 has one for it.
+     *
+     * Be sure to close the stream, especially if you stop reading early,
+     * so that the chunks being read ahead are cancelled.
+     *
+     * @param request  specifies the file and how far to read ahead.
+     * @param executor the executor to download the chunks after the first one with.
+     *                 the caller retains ownership of the executor and is
+     *                 responsible for shutting it down.
+     * @return a stream with the contents of the file.
+     * @throws B2Exception if there's trouble downloading the first chunk.
+     *                     trouble with later chunks is thrown from read() as an
+     *                     IOException whose cause is the B2Exception.
+     */
+    default B2ReadAheadDownloadStream downloadByIdAsStream(B2StreamingDownloadRequest request,
+                                                           ExecutorService executor) throws B2Exception {
+        return B2ReadAheadDownloadStream.open(this, executor, request);
+    }
+
 
     /**
      * Asks to download the specified file by bucket name and file name.
      *
+     * If the request doesn't have a range and the handler is a
+     * B2ResumableContentSink, each attempt (including retries) only asks
+     * for the part of the file the handler doesn't have yet.
+     *
      * @param request specifies the file and which part of the file to request.
      * @param handler if the server starts sending us the file, the headers and input
      *                stream are passed to the handler.  NOTE: if you get an exception
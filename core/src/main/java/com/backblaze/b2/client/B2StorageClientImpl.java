@@ -5,6 +5,7 @@
 package com.backblaze.b2.client;
 
 import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentHandlers.B2ResumableContentSink;
 import com.backblaze.b2.client.contentSources.B2ContentSource;
 import com.backblaze.b2.client.exceptions.B2Exception;
 import com.backblaze.b2.client.exceptions.B2LocalException;
@@ -37,9 +38,9 @@ import com.backblaze.b2.client.structures.B2Part;
 import com.backblaze.b2.client.structures.B2UpdateBucketRequest;
 import com.backblaze.b2.client.structures.B2UploadFileRequest;
 import com.backblaze.b2.client.structures.B2UploadUrlResponse;
+import com.backblaze.b2.util.B2ByteRange;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Supplier;
@@ -59,6 +60,9 @@ public class B2StorageClientImpl implements B2StorageClient {
     private final Supplier<B2RetryPolicy> retryPolicySupplier;
     private final B2Retryer retryer;
 
+    // if non-null, it picks our part sizes.
+    private final B2AdaptivePartSizer adaptivePartSizerOrNull;
+
     private final B2AccountAuthorizationCache accountAuthCache;
     private final B2UploadUrlCache uploadUrlCache;
 
@@ -77,7 +81,24 @@ public class B2StorageClientImpl implements B2StorageClient {
     public B2StorageClientImpl(B2StorageClientWebifier webifier,
                                B2ClientConfig config,
                                Supplier<B2RetryPolicy> retryPolicySupplier) {
-        this(webifier, config, retryPolicySupplier, new B2Retryer(new B2Sleeper()));
+        this(webifier, config, retryPolicySupplier, (B2AdaptivePartSizer) null);
+    }
+
+    /**
+     * Creates a client with the given webifier and config and a default B2Sleeper,
+     * which sizes the parts of large files with the given adaptivePartSizer.
+     *
+     * @param webifier the object to convert API calls into web calls.
+     * @param config   the object used to configure this.
+     * @param adaptivePartSizerOrNull if non-null, it picks the part sizes and the number
+     *                                of parts in flight for large files instead of always
+     *                                using the recommendedPartSize.
+     */
+    public B2StorageClientImpl(B2StorageClientWebifier webifier,
+                               B2ClientConfig config,
+                               Supplier<B2RetryPolicy> retryPolicySupplier,
+                               B2AdaptivePartSizer adaptivePartSizerOrNull) {
+        this(webifier, config, retryPolicySupplier, new B2Retryer(new B2Sleeper()), adaptivePartSizerOrNull);
     }
 
     /**
@@ -91,11 +112,20 @@ public class B2StorageClientImpl implements B2StorageClient {
                         B2ClientConfig config,
                         Supplier<B2RetryPolicy> retryPolicySupplier,
                         B2Retryer retryer) {
+        this(webifier, config, retryPolicySupplier, retryer, null);
+    }
+
+    B2StorageClientImpl(B2StorageClientWebifier webifier,
+                        B2ClientConfig config,
+                        Supplier<B2RetryPolicy> retryPolicySupplier,
+                        B2Retryer retryer,
+                        B2AdaptivePartSizer adaptivePartSizerOrNull) {
         this.webifier = webifier;
         this.accountId = config.getAccountAuthorizer().getAccountId();
         this.config = config;
         this.retryPolicySupplier = retryPolicySupplier;
         this.retryer = retryer;
+        this.adaptivePartSizerOrNull = adaptivePartSizerOrNull;
         this.accountAuthCache = new B2AccountAuthorizationCache(webifier, config.getAccountAuthorizer());
         this.uploadUrlCache = new B2UploadUrlCache(webifier, accountAuthCache);
     }
@@ -144,15 +174,29 @@ public class B2StorageClientImpl implements B2StorageClient {
     public B2FileVersion finishUploadingLargeFile(B2FileVersion fileVersion,
                                                   B2UploadFileRequest request,
                                                   ExecutorService executor) throws B2Exception {
+        return finishUploadingLargeFile(fileVersion, request, executor, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public B2FileVersion finishUploadingLargeFile(B2FileVersion fileVersion,
+                                                  B2UploadFileRequest request,
+                                                  ExecutorService executor,
+                                                  int maxPartsInFlight) throws B2Exception {
         // note that we assume that the contents of the B2ContentSource don't change during the upload.
         final long contentLength = getContentLength(request.getContentSource());
         final B2PartSizes partSizes = getPartSizes();
 
-        B2LargeFileUploader uploader = new B2LargeFileUploader(retryer, webifier, accountAuthCache, retryPolicySupplier, executor, partSizes, request, contentLength);
-        final List<B2Part> alreadyUploadedParts = new ArrayList<>();
-        for (B2Part part : parts(fileVersion.getFileId())) {
-            alreadyUploadedParts.add(part);
-        }
+        B2LargeFileUploader uploader = new B2LargeFileUploader(retryer, webifier, accountAuthCache, retryPolicySupplier, executor, partSizes, request, contentLength, maxPartsInFlight, config.getPartHedgingPolicyOrNull(), config.getMaxPrewarmedUploadPartUrls(), null);
+
+        // only the parts the upload was started with can be reused, so there's
+        // no need to list any parts numbered higher than those.  part 1's size
+        // tells us what they were, even if we'd pick a different size now.
+        // list the ranges of part numbers in parallel to keep the round trips
+        // off the critical path.
+        final Long firstPartSizeOrNull = getFirstPartSizeOrNull(fileVersion.getFileId());
+        final int partCount = uploader.pickPartsForResuming(firstPartSizeOrNull).size();
+        final B2ParallelPartsLister partsLister = new B2ParallelPartsLister(this, executor, maxPartsInFlight);
+        final List<B2Part> alreadyUploadedParts = partsLister.listParts(fileVersion.getFileId(), partCount);
         return uploader.finishUploadingLargeFile(fileVersion, alreadyUploadedParts);
     }
 
@@ -169,23 +213,95 @@ public class B2StorageClientImpl implements B2StorageClient {
                 retryPolicySupplier.get());
     }
 
+    @Override
+    public void prewarmUploadUrls(String bucketId,
+                                  int poolSize,
+                                  ExecutorService executor) {
+        uploadUrlCache.prewarm(bucketId, poolSize, executor);
+    }
+
+    @Override
+    public void stopPrewarmingUploadUrls(String bucketId) {
+        uploadUrlCache.stopPrewarming(bucketId);
+    }
+
     @Override
     public B2FileVersion uploadLargeFile(B2UploadFileRequest request,
                                          ExecutorService executor) throws B2Exception {
+        return uploadLargeFile(request, executor, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public B2FileVersion uploadLargeFile(B2UploadFileRequest request,
+                                         ExecutorService executor,
+                                         int maxPartsInFlight) throws B2Exception {
         final long contentLength = getContentLength(request.getContentSource());
         final B2PartSizes partSizes = getPartSizes();
 
-        return uploadLargeFileGuts(executor, partSizes, request, contentLength);
+        return uploadLargeFileGuts(executor, partSizes, request, contentLength, maxPartsInFlight);
+    }
+
+    @Override
+    public B2FileVersion uploadLargeFile(B2UploadFileRequest request,
+                                         ExecutorService executor,
+                                         int maxPartsInFlight,
+                                         B2LargeFileJournal journal) throws B2Exception {
+        final long contentLength = getContentLength(request.getContentSource());
+        final B2PartSizes partSizes = getPartSizes();
+
+        B2LargeFileUploader uploader = new B2LargeFileUploader(retryer, webifier, accountAuthCache, retryPolicySupplier, executor, partSizes, request, contentLength, maxPartsInFlight, config.getPartHedgingPolicyOrNull(), config.getMaxPrewarmedUploadPartUrls(), journal);
+        return uploader.uploadOrResumeLargeFile();
+    }
+
+    @Override
+    public B2FileVersion uploadLargeFileFromStream(B2UploadFileRequest request,
+                                                   ExecutorService executor,
+                                                   int maxPartsInFlight) throws B2Exception {
+        final B2PartSizes partSizes = getPartSizes();
+
+        B2StreamingLargeFileUploader uploader = new B2StreamingLargeFileUploader(retryer, webifier, accountAuthCache, retryPolicySupplier, executor, partSizes, request, null, maxPartsInFlight, config.getMaxPrewarmedUploadPartUrls(), this::uploadSmallFile);
+        return uploader.uploadFile();
+    }
+
+    @Override
+    public B2FileVersion uploadLargeFileInOnePass(B2UploadFileRequest request,
+                                                  ExecutorService executor,
+                                                  int maxPartsInFlight) throws B2Exception {
+        final long contentLength = getContentLength(request.getContentSource());
+        final B2PartSizes partSizes = getPartSizes();
+
+        B2StreamingLargeFileUploader uploader = new B2StreamingLargeFileUploader(retryer, webifier, accountAuthCache, retryPolicySupplier, executor, partSizes, request, contentLength, maxPartsInFlight, config.getMaxPrewarmedUploadPartUrls(), this::uploadSmallFile);
+        return uploader.uploadFile();
     }
 
     private B2FileVersion uploadLargeFileGuts(ExecutorService executor,
                                               B2PartSizes partSizes,
                                               B2UploadFileRequest request,
-                                              long contentLength) throws B2Exception {
-        B2LargeFileUploader uploader = new B2LargeFileUploader(retryer, webifier, accountAuthCache, retryPolicySupplier, executor, partSizes, request, contentLength);
+                                              long contentLength,
+                                              int maxPartsInFlight) throws B2Exception {
+        B2LargeFileUploader uploader = new B2LargeFileUploader(retryer, webifier, accountAuthCache, retryPolicySupplier, executor, partSizes, request, contentLength, maxPartsInFlight, config.getPartHedgingPolicyOrNull(), config.getMaxPrewarmedUploadPartUrls(), null);
         return uploader.uploadLargeFile();
     }
 
+    /**
+     * @param largeFileId the large file whose parts are being listed.
+     * @return the size of the large file's part 1, or null if it hasn't been uploaded.
+     * @throws B2Exception if there's trouble.
+     */
+    private Long getFirstPartSizeOrNull(String largeFileId) throws B2Exception {
+        final B2ListPartsRequest request = B2ListPartsRequest
+                .builder(largeFileId)
+                .setStartPartNumber(1)
+                .setMaxPartCount(1)
+                .build();
+        for (B2Part part : listParts(request).getParts()) {
+            if (part.getPartNumber() == 1) {
+                return part.getContentLength();
+            }
+        }
+        return null;
+    }
+
     /**
      * NOTE: this might have to authenticate the client if there isn't currently a
      *       cached account authorization.  that's fine.  we're probably about to
@@ -195,7 +311,11 @@ public class B2StorageClientImpl implements B2StorageClient {
      * @throws B2Exception if there's trouble.
      */
     private B2PartSizes getPartSizes() throws B2Exception {
-        return B2PartSizes.from(retryer.doRetry("get_part_sizes", accountAuthCache, accountAuthCache::get, retryPolicySupplier.get()));
+        final B2AccountAuthorization auth = retryer.doRetry("get_part_sizes", accountAuthCache, accountAuthCache::get, retryPolicySupplier.get());
+        if (adaptivePartSizerOrNull != null) {
+            return B2AdaptivePartSizes.from(auth, adaptivePartSizerOrNull);
+        }
+        return B2PartSizes.from(auth);
     }
 
     /**
@@ -222,6 +342,20 @@ public class B2StorageClientImpl implements B2StorageClient {
         return new B2ListFileNamesIterable(this, request);
     }
 
+    @Override
+    public B2ListFilesIterable fileVersionsInParallel(B2ListFileVersionsRequest request,
+                                                      B2ParallelListingPolicy policy,
+                                                      ExecutorService executor) throws B2Exception {
+        return B2ParallelListFilesIterable.forFileVersions(this, executor, policy, request);
+    }
+
+    @Override
+    public B2ListFilesIterable fileNamesInParallel(B2ListFileNamesRequest request,
+                                                   B2ParallelListingPolicy policy,
+                                                   ExecutorService executor) throws B2Exception {
+        return B2ParallelListFilesIterable.forFileNames(this, executor, policy, request);
+    }
+
     @Override
     public B2ListFilesIterable unfinishedLargeFiles(B2ListUnfinishedLargeFilesRequest request) throws B2Exception {
         return new B2ListUnfinishedLargeFilesIterable(this, request);
@@ -250,7 +384,7 @@ public class B2StorageClientImpl implements B2StorageClient {
                 accountAuthCache,
                 () -> {
                     B2AccountAuthorization accountAuth = accountAuthCache.get();
-                    webifier.downloadById(accountAuth, request, handler);
+                    webifier.downloadById(accountAuth, forAttempt(request, handler), handler);
                     return 0; // to meet Callable api!
                 },
                 retryPolicySupplier.get());
@@ -286,12 +420,53 @@ public class B2StorageClientImpl implements B2StorageClient {
                 accountAuthCache,
                 () -> {
                     B2AccountAuthorization accountAuth = accountAuthCache.get();
-                    webifier.downloadByName(accountAuth, request, handler);
+                    webifier.downloadByName(accountAuth, forAttempt(request, handler), handler);
                     return 0; // to meet Callable api!
                 },
                 retryPolicySupplier.get());
     }
 
+    /**
+     * @return the request to send for one attempt at downloading.  when the
+     *         whole file was requested and the handler can resume, we only
+     *         ask for what the handler doesn't have yet.
+     */
+    private static B2DownloadByIdRequest forAttempt(B2DownloadByIdRequest request,
+                                                    B2ContentSink handler) throws B2Exception {
+        final B2ByteRange rangeOrNull = getRangeToResumeOrNull(request.getRange(), handler);
+        if (rangeOrNull == null) {
+            return request;
+        }
+        return B2DownloadByIdRequest
+                .builder(request.getFileId())
+                .setRange(rangeOrNull)
+                .setB2ContentDisposition(request.getB2ContentDisposition())
+                .setListener(request.getListenerOrNull())
+                .build();
+    }
+
+    private static B2DownloadByNameRequest forAttempt(B2DownloadByNameRequest request,
+                                                      B2ContentSink handler) throws B2Exception {
+        final B2ByteRange rangeOrNull = getRangeToResumeOrNull(request.getRange(), handler);
+        if (rangeOrNull == null) {
+            return request;
+        }
+        return B2DownloadByNameRequest
+                .builder(request.getBucketName(), request.getFileName())
+                .setRange(rangeOrNull)
+                .setB2ContentDisposition(request.getB2ContentDisposition())
+                .setListener(request.getListenerOrNull())
+                .build();
+    }
+
+    private static B2ByteRange getRangeToResumeOrNull(B2ByteRange requestedRangeOrNull,
+                                                      B2ContentSink handler) throws B2Exception {
+        if (requestedRangeOrNull != null || !(handler instanceof B2ResumableContentSink)) {
+            return null;
+        }
+        return ((B2ResumableContentSink) handler).getRangeToRequestOrNull();
+    }
+
     @Override
     public void deleteFileVersion(B2DeleteFileVersionRequest request) throws B2Exception {
         retryer.doRetry("b2_delete_file_version",
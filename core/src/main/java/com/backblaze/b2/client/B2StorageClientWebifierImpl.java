@@ -23,6 +23,7 @@ import com.backblaze.b2.client.structures.B2DeleteFileVersionResponse;
 import com.backblaze.b2.client.structures.B2DownloadAuthorization;
 import com.backblaze.b2.client.structures.B2DownloadByIdRequest;
 import com.backblaze.b2.client.structures.B2DownloadByNameRequest;
+import com.backblaze.b2.client.structures.B2DownloadListener;
 import com.backblaze.b2.client.structures.B2FileVersion;
 import com.backblaze.b2.client.structures.B2FinishLargeFileRequest;
 import com.backblaze.b2.client.structures.B2GetDownloadAuthorizationRequest;
@@ -53,6 +54,7 @@ import com.backblaze.b2.client.webApiClients.B2WebApiClient;
 import com.backblaze.b2.json.B2Json;
 import com.backblaze.b2.util.B2ByteProgressListener;
 import com.backblaze.b2.util.B2ByteRange;
+import com.backblaze.b2.util.B2Clock;
 import com.backblaze.b2.util.B2InputStreamWithByteProgressListener;
 import com.backblaze.b2.util.B2Preconditions;
 
@@ -351,6 +353,7 @@ public class B2StorageClientWebifierImpl implements B2StorageClientWebifier {
         downloadGuts(accountAuth,
                 makeDownloadByIdUrl(accountAuth, request.getFileId(), request.getB2ContentDisposition()),
                 request.getRange(),
+                request.getListenerOrNull(),
                 handler);
     }
 
@@ -367,6 +370,7 @@ public class B2StorageClientWebifierImpl implements B2StorageClientWebifier {
         downloadGuts(accountAuth,
                 makeDownloadByNameUrl(accountAuth, request.getBucketName(), request.getFileName(), request.getB2ContentDisposition()),
                 request.getRange(),
+                request.getListenerOrNull(),
                 handler);
     }
 
@@ -379,6 +383,7 @@ public class B2StorageClientWebifierImpl implements B2StorageClientWebifier {
     private void downloadGuts(B2AccountAuthorization accountAuth,
                               String url,
                               B2ByteRange rangeOrNull,
+                              B2DownloadListener listenerOrNull,
                               B2ContentSink handler) throws B2Exception {
         final Map<String, String> extras = new TreeMap<>();
         if (rangeOrNull != null) {
@@ -387,7 +392,40 @@ public class B2StorageClientWebifierImpl implements B2StorageClientWebifier {
         webApiClient.getContent(
                 url,
                 makeHeaders(accountAuth, extras),
-                handler);
+                (listenerOrNull == null) ? handler : withDownloadListener(listenerOrNull, handler));
+    }
+
+    /**
+     * @return a sink which gives the handler a stream that tells the listener
+     *         how the download is going, then tells the listener whether the
+     *         handler succeeded.
+     */
+    private static B2ContentSink withDownloadListener(B2DownloadListener downloadListener,
+                                                      B2ContentSink handler) {
+        return (responseHeaders, in) -> {
+            final Long rangeStartOrNull = responseHeaders.getContentRangeStartOrNull();
+            final long startByte = (rangeStartOrNull != null) ? rangeStartOrNull : 0;
+            final long length = (responseHeaders.getValueOrNull(B2Headers.CONTENT_LENGTH) != null) ?
+                    responseHeaders.getContentLength() :
+                    -1;
+
+            final B2DownloadProgressAdapter progressAdapter =
+                    new B2DownloadProgressAdapter(downloadListener, B2Clock.get(), startByte, length);
+            final B2ByteProgressFilteringListener progressListener = new B2ByteProgressFilteringListener(progressAdapter);
+            progressAdapter.started();
+
+            try {
+                handler.readContent(responseHeaders,
+                        new B2InputStreamWithByteProgressListener(in, progressAdapter.trackingBytes(progressListener)));
+            } catch (B2Exception | IOException | RuntimeException e) {
+                // if a read failed, the stream has already reported it.
+                if (!progressAdapter.hasReportedFailure()) {
+                    progressAdapter.hitException(e, progressListener.getBytesSoFar());
+                }
+                throw e;
+            }
+            progressAdapter.succeeded(progressListener.getBytesSoFar());
+        };
     }
 
     @Override
@@ -15,4 +15,10 @@ interface B2StorageLimits {
      *   (needed in the client so we make bigger parts rather than making too many.)
      */
     static final int MAX_PARTS_PER_LARGE_FILE = 10 * 1000;
+
+    /**
+     * What's the largest part we're allowed to upload?
+     *   (needed in the client so we don't make parts that are too big when we pick sizes ourselves.)
+     */
+    static final long MAX_PART_SIZE = 5L * 1000 * 1000 * 1000;
 }
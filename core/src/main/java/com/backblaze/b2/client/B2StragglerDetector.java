@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * B2StragglerDetector keeps track of how long the parts of one large file
+ * took to upload, and uses a B2PartHedgingPolicy to say how long a part
+ * may run before it's considered a straggler.
+ *
+ * THREAD-SAFETY: this class is thread-safe.  all of its state is protected
+ *                by synchronized(this).
+ */
+class B2StragglerDetector {
+    private final B2PartHedgingPolicy policy;
+
+    // how long each finished part took, kept sorted so it's easy to find the median.
+    private final List<Long> sortedMillis = new ArrayList<>();
+
+    B2StragglerDetector(B2PartHedgingPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Records how long a part took, from when it started running until it succeeded.
+     */
+    synchronized void partFinished(long tookMillis) {
+        final int searchResult = Collections.binarySearch(sortedMillis, tookMillis);
+        final int insertAt = (searchResult >= 0) ? searchResult : (-searchResult - 1);
+        sortedMillis.add(insertAt, tookMillis);
+    }
+
+    /**
+     * @return how long a part may run before it's a straggler, or null if
+     *         not enough parts have finished to say yet.
+     */
+    synchronized Long getStragglerMillisOrNull() {
+        if (sortedMillis.size() < policy.getMinFinishedParts()) {
+            return null;
+        }
+        final long median = sortedMillis.get(sortedMillis.size() / 2);
+        return Math.max(policy.getMinStragglerMillis(), (long) (median * policy.getStragglerFactor()));
+    }
+
+    int getMaxHedgesInFlight() {
+        return policy.getMaxHedgesInFlight();
+    }
+}
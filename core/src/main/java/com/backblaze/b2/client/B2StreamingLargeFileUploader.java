@@ -0,0 +1,456 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentSources.B2ContentSource;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.client.structures.B2FinishLargeFileRequest;
+import com.backblaze.b2.client.structures.B2Part;
+import com.backblaze.b2.client.structures.B2StartLargeFileRequest;
+import com.backblaze.b2.client.structures.B2UploadFileRequest;
+import com.backblaze.b2.client.structures.B2UploadListener;
+import com.backblaze.b2.client.structures.B2UploadState;
+import com.backblaze.b2.util.B2IoUtils;
+import com.backblaze.b2.util.B2Preconditions;
+import com.backblaze.b2.util.B2Sha1;
+import com.backblaze.b2.util.B2StringUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * B2StreamingLargeFileUploader uploads a large file while reading its content
+ * exactly once, sequentially.  It calls the contentSource's createInputStream()
+ * exactly once.
+ *
+ * The stream is read into part-sized buffers.  As soon as a buffer is full,
+ * it's handed to the executor to be uploaded as the next part.  At most
+ * maxPartsInFlight parts are uploaded at once and at most one more buffer
+ * is being filled, so we never hold more than (maxPartsInFlight + 1) buffers.
+ * Buffers are reused after their part has been uploaded.
+ *
+ * While reading, we compute the SHA-1 of the whole content.  Each part's
+ * SHA-1 is computed from the same buffer by the thread that uploads it.
+ * B2 only accepts LARGE_FILE_SHA1 when the large file is started, so we
+ * give the whole content's SHA-1 to the listener's largeFileSha1Computed()
+ * after the file is finished.  If the contentSource did provide a SHA-1,
+ * we check it before finishing the file.
+ *
+ * There are two modes:
+ *
+ *   If contentLengthOrNull is null, the length isn't known ahead of time
+ *   and getContentLength() is never called.  The parts are all the
+ *   recommended part size, except the last one.  If the stream ends before
+ *   we've filled two buffers, the content is too small to be a large file,
+ *   so we upload it as a small file instead.  Since we don't know how many
+ *   parts there will be until we hit the end of the stream, the partCount
+ *   in the progress updates for a part is the number of parts we had read
+ *   when we read that part.
+ *
+ *   If contentLengthOrNull is set, the parts are the ones picked by
+ *   B2PartSizes, just like B2LargeFileUploader picks.  That way, if the
+ *   upload fails, it can be finished with finishUploadingLargeFile().
+ *
+ * THREAD-SAFETY: an instance is used for a single upload from a single thread.
+ */
+class B2StreamingLargeFileUploader {
+    private static final int EOF = -1;
+
+    /**
+     * SmallFileUploader is what we use to upload the content if it
+     * turns out to be small.  B2StorageClientImpl passes its uploadSmallFile().
+     */
+    interface SmallFileUploader {
+        B2FileVersion uploadSmallFile(B2UploadFileRequest request) throws B2Exception;
+    }
+
+    private final B2Retryer retryer;
+    private final B2StorageClientWebifier webifier;
+    private final B2AccountAuthorizationCache accountAuthCache;
+    private final Supplier<B2RetryPolicy> retryPolicySupplier;
+    private final ExecutorService executor;
+    private final B2PartSizes partSizes;
+    private final B2UploadFileRequest request;
+    private final Long contentLengthOrNull;
+    private final int maxPartsInFlight;
+    private final int maxPrewarmedPartUrls;
+    private final SmallFileUploader smallFileUploader;
+
+    // the SHA-1 of all of the content we've handed to the part uploaders so far.
+    // only used from the reading thread.
+    private final MessageDigest contentDigest = B2Sha1.createSha1MessageDigest();
+
+    // buffers that aren't being filled or uploaded right now.
+    // guarded by 'this' because they come back from the executor's threads.
+    private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+
+    // set when any part's upload fails so we stop reading more parts.
+    private volatile boolean anyPartFailed;
+
+    B2StreamingLargeFileUploader(B2Retryer retryer,
+                                 B2StorageClientWebifier webifier,
+                                 B2AccountAuthorizationCache accountAuthCache,
+                                 Supplier<B2RetryPolicy> retryPolicySupplier,
+                                 ExecutorService executor,
+                                 B2PartSizes partSizes,
+                                 B2UploadFileRequest request,
+                                 Long contentLengthOrNull,
+                                 int maxPartsInFlight,
+                                 int maxPrewarmedPartUrls,
+                                 SmallFileUploader smallFileUploader) {
+        B2Preconditions.checkArgument(maxPartsInFlight > 0, "maxPartsInFlight must be positive.");
+
+        this.retryer = retryer;
+        this.webifier = webifier;
+        this.accountAuthCache = accountAuthCache;
+        this.retryPolicySupplier = retryPolicySupplier;
+        this.executor = executor;
+        this.partSizes = partSizes;
+        this.request = request;
+        this.contentLengthOrNull = contentLengthOrNull;
+        this.maxPartsInFlight = maxPartsInFlight;
+        this.maxPrewarmedPartUrls = maxPrewarmedPartUrls;
+        this.smallFileUploader = smallFileUploader;
+    }
+
+    B2FileVersion uploadFile() throws B2Exception {
+        try (InputStream in = request.getContentSource().createInputStream()) {
+            if (contentLengthOrNull != null) {
+                final List<B2PartSpec> partSpecs = partSizes.pickParts(contentLengthOrNull);
+                long biggestPartSize = 0;
+                for (B2PartSpec partSpec : partSpecs) {
+                    biggestPartSize = Math.max(biggestPartSize, partSpec.getLength());
+                }
+                return uploadLargeFile(in, partSpecs, toBufferSize(biggestPartSize), new ArrayDeque<>());
+            }
+
+            final int partSize = toBufferSize(partSizes.getRecommendedPartSize());
+
+            // read the first two parts before deciding whether this is a large file.
+            final byte[] firstBuffer = new byte[partSize];
+            final int firstLength = B2IoUtils.readFully(in, firstBuffer);
+            if (firstLength < partSize) {
+                return uploadBuffersAsSmallFile(firstBuffer, firstLength, null, 0);
+            }
+
+            final byte[] secondBuffer = new byte[partSize];
+            final int secondLength = B2IoUtils.readFully(in, secondBuffer);
+            if (secondLength < partSize) {
+                return uploadBuffersAsSmallFile(firstBuffer, firstLength, secondBuffer, secondLength);
+            }
+
+            final Deque<byte[]> filledBuffers = new ArrayDeque<>();
+            filledBuffers.add(firstBuffer);
+            filledBuffers.add(secondBuffer);
+            return uploadLargeFile(in, null, partSize, filledBuffers);
+        } catch (IOException e) {
+            throw new B2LocalException("read_failed", "failed to read from contentSource: " + e, e);
+        }
+    }
+
+    private static int toBufferSize(long partSize) throws B2LocalException {
+        if (partSize > Integer.MAX_VALUE) {
+            throw new B2LocalException("too_big", "partSize (" + partSize + ") is too big to buffer in memory.");
+        }
+        return (int) partSize;
+    }
+
+    private B2FileVersion uploadBuffersAsSmallFile(byte[] firstBuffer,
+                                                   int firstLength,
+                                                   byte[] secondBufferOrNull,
+                                                   int secondLength) throws B2Exception, IOException {
+        final B2ContentSource original = request.getContentSource();
+        final B2ContentSource smallSource = new BufferedContentSource(
+                firstBuffer,
+                firstLength,
+                secondBufferOrNull,
+                secondLength,
+                original.getSha1OrNull(),
+                original.getSrcLastModifiedMillisOrNull());
+        final B2UploadFileRequest smallRequest = B2UploadFileRequest
+                .builder(request.getBucketId(), request.getFileName(), request.getContentType(), smallSource)
+                .setCustomFields(request.getFileInfo())
+                .setListener(request.getListener())
+                .build();
+        return smallFileUploader.uploadSmallFile(smallRequest);
+    }
+
+    /**
+     * @param in the content's stream.  any filledBuffers were read from it already.
+     * @param partSpecsOrNull the parts to make, if we know the contentLength.
+     * @param bufferSize the size of the buffers to allocate.
+     * @param filledBuffers full buffers that have already been read from 'in', in order.
+     */
+    private B2FileVersion uploadLargeFile(InputStream in,
+                                          List<B2PartSpec> partSpecsOrNull,
+                                          int bufferSize,
+                                          Deque<byte[]> filledBuffers) throws B2Exception, IOException {
+        // start the large file.
+        final B2FileVersion largeFileVersion = retryer.doRetry("b2_start_large_file",
+                accountAuthCache, () ->
+                webifier.startLargeFile(accountAuthCache.get(), B2StartLargeFileRequest.buildFrom(request)),
+                retryPolicySupplier.get()
+        );
+
+        final B2UploadListener listener = request.getListener();
+        final B2PartUploader partUploader = new B2PartUploader(
+                retryer,
+                webifier,
+                accountAuthCache,
+                largeFileVersion.getFileId(),
+                listener,
+                partSizes);
+
+        // the partSizes might want fewer parts in flight than we're allowed.
+        // we decide once, up front, since that's what limits our buffers.
+        final int partsInFlightLimit = partSizes.pickMaxPartsInFlight(maxPartsInFlight);
+
+        // we'll allocate more buffers as we need them, up to partsInFlightLimit + 1.
+        int buffersAllocated = filledBuffers.size();
+
+        final Semaphore inFlightPermits = new Semaphore(partsInFlightLimit);
+        final List<Future<B2Part>> uploadedPartFutures = new ArrayList<>();
+        final List<String> partSha1s = new ArrayList<>();
+
+        // get the urls for the first parts in parallel, while we read them.
+        if (maxPrewarmedPartUrls > 0) {
+            int poolSize = Math.min(maxPrewarmedPartUrls, partsInFlightLimit);
+            if (partSpecsOrNull != null) {
+                poolSize = Math.min(poolSize, partSpecsOrNull.size());
+            }
+            partUploader.prewarmUrls(poolSize, executor);
+        }
+        try {
+            long start = 0;
+            while (true) {
+                final int partNumber = uploadedPartFutures.size() + 1;
+
+                // get the next part's bytes.
+                final byte[] buffer;
+                final int length;
+                if (!filledBuffers.isEmpty()) {
+                    buffer = filledBuffers.pollFirst();
+                    length = bufferSize;
+                } else {
+                    // the permits guarantee there's at most maxPartsInFlight buffers
+                    // being uploaded, so if there isn't a free one, we're allowed to
+                    // allocate a new one.
+                    byte[] freeBuffer = takeBufferOrNull();
+                    if (freeBuffer == null) {
+                        B2Preconditions.checkState(buffersAllocated <= partsInFlightLimit, "too many buffers?!");
+                        freeBuffer = new byte[bufferSize];
+                        buffersAllocated++;
+                    }
+                    buffer = freeBuffer;
+                    length = readPart(in, buffer, partSpecsOrNull, partNumber);
+                }
+                if (length == 0) {
+                    break;
+                }
+
+                if (partNumber > B2StorageLimits.MAX_PARTS_PER_LARGE_FILE) {
+                    throw new B2LocalException("too_big", "content needs more than " +
+                            B2StorageLimits.MAX_PARTS_PER_LARGE_FILE + " parts of " + bufferSize + " bytes.");
+                }
+
+                // wait for room to upload it.  if an earlier part failed, there's no point
+                // in uploading any more parts.  we'll find out what went wrong when we
+                // get() the futures below.
+                acquire(inFlightPermits);
+                if (anyPartFailed) {
+                    inFlightPermits.release();
+                    break;
+                }
+
+                contentDigest.update(buffer, 0, length);
+
+                final int partCount = (partSpecsOrNull != null) ? partSpecsOrNull.size() : partNumber;
+                final B2PartSpec partSpec = new B2PartSpec(partNumber, start, length);
+                listener.progress(B2UploadProgressUtil.forPart(partSpec, partCount, 0, B2UploadState.WAITING_TO_START));
+                try {
+                    uploadedPartFutures.add(executor.submit(() -> {
+                        try {
+                            final B2ContentSource partSource = new BufferedContentSource(
+                                    buffer,
+                                    length,
+                                    null,
+                                    0,
+                                    B2Sha1.hexSha1OfBytes(buffer, 0, length),
+                                    null);
+                            return partUploader.uploadPart(partCount, partSpec, partSource);
+                        } catch (B2Exception | RuntimeException e) {
+                            anyPartFailed = true;
+                            throw e;
+                        } finally {
+                            returnBuffer(buffer);
+                            inFlightPermits.release();
+                        }
+                    }));
+                } catch (RuntimeException e) {
+                    // the task isn't going to run, so it won't give back its permit.
+                    inFlightPermits.release();
+                    throw e;
+                }
+                start += length;
+            }
+
+            for (Future<B2Part> future : uploadedPartFutures) {
+                try {
+                    partSha1s.add(future.get().getContentSha1());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new B2LocalException("interrupted", "interrupted while trying to upload parts: " + e, e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof B2Exception) {
+                        throw (B2Exception) e.getCause();
+                    } else {
+                        throw new B2LocalException("trouble", "exception while trying to upload parts: " + cause, cause);
+                    }
+                }
+            }
+        } finally {
+            partUploader.stopPrewarmingUrls();
+
+            // we've either called get() on all of the futures, or we've hit an exception and
+            // we aren't going to wait for the others.  let's call cancel on all of them.
+            for (Future<B2Part> future : uploadedPartFutures) {
+                future.cancel(true);
+            }
+        }
+
+        // if the caller told us the sha1, make sure it's what we actually uploaded
+        // before we finish the file.
+        final String largeFileSha1 = B2StringUtil.toHexString(contentDigest.digest());
+        final String expectedSha1OrNull = request.getContentSource().getSha1OrNull();
+        if (expectedSha1OrNull != null && !B2Sha1.equalHexSha1s(expectedSha1OrNull, largeFileSha1)) {
+            throw new B2LocalException("mismatch", "contentSource has sha1 '" + expectedSha1OrNull + "', but the content we read has sha1 '" + largeFileSha1 + "'");
+        }
+
+        // finish the large file.
+        B2FinishLargeFileRequest finishRequest = B2FinishLargeFileRequest
+                .builder(largeFileVersion.getFileId(), partSha1s)
+                .build();
+        final B2FileVersion finishedVersion = retryer.doRetry("b2_finish_large_file", accountAuthCache, () -> webifier.finishLargeFile(accountAuthCache.get(), finishRequest), new B2DefaultRetryPolicy());
+
+        listener.largeFileSha1Computed(finishedVersion, largeFileSha1);
+        return finishedVersion;
+    }
+
+    /**
+     * Reads the bytes for the part with the given partNumber into buffer.
+     *
+     * @return the number of bytes in the part, or 0 if there are no more parts.
+     */
+    private int readPart(InputStream in,
+                         byte[] buffer,
+                         List<B2PartSpec> partSpecsOrNull,
+                         int partNumber) throws IOException, B2LocalException {
+        if (partSpecsOrNull == null) {
+            // we don't know how long the content is, so just read as much as we can.
+            return B2IoUtils.readFully(in, buffer);
+        }
+
+        if (partNumber > partSpecsOrNull.size()) {
+            // we should be at the end of the stream.
+            if (in.read() != EOF) {
+                throw new B2LocalException("read_failed", "contentSource has more than its contentLength (" + contentLengthOrNull + ") bytes.");
+            }
+            return 0;
+        }
+
+        final B2PartSpec partSpec = partSpecsOrNull.get(partNumber - 1);
+        final int length = (int) partSpec.getLength();
+        final int actuallyRead = B2IoUtils.readFully(in, buffer, length);
+        if (actuallyRead < length) {
+            throw new B2LocalException("read_failed", "contentSource ended after " + (partSpec.getStart() + actuallyRead) +
+                    " bytes, but its contentLength is " + contentLengthOrNull + ".");
+        }
+        return length;
+    }
+
+    private static void acquire(Semaphore semaphore) throws B2LocalException {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new B2LocalException("interrupted", "interrupted while waiting to upload a part: " + e, e);
+        }
+    }
+
+    private synchronized void returnBuffer(byte[] buffer) {
+        freeBuffers.addLast(buffer);
+    }
+
+    private synchronized byte[] takeBufferOrNull() {
+        return freeBuffers.pollFirst();
+    }
+
+    /**
+     * BufferedContentSource provides the bytes at the start of one or two
+     * buffers.  We use it for each part and for the content we've already
+     * read when we discover that the content is small enough to be a small file.
+     */
+    private static class BufferedContentSource implements B2ContentSource {
+        private final byte[] firstBuffer;
+        private final int firstLength;
+        private final byte[] secondBufferOrNull;
+        private final int secondLength;
+        private final String sha1OrNull;
+        private final Long srcLastModifiedMillisOrNull;
+
+        BufferedContentSource(byte[] firstBuffer,
+                              int firstLength,
+                              byte[] secondBufferOrNull,
+                              int secondLength,
+                              String sha1OrNull,
+                              Long srcLastModifiedMillisOrNull) {
+            this.firstBuffer = firstBuffer;
+            this.firstLength = firstLength;
+            this.secondBufferOrNull = secondBufferOrNull;
+            this.secondLength = secondLength;
+            this.sha1OrNull = sha1OrNull;
+            this.srcLastModifiedMillisOrNull = srcLastModifiedMillisOrNull;
+        }
+
+        @Override
+        public long getContentLength() {
+            return ((long) firstLength) + secondLength;
+        }
+
+        @Override
+        public String getSha1OrNull() {
+            return sha1OrNull;
+        }
+
+        @Override
+        public Long getSrcLastModifiedMillisOrNull() {
+            return srcLastModifiedMillisOrNull;
+        }
+
+        @Override
+        public InputStream createInputStream() {
+            final InputStream first = new ByteArrayInputStream(firstBuffer, 0, firstLength);
+            if (secondBufferOrNull == null) {
+                return first;
+            }
+            return new SequenceInputStream(first, new ByteArrayInputStream(secondBufferOrNull, 0, secondLength));
+        }
+    }
+}
@@ -5,11 +5,15 @@
 package com.backblaze.b2.client;
 
 import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
 import com.backblaze.b2.client.structures.B2GetUploadPartUrlRequest;
 import com.backblaze.b2.client.structures.B2UploadPartUrlResponse;
+import com.backblaze.b2.util.B2Preconditions;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * The B2UploadPartUrlCache holds upload responses for a single large file.
@@ -17,6 +21,13 @@ import java.util.Deque;
  * If you use it and it works, unget() it when you're done.
  * If there's trouble, don't unget() it so it won't be used again.
  *
+ * Normally, the cache only fills up as urls are ungot, so the first uploads
+ * each have to wait to get a url from the server.  If you know how many
+ * parts you're about to upload at once, call prewarm() and the cache will
+ * ask for that many urls in parallel, in the background.  After that, it
+ * asks for more in the background whenever urls are taken or thrown away,
+ * to keep that many on hand, until you call stopPrewarming().
+ *
  * THREAD-SAFETY: this class may be used from multiple threads safely.
  *    (for this to be true, the accountAuthCache and webifier must be thread safe!)
  */
@@ -29,6 +40,19 @@ class B2UploadPartUrlCache {
     // front and add to the end so that answers don't get stuck too long.
     private final Deque<B2UploadPartUrlResponse> responses = new ArrayDeque<>();
 
+    // when we're prewarming, how many urls to keep on hand and the executor to
+    // use for getting them.  poolSize is zero when we aren't prewarming.
+    private int poolSize;
+    private ExecutorService prewarmExecutorOrNull;
+
+    // how many background fetches we've handed to the executor that haven't
+    // finished yet, and how many of those are actually running.
+    private int fetchesInFlight;
+    private int fetchesRunning;
+
+    // how many threads in get() are waiting for a running fetch to finish.
+    private int waitingForFetches;
+
     B2UploadPartUrlCache(B2StorageClientWebifier webifier,
                          B2AccountAuthorizationCache accountAuthCache,
                          String largeFileId) {
@@ -56,11 +80,33 @@ class B2UploadPartUrlCache {
         if (!isRetry) {
             // first, look to see if we have an answer already.
             synchronized (this) {
+                // if a background fetch is already running and nobody else is
+                // waiting for it, it'll probably finish before a fetch of our own
+                // would, so wait for it.  (we don't wait for fetches that haven't
+                // started running.  they might be queued behind us in the executor.)
+                while (responses.isEmpty() && fetchesRunning > waitingForFetches) {
+                    waitingForFetches++;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new B2LocalException("interrupted", "interrupted while waiting for an upload part url: " + e, e);
+                    } finally {
+                        waitingForFetches--;
+                    }
+                }
+
                 B2UploadPartUrlResponse response = responses.pollFirst();
+                refill();
                 if (response != null) {
                     return response;
                 }
             }
+        } else {
+            // the caller is replacing a url it threw away.
+            synchronized (this) {
+                refill();
+            }
         }
 
         // we don't have an answer yet, so ask the server for one and return it.
@@ -78,5 +124,74 @@ class B2UploadPartUrlCache {
      */
     synchronized void unget(B2UploadPartUrlResponse response) {
         responses.offerLast(response);
+        notifyAll();
+    }
+
+    /**
+     * Starts getting urls in the background so there'll be poolSize of them on
+     * hand, and keeps topping it up as urls are taken, until stopPrewarming()
+     * is called.
+     *
+     * @param poolSize how many urls to keep on hand.  this is usually the
+     *                 number of parts that will be uploaded at once.
+     * @param executor the executor to get the urls with.  the caller retains
+     *                 ownership of it.
+     */
+    synchronized void prewarm(int poolSize,
+                              ExecutorService executor) {
+        B2Preconditions.checkArgument(poolSize > 0, "poolSize must be positive.");
+        this.poolSize = poolSize;
+        this.prewarmExecutorOrNull = executor;
+        refill();
+    }
+
+    /**
+     * Stops getting urls in the background.  Background fetches which haven't
+     * started yet won't bother to ask the server.
+     */
+    synchronized void stopPrewarming() {
+        poolSize = 0;
+        prewarmExecutorOrNull = null;
+    }
+
+    private synchronized void refill() {
+        while (prewarmExecutorOrNull != null && (responses.size() + fetchesInFlight) < poolSize) {
+            fetchesInFlight++;
+            try {
+                prewarmExecutorOrNull.execute(this::fetchInBackground);
+            } catch (RejectedExecutionException e) {
+                // the executor is shutting down.  we'll get urls when they're asked for.
+                fetchesInFlight--;
+                stopPrewarming();
+            }
+        }
+    }
+
+    private void fetchInBackground() {
+        synchronized (this) {
+            if (prewarmExecutorOrNull == null) {
+                fetchesInFlight--;
+                return;
+            }
+            fetchesRunning++;
+        }
+
+        B2UploadPartUrlResponse responseOrNull = null;
+        try {
+            final B2GetUploadPartUrlRequest request = new B2GetUploadPartUrlRequest(largeFileId);
+            responseOrNull = webifier.getUploadPartUrl(accountAuthCache.get(), request);
+        } catch (B2Exception e) {
+            // never mind.  the next get() will ask for its own url, and it'll
+            // try to refill again after that.
+        } finally {
+            synchronized (this) {
+                fetchesInFlight--;
+                fetchesRunning--;
+                if (responseOrNull != null) {
+                    responses.offerLast(responseOrNull);
+                }
+                notifyAll();
+            }
+        }
     }
 }
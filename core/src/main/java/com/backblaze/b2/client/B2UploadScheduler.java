@@ -0,0 +1,344 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.client.structures.B2UploadFileRequest;
+import com.backblaze.b2.client.structures.B2UploadListener;
+import com.backblaze.b2.client.structures.B2UploadProgress;
+import com.backblaze.b2.client.structures.B2UploadState;
+import com.backblaze.b2.util.B2Clock;
+import com.backblaze.b2.util.B2Preconditions;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * B2UploadScheduler uploads many files at once, sharing one executor among
+ * them.
+ *
+ * Each file is uploaded as a small file or as a large file, as the client's
+ * B2FilePolicy suggests.  Small files and the parts of large files all wait
+ * in one queue and at most maxUploadsInFlight of them are uploaded at a time.
+ * When there's room for another upload, the tenants take turns in proportion
+ * to their weights, and the files of a tenant take turns with each other, so
+ * one huge file doesn't hold up all of the small files behind it.  Files
+ * submitted without a tenant all belong to the same, default, tenant.
+ *
+ * Uploading a large file needs a thread that waits for its parts, so at most
+ * maxLargeFilesInFlight large files are started at a time; the others wait
+ * (in the order they were submitted) to be started.  That means the executor
+ * must be able to run maxLargeFilesInFlight + maxUploadsInFlight tasks at the
+ * same time, or the uploads might deadlock.
+ *
+ * The scheduler keeps track of how many bytes have been uploaded by all of
+ * its files, so you can see the aggregate throughput.  Each part counts when
+ * it succeeds.
+ *
+ * The caller retains ownership of the executor and is responsible for
+ * shutting it down after the uploads are done.
+ *
+ * THREAD-SAFETY: this class is thread-safe.
+ */
+public class B2UploadScheduler {
+    // the tenant for files submitted without one.
+    public static final String DEFAULT_TENANT = "";
+
+    private final B2StorageClient client;
+    private final ExecutorService executor;
+    private final int maxLargeFilesInFlight;
+    private final int maxPartsInFlightPerFile;
+    private final B2FairShareDispatcher dispatcher;
+
+    // the client's file policy.  we get it the first time we need it.
+    private B2FilePolicy filePolicyOrNull;
+
+    // the large files that are waiting to be started.
+    private final Deque<LargeFileTask> waitingLargeFiles = new ArrayDeque<>();
+    private int largeFilesInFlight;
+
+    // for throughput.  the start is when the first file was submitted.
+    private Long startMillisOrNull;
+    private long bytesUploaded;
+    private long filesUploaded;
+
+    private B2UploadScheduler(B2StorageClient client,
+                              ExecutorService executor,
+                              int maxUploadsInFlight,
+                              int maxLargeFilesInFlight,
+                              int maxPartsInFlightPerFile,
+                              Map<String, Integer> tenantWeights) {
+        B2Preconditions.checkArgument(maxUploadsInFlight > 0, "maxUploadsInFlight must be positive.");
+        B2Preconditions.checkArgument(maxLargeFilesInFlight > 0, "maxLargeFilesInFlight must be positive.");
+        B2Preconditions.checkArgument(maxPartsInFlightPerFile > 0, "maxPartsInFlightPerFile must be positive.");
+        this.client = client;
+        this.executor = executor;
+        this.maxLargeFilesInFlight = maxLargeFilesInFlight;
+        this.maxPartsInFlightPerFile = maxPartsInFlightPerFile;
+        this.dispatcher = new B2FairShareDispatcher(executor, maxUploadsInFlight, tenantWeights);
+    }
+
+    public static Builder builder(B2StorageClient client,
+                                  ExecutorService executor) {
+        return new Builder(client, executor);
+    }
+
+    /**
+     * Just like submit(request, tenant) for the default tenant.
+     */
+    public Future<B2FileVersion> submit(B2UploadFileRequest request) throws B2Exception {
+        return submit(request, DEFAULT_TENANT);
+    }
+
+    /**
+     * Schedules the given file to be uploaded on behalf of the given tenant.
+     *
+     * @param request describes the content to upload and extra metadata about it.
+     * @param tenant the name of the tenant the upload belongs to.
+     * @return a future which will have the uploaded file's B2FileVersion, or the
+     *         B2Exception which made the upload fail, as its cause.  cancelling
+     *         the future stops the upload.
+     * @throws B2Exception if there's trouble deciding how to upload the file.
+     */
+    public Future<B2FileVersion> submit(B2UploadFileRequest request,
+                                        String tenant) throws B2Exception {
+        final long contentLength = getContentLength(request);
+        final boolean isLarge = getFilePolicy().shouldBeLargeFile(contentLength);
+        final B2UploadFileRequest countingRequest = withCountingListener(request);
+        final ExecutorService lane = dispatcher.newLane(tenant);
+
+        synchronized (this) {
+            if (startMillisOrNull == null) {
+                startMillisOrNull = B2Clock.get().monotonicMillis();
+            }
+        }
+
+        if (!isLarge) {
+            // the whole upload is a single task in the lane.
+            final Future<B2FileVersion> future = lane.submit(() -> uploadedFile(client.uploadSmallFile(countingRequest)));
+            lane.shutdown();
+            return future;
+        }
+
+        final LargeFileTask largeFileTask = new LargeFileTask(() -> {
+            try {
+                return uploadedFile(client.uploadLargeFile(countingRequest, lane, maxPartsInFlightPerFile));
+            } finally {
+                lane.shutdown();
+            }
+        });
+        synchronized (this) {
+            waitingLargeFiles.addLast(largeFileTask);
+            startLargeFiles();
+        }
+        return largeFileTask;
+    }
+
+    /**
+     * @return the number of bytes uploaded so far, by all of the files.
+     */
+    public synchronized long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    /**
+     * @return the number of files that have been uploaded successfully.
+     */
+    public synchronized long getFilesUploaded() {
+        return filesUploaded;
+    }
+
+    /**
+     * @return the average number of bytes per second uploaded since the first
+     *         file was submitted, or zero if no time has passed yet.
+     */
+    public synchronized double getBytesPerSecond() {
+        if (startMillisOrNull == null) {
+            return 0;
+        }
+        final long elapsedMillis = B2Clock.get().monotonicMillis() - startMillisOrNull;
+        if (elapsedMillis <= 0) {
+            return 0;
+        }
+        return (bytesUploaded * 1000.0) / elapsedMillis;
+    }
+
+    private synchronized B2FilePolicy getFilePolicy() throws B2Exception {
+        if (filePolicyOrNull == null) {
+            filePolicyOrNull = client.getFilePolicy();
+        }
+        return filePolicyOrNull;
+    }
+
+    private synchronized void startLargeFiles() {
+        while (largeFilesInFlight < maxLargeFilesInFlight && !waitingLargeFiles.isEmpty()) {
+            final LargeFileTask task = waitingLargeFiles.removeFirst();
+            if (task.isCancelled()) {
+                continue;
+            }
+            largeFilesInFlight++;
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        // even if it was cancelled before it got to run.
+                        largeFileFinished();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the file will never be uploaded.  fail its future and
+                // give its spot to the next one.
+                largeFilesInFlight--;
+                task.reject(new B2LocalException("trouble", "executor rejected the upload of a large file: " + e, e));
+            }
+        }
+    }
+
+    private synchronized void largeFileFinished() {
+        largeFilesInFlight--;
+        startLargeFiles();
+    }
+
+    private synchronized void partSucceeded(long length) {
+        bytesUploaded += length;
+    }
+
+    private synchronized B2FileVersion uploadedFile(B2FileVersion version) {
+        filesUploaded++;
+        return version;
+    }
+
+    /**
+     * @return a copy of the request whose listener also counts the bytes
+     *         of each part as it succeeds.
+     */
+    private B2UploadFileRequest withCountingListener(B2UploadFileRequest request) {
+        final B2UploadListener original = request.getListener();
+        final B2UploadListener counting = new B2UploadListener() {
+            @Override
+            public void progress(B2UploadProgress progress) {
+                if (progress.getState() == B2UploadState.SUCCEEDED) {
+                    partSucceeded(progress.getLength());
+                }
+                original.progress(progress);
+            }
+
+            @Override
+            public void largeFileSha1Computed(B2FileVersion largeFileVersion,
+                                              String largeFileSha1) {
+                original.largeFileSha1Computed(largeFileVersion, largeFileSha1);
+            }
+        };
+        return B2UploadFileRequest
+                .builder(request.getBucketId(),
+                        request.getFileName(),
+                        request.getContentType(),
+                        request.getContentSource())
+                .setCustomFields(request.getFileInfo())
+                .setListener(counting)
+                .build();
+    }
+
+    private static long getContentLength(B2UploadFileRequest request) throws B2LocalException {
+        try {
+            return request.getContentSource().getContentLength();
+        } catch (IOException e) {
+            throw new B2LocalException("read_failed", "failed to get contentLength from source: " + e, e);
+        }
+    }
+
+    /**
+     * LargeFileTask is the future for a large file.  It can be failed from
+     * outside when the executor won't run it.
+     */
+    private static class LargeFileTask extends FutureTask<B2FileVersion> {
+        LargeFileTask(Callable<B2FileVersion> callable) {
+            super(callable);
+        }
+
+        void reject(B2Exception e) {
+            setException(e);
+        }
+    }
+
+    public static class Builder {
+        private final B2StorageClient client;
+        private final ExecutorService executor;
+        private int maxUploadsInFlight = 16;
+        private int maxLargeFilesInFlight = 4;
+        private int maxPartsInFlightPerFile = 16;
+        private final Map<String, Integer> tenantWeights = new TreeMap<>();
+
+        Builder(B2StorageClient client,
+                ExecutorService executor) {
+            this.client = client;
+            this.executor = executor;
+        }
+
+        /**
+         * @param maxUploadsInFlight how many small files and parts may be uploaded
+         *                           at the same time, across all files.  defaults to 16.
+         * @return this builder.
+         */
+        public Builder setMaxUploadsInFlight(int maxUploadsInFlight) {
+            this.maxUploadsInFlight = maxUploadsInFlight;
+            return this;
+        }
+
+        /**
+         * @param maxLargeFilesInFlight how many large files may be in progress at
+         *                              the same time.  defaults to 4.
+         * @return this builder.
+         */
+        public Builder setMaxLargeFilesInFlight(int maxLargeFilesInFlight) {
+            this.maxLargeFilesInFlight = maxLargeFilesInFlight;
+            return this;
+        }
+
+        /**
+         * @param maxPartsInFlightPerFile how many parts of one large file may be
+         *                                waiting or uploading at the same time.
+         *                                defaults to 16.
+         * @return this builder.
+         */
+        public Builder setMaxPartsInFlightPerFile(int maxPartsInFlightPerFile) {
+            this.maxPartsInFlightPerFile = maxPartsInFlightPerFile;
+            return this;
+        }
+
+        /**
+         * @param tenant the name of a tenant.
+         * @param weight the tenant's share of the uploads, relative to the other
+         *               tenants.  tenants default to a weight of 1.
+         * @return this builder.
+         */
+        public Builder setTenantWeight(String tenant,
+                                       int weight) {
+            tenantWeights.put(tenant, weight);
+            return this;
+        }
+
+        public B2UploadScheduler build() {
+            return new B2UploadScheduler(
+                    client,
+                    executor,
+                    maxUploadsInFlight,
+                    maxLargeFilesInFlight,
+                    maxPartsInFlightPerFile,
+                    tenantWeights);
+        }
+    }
+}
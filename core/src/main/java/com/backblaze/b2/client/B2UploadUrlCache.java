@@ -5,12 +5,16 @@
 package com.backblaze.b2.client;
 
 import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
 import com.backblaze.b2.client.structures.B2GetUploadUrlRequest;
 import com.backblaze.b2.client.structures.B2UploadUrlResponse;
+import com.backblaze.b2.util.B2Preconditions;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * The B2UploadUrlCache holds upload urls for buckets.
@@ -18,6 +22,15 @@ import java.util.Map;
  * If you use it and it works, unget() it when you're done.
  * If there's trouble, don't unget() it so it won't be used again.
  *
+ * Normally, a bucket's urls only pile up as they're ungot, so the first
+ * uploads to a bucket each have to wait to get a url from the server.  If
+ * you know you're about to upload lots of files to a bucket at once, call
+ * prewarm() and the cache will ask for that many urls in parallel, in the
+ * background.  After that, it asks for more in the background whenever the
+ * bucket's urls are taken or thrown away, to keep that many on hand, until
+ * you call stopPrewarming().  (See B2UploadPartUrlCache, which does the same
+ * thing for the parts of a large file.)
+ *
  * THREAD-SAFETY: this class may be used from multiple threads safely.
  */
 class B2UploadUrlCache {
@@ -44,11 +57,15 @@ class B2UploadUrlCache {
     // good enough.
     private final Map<String, Deque<B2UploadUrlResponse>> perBucket;
 
+    // the buckets we're prewarming.  this is bounded just like perBucket.
+    private final Map<String, Prewarming> prewarmingPerBucket;
+
     B2UploadUrlCache(B2StorageClientWebifier webifier,
                      B2AccountAuthorizationCache accountAuthCache) {
         this.webifier = webifier;
         this.accountAuthCache = accountAuthCache;
         perBucket = B2BoundedLruMap.withMax(MAX_BUCKETS);
+        prewarmingPerBucket = B2BoundedLruMap.withMax(MAX_BUCKETS);
     }
 
     /**
@@ -72,14 +89,39 @@ class B2UploadUrlCache {
         if (!isRetry) {
             // first, look to see if we have an answer already.
             synchronized (this) {
-                Deque<B2UploadUrlResponse> responses = perBucket.get(bucketId);
-                if (responses != null) {
-                    B2UploadUrlResponse response = responses.pollFirst();
-                    if (response != null) {
-                        return response;
+                // if a background fetch for this bucket is already running and
+                // nobody else is waiting for it, it'll probably finish before a
+                // fetch of our own would, so wait for it.  (we don't wait for
+                // fetches that haven't started running.  they might be queued
+                // behind us in the executor.)
+                Prewarming prewarming = prewarmingPerBucket.get(bucketId);
+                while (prewarming != null &&
+                        countResponses(bucketId) == 0 &&
+                        prewarming.fetchesRunning > prewarming.waitingForFetches) {
+                    prewarming.waitingForFetches++;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new B2LocalException("interrupted", "interrupted while waiting for an upload url: " + e, e);
+                    } finally {
+                        prewarming.waitingForFetches--;
                     }
+                    prewarming = prewarmingPerBucket.get(bucketId);
+                }
+
+                Deque<B2UploadUrlResponse> responses = perBucket.get(bucketId);
+                final B2UploadUrlResponse response = (responses == null) ? null : responses.pollFirst();
+                refill(bucketId);
+                if (response != null) {
+                    return response;
                 }
             }
+        } else {
+            // the caller is replacing a url it threw away.
+            synchronized (this) {
+                refill(bucketId);
+            }
         }
 
         // we don't have an answer yet, so ask the server for one and return it.
@@ -98,5 +140,109 @@ class B2UploadUrlCache {
     synchronized void unget(B2UploadUrlResponse response) {
         Deque<B2UploadUrlResponse> responses = perBucket.computeIfAbsent(response.getBucketId(), k -> new ArrayDeque<>());
         responses.offerLast(response);
+        notifyAll();
+    }
+
+    /**
+     * Starts getting urls for the given bucket in the background so there'll be
+     * poolSize of them on hand, and keeps topping it up as urls are taken, until
+     * stopPrewarming() is called for the bucket.
+     *
+     * @param bucketId the bucket we're about to upload to.
+     * @param poolSize how many urls to keep on hand.  this is usually the
+     *                 number of files that will be uploaded to the bucket at once.
+     * @param executor the executor to get the urls with.  the caller retains
+     *                 ownership of it.
+     */
+    synchronized void prewarm(String bucketId,
+                              int poolSize,
+                              ExecutorService executor) {
+        B2Preconditions.checkArgument(poolSize > 0, "poolSize must be positive.");
+        final Prewarming prewarming = prewarmingPerBucket.computeIfAbsent(bucketId, k -> new Prewarming());
+        prewarming.poolSize = poolSize;
+        prewarming.executor = executor;
+        refill(bucketId);
+    }
+
+    /**
+     * Stops getting urls for the given bucket in the background.  Background
+     * fetches which haven't started yet won't bother to ask the server.
+     *
+     * @param bucketId the bucket to stop prewarming.
+     */
+    synchronized void stopPrewarming(String bucketId) {
+        prewarmingPerBucket.remove(bucketId);
+        notifyAll();
+    }
+
+    private synchronized int countResponses(String bucketId) {
+        final Deque<B2UploadUrlResponse> responses = perBucket.get(bucketId);
+        return (responses == null) ? 0 : responses.size();
+    }
+
+    private synchronized void refill(String bucketId) {
+        final Prewarming prewarming = prewarmingPerBucket.get(bucketId);
+        if (prewarming == null) {
+            return;
+        }
+        while ((countResponses(bucketId) + prewarming.fetchesInFlight) < prewarming.poolSize) {
+            prewarming.fetchesInFlight++;
+            try {
+                prewarming.executor.execute(() -> fetchInBackground(bucketId, prewarming));
+            } catch (RejectedExecutionException e) {
+                // the executor is shutting down.  we'll get urls when they're asked for.
+                prewarming.fetchesInFlight--;
+                stopPrewarming(bucketId);
+                return;
+            }
+        }
+    }
+
+    private void fetchInBackground(String bucketId,
+                                   Prewarming prewarming) {
+        synchronized (this) {
+            if (prewarmingPerBucket.get(bucketId) != prewarming) {
+                // we've stopped prewarming this bucket since the fetch was queued.
+                prewarming.fetchesInFlight--;
+                return;
+            }
+            prewarming.fetchesRunning++;
+        }
+
+        B2UploadUrlResponse responseOrNull = null;
+        try {
+            final B2GetUploadUrlRequest request = new B2GetUploadUrlRequest(bucketId);
+            responseOrNull = webifier.getUploadUrl(accountAuthCache.get(), request);
+        } catch (B2Exception e) {
+            // never mind.  the next get() will ask for its own url, and it'll
+            // try to refill again after that.
+        } finally {
+            synchronized (this) {
+                prewarming.fetchesInFlight--;
+                prewarming.fetchesRunning--;
+                if (responseOrNull != null) {
+                    unget(responseOrNull);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Prewarming keeps track of prewarming one bucket.
+     * It's protected by synchronized(B2UploadUrlCache.this).
+     */
+    private static class Prewarming {
+        // how many urls to keep on hand and the executor to get them with.
+        private int poolSize;
+        private ExecutorService executor;
+
+        // how many background fetches we've handed to the executor that haven't
+        // finished yet, and how many of those are actually running.
+        private int fetchesInFlight;
+        private int fetchesRunning;
+
+        // how many threads in get() are waiting for a running fetch to finish.
+        private int waitingForFetches;
     }
 }
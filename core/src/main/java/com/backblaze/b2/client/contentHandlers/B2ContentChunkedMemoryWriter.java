@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.contentHandlers;
+
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.util.B2Preconditions;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This is a B2ContentWriter which records the incoming data in memory,
+ * as a list of chunks instead of one big array.
+ *
+ * Since no single array has to hold all of the content, it can hold more
+ * than Integer.MAX_VALUE bytes, and it never has to grow an array by copying
+ * it.  Each chunk is chunkSize bytes, except that the last one is only as
+ * big as the rest of the content is supposed to be, according to the
+ * response's Content-Length.  So, when the server sends what it said it
+ * would, exactly Content-Length bytes are allocated.
+ *
+ * The content is available as read-only ByteBuffers over the chunks or as
+ * an InputStream.  Neither copies it.
+ *
+ * THREAD-SAFETY: this object is NOT thread-safe on its own.  users should
+ *                only use it from one thread at a time and do proper locking
+ *                to ensure changes are visible to other threads as needed.
+ */
+public class B2ContentChunkedMemoryWriter extends B2ContentWriter {
+    private final int chunkSize;
+
+    // the chunks from the most recent attempt.  null until readContent is called.
+    private ChunkedOutputStream chunkedStream;
+
+    private B2ContentChunkedMemoryWriter(int chunkSize,
+                                         B2ContentVerificationPolicy verificationPolicy) {
+        super(verificationPolicy);
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    protected OutputStream createDestinationOutputStream() throws IOException {
+        final B2Headers headers = getHeadersOrNull();
+        final String contentLength = (headers == null) ? null : headers.getValueOrNull(B2Headers.CONTENT_LENGTH);
+        chunkedStream = new ChunkedOutputStream(chunkSize, (contentLength == null) ? 0 : headers.getContentLength());
+        return chunkedStream;
+    }
+
+    @Override
+    protected InputStream createDestinationInputStream() throws IOException {
+        return getInputStream();
+    }
+
+    /**
+     * @apiNote this might be empty or not quite what you expect if readContents()
+     *          hasn't completed successfully.
+     * @return the number of bytes that were read.
+     */
+    public long getLength() {
+        return (chunkedStream == null) ? 0 : chunkedStream.getLength();
+    }
+
+    /**
+     * @apiNote this might be empty or not quite what you expect if readContents()
+     *          hasn't completed successfully.
+     * @return an unmodifiable list of read-only buffers, one per chunk, with
+     *         the contents that were read, in order.  they share the chunks'
+     *         memory; nothing is copied.
+     */
+    public List<ByteBuffer> getReadOnlyBuffers() {
+        final List<ByteBuffer> buffers = new ArrayList<>();
+        if (chunkedStream != null) {
+            for (Chunk chunk : chunkedStream.getChunks()) {
+                buffers.add(ByteBuffer.wrap(chunk.bytes, 0, chunk.count).slice().asReadOnlyBuffer());
+            }
+        }
+        return Collections.unmodifiableList(buffers);
+    }
+
+    /**
+     * @apiNote this might be empty or not quite what you expect if readContents()
+     *          hasn't completed successfully.
+     * @return a new stream with the contents that were read.
+     */
+    public InputStream getInputStream() {
+        final List<InputStream> streams = new ArrayList<>();
+        if (chunkedStream != null) {
+            for (Chunk chunk : chunkedStream.getChunks()) {
+                streams.add(new ByteArrayInputStream(chunk.bytes, 0, chunk.count));
+            }
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    // for tests.
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static B2ContentChunkedMemoryWriter build() {
+        return builder().build();
+    }
+
+    private static class Chunk {
+        private final byte[] bytes;
+        private int count;
+
+        Chunk(int size) {
+            this.bytes = new byte[size];
+        }
+    }
+
+    /**
+     * ChunkedOutputStream appends to its last chunk, and adds a new chunk
+     * when that one is full.
+     */
+    private static class ChunkedOutputStream extends OutputStream {
+        private final int chunkSize;
+        private final long expectedLength;
+        private final List<Chunk> chunks = new ArrayList<>();
+        private long length;
+
+        ChunkedOutputStream(int chunkSize,
+                            long expectedLength) {
+            this.chunkSize = chunkSize;
+            this.expectedLength = expectedLength;
+        }
+
+        List<Chunk> getChunks() {
+            return chunks;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b,
+                          int off,
+                          int len) {
+            while (len > 0) {
+                final Chunk chunk = getChunkWithRoom();
+                final int n = Math.min(len, chunk.bytes.length - chunk.count);
+                System.arraycopy(b, off, chunk.bytes, chunk.count, n);
+                chunk.count += n;
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private Chunk getChunkWithRoom() {
+            if (!chunks.isEmpty()) {
+                final Chunk last = chunks.get(chunks.size() - 1);
+                if (last.count < last.bytes.length) {
+                    return last;
+                }
+            }
+
+            // if we know how much is coming, don't allocate more than that.
+            // if we get more than we expected, fall back to full chunks.
+            final long expectedRemaining = expectedLength - length;
+            final int size = (expectedRemaining > 0) ? (int) Math.min(chunkSize, expectedRemaining) : chunkSize;
+            final Chunk chunk = new Chunk(size);
+            chunks.add(chunk);
+            return chunk;
+        }
+    }
+
+    public static class Builder {
+        private int chunkSize = 1024 * 1024;
+        private B2ContentVerificationPolicy verificationPolicy = B2ContentVerificationPolicy.NETWORK_SHA1;
+
+        public B2ContentChunkedMemoryWriter build() {
+            B2Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive.");
+            return new B2ContentChunkedMemoryWriter(chunkSize, verificationPolicy);
+        }
+
+        /**
+         * @param chunkSize the number of bytes in each chunk.  defaults to 1 MB.
+         * @return this builder.
+         */
+        public Builder setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param verificationPolicy how much checking to do.  defaults to NETWORK_SHA1.
+         * @return this builder.
+         */
+        public Builder setVerificationPolicy(B2ContentVerificationPolicy verificationPolicy) {
+            this.verificationPolicy = verificationPolicy;
+            return this;
+        }
+    }
+}
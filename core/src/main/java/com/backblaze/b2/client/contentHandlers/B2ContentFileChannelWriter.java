@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.contentHandlers;
+
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.exceptions.B2ConnectionBrokenException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.util.B2IoUtils;
+import com.backblaze.b2.util.B2Preconditions;
+import com.backblaze.b2.util.B2Sha1;
+import com.backblaze.b2.util.B2StringUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * B2ContentFileChannelWriter records the incoming data into a file on disk,
+ * like B2ContentFileWriter, but it's built for moving a lot of data quickly.
+ *
+ * Instead of copying through a small array and an OutputStream, it fills a
+ * large direct buffer and writes the whole buffer to a FileChannel at once.
+ * The buffer is allocated the first time it's needed and then reused for
+ * every later call to readContent(), including retries.
+ *
+ * If the content's InputStream is also a channel, we read straight into the
+ * direct buffer and hash it from there.  Otherwise, we read into an array
+ * of the same size, hash it there, and copy it into the direct buffer
+ * ourselves.  (FileChannel would copy a heap buffer into a temporary direct
+ * buffer anyway, and those are cached per thread, so a big one in each of
+ * many download threads can use a lot of memory for a long time.)
+ *
+ * The SHA-1 is checked as described for B2ContentWriter, according to the
+ * B2ContentVerificationPolicy.  The file is flushed and sync'd before it's
+ * closed.
+ *
+ * THREAD-SAFETY: this object is NOT thread-safe on its own.  users should
+ *                only use it from one thread at a time and do proper locking
+ *                to ensure changes are visible to other threads as needed.
+ */
+public class B2ContentFileChannelWriter implements B2ContentSink {
+    private final File outputFile;
+    private final int bufferSize;
+    private final B2ContentVerificationPolicy verificationPolicy;
+
+    // allocated when first needed and then reused.
+    private ByteBuffer directBufferOrNull;
+    private byte[] arrayOrNull;
+
+    private B2Headers headers; // null until readContent is called.
+
+    private B2ContentFileChannelWriter(File outputFile,
+                                       int bufferSize,
+                                       B2ContentVerificationPolicy verificationPolicy) {
+        B2Preconditions.checkArgument(bufferSize > 0, "bufferSize must be positive.");
+        B2Preconditions.checkArgument(verificationPolicy != null, "verificationPolicy must not be null.");
+        this.outputFile = outputFile;
+        this.bufferSize = bufferSize;
+        this.verificationPolicy = verificationPolicy;
+    }
+
+    public static Builder builder(File file) {
+        return new Builder(file);
+    }
+
+    // for tests.
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    // for tests.
+    B2ContentVerificationPolicy getVerificationPolicy() {
+        return verificationPolicy;
+    }
+
+    @Override
+    public void readContent(B2Headers responseHeaders,
+                            InputStream in) throws B2Exception {
+        this.headers = responseHeaders;
+
+        // this is null if we can't (or shouldn't) check the sha1.
+        final String expectedSha1OrNull = (verificationPolicy == B2ContentVerificationPolicy.NONE) ?
+                null :
+                B2ContentWriter.getSha1ToCheckOrNull(responseHeaders);
+        final MessageDigest digestOrNull = (expectedSha1OrNull != null) ? B2Sha1.createSha1MessageDigest() : null;
+
+        // this is null unless we're going to read back some samples.
+        final B2SampledReadBack samplesOrNull = (verificationPolicy == B2ContentVerificationPolicy.SAMPLED_READ_BACK) ?
+                new B2SampledReadBack(responseHeaders.getContentLength(),
+                        B2ContentWriter.SAMPLED_READ_BACK_BLOCKS,
+                        B2ContentWriter.SAMPLED_READ_BACK_BLOCK_SIZE) :
+                null;
+
+        final ByteBuffer buffer = getDirectBuffer();
+        final ReadableByteChannel srcOrNull = asChannelOrNull(in);
+        try (FileChannel out = FileChannel.open(outputFile.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (true) {
+                final boolean hitEof = (srcOrNull != null) ?
+                        fillFromChannel(srcOrNull, buffer, digestOrNull) :
+                        fillFromStream(in, buffer, digestOrNull);
+                if (samplesOrNull != null) {
+                    samplesOrNull.wrote(buffer);
+                }
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                if (hitEof) {
+                    break;
+                }
+            }
+            out.force(true);
+        } catch (IOException e) {
+            throw new B2LocalException("write_failed", "failed to write " + outputFile + ": " + e.getMessage(), e);
+        }
+
+        // if possible, verify that the right data was read from the network.
+        maybeCheckSha1("from network", expectedSha1OrNull, digestOrNull);
+
+        // if requested, verify that the data made it to the file.
+        try {
+            if (samplesOrNull != null) {
+                try (InputStream fromFile = Files.newInputStream(outputFile.toPath())) {
+                    samplesOrNull.check(fromFile);
+                }
+            }
+            if (expectedSha1OrNull != null && verificationPolicy == B2ContentVerificationPolicy.FULL_READ_BACK) {
+                maybeCheckSha1("from destination", expectedSha1OrNull, hashFile(buffer));
+            }
+        } catch (IOException e) {
+            throw new B2LocalException("write_failed", "failed to verify " + outputFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the headers from the server, if any.
+     *         returns null until readContent is called.
+     *         may return non-null even if there's an exception
+     *         during readContent().
+     */
+    public B2Headers getHeadersOrNull() {
+        return headers;
+    }
+
+    private ByteBuffer getDirectBuffer() {
+        if (directBufferOrNull == null) {
+            directBufferOrNull = ByteBuffer.allocateDirect(bufferSize);
+        }
+        return directBufferOrNull;
+    }
+
+    private byte[] getArray() {
+        if (arrayOrNull == null) {
+            arrayOrNull = new byte[bufferSize];
+        }
+        return arrayOrNull;
+    }
+
+    /**
+     * Fills the buffer from the channel, as much as it can, and hashes what it read.
+     * Leaves the buffer flipped, ready to be written.
+     *
+     * @return true iff it hit the end of the channel.
+     */
+    private static boolean fillFromChannel(ReadableByteChannel src,
+                                           ByteBuffer buffer,
+                                           MessageDigest digestOrNull) throws B2Exception {
+        buffer.clear();
+        boolean hitEof = false;
+        try {
+            while (buffer.hasRemaining()) {
+                if (src.read(buffer) < 0) {
+                    hitEof = true;
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new B2ConnectionBrokenException("read_failed", null, "read failed: " + e.getMessage(), e);
+        }
+        buffer.flip();
+
+        if (digestOrNull != null) {
+            digestOrNull.update(buffer.duplicate());
+        }
+        return hitEof;
+    }
+
+    /**
+     * Just like fillFromChannel, but for a stream that isn't a channel, so
+     * it goes through an array.
+     */
+    private boolean fillFromStream(InputStream in,
+                                   ByteBuffer buffer,
+                                   MessageDigest digestOrNull) throws B2Exception {
+        final byte[] array = getArray();
+        final int nRead;
+        try {
+            nRead = B2IoUtils.readFully(in, array);
+        } catch (IOException e) {
+            throw new B2ConnectionBrokenException("read_failed", null, "read failed: " + e.getMessage(), e);
+        }
+
+        if (digestOrNull != null) {
+            digestOrNull.update(array, 0, nRead);
+        }
+        buffer.clear();
+        buffer.put(array, 0, nRead);
+        buffer.flip();
+        return nRead < array.length;
+    }
+
+    private MessageDigest hashFile(ByteBuffer buffer) throws IOException {
+        final MessageDigest digest = B2Sha1.createSha1MessageDigest();
+        try (FileChannel fromFile = FileChannel.open(outputFile.toPath(), StandardOpenOption.READ)) {
+            while (true) {
+                buffer.clear();
+                if (fromFile.read(buffer) < 0) {
+                    return digest;
+                }
+                buffer.flip();
+                digest.update(buffer);
+            }
+        }
+    }
+
+    private static void maybeCheckSha1(String when,
+                                       String expectedSha1OrNull,
+                                       MessageDigest digestOrNull) throws B2LocalException {
+        if (expectedSha1OrNull == null) {
+            return;
+        }
+
+        final String actualSha1 = B2StringUtil.toHexString(digestOrNull.digest());
+        if (!B2Sha1.equalHexSha1s(expectedSha1OrNull, actualSha1)) {
+            throw new B2LocalException("mismatch", "sha1 mismatch " + when + ".  expected " + expectedSha1OrNull + ", but got " + actualSha1);
+        }
+    }
+
+    /**
+     * @return a channel that reads from the same place as 'in' without any
+     *         copying in between, or null if there isn't one.
+     */
+    private static ReadableByteChannel asChannelOrNull(InputStream in) {
+        if (in instanceof ReadableByteChannel) {
+            return (ReadableByteChannel) in;
+        }
+        if (in.getClass() == FileInputStream.class) {
+            return ((FileInputStream) in).getChannel();
+        }
+        return null;
+    }
+
+    public static class Builder {
+        private final File outputFile;
+        private int bufferSize = 1024 * 1024;
+        private B2ContentVerificationPolicy verificationPolicy = B2ContentVerificationPolicy.NETWORK_SHA1;
+
+        private Builder(File file) {
+            this.outputFile = file;
+        }
+
+        /**
+         * @param bufferSize the size of the buffer to read and write with.
+         *                   defaults to 1 MB.
+         * @return this builder.
+         */
+        public Builder setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * @param verificationPolicy how much checking to do.  defaults to NETWORK_SHA1.
+         * @return this builder.
+         */
+        public Builder setVerificationPolicy(B2ContentVerificationPolicy verificationPolicy) {
+            this.verificationPolicy = verificationPolicy;
+            return this;
+        }
+
+        public B2ContentFileChannelWriter build() {
+            return new B2ContentFileChannelWriter(outputFile, bufferSize, verificationPolicy);
+        }
+    }
+}
@@ -16,13 +16,17 @@ import java.io.OutputStream;
  * This is a B2ContentWriter which records the incoming data into a file on disk.
  *
  * It is careful to flush &amp; sync the file when closing it.
+ *
+ * By default, it checks the SHA1 of the content as it's written, but doesn't
+ * read the file back afterwards, since that doubles the disk I/O.  Use
+ * setVerificationPolicy() to ask for more (or less) checking.
  */
 public class B2ContentFileWriter extends B2ContentWriter {
     private final File outputFile;
 
     private B2ContentFileWriter(File outputFile,
-                                boolean verifySha1ByRereadingFromDisk) {
-        super(verifySha1ByRereadingFromDisk);
+                                B2ContentVerificationPolicy verificationPolicy) {
+        super(verificationPolicy);
         this.outputFile = outputFile;
     }
 
@@ -42,7 +46,7 @@ public class B2ContentFileWriter extends B2ContentWriter {
 
     public static class Builder {
         private final File outputFile;
-        private boolean verifySha1ByRereadingFromDestination = true;
+        private B2ContentVerificationPolicy verificationPolicy = B2ContentVerificationPolicy.NETWORK_SHA1;
 
         private Builder(File file) {
             this.outputFile = file;
@@ -50,11 +54,25 @@ public class B2ContentFileWriter extends B2ContentWriter {
 
 
         public B2ContentFileWriter build() {
-            return new B2ContentFileWriter(outputFile, verifySha1ByRereadingFromDestination);
+            return new B2ContentFileWriter(outputFile, verificationPolicy);
         }
 
+        /**
+         * @param verifySha1ByRereadingFromDestination true for FULL_READ_BACK,
+         *                                             false for NETWORK_SHA1.
+         * @return this builder.
+         */
         public Builder setVerifySha1ByRereadingFromDestination(boolean verifySha1ByRereadingFromDestination) {
-            this.verifySha1ByRereadingFromDestination = verifySha1ByRereadingFromDestination;
+            this.verificationPolicy = policyFor(verifySha1ByRereadingFromDestination);
+            return this;
+        }
+
+        /**
+         * @param verificationPolicy how much checking to do.  defaults to NETWORK_SHA1.
+         * @return this builder.
+         */
+        public Builder setVerificationPolicy(B2ContentVerificationPolicy verificationPolicy) {
+            this.verificationPolicy = verificationPolicy;
             return this;
         }
     }
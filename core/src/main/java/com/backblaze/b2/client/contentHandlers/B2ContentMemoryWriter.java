@@ -13,20 +13,26 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * This is a B2ContentWriter which records the incoming data into an
  * in-memory byte array.
  *
+ * The array is allocated at the size from the response's Content-Length,
+ * so it isn't grown and copied as the content arrives.  getBytes() returns
+ * a copy of it; asReadOnlyByteBuffer() doesn't copy.
+ *
  * This will completely fail if the contentLen is more than Integer.MAX_VALUE bytes.
- * It may cause other memory-related issues before that.
+ * It may cause other memory-related issues before that.  For big content,
+ * consider B2ContentChunkedMemoryWriter.
  */
 public class B2ContentMemoryWriter extends B2ContentWriter {
     private static final long MAX_LEN = Integer.MAX_VALUE;
-    private ByteArrayOutputStream byteStream = null; // most recent byteStream created.  null at least until readContent is called.
+    private PresizedByteArrayOutputStream byteStream = null; // most recent byteStream created.  null at least until readContent is called.
 
-    private B2ContentMemoryWriter(boolean verifySha1ByRereadingFromDestination) {
-        super(verifySha1ByRereadingFromDestination);
+    private B2ContentMemoryWriter(B2ContentVerificationPolicy verificationPolicy) {
+        super(verificationPolicy);
     }
 
     @Override
@@ -42,13 +48,14 @@ public class B2ContentMemoryWriter extends B2ContentWriter {
 
     @Override
     protected OutputStream createDestinationOutputStream() throws IOException {
-        byteStream = new ByteArrayOutputStream();
+        // readContent() has already made sure it fits in an int.
+        byteStream = new PresizedByteArrayOutputStream((int) getHeadersOrNull().getContentLength());
         return byteStream;
     }
 
     @Override
     protected InputStream createDestinationInputStream() throws IOException {
-        return new ByteArrayInputStream(getBytes());
+        return byteStream.newInputStream();
     }
 
     /**
@@ -65,6 +72,46 @@ public class B2ContentMemoryWriter extends B2ContentWriter {
         }
     }
 
+    /**
+     * @apiNote this might be empty or not quite what you expect if readContents()
+     *          hasn't completed successfully.
+     * @return a read-only view of the contents that were read, without copying them.
+     */
+    public ByteBuffer asReadOnlyByteBuffer() {
+        if (byteStream == null) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        } else {
+            return byteStream.asReadOnlyByteBuffer();
+        }
+    }
+
+    // for tests.
+    int getCapacity() {
+        return (byteStream == null) ? 0 : byteStream.getCapacity();
+    }
+
+    /**
+     * A ByteArrayOutputStream that starts out big enough for the content
+     * and lets us look at its buffer without copying it.
+     */
+    private static class PresizedByteArrayOutputStream extends ByteArrayOutputStream {
+        PresizedByteArrayOutputStream(int size) {
+            super(size);
+        }
+
+        synchronized InputStream newInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+
+        synchronized ByteBuffer asReadOnlyByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count).slice().asReadOnlyBuffer();
+        }
+
+        synchronized int getCapacity() {
+            return buf.length;
+        }
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -74,15 +121,25 @@ public class B2ContentMemoryWriter extends B2ContentWriter {
     }
 
     public static class Builder {
-        private boolean verifySha1ByRereadingFromDestination = true;
+        // reading back from memory is cheap, so we still do it by default.
+        private B2ContentVerificationPolicy verificationPolicy = B2ContentVerificationPolicy.FULL_READ_BACK;
 
         public B2ContentMemoryWriter build() {
-            return new B2ContentMemoryWriter(verifySha1ByRereadingFromDestination);
+            return new B2ContentMemoryWriter(verificationPolicy);
         }
 
         @SuppressWarnings("SameParameterValue")
         public Builder setVerifySha1ByRereadingFromDestination(boolean verifySha1ByRereadingFromDestination) {
-            this.verifySha1ByRereadingFromDestination = verifySha1ByRereadingFromDestination;
+            this.verificationPolicy = policyFor(verifySha1ByRereadingFromDestination);
+            return this;
+        }
+
+        /**
+         * @param verificationPolicy how much checking to do.  defaults to FULL_READ_BACK.
+         * @return this builder.
+         */
+        public Builder setVerificationPolicy(B2ContentVerificationPolicy verificationPolicy) {
+            this.verificationPolicy = verificationPolicy;
             return this;
         }
     }
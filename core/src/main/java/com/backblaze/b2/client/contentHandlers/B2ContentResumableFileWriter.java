@@ -0,0 +1,304 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.contentHandlers;
+
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.exceptions.B2ConnectionBrokenException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.util.B2ByteRange;
+import com.backblaze.b2.util.B2Sha1;
+import com.backblaze.b2.util.B2StringUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * B2ContentResumableFileWriter downloads a whole file into a local file,
+ * picking up where an earlier, unfinished download left off instead of
+ * starting over.
+ *
+ * Whatever is already in the local file is assumed to be the beginning of
+ * the file being downloaded, so the client only asks for the rest.  That's
+ * true when a download is retried, and also when an earlier download of the
+ * same fileId was interrupted, even in another process.  Don't use it with
+ * a partial local file from some other file.
+ *
+ * We ask for one byte we already have, so the range can be satisfied even
+ * when the local file is already complete.  That byte must match the one on
+ * disk.  If it doesn't, the local file must be from some other file, so it's
+ * emptied and we throw.
+ *
+ * If requested (the default), the SHA-1 of the whole file is checked when
+ * the download finishes.  The bytes that were already on disk are hashed
+ * once, when we first resume from them; after that, the hash keeps up with
+ * the bytes as they're appended, so retries don't hash anything again.  If
+ * the SHA-1 doesn't match, the local file is emptied and we throw.
+ *
+ * Use this with downloads that ask for the whole file.  If the request has
+ * a range of its own, the client won't ask this sink for one, and the range
+ * the response starts with will probably not line up with the local file.
+ *
+ * THREAD-SAFETY: this object is NOT thread-safe on its own.  users should
+ *                only use it from one thread at a time and do proper locking
+ *                to ensure changes are visible to other threads as needed.
+ */
+public class B2ContentResumableFileWriter implements B2ResumableContentSink {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final File outputFile;
+    private final boolean verifySha1;
+
+    // the digest of the first digestedLength bytes of the file, or null if we
+    // haven't hashed any of it yet.  only used when verifying the sha1.
+    private MessageDigest digestOrNull;
+    private long digestedLength;
+
+    private B2Headers headers; // null until readContent is called.
+
+    private B2ContentResumableFileWriter(File outputFile,
+                                         boolean verifySha1) {
+        this.outputFile = outputFile;
+        this.verifySha1 = verifySha1;
+    }
+
+    public static Builder builder(File file) {
+        return new Builder(file);
+    }
+
+    // for tests.
+    boolean getVerifySha1() {
+        return verifySha1;
+    }
+
+    @Override
+    public B2ByteRange getRangeToRequestOrNull() {
+        // length() is zero if the file doesn't exist.
+        final long length = outputFile.length();
+        if (length == 0) {
+            return null;
+        }
+        return B2ByteRange.startAt(length - 1);
+    }
+
+    @Override
+    public void readContent(B2Headers responseHeaders,
+                            InputStream in) throws B2Exception {
+        this.headers = responseHeaders;
+
+        final Long rangeStartOrNull = responseHeaders.getContentRangeStartOrNull();
+        final long start = (rangeStartOrNull == null) ? 0 : rangeStartOrNull;
+
+        try (FileChannel channel = FileChannel.open(outputFile.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+
+            final long existingLength = channel.size();
+            if (start > existingLength) {
+                throw new B2LocalException("trouble", "the response starts at byte " + start + ", but " + outputFile +
+                        " only has " + existingLength + " bytes.  was the request for a range?");
+            }
+
+            final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long bytesReceived = 0;
+            if (start == 0) {
+                // we're getting all of it, so start over.
+                channel.truncate(0);
+                startDigest();
+            } else {
+                if (verifySha1 && (digestOrNull == null || digestedLength != existingLength)) {
+                    // we haven't hashed what's on disk yet, or a write failed part
+                    // way through and we don't know what made it.
+                    hashExistingBytes(channel, existingLength, buffer);
+                }
+                bytesReceived += checkOverlap(channel, in, start, existingLength, buffer);
+            }
+
+            bytesReceived += append(channel, in, buffer);
+
+            final long expectedLength = responseHeaders.getContentLength();
+            if (bytesReceived != expectedLength) {
+                throw new B2ConnectionBrokenException("read_failed", null, "expected " + expectedLength +
+                        " bytes starting at " + start + ", but got " + bytesReceived);
+            }
+            channel.force(true);
+
+            maybeCheckSha1(channel, responseHeaders);
+        } catch (IOException e) {
+            throw new B2LocalException("write_failed", "failed to write " + outputFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the headers from the server, if any.
+     *         returns null until readContent is called.
+     *         may return non-null even if there's an exception
+     *         during readContent().
+     */
+    public B2Headers getHeadersOrNull() {
+        return headers;
+    }
+
+    private void startDigest() {
+        digestOrNull = verifySha1 ? B2Sha1.createSha1MessageDigest() : null;
+        digestedLength = 0;
+    }
+
+    private void hashExistingBytes(FileChannel channel,
+                                   long length,
+                                   byte[] buffer) throws IOException {
+        startDigest();
+        while (digestedLength < length) {
+            final int nRead = readAt(channel, digestedLength, buffer, (int) Math.min(buffer.length, length - digestedLength));
+            digestOrNull.update(buffer, 0, nRead);
+            digestedLength += nRead;
+        }
+    }
+
+    /**
+     * Reads the bytes of the response that we already have and makes sure
+     * they match what's on disk.
+     *
+     * @return the number of bytes read from 'in'.
+     */
+    private long checkOverlap(FileChannel channel,
+                              InputStream in,
+                              long start,
+                              long existingLength,
+                              byte[] buffer) throws B2Exception, IOException {
+        final byte[] fromDisk = new byte[buffer.length];
+        long position = start;
+        while (position < existingLength) {
+            final int toRead = (int) Math.min(buffer.length, existingLength - position);
+            final int nRead = readFromNetwork(in, buffer, toRead);
+            if (nRead < 0) {
+                // we'll find out we're short when we compare with the Content-Length.
+                break;
+            }
+            readAt(channel, position, fromDisk, nRead);
+            for (int i = 0; i < nRead; i++) {
+                if (buffer[i] != fromDisk[i]) {
+                    channel.truncate(0);
+                    startDigest();
+                    throw new B2LocalException("mismatch", outputFile + " doesn't match the file being downloaded at byte " +
+                            (position + i) + ", so it's been emptied.");
+                }
+            }
+            position += nRead;
+        }
+        return position - start;
+    }
+
+    /**
+     * Appends the rest of 'in' to the end of the file, hashing it as it goes.
+     *
+     * @return the number of bytes appended.
+     */
+    private long append(FileChannel channel,
+                        InputStream in,
+                        byte[] buffer) throws B2Exception, IOException {
+        long position = channel.size();
+        long bytesAppended = 0;
+        while (true) {
+            final int nRead = readFromNetwork(in, buffer, buffer.length);
+            if (nRead < 0) {
+                return bytesAppended;
+            }
+
+            final ByteBuffer toWrite = ByteBuffer.wrap(buffer, 0, nRead);
+            while (toWrite.hasRemaining()) {
+                position += channel.write(toWrite, position);
+            }
+            bytesAppended += nRead;
+
+            // only once it's on disk, so the digest never covers more than the file.
+            if (digestOrNull != null) {
+                digestOrNull.update(buffer, 0, nRead);
+                digestedLength += nRead;
+            }
+        }
+    }
+
+    private void maybeCheckSha1(FileChannel channel,
+                                B2Headers responseHeaders) throws B2Exception, IOException {
+        if (digestOrNull == null) {
+            return;
+        }
+
+        // we can only check the sha1 if we have the whole file.
+        final String expectedSha1OrNull = responseHeaders.getWholeFileSha1OrNull();
+        final Long completeLengthOrNull;
+        if (responseHeaders.hasContentRange()) {
+            completeLengthOrNull = responseHeaders.getContentRangeCompleteLengthOrNull();
+        } else {
+            completeLengthOrNull = responseHeaders.getContentLength();
+        }
+        if (expectedSha1OrNull == null || completeLengthOrNull == null || completeLengthOrNull != digestedLength) {
+            return;
+        }
+
+        // digest() resets the digest, so start over to keep digestedLength honest.
+        final String actualSha1 = B2StringUtil.toHexString(digestOrNull.digest());
+        startDigest();
+        if (!B2Sha1.equalHexSha1s(expectedSha1OrNull, actualSha1)) {
+            channel.truncate(0);
+            throw new B2LocalException("mismatch", "sha1 mismatch.  expected " + expectedSha1OrNull + ", but got " + actualSha1 +
+                    ", so " + outputFile + " has been emptied.");
+        }
+    }
+
+    private static int readFromNetwork(InputStream in,
+                                       byte[] buffer,
+                                       int length) throws B2Exception {
+        try {
+            return in.read(buffer, 0, length);
+        } catch (IOException e) {
+            throw new B2ConnectionBrokenException("read_failed", null, "read failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static int readAt(FileChannel channel,
+                              long position,
+                              byte[] buffer,
+                              int length) throws IOException {
+        final ByteBuffer toRead = ByteBuffer.wrap(buffer, 0, length);
+        while (toRead.hasRemaining()) {
+            final int nRead = channel.read(toRead, position + toRead.position());
+            if (nRead < 0) {
+                throw new IOException("unexpected end of file at byte " + (position + toRead.position()));
+            }
+        }
+        return length;
+    }
+
+    public static class Builder {
+        private final File outputFile;
+        private boolean verifySha1 = true;
+
+        private Builder(File file) {
+            this.outputFile = file;
+        }
+
+        /**
+         * @param verifySha1 whether to check the SHA-1 of the whole file when
+         *                   the download finishes.  defaults to true.
+         * @return this builder.
+         */
+        public Builder setVerifySha1(boolean verifySha1) {
+            this.verifySha1 = verifySha1;
+            return this;
+        }
+
+        public B2ContentResumableFileWriter build() {
+            return new B2ContentResumableFileWriter(outputFile, verifySha1);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.contentHandlers;
+
+/**
+ * B2ContentVerificationPolicy says how much work a B2ContentWriter does to
+ * make sure the downloaded content made it to the destination intact.
+ *
+ * The SHA-1 can only be checked when B2ContentWriter says it's possible
+ * (the whole file was requested and the response has a SHA-1 for it).
+ * The sampled read-back doesn't depend on the SHA-1, so it's always done.
+ */
+public enum B2ContentVerificationPolicy {
+    /**
+     * Don't check anything.
+     */
+    NONE,
+
+    /**
+     * Hash the content as it's written to the destination and compare that
+     * with the expected SHA-1.  This catches trouble on the network, but not
+     * trouble writing to the destination.
+     */
+    NETWORK_SHA1,
+
+    /**
+     * Just like NETWORK_SHA1, and then also read back some evenly spaced blocks
+     * from the destination and check that they're what was written.  This
+     * only reads back a bounded amount of the content, no matter how big it is.
+     */
+    SAMPLED_READ_BACK,
+
+    /**
+     * Just like NETWORK_SHA1, and then also read back all of the content from
+     * the destination and check its SHA-1.  This is the most thorough, but it
+     * reads everything a second time.
+     */
+    FULL_READ_BACK
+}
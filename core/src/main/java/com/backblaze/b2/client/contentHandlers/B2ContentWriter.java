@@ -33,12 +33,14 @@ import static com.backblaze.b2.util.B2IoUtils.closeQuietly;
  *     sha1 header's value starts with "unverified:", the remainder
  *     of the value will be used.)
  *
- * If possible (see above), this class will always verify the SHA1 of the
- * content as it's downloaded.
+ * How much checking is done is up to the B2ContentVerificationPolicy.
+ * Unless it's NONE, the SHA1 of the content is verified as it's downloaded,
+ * if possible (see above).
  *
- * If possible (see above) and requested, this class will also re-read the
- * content from its destination to verify that it has been stored to the destination
- * with no errors.
+ * If the policy is FULL_READ_BACK, this class will also re-read all of the
+ * content from its destination to verify its SHA1, if possible (see above).
+ * That doubles the I/O for every download, so SAMPLED_READ_BACK only reads
+ * back a few blocks and checks that they're what was written to them.
  *
  * THREAD-SAFETY: this object is NOT thread-safe on its own.  users should
  *                only use it from one thread at a time and do proper locking
@@ -47,16 +49,41 @@ import static com.backblaze.b2.util.B2IoUtils.closeQuietly;
 public abstract class B2ContentWriter implements B2ContentSink {
     private static final int EOF = -1;
     private static final int DEFAULT_COPY_BUFFER_SIZE = 4 * 1024;
-    private final boolean verifySha1ByRereadingFromDestination;
+
+    // for SAMPLED_READ_BACK, this reads back at most 1 MB.
+    static final int SAMPLED_READ_BACK_BLOCKS = 16;
+    static final int SAMPLED_READ_BACK_BLOCK_SIZE = 64 * 1024;
+
+    private final B2ContentVerificationPolicy verificationPolicy;
     private B2Headers headers; // null until readContent is called.
 
     B2ContentWriter(boolean verifySha1ByRereadingFromDestination) {
-        this.verifySha1ByRereadingFromDestination = verifySha1ByRereadingFromDestination;
+        this(policyFor(verifySha1ByRereadingFromDestination));
+    }
+
+    B2ContentWriter(B2ContentVerificationPolicy verificationPolicy) {
+        B2Preconditions.checkArgument(verificationPolicy != null, "verificationPolicy must not be null.");
+        this.verificationPolicy = verificationPolicy;
+    }
+
+    /**
+     * @return the policy that matches the old, boolean, way of asking for the
+     *         content to be re-read from its destination.
+     */
+    static B2ContentVerificationPolicy policyFor(boolean verifySha1ByRereadingFromDestination) {
+        return verifySha1ByRereadingFromDestination ?
+                B2ContentVerificationPolicy.FULL_READ_BACK :
+                B2ContentVerificationPolicy.NETWORK_SHA1;
     }
 
     // for tests.
     boolean getVerifySha1ByRereadingFromDestination() {
-        return verifySha1ByRereadingFromDestination;
+        return verificationPolicy == B2ContentVerificationPolicy.FULL_READ_BACK;
+    }
+
+    // for tests.
+    B2ContentVerificationPolicy getVerificationPolicy() {
+        return verificationPolicy;
     }
 
     @Override
@@ -65,8 +92,15 @@ public abstract class B2ContentWriter implements B2ContentSink {
         // grab the headers for later.
         this.headers = responseHeaders;
 
-        // this is null if we can't check the sha1 for this input stream.
-        final String expectedSha1OrNull = getSha1ToCheckOrNull(this.headers);
+        // this is null if we can't (or shouldn't) check the sha1 for this input stream.
+        final String expectedSha1OrNull = (verificationPolicy == B2ContentVerificationPolicy.NONE) ?
+                null :
+                getSha1ToCheckOrNull(this.headers);
+
+        // this is null unless we're going to read back some samples.
+        final B2SampledReadBack samplesOrNull = (verificationPolicy == B2ContentVerificationPolicy.SAMPLED_READ_BACK) ?
+                new B2SampledReadBack(this.headers.getContentLength(), SAMPLED_READ_BACK_BLOCKS, SAMPLED_READ_BACK_BLOCK_SIZE) :
+                null;
 
         // we'll read from 'in'.
         final InputStream in;
@@ -82,12 +116,15 @@ public abstract class B2ContentWriter implements B2ContentSink {
 
             // copy to the destination.
             out = createDestinationOutputStreamOrThrow();
-            copy(in, out);
+            copy(in, out, samplesOrNull);
             closeOrThrow(out);
 
             // if possible, verify that the right data was read from the network.
             maybeCheckSha1("from network", expectedSha1OrNull, in);
 
+            // if requested, verify that some of the data made it to the destination.
+            maybeReadBackSamples(samplesOrNull);
+
             // if possible and requested, verify that the right data made it to the destination.
             maybeVerifySha1FromDestination(expectedSha1OrNull);
 
@@ -122,7 +159,7 @@ public abstract class B2ContentWriter implements B2ContentSink {
         if (expectedSha1OrNull == null) {
             return;
         }
-        if (!verifySha1ByRereadingFromDestination) {
+        if (verificationPolicy != B2ContentVerificationPolicy.FULL_READ_BACK) {
             return;
         }
 
@@ -136,25 +173,23 @@ public abstract class B2ContentWriter implements B2ContentSink {
         }
     }
 
-
-    /*forTests*/ static String getSha1ToCheckOrNull(B2Headers headers) {
-        if (headers.hasContentRange()) {
-            return null;
+    private void maybeReadBackSamples(B2SampledReadBack samplesOrNull) throws B2Exception {
+        if (samplesOrNull == null) {
+            return;
         }
 
-        // sha1 == "none" for large files, and so we don't want to return "none".
-        // instead, we want to fall through and check for the optional largeFileSha1.
-        final String sha1 = headers.getContentSha1EvenIfUnverifiedOrNull();
-        if (sha1 != null && !sha1.equals("none")) {
-            return sha1;
+        try (InputStream fromDest = createDestinationInputStreamOrThrow()) {
+            samplesOrNull.check(fromDest);
+        } catch (IOException e) {
+            throw new B2LocalException("write_failed", "failed to read back samples: " + e.getMessage(), e);
         }
+    }
 
-        final String largeSha1 = headers.getLargeFileSha1OrNull();
-        if (largeSha1 != null) {
-            return largeSha1;
+    /*forTests*/ static String getSha1ToCheckOrNull(B2Headers headers) {
+        if (headers.hasContentRange()) {
+            return null;
         }
-
-        return null;
+        return headers.getWholeFileSha1OrNull();
     }
 
     // a helper for createDestinationOutputStream() which makes it easy to throw
@@ -217,14 +252,16 @@ public abstract class B2ContentWriter implements B2ContentSink {
     }
 
     private static void copy(InputStream in,
-                             OutputStream out) throws B2Exception {
-        copy(in, out, new byte[DEFAULT_COPY_BUFFER_SIZE]);
+                             OutputStream out,
+                             B2SampledReadBack samplesOrNull) throws B2Exception {
+        copy(in, out, new byte[DEFAULT_COPY_BUFFER_SIZE], samplesOrNull);
     }
 
     // inspired by IOUtils.
     private static void copy(InputStream input,
                              OutputStream output,
-                             byte[] buffer)
+                             byte[] buffer,
+                             B2SampledReadBack samplesOrNull)
             throws B2Exception {
         while (true) {
             int nRead;
@@ -243,6 +280,10 @@ public abstract class B2ContentWriter implements B2ContentSink {
             } catch (IOException e) {
                 throw new B2LocalException("write_failed", "write failed: " + e.getMessage(), e);
             }
+
+            if (samplesOrNull != null) {
+                samplesOrNull.wrote(buffer, 0, nRead);
+            }
         }
     }
 
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.contentHandlers;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.util.B2ByteRange;
+
+/**
+ * A B2ResumableContentSink already has some of the content it's going to
+ * be given, so it only needs to be sent the rest.
+ *
+ * When a download without a range is given a B2ResumableContentSink, the
+ * client asks the sink for a range before each attempt, including retries,
+ * and asks for that range instead of the whole file.  The sink must still
+ * cope with being sent the whole file, since a request with a range of its
+ * own is sent as-is.
+ */
+public interface B2ResumableContentSink extends B2ContentSink {
+    /**
+     * @return the range of the content to ask for next, or null to ask for
+     *         all of it.
+     * @throws B2Exception if there's trouble figuring out what the sink has.
+     */
+    B2ByteRange getRangeToRequestOrNull() throws B2Exception;
+}
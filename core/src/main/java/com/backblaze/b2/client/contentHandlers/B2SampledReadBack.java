@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.contentHandlers;
+
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.util.B2IoUtils;
+import com.backblaze.b2.util.B2Preconditions;
+import com.backblaze.b2.util.B2Sha1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * B2SampledReadBack remembers the SHA-1s of a few evenly spaced blocks of
+ * content as it's written, so that those blocks can be read back from the
+ * destination later and checked, without reading back all of it.
+ *
+ * The first and last blocks are always sampled.  If the content isn't much
+ * bigger than the blocks, all of it is sampled.
+ *
+ * THREAD-SAFETY: this object is NOT thread-safe.
+ */
+class B2SampledReadBack {
+    private final int blockSize;
+
+    // the offsets of the sampled blocks, in increasing order.  they don't overlap.
+    private final long[] offsets;
+
+    // for each sampled block, the digest of what's been written to it and how many bytes that was.
+    private final MessageDigest[] digests;
+    private final int[] lengths;
+
+    // how many bytes have been written so far.
+    private long position;
+
+    B2SampledReadBack(long contentLength,
+                      int maxBlocks,
+                      int blockSize) {
+        B2Preconditions.checkArgument(maxBlocks >= 2, "maxBlocks must be at least 2.");
+        B2Preconditions.checkArgument(blockSize > 0, "blockSize must be positive.");
+        this.blockSize = blockSize;
+
+        final int numBlocks;
+        if (contentLength <= ((long) maxBlocks) * blockSize) {
+            // just sample all of it.
+            numBlocks = (int) ((contentLength + blockSize - 1) / blockSize);
+            offsets = new long[numBlocks];
+            for (int i = 0; i < numBlocks; i++) {
+                offsets[i] = ((long) i) * blockSize;
+            }
+        } else {
+            // the spacing is at least blockSize, so the blocks don't overlap.
+            numBlocks = maxBlocks;
+            offsets = new long[numBlocks];
+            for (int i = 0; i < numBlocks; i++) {
+                offsets[i] = (i * (contentLength - blockSize)) / (numBlocks - 1);
+            }
+        }
+
+        digests = new MessageDigest[numBlocks];
+        for (int i = 0; i < numBlocks; i++) {
+            digests[i] = B2Sha1.createSha1MessageDigest();
+        }
+        lengths = new int[numBlocks];
+    }
+
+    /**
+     * Takes note of the given bytes, which were just written after all the
+     * bytes that were written before them.
+     */
+    void wrote(byte[] buffer,
+               int offset,
+               int length) {
+        wrote(ByteBuffer.wrap(buffer, offset, length));
+    }
+
+    /**
+     * Just like wrote(byte[], int, int) for the bytes between the buffer's
+     * position and its limit.  The buffer's position isn't changed.
+     */
+    void wrote(ByteBuffer buffer) {
+        final int length = buffer.remaining();
+        final long writeEnd = position + length;
+        for (int i = 0; i < offsets.length; i++) {
+            final long blockEnd = offsets[i] + blockSize;
+            if (offsets[i] >= writeEnd) {
+                break;
+            }
+            if (blockEnd <= position) {
+                continue;
+            }
+            final long overlapStart = Math.max(offsets[i], position);
+            final long overlapEnd = Math.min(blockEnd, writeEnd);
+            final int overlapLength = (int) (overlapEnd - overlapStart);
+            final ByteBuffer overlap = buffer.duplicate();
+            overlap.position(buffer.position() + (int) (overlapStart - position));
+            overlap.limit(overlap.position() + overlapLength);
+            digests[i].update(overlap);
+            lengths[i] += overlapLength;
+        }
+        position = writeEnd;
+    }
+
+    /**
+     * Reads the sampled blocks from the destination and makes sure they
+     * match what was written.
+     *
+     * @param fromDest a stream of the destination's content, from the beginning.
+     * @throws B2LocalException if any of the blocks don't match.
+     * @throws IOException if there's trouble reading.
+     */
+    void check(InputStream fromDest) throws B2LocalException, IOException {
+        final byte[] buffer = new byte[blockSize];
+        long destPosition = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            if (lengths[i] == 0) {
+                // nothing was written to this block.
+                continue;
+            }
+            skipFully(fromDest, offsets[i] - destPosition);
+            final int nRead = B2IoUtils.readFully(fromDest, buffer, lengths[i]);
+            destPosition = offsets[i] + nRead;
+
+            final MessageDigest digest = B2Sha1.createSha1MessageDigest();
+            digest.update(buffer, 0, nRead);
+            if (nRead != lengths[i] || !Arrays.equals(digest.digest(), digests[i].digest())) {
+                throw new B2LocalException("mismatch", "the block at " + offsets[i] + " read back from the destination " +
+                        "doesn't match what was written to it.");
+            }
+        }
+    }
+
+    private static void skipFully(InputStream in,
+                                  long toSkip) throws B2LocalException, IOException {
+        while (toSkip > 0) {
+            long nSkipped = in.skip(toSkip);
+            if (nSkipped <= 0) {
+                // skip() is allowed to give up.  a read tells us if we're at the end.
+                if (in.read() < 0) {
+                    throw new B2LocalException("mismatch", "the destination is shorter than what was written to it.");
+                }
+                nSkipped = 1;
+            }
+            toSkip -= nSkipped;
+        }
+    }
+}
@@ -4,6 +4,8 @@
  */
 package com.backblaze.b2.client.contentSources;
 
+import com.backblaze.b2.util.B2Preconditions;
+
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -66,6 +68,15 @@ public class B2ByteArrayContentSource implements B2ContentSource {
         return new ByteArrayInputStream(source);
     }
 
+    @Override
+    public InputStream createInputStreamOrNull(long start,
+                                               long length) throws IOException {
+        B2Preconditions.checkArgument(start >= 0 && length >= 0 && (start + length) <= source.length,
+                "range [" + start + ", " + (start + length) + ") isn't within the " + source.length + " source bytes");
+        // this is a slice of the same array.  no copying!
+        return new ByteArrayInputStream(source, (int) start, (int) length);
+    }
+
     public static class Builder {
         private final byte[] source;
         private String sha1OrNull;
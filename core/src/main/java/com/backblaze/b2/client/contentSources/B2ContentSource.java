@@ -53,6 +53,25 @@ public interface B2ContentSource {
      */
     InputStream createInputStream() throws IOException;
 
-    // XXX: is there a *range* version of createInputStream() to help with
-    //      large files?
+    /**
+     * Sources which can efficiently read from the middle of their content
+     * (without reading or skipping everything before it) are encouraged to
+     * implement this.  It's used when uploading the parts of large files,
+     * so that the cost of reading a part depends only on the part's length
+     * and not on where the part is in the content.
+     *
+     * NOTE: like createInputStream(), this may be called multiple times,
+     *       possibly from several threads at once for different ranges.
+     *
+     * @param start the zero-based offset of the first byte to provide.
+     * @param length the number of bytes to provide.
+     * @return a new inputStream containing length bytes of the content starting
+     *         at start, or null if this source can't do that efficiently.
+     *         callers which get null should use createInputStream() instead.
+     * @throws IOException if there's trouble
+     */
+    default InputStream createInputStreamOrNull(long start,
+                                                long length) throws IOException {
+        return null;
+    }
 }
@@ -4,6 +4,8 @@
  */
 package com.backblaze.b2.client.contentSources;
 
+import com.backblaze.b2.util.B2FileRangeInputStream;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -47,6 +49,12 @@ public class B2FileContentSource implements B2ContentSource {
         return new FileInputStream(source);
     }
 
+    @Override
+    public InputStream createInputStreamOrNull(long start,
+                                               long length) throws IOException {
+        return B2FileRangeInputStream.create(source, start, length);
+    }
+
     public static class Builder {
         private final File source;
         private String sha1;
@@ -89,6 +89,58 @@ public interface B2Headers {
         return getValueOrNull(B2Headers.CONTENT_RANGE) != null;
     }
 
+    /**
+     * @return the index of the first byte in the Content-Range header
+     *         (the 0 in "bytes 0-999/5000"), or null if there's no Content-Range
+     *         header or it doesn't have a range (as in "bytes *&#47;5000").
+     * @throws IllegalStateException if the Content-Range header can't be parsed.
+     * @apiNote We throw for unparseable values because this is a standard HTTP header and really, really should be valid.
+     */
+    default Long getContentRangeStartOrNull() {
+        final String str = getValueOrNull(B2Headers.CONTENT_RANGE);
+        if (str == null) {
+            return null;
+        }
+
+        final int iDash = str.indexOf('-');
+        B2Preconditions.checkState(str.startsWith("bytes "), "can't parse Content-Range '" + str + "'");
+        if (str.startsWith("bytes *")) {
+            return null;
+        }
+        B2Preconditions.checkState(iDash >= 0, "can't parse Content-Range '" + str + "'");
+        try {
+            return Long.parseLong(str.substring("bytes ".length(), iDash));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("can't parse Content-Range '" + str + "': " + e, e);
+        }
+    }
+
+    /**
+     * @return the complete length of the content from the Content-Range header
+     *         (the part after the '/' in "bytes 0-999/5000"), or null if there's
+     *         no Content-Range header or it says the complete length is unknown.
+     * @throws IllegalStateException if the Content-Range header can't be parsed.
+     * @apiNote We throw for unparseable values because this is a standard HTTP header and really, really should be valid.
+     */
+    default Long getContentRangeCompleteLengthOrNull() {
+        final String str = getValueOrNull(B2Headers.CONTENT_RANGE);
+        if (str == null) {
+            return null;
+        }
+
+        final int iSlash = str.lastIndexOf('/');
+        B2Preconditions.checkState(str.startsWith("bytes ") && iSlash >= 0, "can't parse Content-Range '" + str + "'");
+        final String completeLength = str.substring(iSlash + 1);
+        if (completeLength.equals("*")) {
+            return null;
+        }
+        try {
+            return Long.parseLong(completeLength);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("can't parse Content-Range '" + str + "': " + e, e);
+        }
+    }
+
     /**
      * @return the value of the X-Bz-Content-Sha1 header, or null if none.
      * @apiNote We return null here instead of throwing an exception since this is a
@@ -122,6 +174,23 @@ public interface B2Headers {
         return getValueOrNull(LARGE_FILE_SHA1);
     }
 
+    /**
+     * @return the sha1 of the whole file, from the X-Bz-Content-Sha1 header if it
+     *         has one (with 'unverified:' removed), or else from the large_file_sha1
+     *         file info, or null if there's neither.  b2 sends these headers even
+     *         for ranged responses, so the value is for the whole file, not for
+     *         the response's content.
+     */
+    default String getWholeFileSha1OrNull() {
+        // sha1 == "none" for large files, and so we don't want to return "none".
+        // instead, we want to fall through and check for the optional largeFileSha1.
+        final String sha1 = getContentSha1EvenIfUnverifiedOrNull();
+        if (sha1 != null && !sha1.equals("none")) {
+            return sha1;
+        }
+        return getLargeFileSha1OrNull();
+    }
+
     /**
      * @return a new map with the names and values provided as fileInfo when the file was uploaded.
      * @apiNote the map may be empty, but it will never be null.
@@ -12,13 +12,16 @@ public class B2DownloadByIdRequest {
     private final String fileId;
     private final B2ByteRange range;
     private final String b2ContentDisposition;
+    private final B2DownloadListener listenerOrNull;
 
     public B2DownloadByIdRequest(String fileId,
                                  B2ByteRange range,
-                                 String b2ContentDisposition) {
+                                 String b2ContentDisposition,
+                                 B2DownloadListener listenerOrNull) {
         this.fileId = fileId;
         this.range = range;
         this.b2ContentDisposition = b2ContentDisposition;
+        this.listenerOrNull = listenerOrNull;
     }
 
     public String getFileId() {
@@ -33,6 +36,10 @@ public class B2DownloadByIdRequest {
         return b2ContentDisposition;
     }
 
+    public B2DownloadListener getListenerOrNull() {
+        return listenerOrNull;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -40,12 +47,13 @@ public class B2DownloadByIdRequest {
         B2DownloadByIdRequest that = (B2DownloadByIdRequest) o;
         return Objects.equals(fileId, that.fileId) &&
                 Objects.equals(range, that.range) &&
-                Objects.equals(b2ContentDisposition, that.b2ContentDisposition);
+                Objects.equals(b2ContentDisposition, that.b2ContentDisposition) &&
+                Objects.equals(listenerOrNull, that.listenerOrNull);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(fileId, range, b2ContentDisposition);
+        return Objects.hash(fileId, range, b2ContentDisposition, listenerOrNull);
     }
 
     public static Builder builder(String fileId) {
@@ -56,6 +64,7 @@ public class B2DownloadByIdRequest {
         private final String fileId;
         private B2ByteRange range;
         private String b2ContentDisposition;
+        private B2DownloadListener listenerOrNull;
 
         private Builder(String fileId) {
             this.fileId = fileId;
@@ -67,7 +76,7 @@ public class B2DownloadByIdRequest {
         }
 
         public B2DownloadByIdRequest build() {
-            return new B2DownloadByIdRequest(fileId, range, b2ContentDisposition);
+            return new B2DownloadByIdRequest(fileId, range, b2ContentDisposition, listenerOrNull);
         }
 
         @SuppressWarnings("unused")
@@ -75,5 +84,15 @@ public class B2DownloadByIdRequest {
             this.b2ContentDisposition = b2ContentDisposition;
             return this;
         }
+
+        /**
+         * @param listener if not null, it's told how each attempt at the
+         *                 download is going.  defaults to null.
+         * @return this builder.
+         */
+        public Builder setListener(B2DownloadListener listener) {
+            this.listenerOrNull = listener;
+            return this;
+        }
     }
 }
@@ -13,18 +13,21 @@ public class B2DownloadByNameRequest {
     private final String fileName;
     private final B2ByteRange range;
     private final String b2ContentDisposition;
+    private final B2DownloadListener listenerOrNull;
 
 
     public B2DownloadByNameRequest(String bucketName,
                                    String fileName,
                                    B2ByteRange range,
-                                   String b2ContentDisposition) {
+                                   String b2ContentDisposition,
+                                   B2DownloadListener listenerOrNull) {
         // B2Preconditions.checkArg(bucketName != null);
         // B2Preconditions.checkArg(fileName != null);
         this.bucketName = bucketName;
         this.fileName = fileName;
         this.range = range;
         this.b2ContentDisposition = b2ContentDisposition;
+        this.listenerOrNull = listenerOrNull;
     }
 
     public String getBucketName() {
@@ -43,6 +46,10 @@ public class B2DownloadByNameRequest {
         return b2ContentDisposition;
     }
 
+    public B2DownloadListener getListenerOrNull() {
+        return listenerOrNull;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -51,12 +58,13 @@ public class B2DownloadByNameRequest {
         return Objects.equals(bucketName, that.bucketName) &&
                 Objects.equals(fileName, that.fileName) &&
                 Objects.equals(range, that.range) &&
-                Objects.equals(b2ContentDisposition, that.b2ContentDisposition);
+                Objects.equals(b2ContentDisposition, that.b2ContentDisposition) &&
+                Objects.equals(listenerOrNull, that.listenerOrNull);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(bucketName, fileName, range, b2ContentDisposition);
+        return Objects.hash(bucketName, fileName, range, b2ContentDisposition, listenerOrNull);
     }
 
     public static Builder builder(String bucketName,
@@ -69,6 +77,7 @@ public class B2DownloadByNameRequest {
         private final String fileName;
         private B2ByteRange range;
         private String b2ContentDisposition;
+        private B2DownloadListener listenerOrNull;
 
         private Builder(String bucketName,
                        String fileName) {
@@ -87,12 +96,22 @@ public class B2DownloadByNameRequest {
             return this;
         }
 
+        /**
+         * @param listener if not null, it's told how each attempt at the
+         *                 download is going.  defaults to null.
+         * @return this builder.
+         */
+        public Builder setListener(B2DownloadListener listener) {
+            this.listenerOrNull = listener;
+            return this;
+        }
+
 
         public B2DownloadByNameRequest build() {
             return new B2DownloadByNameRequest(
                     bucketName,
                     fileName,
-                    range, b2ContentDisposition);
+                    range, b2ContentDisposition, listenerOrNull);
         }
     }
 }
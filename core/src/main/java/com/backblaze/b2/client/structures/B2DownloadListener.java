@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.structures;
+
+import java.util.function.Supplier;
+
+/**
+ * A B2DownloadListener is called periodically while content is being
+ * downloaded to provide an indication of progress.
+ *
+ * Updates with state DOWNLOADING are made at most every few seconds, no
+ * matter how fast the bytes arrive.  The last update for an attempt is
+ * always made, with state SUCCEEDED or FAILED.  A stalled download doesn't
+ * produce any updates until the read times out, so to notice one sooner,
+ * hold on to the supplier you're given in started() and check its
+ * millisSinceLastByte from a thread of your own.
+ *
+ * You may be called with state FAILED more than once in a row as various
+ * layers of the software notice the error.  Further, because of the way
+ * the SDK retries, you may see updates indicating progress and failure
+ * and then updates showing a subsequent attempt at the same content.
+ *
+ * THREAD-SAFETY: Listeners will be called from arbitrary threads and may be
+ * called from multiple threads simultaneously.  As a result, implementations
+ * of B2DownloadListener must be thread-safe.
+ *
+ * PERFORMANCE: do not do anything that might block the thread for any appreciable
+ *              amount of time.  doing so will slow down the download.
+ */
+public interface B2DownloadListener {
+
+    /**
+     * Called with progress about a download.
+     */
+    void progress(B2DownloadProgress progress);
+
+    /**
+     * Called when an attempt starts, before any progress() calls for it.
+     *
+     * The supplier returns the attempt's progress as of the moment you call
+     * it, from any thread, for as long as you like.  Its millisSinceLastByte
+     * is current, unlike the one in the periodic updates, so it's the way to
+     * notice a stalled download.
+     *
+     * The default implementation does nothing.
+     *
+     * @param progressNow returns the progress of the attempt right now.
+     */
+    default void started(Supplier<B2DownloadProgress> progressNow) {
+    }
+
+    /**
+     * @return A listener that doesn't do anything when called.
+     */
+    static B2DownloadListener noopListener() {
+        return (progress) -> {
+        };
+    }
+}
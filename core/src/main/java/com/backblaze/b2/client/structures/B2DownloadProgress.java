@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.structures;
+
+import java.util.Objects;
+
+/**
+ * The B2DownloadProgress summarizes the state of a download.
+ * It's a structure so we can extend it later, if needed.
+ *
+ * For a ranged download, startByte and length describe the range that the
+ * server is sending.  For a parallel download, they describe the whole file,
+ * and the length is -1 until the first chunk's response tells us how long
+ * the file is.
+ */
+public class B2DownloadProgress {
+    /**
+     * at what byte of the file does the content being downloaded begin.  (0 unless it's a range)
+     */
+    private final long startByte;
+
+    /**
+     * how many bytes are expected, or -1 if we don't know yet.
+     */
+    private final long length;
+
+    /**
+     * how many bytes have we received so far?
+     */
+    private final long bytesSoFar;
+
+    /**
+     * see B2DownloadState.
+     */
+    private final B2DownloadState state;
+
+    /**
+     * the average rate since this attempt started, in bytes per second.
+     */
+    private final double bytesPerSecond;
+
+    /**
+     * how long has it been since the number of bytes received last went up?
+     * this is measured when the progress is made.  the periodic updates come
+     * right after bytes arrive, so use the supplier given to
+     * B2DownloadListener.started() to see how long a download has stalled.
+     */
+    private final long millisSinceLastByte;
+
+    public B2DownloadProgress(long startByte,
+                              long length,
+                              long bytesSoFar,
+                              B2DownloadState state,
+                              double bytesPerSecond,
+                              long millisSinceLastByte) {
+        this.startByte = startByte;
+        this.length = length;
+        this.bytesSoFar = bytesSoFar;
+        this.state = state;
+        this.bytesPerSecond = bytesPerSecond;
+        this.millisSinceLastByte = millisSinceLastByte;
+    }
+
+    public long getStartByte() {
+        return startByte;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getBytesSoFar() {
+        return bytesSoFar;
+    }
+
+    public B2DownloadState getState() {
+        return state;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getMillisSinceLastByte() {
+        return millisSinceLastByte;
+    }
+
+    @Override
+    public String toString() {
+        return "B2DownloadProgress{" +
+                "startByte=" + startByte +
+                ", length=" + length +
+                ", bytesSoFar=" + bytesSoFar +
+                ", state=" + state +
+                ", bytesPerSecond=" + bytesPerSecond +
+                ", millisSinceLastByte=" + millisSinceLastByte +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        B2DownloadProgress progress = (B2DownloadProgress) o;
+        return startByte == progress.startByte &&
+                length == progress.length &&
+                bytesSoFar == progress.bytesSoFar &&
+                state == progress.state &&
+                Double.compare(bytesPerSecond, progress.bytesPerSecond) == 0 &&
+                millisSinceLastByte == progress.millisSinceLastByte;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(startByte, length, bytesSoFar, state, bytesPerSecond, millisSinceLastByte);
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.structures;
+
+/**
+ * <p>
+ * Generally, downloads follow this state diagram:
+ * </p>
+ *<pre>
+ *       DOWNLOADING
+ *        |       |
+ *        |       |
+ *        v       v
+ *  SUCCEEDED     FAILED
+ * </pre>
+ *  As with uploads, the purpose of these updates is to provide high-level
+ *  progress information.  Don't count on the rate at which you get the
+ *  updates and don't count on seeing all of them.
+ *
+ *  If the download hits retryable errors, it may go from FAILED back to
+ *  DOWNLOADING for the next attempt, and the bytesSoFar will start over.
+ */
+public enum B2DownloadState {
+    DOWNLOADING,
+    FAILED,
+    SUCCEEDED
+}
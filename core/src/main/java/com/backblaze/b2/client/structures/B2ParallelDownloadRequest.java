@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.structures;
+
+import com.backblaze.b2.util.B2ByteProgressListener;
+import com.backblaze.b2.util.B2Preconditions;
+
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * B2ParallelDownloadRequest describes downloading a file by id into a local
+ * file, using several ranged requests at once.
+ *
+ * The file is split into chunks of chunkSize bytes, and at most
+ * maxChunksInFlight of them are downloaded at a time.  Each chunk is written
+ * straight to its place in the destination file.
+ *
+ * If there's a listener, it hears about the progress of the whole file,
+ * not of the individual chunks.  Since it's called from the threads that
+ * are downloading the chunks, it must be thread-safe.  If a chunk has to be
+ * retried, the bytes it had gotten before the retry are subtracted, so the
+ * progress can go backwards.
+ *
+ * If there's a download listener, it gets B2DownloadProgress updates for the
+ * whole file, every few seconds, with the overall rate.  Its last update says
+ * whether the whole download SUCCEEDED or FAILED.  Like the listener, it's
+ * called from the threads that are downloading the chunks.
+ */
+public class B2ParallelDownloadRequest {
+    private final String fileId;
+    private final File destination;
+    private final long chunkSize;
+    private final int maxChunksInFlight;
+    private final B2ByteProgressListener listenerOrNull;
+    private final B2DownloadListener downloadListenerOrNull;
+
+    private B2ParallelDownloadRequest(String fileId,
+                                      File destination,
+                                      long chunkSize,
+                                      int maxChunksInFlight,
+                                      B2ByteProgressListener listenerOrNull,
+                                      B2DownloadListener downloadListenerOrNull) {
+        B2Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive.");
+        B2Preconditions.checkArgument(maxChunksInFlight > 0, "maxChunksInFlight must be positive.");
+        this.fileId = fileId;
+        this.destination = destination;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+        this.listenerOrNull = listenerOrNull;
+        this.downloadListenerOrNull = downloadListenerOrNull;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public File getDestination() {
+        return destination;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getMaxChunksInFlight() {
+        return maxChunksInFlight;
+    }
+
+    public B2ByteProgressListener getListenerOrNull() {
+        return listenerOrNull;
+    }
+
+    public B2DownloadListener getDownloadListenerOrNull() {
+        return downloadListenerOrNull;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        B2ParallelDownloadRequest that = (B2ParallelDownloadRequest) o;
+        return getChunkSize() == that.getChunkSize() &&
+                getMaxChunksInFlight() == that.getMaxChunksInFlight() &&
+                Objects.equals(getFileId(), that.getFileId()) &&
+                Objects.equals(getDestination(), that.getDestination()) &&
+                Objects.equals(getListenerOrNull(), that.getListenerOrNull()) &&
+                Objects.equals(getDownloadListenerOrNull(), that.getDownloadListenerOrNull());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getFileId(), getDestination(), getChunkSize(), getMaxChunksInFlight(), getListenerOrNull(), getDownloadListenerOrNull());
+    }
+
+    public static Builder builder(String fileId,
+                                  File destination) {
+        return new Builder(fileId, destination);
+    }
+
+    public static class Builder {
+        private final String fileId;
+        private final File destination;
+        private long chunkSize = 32 * 1024 * 1024;
+        private int maxChunksInFlight = 4;
+        private B2ByteProgressListener listenerOrNull;
+        private B2DownloadListener downloadListenerOrNull;
+
+        public Builder(String fileId,
+                       File destination) {
+            this.fileId = fileId;
+            this.destination = destination;
+        }
+
+        /**
+         * @param chunkSize how many bytes to ask for in each ranged request.
+         *                  defaults to 32 MB.
+         * @return this builder.
+         */
+        public Builder setChunkSize(long chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param maxChunksInFlight how many chunks to download at the same time.
+         *                          defaults to 4.
+         * @return this builder.
+         */
+        public Builder setMaxChunksInFlight(int maxChunksInFlight) {
+            this.maxChunksInFlight = maxChunksInFlight;
+            return this;
+        }
+
+        public Builder setListener(B2ByteProgressListener listener) {
+            this.listenerOrNull = listener;
+            return this;
+        }
+
+        /**
+         * @param downloadListener if not null, it's told how the whole download
+         *                         is going.  defaults to null.
+         * @return this builder.
+         */
+        public Builder setDownloadListener(B2DownloadListener downloadListener) {
+            this.downloadListenerOrNull = downloadListener;
+            return this;
+        }
+
+        public B2ParallelDownloadRequest build() {
+            return new B2ParallelDownloadRequest(
+                    fileId,
+                    destination,
+                    chunkSize,
+                    maxChunksInFlight,
+                    listenerOrNull,
+                    downloadListenerOrNull);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.structures;
+
+import com.backblaze.b2.util.B2Preconditions;
+
+import java.util.Objects;
+
+/**
+ * B2StreamingDownloadRequest describes reading a file by id as an InputStream,
+ * with the next parts of the file downloaded in the background.
+ *
+ * The file is fetched in chunks of chunkSize bytes with ranged requests.
+ * While the caller reads one chunk, up to readAheadChunks more are being
+ * downloaded or are waiting to be read, so at most (readAheadChunks + 1)
+ * chunks are in memory at once.
+ */
+public class B2StreamingDownloadRequest {
+    private final String fileId;
+    private final int chunkSize;
+    private final int readAheadChunks;
+
+    private B2StreamingDownloadRequest(String fileId,
+                                       int chunkSize,
+                                       int readAheadChunks) {
+        B2Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive.");
+        B2Preconditions.checkArgument(readAheadChunks > 0, "readAheadChunks must be positive.");
+        this.fileId = fileId;
+        this.chunkSize = chunkSize;
+        this.readAheadChunks = readAheadChunks;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getReadAheadChunks() {
+        return readAheadChunks;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        B2StreamingDownloadRequest that = (B2StreamingDownloadRequest) o;
+        return getChunkSize() == that.getChunkSize() &&
+                getReadAheadChunks() == that.getReadAheadChunks() &&
+                Objects.equals(getFileId(), that.getFileId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getFileId(), getChunkSize(), getReadAheadChunks());
+    }
+
+    public static Builder builder(String fileId) {
+        return new Builder(fileId);
+    }
+
+    public static class Builder {
+        private final String fileId;
+        private int chunkSize = 8 * 1024 * 1024;
+        private int readAheadChunks = 4;
+
+        public Builder(String fileId) {
+            this.fileId = fileId;
+        }
+
+        /**
+         * @param chunkSize how many bytes to ask for in each ranged request.
+         *                  defaults to 8 MB.
+         * @return this builder.
+         */
+        public Builder setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param readAheadChunks how many chunks to download ahead of the reader.
+         *                        defaults to 4.
+         * @return this builder.
+         */
+        public Builder setReadAheadChunks(int readAheadChunks) {
+            this.readAheadChunks = readAheadChunks;
+            return this;
+        }
+
+        public B2StreamingDownloadRequest build() {
+            return new B2StreamingDownloadRequest(
+                    fileId,
+                    chunkSize,
+                    readAheadChunks);
+        }
+    }
+}
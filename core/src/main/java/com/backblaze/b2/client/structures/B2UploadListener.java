@@ -13,7 +13,9 @@ package com.backblaze.b2.client.structures;
  * a large file's part's partNumber.)  For a small file, you'll only get
  * updates for partIndex=0 and partCount will always be 1.
  * For a large file with N parts, partIndex will range from 0 to N-1 and
- * partCount will always be N.
+ * partCount will always be N.  (The exception is a large file uploaded
+ * from a stream of unknown length.  There, partCount is the number of
+ * parts read so far when the part was read.)
  *
  * You may be called with state FAILED more than once in a row as various
  * layers of the software notice the error.  Further, because of the way
@@ -36,6 +38,24 @@ public interface B2UploadListener {
      */
     void progress(B2UploadProgress progress);
 
+    /**
+     * Called after a large file that was uploaded in a single pass over its
+     * content has been finished, with the SHA-1 of the whole content.
+     *
+     * B2 only accepts LARGE_FILE_SHA1 when a large file is started, so when
+     * the content's SHA-1 wasn't known up front, this is the only place to
+     * get it.  You might want to record it with your own information about
+     * the file.
+     *
+     * The default implementation does nothing.
+     *
+     * @param largeFileVersion the finished large file.
+     * @param largeFileSha1 the hex SHA-1 of the large file's content.
+     */
+    default void largeFileSha1Computed(B2FileVersion largeFileVersion,
+                                       String largeFileSha1) {
+    }
+
     /**
      * @return A listener that doesn't do anything when called.
      */
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * B2FileRangeInputStream provides the bytes of a file starting from the
+ * start'th byte and continuing up to and including the (start + length - 1)'th
+ * byte.
+ *
+ * Unlike B2InputStreamExcerpt, it doesn't skip to the start.  It uses
+ * positional reads on a FileChannel, so the cost of reading a range doesn't
+ * depend on where the range is in the file.
+ *
+ * If the file is shorter than (start + length), the stream ends early, at the
+ * end of the file.
+ *
+ * It does NOT support mark/reset.
+ *
+ * THREAD-SAFETY: this class is NOT thread-safe on its own.  Separate instances
+ *   for the same file may be used from separate threads.
+ */
+public class B2FileRangeInputStream extends InputStream {
+    private static final int EOF = -1;
+    private final FileChannel channel;
+
+    // these index values are zero-based positions in the file.
+    private final long start;
+    private long pastEnd; // we should never return the byte at this position.
+    private long iPosition;
+
+    private B2FileRangeInputStream(FileChannel channel,
+                                   long start,
+                                   long length) {
+        this.channel = channel;
+        this.start = start;
+        this.pastEnd = start + length;
+        this.iPosition = start;
+    }
+
+    /**
+     * @param file the file to read from.
+     * @param start the zero-based offset of the first byte to read.
+     * @param length the number of bytes to read.
+     * @return a new stream.  the caller is responsible for closing it.
+     * @throws IOException if the file can't be opened.
+     */
+    public static B2FileRangeInputStream create(File file,
+                                                long start,
+                                                long length) throws IOException {
+        B2Preconditions.checkArgument(start >= 0, "start must be non-negative.");
+        B2Preconditions.checkArgument(length >= 0, "length must be non-negative.");
+        return new B2FileRangeInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ), start, length);
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] oneByte = new byte[1];
+        final int nRead = read(oneByte, 0, 1);
+        return (nRead == EOF) ? EOF : (oneByte[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b,
+                    int off,
+                    int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (atEnd()) {
+            return EOF;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, getRemaining()));
+        final int actuallyRead = channel.read(buffer, iPosition);
+        if (actuallyRead == EOF) {
+            // the file is shorter than we were told.  let's remember we're at the end.
+            pastEnd = iPosition;
+        } else {
+            iPosition += actuallyRead;
+        }
+        return actuallyRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || atEnd()) {
+            return 0;
+        }
+        final long actuallySkipped = Math.min(n, getRemaining());
+        iPosition += actuallySkipped;
+        return actuallySkipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (atEnd()) {
+            return 0;
+        }
+        final long inFile = Math.max(0, channel.size() - iPosition);
+        return (int) Math.min(Integer.MAX_VALUE, Math.min(inFile, getRemaining()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean atEnd() {
+        return iPosition >= pastEnd;
+    }
+
+    private long getRemaining() {
+        B2Preconditions.checkState(iPosition < pastEnd);
+        return pastEnd - iPosition;
+    }
+
+    public long getRangeStart() {
+        return start;
+    }
+
+    public long getRangeLength() {
+        return pastEnd - start;
+    }
+}
@@ -23,6 +23,45 @@ public class B2IoUtils {
         return copyGuts(in, out, new byte[4 * 1024]);
     }
 
+    /**
+     * Reads from 'in' into 'buffer' until the buffer is full or
+     * until it hits the end of 'in'.
+     *
+     * @param in the stream to read from.
+     * @param buffer the buffer to fill.
+     * @return the number of bytes read.  it's less than buffer.length
+     *         only if we hit the end of the stream.
+     */
+    public static int readFully(InputStream in,
+                                byte[] buffer) throws IOException {
+        return readFully(in, buffer, buffer.length);
+    }
+
+    /**
+     * Reads from 'in' into the first 'length' bytes of 'buffer' until it
+     * has read 'length' bytes or until it hits the end of 'in'.
+     *
+     * @param in the stream to read from.
+     * @param buffer the buffer to fill.
+     * @param length how many bytes to read.  must be no more than buffer.length.
+     * @return the number of bytes read.  it's less than length
+     *         only if we hit the end of the stream.
+     */
+    public static int readFully(InputStream in,
+                                byte[] buffer,
+                                int length) throws IOException {
+        B2Preconditions.checkArgument(length >= 0 && length <= buffer.length, "length must be between 0 and buffer.length.");
+        int count = 0;
+        while (count < length) {
+            final int n = in.read(buffer, count, length - count);
+            if (n == EOF) {
+                break;
+            }
+            count += n;
+        }
+        return count;
+    }
+
     /**
      * If closable isn't null, this will close it, ignoring any IOExceptions
      * that might happen.  This is especially useful in finally blocks.
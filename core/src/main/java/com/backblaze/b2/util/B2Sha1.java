@@ -44,6 +44,15 @@ public interface B2Sha1 {
         return toHexString(binarySha1OfBytes(data));
     }
 
+    /**
+     * Returns the SHA-1 of length bytes of data, starting at offset, as a hex string.
+     */
+    static String hexSha1OfBytes(byte [] data, int offset, int length) {
+        MessageDigest digest = createSha1MessageDigest();
+        digest.update(data, offset, length);
+        return toHexString(digest.digest());
+    }
+
     /**
      * Returns the SHA-1 of the given input stream, as a hex string.
      */
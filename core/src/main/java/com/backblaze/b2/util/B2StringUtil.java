@@ -156,6 +156,48 @@ public class B2StringUtil {
         return sb.toString();
     }
 
+    /**
+     * Compares two strings in the order of their UTF-8 bytes, which is the
+     * order b2 sorts file names in.  That's the same as comparing their
+     * code points, which is different from String.compareTo() when there
+     * are characters outside the Basic Multilingual Plane.
+     *
+     * @param a one string.
+     * @param b the other string.
+     * @return negative, zero, or positive, like compareTo().
+     */
+    public static int compareUtf8(String a, String b) {
+        int iA = 0;
+        int iB = 0;
+        while (iA < a.length() && iB < b.length()) {
+            final int codePointA = a.codePointAt(iA);
+            final int codePointB = b.codePointAt(iB);
+            if (codePointA != codePointB) {
+                return Integer.compare(codePointA, codePointB);
+            }
+            iA += Character.charCount(codePointA);
+            iB += Character.charCount(codePointB);
+        }
+        return Boolean.compare(iA < a.length(), iB < b.length());
+    }
+
+    /**
+     * Compares two arrays of UTF-8 bytes, treating the bytes as unsigned.
+     *
+     * @param a one array.
+     * @param b the other array.
+     * @return negative, zero, or positive, like compareTo().
+     */
+    public static int compareUtf8(byte[] a, byte[] b) {
+        final int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            final int cmp = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
 
     // this exists so it can be called for code coverage purposes in the unit test.
     // it is package-private so that no one else can call it.
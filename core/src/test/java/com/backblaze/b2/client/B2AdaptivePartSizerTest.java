@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.structures.B2AccountAuthorization;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.junit.Assert.assertEquals;
+
+public class B2AdaptivePartSizerTest {
+    private static final long MIN_SIZE = 100;
+    private static final long REC_SIZE = 1000;
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private final B2AdaptivePartSizer sizer = B2AdaptivePartSizer
+            .builder()
+            .setMaxBytesInFlight(100 * 1000)
+            .setTargetPartMillis(100)
+            .setInitialPartsInFlight(2)
+            .setMaxPartsInFlight(5)
+            .build();
+
+    @Test
+    public void testUsesRecommendedSizeUntilAPartSucceeds() {
+        assertEquals(REC_SIZE, sizer.pickPartSize(MIN_SIZE, REC_SIZE));
+        assertEquals(2, sizer.pickPartsInFlight(REC_SIZE));
+    }
+
+    @Test
+    public void testPartSizeFollowsThroughput() {
+        // 1000 bytes in 10 ms is 100 bytes/ms, so a 100 ms part is 10000 bytes.
+        sizer.partSucceeded(1000, 10);
+        assertEquals(10 * 1000, sizer.pickPartSize(MIN_SIZE, REC_SIZE));
+
+        // it's a moving average, so one slow part doesn't undo everything.
+        // 0.3 * 10 + 0.7 * 100 = 73 bytes/ms.
+        sizer.partSucceeded(1000, 100);
+        assertEquals(7300, sizer.pickPartSize(MIN_SIZE, REC_SIZE));
+    }
+
+    @Test
+    public void testPartSizeIsClamped() {
+        // really slow.
+        sizer.partSucceeded(100, 1000);
+        assertEquals(MIN_SIZE, sizer.pickPartSize(MIN_SIZE, REC_SIZE));
+
+        // really fast.  (and a zero-millisecond part doesn't divide by zero.)
+        final B2AdaptivePartSizer fast = B2AdaptivePartSizer.builder().setMaxBytesInFlight(5000).build();
+        fast.partSucceeded(1000 * 1000, 0);
+        assertEquals(5000, fast.pickPartSize(MIN_SIZE, REC_SIZE));
+
+        // and never bigger than b2 allows, no matter how much we could buffer.
+        final B2AdaptivePartSizer huge = B2AdaptivePartSizer.builder().setMaxBytesInFlight(100 * B2StorageLimits.MAX_PART_SIZE).build();
+        huge.partSucceeded(1000 * 1000 * 1000, 1);
+        assertEquals(B2StorageLimits.MAX_PART_SIZE, huge.pickPartSize(MIN_SIZE, REC_SIZE));
+    }
+
+    @Test
+    public void testPartsInFlightClimbsWhileItHelpsThenHolds() {
+        // first round is two parts.  we don't have anything to compare it to, so try more.
+        finishRound(2, 100);
+        assertEquals(3, sizer.pickPartsInFlight(REC_SIZE));
+
+        // each part is just as fast with three going, so the aggregate is better.
+        finishRound(3, 100);
+        assertEquals(4, sizer.pickPartsInFlight(REC_SIZE));
+
+        // with four going, each part is slower and the aggregate is the same,
+        // so the uplink is full.  stay here.
+        //   3 * (1000/100) = 30 bytes/ms.
+        //   4 * (1000/133) = 30.07 bytes/ms.
+        finishRound(4, 133);
+        assertEquals(4, sizer.pickPartsInFlight(REC_SIZE));
+
+        // now things get much worse, so back off.
+        finishRound(4, 200);
+        assertEquals(3, sizer.pickPartsInFlight(REC_SIZE));
+    }
+
+    @Test
+    public void testPartsInFlightIsLimited() {
+        for (int i = 0; i < 10; i++) {
+            finishRound(sizer.pickPartsInFlight(REC_SIZE), 100);
+        }
+        assertEquals(5, sizer.pickPartsInFlight(REC_SIZE));
+
+        // and memory limits it too.
+        assertEquals(2, sizer.pickPartsInFlight(50 * 1000));
+        assertEquals(1, sizer.pickPartsInFlight(1000 * 1000));
+    }
+
+    @Test
+    public void testAdaptivePartSizes() {
+        final B2AccountAuthorization auth = B2TestHelpers.makeAuth(1);
+        sizer.partSucceeded(1000, 10);
+
+        final B2AdaptivePartSizes partSizes = B2AdaptivePartSizes.from(auth, sizer);
+        assertEquals(auth.getAbsoluteMinimumPartSize(), partSizes.getMinimumPartSize());
+        assertEquals(10 * 1000, partSizes.getRecommendedPartSize());
+        assertEquals(2, partSizes.pickMaxPartsInFlight(Integer.MAX_VALUE));
+        assertEquals(1, partSizes.pickMaxPartsInFlight(1));
+
+        // it tells the sizer about parts.
+        partSizes.partSucceeded(1000, 100);
+        assertEquals(7300, sizer.pickPartSize(MIN_SIZE, REC_SIZE));
+    }
+
+    @Test
+    public void testPlainPartSizesDoNotLimitPartsInFlight() {
+        final B2PartSizes partSizes = B2PartSizes.from(B2TestHelpers.makeAuth(1));
+        assertEquals(7, partSizes.pickMaxPartsInFlight(7));
+    }
+
+    @Test
+    public void testInitialPartsInFlightMustNotBeMoreThanMax() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("initialPartsInFlight must be between 1 and maxPartsInFlight.");
+        B2AdaptivePartSizer.builder().setInitialPartsInFlight(3).setMaxPartsInFlight(2).build();
+    }
+
+    private void finishRound(int partCount,
+                             long tookMillisPerPart) {
+        for (int i = 0; i < partCount; i++) {
+            sizer.partSucceeded(1000, tookMillisPerPart);
+        }
+    }
+}
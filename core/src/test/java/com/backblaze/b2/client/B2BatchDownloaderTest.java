@@ -0,0 +1,280 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2ContentTypes;
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.contentSources.B2HeadersImpl;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2InternalErrorException;
+import com.backblaze.b2.client.exceptions.B2RuntimeException;
+import com.backblaze.b2.client.structures.B2DownloadByIdRequest;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.client.structures.B2ParallelDownloadRequest;
+import com.backblaze.b2.util.B2Collections;
+import com.backblaze.b2.util.B2ExecutorUtils;
+import com.backblaze.b2.util.B2Sha1;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.backblaze.b2.client.B2TestHelpers.fileId;
+import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class B2BatchDownloaderTest {
+    private static final long LARGE = 1000;
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final B2StorageClient client = mock(B2StorageClient.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(10);
+
+    // for checking the limits.
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    // the fileIds that were downloaded in parallel.
+    private final List<String> parallelFileIds = Collections.synchronizedList(new ArrayList<>());
+
+    public B2BatchDownloaderTest() throws B2Exception {
+        doAnswer(invocationOnMock -> {
+            final B2DownloadByIdRequest request = (B2DownloadByIdRequest) invocationOnMock.getArguments()[0];
+            final B2ContentSink sink = (B2ContentSink) invocationOnMock.getArguments()[1];
+            final byte[] content = contentFor(request.getFileId());
+            startedOne();
+            try {
+                sink.readContent(makeHeaders(content), new ByteArrayInputStream(content));
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return null;
+        }).when(client).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+
+        doAnswer(invocationOnMock -> {
+            final B2ParallelDownloadRequest request = (B2ParallelDownloadRequest) invocationOnMock.getArguments()[0];
+            final byte[] content = contentFor(request.getFileId());
+            parallelFileIds.add(request.getFileId());
+            startedOne();
+            try {
+                Files.write(request.getDestination().toPath(), content);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return makeHeaders(content);
+        }).when(client).downloadByIdInParallel(anyObject(), anyObject());
+    }
+
+    @After
+    public void tearDown() {
+        B2ExecutorUtils.shutdownAndAwaitTermination(executor, 10, 10);
+    }
+
+    @Test
+    public void testDownloadsUploads() throws Exception {
+        final List<B2FileVersion> versions = Arrays.asList(
+                makeVersion(1, "a.txt", 100, "upload"),
+                makeVersion(2, "dir/b.txt", 200, "upload"),
+                makeVersion(3, "dir/sub/c.txt", 0, "upload"),
+                makeVersion(4, "hidden.txt", 0, "hide"),
+                makeVersion(5, "folder/", 0, "folder"),
+                makeVersion(6, "big.bin", LARGE, "upload"));
+
+        final B2BatchDownloader.Result result = makeDownloader(10, 100000).downloadAll(versions);
+
+        assertEquals(4, result.getFilesDownloaded());
+        assertEquals(300 + LARGE, result.getBytesDownloaded());
+        assertTrue(result.getFailures().isEmpty());
+        checkFile("a.txt", 1);
+        checkFile("dir/b.txt", 2);
+        checkFile("dir/sub/c.txt", 3);
+        checkFile("big.bin", 6);
+        assertFalse(new File(tempFolder.getRoot(), "hidden.txt").exists());
+        assertEquals(Collections.singletonList(fileId(6)), parallelFileIds);
+    }
+
+    @Test
+    public void testOnlyNewestVersionOfEachNameIsDownloaded() throws Exception {
+        final List<B2FileVersion> versions = Arrays.asList(
+                makeVersion(1, "a.txt", 100, "upload"),
+                makeVersion(2, "a.txt", 100, "upload"),
+                makeVersion(3, "hidden.txt", 0, "hide"),
+                makeVersion(4, "hidden.txt", 100, "upload"),
+                makeVersion(5, "z.txt", 100, "upload"));
+
+        final B2BatchDownloader.Result result = makeDownloader(10, 100000).downloadAll(versions);
+
+        assertEquals(2, result.getFilesDownloaded());
+        assertTrue(result.getFailures().isEmpty());
+        checkFile("a.txt", 1);
+        checkFile("z.txt", 5);
+        assertFalse(new File(tempFolder.getRoot(), "hidden.txt").exists());
+    }
+
+    @Test
+    public void testMaxFilesInFlight() throws Exception {
+        final B2BatchDownloader.Result result = makeDownloader(2, 100000).downloadAll(makeSmallVersions(20));
+        assertEquals(20, result.getFilesDownloaded());
+        assertTrue("max was " + maxInFlight.get(), maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void testMaxBytesInFlight() throws Exception {
+        // only one 100-byte file fits at a time.
+        final B2BatchDownloader.Result result = makeDownloader(10, 150).downloadAll(makeSmallVersions(20));
+        assertEquals(20, result.getFilesDownloaded());
+        assertEquals(1, maxInFlight.get());
+    }
+
+    @Test
+    public void testFileBiggerThanMaxBytesStillGoes() throws Exception {
+        final B2BatchDownloader.Result result = makeDownloader(10, 50).downloadAll(makeSmallVersions(3));
+        assertEquals(3, result.getFilesDownloaded());
+    }
+
+    @Test
+    public void testFailuresDontStopTheOthers() throws Exception {
+        final B2Exception failure = new B2InternalErrorException("test", null, "testing");
+        doAnswer(invocationOnMock -> {
+            final B2DownloadByIdRequest request = (B2DownloadByIdRequest) invocationOnMock.getArguments()[0];
+            if (request.getFileId().equals(fileId(2))) {
+                throw failure;
+            }
+            final byte[] content = contentFor(request.getFileId());
+            ((B2ContentSink) invocationOnMock.getArguments()[1]).readContent(makeHeaders(content), new ByteArrayInputStream(content));
+            return null;
+        }).when(client).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+
+        final List<B2FileVersion> versions = new ArrayList<>(makeSmallVersions(3));
+        versions.add(makeVersion(4, "../escape.txt", 100, "upload"));
+        final B2BatchDownloader.Result result = makeDownloader(10, 100000).downloadAll(versions);
+
+        assertEquals(2, result.getFilesDownloaded());
+        assertEquals(2, result.getFailures().size());
+        assertSame(failure, result.getFailures().get("file-2"));
+        assertTrue(result.getFailures().get("../escape.txt").getMessage().startsWith("'../escape.txt' would be outside of "));
+        assertFalse(new File(tempFolder.getRoot().getParentFile(), "escape.txt").exists());
+    }
+
+    @Test
+    public void testListingFailure() throws Exception {
+        final B2Exception failure = new B2InternalErrorException("test", null, "listing failed");
+        final List<B2FileVersion> versions = makeSmallVersions(2);
+        final Iterable<B2FileVersion> failingListing = () -> new Iterator<B2FileVersion>() {
+            private int i;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public B2FileVersion next() {
+                if (i == versions.size()) {
+                    throw new B2RuntimeException("failed to advance iterator: " + failure.getMessage(), failure);
+                }
+                return versions.get(i++);
+            }
+        };
+
+        try {
+            makeDownloader(10, 100000).downloadAll(failingListing);
+            fail("should've thrown");
+        } catch (B2Exception e) {
+            assertSame(failure, e);
+        }
+
+        // the files that were started are finished.
+        checkFile("file-0", 0);
+        checkFile("file-1", 1);
+    }
+
+    @Test
+    public void testBuilder() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("maxBytesInFlight must be positive.");
+        B2BatchDownloader.builder(client, executor, tempFolder.getRoot()).setMaxBytesInFlight(0).build();
+    }
+
+    private B2BatchDownloader makeDownloader(int maxFilesInFlight,
+                                             long maxBytesInFlight) {
+        return B2BatchDownloader
+                .builder(client, executor, tempFolder.getRoot())
+                .setMaxFilesInFlight(maxFilesInFlight)
+                .setMaxBytesInFlight(maxBytesInFlight)
+                .setLargeFileThreshold(LARGE)
+                .build();
+    }
+
+    private void startedOne() throws InterruptedException {
+        final int now = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(now, Math::max);
+
+        // give the others a chance to pile up.
+        Thread.sleep(5);
+    }
+
+    private void checkFile(String name,
+                           int i) throws IOException {
+        assertArrayEquals(contentFor(fileId(i)), Files.readAllBytes(new File(tempFolder.getRoot(), name).toPath()));
+    }
+
+    private static List<B2FileVersion> makeSmallVersions(int count) {
+        final List<B2FileVersion> versions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            versions.add(makeVersion(i, "file-" + i, 100, "upload"));
+        }
+        return versions;
+    }
+
+    // the length is what the listing says.  the content is made from the id.
+    private static B2FileVersion makeVersion(int i,
+                                             String name,
+                                             long length,
+                                             String action) {
+        return new B2FileVersion(fileId(i), name, length, B2ContentTypes.TEXT_PLAIN, null,
+                B2Collections.mapOf(), action, 0);
+    }
+
+    private static byte[] contentFor(String fileId) {
+        return makeBytes(fileId.equals(fileId(6)) ? (int) LARGE : 100 + fileId.hashCode() % 7);
+    }
+
+    private static B2Headers makeHeaders(byte[] content) {
+        return B2HeadersImpl
+                .builder()
+                .set(B2Headers.CONTENT_LENGTH, "" + content.length)
+                .set(B2Headers.CONTENT_SHA1, B2Sha1.hexSha1OfBytes(content))
+                .build();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentMemoryWriter;
+import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2InternalErrorException;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.util.B2ByteRange;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import static com.backblaze.b2.client.B2TestHelpers.fileId;
+import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class B2ChunkedDownloadUtilTest {
+    private final B2StorageClient client = mock(B2StorageClient.class);
+    private final B2RangedContentServer server = new B2RangedContentServer(client);
+
+    // the headers of the most recent response.
+    private B2Headers headers;
+
+    @Test
+    public void testFirstChunk() throws B2Exception {
+        final byte[] content = makeBytes(2500);
+        server.arrangeContent(content, null, null);
+        final B2ContentMemoryWriter writer = B2ContentMemoryWriter.build();
+        final B2ContentSink sink = rememberingHeaders(writer);
+
+        B2ChunkedDownloadUtil.downloadFirstChunk(client, fileId(1), 1000, sink);
+        assertArrayEquals(Arrays.copyOf(content, 1000), writer.getBytes());
+        assertEquals(2500, B2ChunkedDownloadUtil.getContentLength(headers, 1000));
+        assertEquals(B2ByteRange.between(0, 999), server.getRanges().get(0));
+    }
+
+    @Test
+    public void testFirstChunkOfEmptyFile() throws B2Exception {
+        server.arrangeContent(new byte[0], null, null);
+        final B2ContentMemoryWriter writer = B2ContentMemoryWriter.build();
+        final B2ContentSink sink = rememberingHeaders(writer);
+
+        // the range isn't satisfiable, so it asks for the whole file.
+        B2ChunkedDownloadUtil.downloadFirstChunk(client, fileId(1), 1000, sink);
+        assertEquals(0, writer.getBytes().length);
+        assertEquals(0, B2ChunkedDownloadUtil.getContentLength(headers, 0));
+        assertEquals(Arrays.asList(B2ByteRange.between(0, 999), null), server.getRanges());
+    }
+
+    @Test
+    public void testWaitForChunk() throws B2Exception {
+        assertEquals("done", B2ChunkedDownloadUtil.waitForChunk(CompletableFuture.completedFuture("done")));
+
+        // a chunk's own B2Exception comes out as it is.
+        final B2Exception failure = new B2InternalErrorException("test", null, "testing");
+        try {
+            B2ChunkedDownloadUtil.waitForChunk(failedFuture(failure));
+            fail("should have thrown");
+        } catch (B2Exception e) {
+            assertSame(failure, e);
+        }
+
+        // anything else is wrapped.
+        final RuntimeException oops = new RuntimeException("oops");
+        try {
+            B2ChunkedDownloadUtil.waitForChunk(failedFuture(oops));
+            fail("should have thrown");
+        } catch (B2LocalException e) {
+            assertSame(oops, e.getCause());
+        }
+
+        final CompletableFuture<String> cancelled = new CompletableFuture<>();
+        cancelled.cancel(false);
+        try {
+            B2ChunkedDownloadUtil.waitForChunk(cancelled);
+            fail("should have thrown");
+        } catch (B2LocalException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("chunk was cancelled"));
+        }
+    }
+
+    private B2ContentSink rememberingHeaders(B2ContentSink sink) {
+        return (responseHeaders, in) -> {
+            headers = responseHeaders;
+            sink.readContent(responseHeaders, in);
+        };
+    }
+
+    private static Future<String> failedFuture(Throwable t) {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+}
@@ -42,19 +42,26 @@ public class B2ClientConfigTest {
         assertEquals(USER_AGENT, config.getUserAgent());
         assertNull(config.getMasterUrl());
         assertNull(config.getTestModeOrNull());
+        assertNull(config.getPartHedgingPolicyOrNull());
+        assertEquals(0, config.getMaxPrewarmedUploadPartUrls());
     }
 
     @Test
     public void testMaximal() {
+        final B2PartHedgingPolicy hedgingPolicy = B2PartHedgingPolicy.builder().build();
         final B2ClientConfig config = B2ClientConfig
                 .builder(AUTHORIZER, USER_AGENT)
                 .setMasterUrl("https://api.backblazeb2.net/")
                 .setTestModeOrNull(FAIL_SOME_UPLOADS)
+                .setPartHedgingPolicyOrNull(hedgingPolicy)
+                .setMaxPrewarmedUploadPartUrls(8)
                 .build();
         assertEquals(AUTHORIZER, config.getAccountAuthorizer());
         assertEquals(USER_AGENT, config.getUserAgent());
         assertEquals("https://api.backblazeb2.net/", config.getMasterUrl());
         assertEquals(FAIL_SOME_UPLOADS, config.getTestModeOrNull());
+        assertEquals(hedgingPolicy, config.getPartHedgingPolicyOrNull());
+        assertEquals(8, config.getMaxPrewarmedUploadPartUrls());
     }
 
     @Test
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentMemoryWriter;
+import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.contentSources.B2HeadersImpl;
+import com.backblaze.b2.client.exceptions.B2ConnectionBrokenException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.structures.B2DownloadByIdRequest;
+import com.backblaze.b2.util.B2ByteRange;
+import com.backblaze.b2.util.B2Sha1;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.backblaze.b2.client.B2TestHelpers.fileId;
+import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class B2DownloadCacheTest {
+    private static final int LEN = 1000;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private final B2StorageClient client = mock(B2StorageClient.class);
+
+    // what the "server" has, by fileId.
+    private final Map<String, byte[]> contents = new HashMap<>();
+    private final Map<String, String> sha1s = new HashMap<>();
+
+    public B2DownloadCacheTest() throws B2Exception {
+        doAnswer(invocationOnMock -> {
+            final B2DownloadByIdRequest request = (B2DownloadByIdRequest) invocationOnMock.getArguments()[0];
+            final B2ContentSink sink = (B2ContentSink) invocationOnMock.getArguments()[1];
+            final byte[] content = contents.get(request.getFileId());
+            sink.readContent(makeHeaders(content.length, sha1s.get(request.getFileId())), new ByteArrayInputStream(content));
+            return null;
+        }).when(client).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+    }
+
+    @Test
+    public void testMissThenHit() throws B2Exception {
+        final B2DownloadCache cache = makeCache(1000 * LEN);
+        addFile(1, makeBytes(LEN));
+        assertFalse(cache.contains(fileId(1)));
+
+        for (int i = 0; i < 3; i++) {
+            final B2ContentMemoryWriter writer = B2ContentMemoryWriter.build();
+            cache.downloadById(fileId(1), writer);
+            assertArrayEquals(makeBytes(LEN), writer.getBytes());
+            assertEquals(sha1s.get(fileId(1)), writer.getHeadersOrNull().getContentSha1OrNull());
+        }
+
+        verify(client, times(1)).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+        assertTrue(cache.contains(fileId(1)));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // only the cached file is left in the directory.
+        assertArrayEquals(new String[] { fileId(1) + ".b2cache" }, tempFolder.getRoot().list());
+
+        cache.remove(fileId(1));
+        assertFalse(cache.contains(fileId(1)));
+    }
+
+    @Test
+    public void testRangesAreNotCached() throws B2Exception {
+        final B2DownloadCache cache = makeCache(1000 * LEN);
+        addFile(1, makeBytes(LEN));
+        final B2ContentSink sink = (headers, in) -> {};
+        final B2DownloadByIdRequest request = B2DownloadByIdRequest
+                .builder(fileId(1))
+                .setRange(B2ByteRange.between(0, 9))
+                .build();
+
+        cache.downloadById(request, sink);
+
+        verify(client, times(1)).downloadById(request, sink);
+        assertFalse(cache.contains(fileId(1)));
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void testCorruptCopyIsDownloadedAgain() throws B2Exception, IOException {
+        final B2DownloadCache cache = makeCache(1000 * LEN);
+        addFile(1, makeBytes(LEN));
+        cache.downloadById(fileId(1), B2ContentMemoryWriter.build());
+
+        // flip a byte near the end of the content.
+        try (RandomAccessFile file = new RandomAccessFile(new File(tempFolder.getRoot(), fileId(1) + ".b2cache"), "rw")) {
+            final long position = file.length() - 100;
+            file.seek(position);
+            final int b = file.read();
+            file.seek(position);
+            file.write(b ^ 1);
+        }
+
+        // the handler notices the corruption, but the cache recovers.
+        final B2ContentMemoryWriter writer = B2ContentMemoryWriter.build();
+        cache.downloadById(fileId(1), writer);
+        assertArrayEquals(makeBytes(LEN), writer.getBytes());
+        verify(client, times(2)).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+        assertTrue(cache.contains(fileId(1)));
+    }
+
+    @Test
+    public void testNetworkSha1Mismatch() throws B2Exception {
+        final B2DownloadCache cache = makeCache(1000 * LEN);
+        addFile(1, makeBytes(LEN));
+        sha1s.put(fileId(1), B2Sha1.hexSha1OfBytes(makeBytes(LEN + 1)));
+
+        try {
+            cache.downloadById(fileId(1), B2ContentMemoryWriter.build());
+            fail("should've thrown");
+        } catch (B2LocalException e) {
+            assertEquals("mismatch", e.getCode());
+        }
+        assertFalse(cache.contains(fileId(1)));
+        assertEquals(0, tempFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testShortResponse() throws B2Exception {
+        final B2DownloadCache cache = makeCache(1000 * LEN);
+        doAnswer(invocationOnMock -> {
+            final B2ContentSink sink = (B2ContentSink) invocationOnMock.getArguments()[1];
+            sink.readContent(makeHeaders(LEN, null), new ByteArrayInputStream(makeBytes(LEN - 1)));
+            return null;
+        }).when(client).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+
+        thrown.expect(B2ConnectionBrokenException.class);
+        thrown.expectMessage("expected 1000 bytes, but got 999");
+        cache.downloadById(fileId(1), B2ContentMemoryWriter.build());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws B2Exception {
+        // there's room for about three files.
+        final B2DownloadCache cache = makeCache(3 * LEN + 500);
+        for (int i = 1; i <= 3; i++) {
+            addFile(i, makeBytes(LEN + i));
+            cache.downloadById(fileId(i), B2ContentMemoryWriter.build());
+            setLastUsed(i, i * 1000000L);
+        }
+        assertTrue(cache.contains(fileId(1)));
+        assertTrue(cache.contains(fileId(2)));
+        assertTrue(cache.contains(fileId(3)));
+
+        // using 1 makes 2 the least recently used.
+        cache.downloadById(fileId(1), B2ContentMemoryWriter.build());
+
+        addFile(4, makeBytes(LEN + 4));
+        cache.downloadById(fileId(4), B2ContentMemoryWriter.build());
+        assertTrue(cache.contains(fileId(1)));
+        assertFalse(cache.contains(fileId(2)));
+        assertTrue(cache.contains(fileId(3)));
+        assertTrue(cache.contains(fileId(4)));
+    }
+
+    @Test
+    public void testKeepsNewFileEvenIfTooBig() throws B2Exception {
+        final B2DownloadCache cache = makeCache(LEN / 2);
+        addFile(1, makeBytes(LEN));
+
+        final B2ContentMemoryWriter writer = B2ContentMemoryWriter.build();
+        cache.downloadById(fileId(1), writer);
+        assertArrayEquals(makeBytes(LEN), writer.getBytes());
+    }
+
+    @Test
+    public void testUnsafeFileId() throws B2Exception {
+        final B2DownloadCache cache = makeCache(1000 * LEN);
+
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("can't cache a file with id '../etc/passwd'.");
+        cache.downloadById("../etc/passwd", B2ContentMemoryWriter.build());
+    }
+
+    @Test
+    public void testUnsafeFileIdInContains() {
+        final B2DownloadCache cache = makeCache(1000 * LEN);
+
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("can't cache a file with id '../etc/passwd'.");
+        cache.contains("../etc/passwd");
+    }
+
+    @Test
+    public void testUnsafeFileIdInRemove() {
+        final B2DownloadCache cache = makeCache(1000 * LEN);
+
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("can't cache a file with id '../etc/passwd'.");
+        cache.remove("../etc/passwd");
+    }
+
+    @Test
+    public void testBuilder() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("maxBytes must be positive.");
+        B2DownloadCache.builder(client, tempFolder.getRoot()).setMaxBytes(0).build();
+    }
+
+    private B2DownloadCache makeCache(long maxBytes) {
+        return B2DownloadCache
+                .builder(client, tempFolder.getRoot())
+                .setMaxBytes(maxBytes)
+                .build();
+    }
+
+    private void addFile(int i,
+                         byte[] content) {
+        contents.put(fileId(i), content);
+        sha1s.put(fileId(i), B2Sha1.hexSha1OfBytes(content));
+    }
+
+    private void setLastUsed(int i,
+                             long millis) {
+        assertTrue(new File(tempFolder.getRoot(), fileId(i) + ".b2cache").setLastModified(millis));
+    }
+
+    private static B2Headers makeHeaders(int contentLength,
+                                         String sha1OrNull) {
+        final B2HeadersImpl.Builder builder = B2HeadersImpl
+                .builder()
+                .set(B2Headers.CONTENT_LENGTH, "" + contentLength);
+        if (sha1OrNull != null) {
+            builder.set(B2Headers.CONTENT_SHA1, sha1OrNull);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.structures.B2DownloadListener;
+import com.backblaze.b2.client.structures.B2DownloadProgress;
+import com.backblaze.b2.client.structures.B2DownloadState;
+import com.backblaze.b2.util.B2ByteProgressListener;
+import com.backblaze.b2.util.B2Clock;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class B2DownloadProgressAdapterTest {
+    private final List<B2DownloadProgress> progresses = new ArrayList<>();
+    private final TestClock clock = new TestClock();
+    private final B2DownloadProgressAdapter adapter = new B2DownloadProgressAdapter(progresses::add, clock, 100, 5000);
+
+    @Test
+    public void testProgress() {
+        clock.advance(2000);
+        adapter.progress(1000);
+        checkLast(1000, B2DownloadState.DOWNLOADING, 500.0, 0);
+
+        // nothing new arrived, so the time since the last byte grows.
+        clock.advance(3000);
+        adapter.progress(1000);
+        checkLast(1000, B2DownloadState.DOWNLOADING, 200.0, 3000);
+
+        clock.advance(5000);
+        adapter.progress(5000);
+        checkLast(5000, B2DownloadState.DOWNLOADING, 500.0, 0);
+    }
+
+    @Test
+    public void testHitException() {
+        clock.advance(1000);
+        adapter.progress(10);
+        clock.advance(4000);
+        adapter.hitException(new RuntimeException("testing"), 10);
+        checkLast(10, B2DownloadState.FAILED, 2.0, 4000);
+    }
+
+    @Test
+    public void testReachedEofAndSucceeded() {
+        clock.advance(1000);
+        adapter.reachedEof(5000);
+        checkLast(5000, B2DownloadState.DOWNLOADING, 5000.0, 0);
+        adapter.succeeded(5000);
+        checkLast(5000, B2DownloadState.SUCCEEDED, 5000.0, 0);
+    }
+
+    @Test
+    public void testImmediateUpdateDoesNotDivideByZero() {
+        adapter.progress(7);
+        checkLast(7, B2DownloadState.DOWNLOADING, 7000.0, 0);
+    }
+
+    @Test
+    public void testProgressOnDemandSeesEveryByte() {
+        final List<Supplier<B2DownloadProgress>> suppliers = new ArrayList<>();
+        final B2DownloadProgressAdapter tracked = new B2DownloadProgressAdapter(new B2DownloadListener() {
+            @Override
+            public void progress(B2DownloadProgress progress) {
+                progresses.add(progress);
+            }
+
+            @Override
+            public void started(Supplier<B2DownloadProgress> progressNow) {
+                suppliers.add(progressNow);
+            }
+        }, clock, 100, 5000);
+        tracked.started();
+        assertEquals(1, suppliers.size());
+
+        // bytes that arrive between periodic updates still count.
+        final B2ByteProgressListener stream = tracked.trackingBytes(mock(B2ByteProgressListener.class));
+        clock.advance(1000);
+        stream.progress(300);
+        clock.advance(1000);
+        stream.progress(1000);
+        assertEquals(new B2DownloadProgress(100, 5000, 1000, B2DownloadState.DOWNLOADING, 500.0, 0),
+                suppliers.get(0).get());
+        assertTrue(progresses.isEmpty());
+
+        // then the download stalls.
+        clock.advance(3000);
+        assertEquals(new B2DownloadProgress(100, 5000, 1000, B2DownloadState.DOWNLOADING, 200.0, 3000),
+                suppliers.get(0).get());
+
+        // and the periodic update agrees about when the last byte came.
+        tracked.progress(1000);
+        checkLast(1000, B2DownloadState.DOWNLOADING, 200.0, 3000);
+    }
+
+    @Test
+    public void testSetLength() {
+        final B2DownloadProgressAdapter unknownLength = new B2DownloadProgressAdapter(progresses::add, clock, 0, -1);
+        unknownLength.progress(1);
+        assertEquals(-1, progresses.get(0).getLength());
+
+        unknownLength.setLength(123);
+        unknownLength.progress(2);
+        assertEquals(123, progresses.get(1).getLength());
+    }
+
+    private void checkLast(long bytesSoFar,
+                           B2DownloadState state,
+                           double bytesPerSecond,
+                           long millisSinceLastByte) {
+        assertEquals(new B2DownloadProgress(100, 5000, bytesSoFar, state, bytesPerSecond, millisSinceLastByte),
+                progresses.get(progresses.size() - 1));
+    }
+
+    private static class TestClock extends B2Clock {
+        private long monotonicMillis = 1000000;
+
+        void advance(long deltaMillis) {
+            monotonicMillis += deltaMillis;
+        }
+
+        @Override
+        public long monotonicMillis() {
+            return monotonicMillis;
+        }
+
+        @Override
+        public long wallClockMillis() {
+            return monotonicMillis;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class B2FairShareDispatcherTest {
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    // holds on to the tasks it's given until the test runs them.
+    private final B2ManualExecutor executor = new B2ManualExecutor();
+
+    // the names of the tasks that have run, in order.
+    private final StringBuilder ran = new StringBuilder();
+
+    @Test
+    public void testTenantsShareByWeight() {
+        final Map<String, Integer> weights = new TreeMap<>();
+        weights.put("a", 2);
+        final B2FairShareDispatcher dispatcher = new B2FairShareDispatcher(executor, 1, weights);
+
+        final ExecutorService laneA = dispatcher.newLane("a");
+        final ExecutorService laneB = dispatcher.newLane("b");
+        for (int i = 0; i < 6; i++) {
+            laneA.execute(() -> ran.append("A"));
+        }
+        for (int i = 0; i < 6; i++) {
+            laneB.execute(() -> ran.append("B"));
+        }
+
+        executor.runAll();
+        assertEquals("ABAABAABABBB", ran.toString());
+    }
+
+    @Test
+    public void testLanesOfATenantTakeTurns() {
+        final B2FairShareDispatcher dispatcher = new B2FairShareDispatcher(executor, 1, Collections.emptyMap());
+
+        final ExecutorService lane1 = dispatcher.newLane("a");
+        final ExecutorService lane2 = dispatcher.newLane("a");
+        for (int i = 0; i < 3; i++) {
+            lane1.execute(() -> ran.append("1"));
+        }
+        for (int i = 0; i < 3; i++) {
+            lane2.execute(() -> ran.append("2"));
+        }
+
+        executor.runAll();
+        assertEquals("112122", ran.toString());
+    }
+
+    @Test
+    public void testIdleTenantDoesNotBankService() {
+        final B2FairShareDispatcher dispatcher = new B2FairShareDispatcher(executor, 1, Collections.emptyMap());
+
+        // "a" runs on its own for a while.
+        final ExecutorService laneA = dispatcher.newLane("a");
+        for (int i = 0; i < 4; i++) {
+            laneA.execute(() -> ran.append("A"));
+        }
+        executor.runOne();
+        executor.runOne();
+
+        // when "b" shows up, they take turns instead of "b" catching up.
+        final ExecutorService laneB = dispatcher.newLane("b");
+        for (int i = 0; i < 4; i++) {
+            laneB.execute(() -> ran.append("B"));
+        }
+        executor.runAll();
+        assertEquals("AAABABBB", ran.toString());
+    }
+
+    @Test
+    public void testMaxTasksInFlight() {
+        final B2FairShareDispatcher dispatcher = new B2FairShareDispatcher(executor, 2, Collections.emptyMap());
+        final ExecutorService lane = dispatcher.newLane("a");
+        for (int i = 0; i < 5; i++) {
+            lane.execute(() -> ran.append("x"));
+        }
+        assertEquals(2, executor.countTasks());
+        assertEquals(2, dispatcher.getTasksInFlight());
+
+        executor.runOne();
+        assertEquals(2, executor.countTasks());
+
+        executor.runAll();
+        assertEquals("xxxxx", ran.toString());
+        assertEquals(0, dispatcher.getTasksInFlight());
+    }
+
+    @Test
+    public void testShutDownLaneRejectsTasks() {
+        final B2FairShareDispatcher dispatcher = new B2FairShareDispatcher(executor, 2, Collections.emptyMap());
+        final ExecutorService lane = dispatcher.newLane("a");
+        lane.shutdown();
+
+        thrown.expect(RejectedExecutionException.class);
+        thrown.expectMessage("can't add tasks to a lane that's been shut down.");
+        lane.execute(() -> ran.append("x"));
+    }
+
+    @Test
+    public void testShutDownLaneTerminatesAfterItsTasks() throws InterruptedException {
+        final B2FairShareDispatcher dispatcher = new B2FairShareDispatcher(executor, 1, Collections.emptyMap());
+        final ExecutorService lane = dispatcher.newLane("a");
+        lane.execute(() -> ran.append("x"));
+        lane.execute(() -> ran.append("y"));
+        lane.shutdown();
+        assertFalse(lane.isTerminated());
+        assertFalse(lane.awaitTermination(0, TimeUnit.MILLISECONDS));
+
+        // the waiting task still runs.
+        executor.runAll();
+        assertEquals("xy", ran.toString());
+        assertTrue(lane.isTerminated());
+        assertTrue(lane.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testShutdownNowReturnsWaitingTasks() {
+        final B2FairShareDispatcher dispatcher = new B2FairShareDispatcher(executor, 1, Collections.emptyMap());
+        final ExecutorService lane = dispatcher.newLane("a");
+        final ExecutorService other = dispatcher.newLane("b");
+        final Runnable y = () -> ran.append("y");
+        final Runnable z = () -> ran.append("z");
+        lane.execute(() -> ran.append("x"));
+        lane.execute(y);
+        lane.execute(z);
+        other.execute(() -> ran.append("b"));
+
+        // the running task is left alone, but the waiting ones come back.
+        assertEquals(Arrays.asList(y, z), lane.shutdownNow());
+        assertFalse(lane.isTerminated());
+
+        executor.runAll();
+        assertEquals("xb", ran.toString());
+        assertTrue(lane.isTerminated());
+        assertFalse(other.isTerminated());
+    }
+
+    @Test
+    public void testTasksRejectedByExecutorFailTheirOwnFutures() throws InterruptedException {
+        final ExecutorService rejecting = Executors.newSingleThreadExecutor();
+        rejecting.shutdown();
+        final B2FairShareDispatcher dispatcher = new B2FairShareDispatcher(rejecting, 1, Collections.emptyMap());
+        final ExecutorService lane = dispatcher.newLane("a");
+        final ExecutorService other = dispatcher.newLane("b");
+
+        // the rejection goes to the task's future, not to whoever was
+        // submitting at the time.
+        final Future<?> future = lane.submit(() -> ran.append("x"));
+        other.execute(() -> ran.append("y"));
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("should have thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        // nothing is left counted as running.
+        assertEquals("", ran.toString());
+        assertEquals(0, dispatcher.getTasksInFlight());
+        lane.shutdown();
+        assertTrue(lane.isTerminated());
+    }
+
+    @Test
+    public void testWeightsMustBePositive() {
+        final Map<String, Integer> weights = new TreeMap<>();
+        weights.put("a", 0);
+
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("weight for tenant 'a' must be positive.");
+        new B2FairShareDispatcher(executor, 1, weights);
+    }
+}
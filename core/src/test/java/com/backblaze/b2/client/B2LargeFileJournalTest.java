@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.structures.B2Part;
+import com.backblaze.b2.util.B2Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import static com.backblaze.b2.client.B2TestHelpers.fileId;
+import static com.backblaze.b2.client.B2TestHelpers.makeSha1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class B2LargeFileJournalTest {
+    private static final long SRC_MILLIS = 1234;
+    private static final long SRC_LEN = 3000;
+    private static final List<B2PartSpec> SPECS = B2Collections.listOf(
+            new B2PartSpec(1, 0, 1000),
+            new B2PartSpec(2, 1000, 1000),
+            new B2PartSpec(3, 2000, 1000));
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testEmptyJournal() throws B2Exception, IOException {
+        final File file = journalFile();
+        try (B2LargeFileJournal journal = B2LargeFileJournal.open(file)) {
+            assertNull(journal.getLargeFileIdOrNull());
+            assertNull(journal.getResumableLargeFileIdOrNull(SRC_MILLIS, SRC_LEN));
+        }
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void testEntriesSurviveReopening() throws B2Exception, IOException {
+        final File file = journalFile();
+        try (B2LargeFileJournal journal = B2LargeFileJournal.open(file)) {
+            journal.started(fileId(1), SRC_MILLIS, SRC_LEN, 1000);
+            journal.partSucceeded(fileId(1), SPECS.get(0), makeSha1(1), SRC_MILLIS, SRC_LEN);
+            journal.partSucceeded(fileId(1), SPECS.get(2), makeSha1(3), SRC_MILLIS, SRC_LEN);
+        }
+
+        assertEquals("start\t" + fileId(1) + "\t1234\t3000\t1000\n" +
+                        "part\t" + fileId(1) + "\t1\t" + makeSha1(1) + "\t0\t1000\t1234\t3000\n" +
+                        "part\t" + fileId(1) + "\t3\t" + makeSha1(3) + "\t2000\t1000\t1234\t3000\n",
+                read(file));
+
+        try (B2LargeFileJournal journal = B2LargeFileJournal.open(file)) {
+            assertEquals(fileId(1), journal.getLargeFileIdOrNull());
+            assertEquals(fileId(1), journal.getResumableLargeFileIdOrNull(SRC_MILLIS, SRC_LEN));
+            assertEquals(1000, journal.getPartSize());
+
+            final Map<B2PartSpec, B2Part> uploaded = journal.getUploadedParts(fileId(1), SPECS, SRC_MILLIS, SRC_LEN);
+            assertEquals(2, uploaded.size());
+            assertEquals(new B2Part(fileId(1), 1, 1000, makeSha1(1), 0), uploaded.get(SPECS.get(0)));
+            assertEquals(new B2Part(fileId(1), 3, 1000, makeSha1(3), 0), uploaded.get(SPECS.get(2)));
+        }
+    }
+
+    @Test
+    public void testChangedSourceIsNotResumable() throws B2Exception, IOException {
+        try (B2LargeFileJournal journal = B2LargeFileJournal.open(journalFile())) {
+            journal.started(fileId(1), null, SRC_LEN, 1000);
+            journal.partSucceeded(fileId(1), SPECS.get(0), makeSha1(1), null, SRC_LEN);
+
+            assertEquals(fileId(1), journal.getResumableLargeFileIdOrNull(null, SRC_LEN));
+            assertNull(journal.getResumableLargeFileIdOrNull(SRC_MILLIS, SRC_LEN));
+            assertNull(journal.getResumableLargeFileIdOrNull(null, SRC_LEN + 1));
+            assertEquals(0, journal.getUploadedParts(fileId(1), SPECS, SRC_MILLIS, SRC_LEN).size());
+        }
+    }
+
+    @Test
+    public void testPartsMustMatchTheSpecs() throws B2Exception, IOException {
+        try (B2LargeFileJournal journal = B2LargeFileJournal.open(journalFile())) {
+            journal.started(fileId(1), SRC_MILLIS, SRC_LEN, 1000);
+            journal.partSucceeded(fileId(1), new B2PartSpec(1, 0, 1500), makeSha1(1), SRC_MILLIS, SRC_LEN);
+
+            assertEquals(0, journal.getUploadedParts(fileId(1), SPECS, SRC_MILLIS, SRC_LEN).size());
+            assertEquals(0, journal.getUploadedParts(fileId(2), SPECS, SRC_MILLIS, SRC_LEN).size());
+        }
+    }
+
+    @Test
+    public void testNewStartForgetsOldParts() throws B2Exception, IOException {
+        final File file = journalFile();
+        try (B2LargeFileJournal journal = B2LargeFileJournal.open(file)) {
+            journal.started(fileId(1), SRC_MILLIS, SRC_LEN, 1000);
+            journal.partSucceeded(fileId(1), SPECS.get(0), makeSha1(1), SRC_MILLIS, SRC_LEN);
+            journal.started(fileId(2), SRC_MILLIS, SRC_LEN, 1000);
+            journal.partSucceeded(fileId(2), SPECS.get(1), makeSha1(2), SRC_MILLIS, SRC_LEN);
+        }
+
+        try (B2LargeFileJournal journal = B2LargeFileJournal.open(file)) {
+            assertEquals(fileId(2), journal.getLargeFileIdOrNull());
+            final Map<B2PartSpec, B2Part> uploaded = journal.getUploadedParts(fileId(2), SPECS, SRC_MILLIS, SRC_LEN);
+            assertEquals(1, uploaded.size());
+            assertEquals(2, uploaded.get(SPECS.get(1)).getPartNumber());
+        }
+    }
+
+    @Test
+    public void testIncompleteLastEntryIsIgnored() throws B2Exception, IOException {
+        final File file = journalFile();
+        write(file, "start\t" + fileId(1) + "\t-\t3000\t1000\n" +
+                "part\t" + fileId(1) + "\t1\t" + makeSha1(1) + "\t0\t10");
+
+        try (B2LargeFileJournal journal = B2LargeFileJournal.open(file)) {
+            assertEquals(fileId(1), journal.getResumableLargeFileIdOrNull(null, SRC_LEN));
+            assertEquals(0, journal.getUploadedParts(fileId(1), SPECS, null, SRC_LEN).size());
+        }
+    }
+
+    @Test
+    public void testIncompleteLastEntryIsRemovedBeforeAppending() throws B2Exception, IOException {
+        final File file = journalFile();
+        write(file, "start\t" + fileId(1) + "\t1234\t3000\t1000\n" +
+                "part\t" + fileId(1) + "\t1\t" + makeSha1(1) + "\t0\t10");
+
+        try (B2LargeFileJournal journal = B2LargeFileJournal.open(file)) {
+            journal.partSucceeded(fileId(1), SPECS.get(1), makeSha1(2), SRC_MILLIS, SRC_LEN);
+        }
+
+        assertEquals("start\t" + fileId(1) + "\t1234\t3000\t1000\n" +
+                        "part\t" + fileId(1) + "\t2\t" + makeSha1(2) + "\t1000\t1000\t1234\t3000\n",
+                read(file));
+        try (B2LargeFileJournal journal = B2LargeFileJournal.open(file)) {
+            final Map<B2PartSpec, B2Part> uploaded = journal.getUploadedParts(fileId(1), SPECS, SRC_MILLIS, SRC_LEN);
+            assertEquals(1, uploaded.size());
+            assertEquals(2, uploaded.get(SPECS.get(1)).getPartNumber());
+        }
+    }
+
+    @Test
+    public void testBadEntryThrows() throws B2Exception, IOException {
+        final File file = journalFile();
+        write(file, "start\t" + fileId(1) + "\t-\t3000\t1000\n" +
+                "bogus\n" +
+                "start\t" + fileId(1) + "\t-\t3000\t1000\n");
+
+        thrown.expect(B2LocalException.class);
+        thrown.expectMessage("has an unexpected entry on line 2: 'bogus'");
+        B2LargeFileJournal.open(file);
+    }
+
+    @Test
+    public void testStartEntryWithoutPartSizeThrows() throws B2Exception, IOException {
+        final File file = journalFile();
+        write(file, "start\t" + fileId(1) + "\t-\t3000\n" +
+                "start\t" + fileId(1) + "\t-\t3000\t1000\n");
+
+        thrown.expect(B2LocalException.class);
+        thrown.expectMessage("has an unexpected entry on line 1: 'start\t" + fileId(1) + "\t-\t3000'");
+        B2LargeFileJournal.open(file);
+    }
+
+    private File journalFile() {
+        return new File(tempFolder.getRoot(), "journal");
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static void write(File file,
+                              String contents) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(contents.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
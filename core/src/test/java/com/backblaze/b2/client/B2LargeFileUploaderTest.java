@@ -7,6 +7,7 @@ package com.backblaze.b2.client;
 import com.backblaze.b2.client.contentSources.B2ContentSource;
 import com.backblaze.b2.client.contentSources.B2ContentTypes;
 import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.exceptions.B2BadRequestException;
 import com.backblaze.b2.client.exceptions.B2Exception;
 import com.backblaze.b2.client.exceptions.B2InternalErrorException;
 import com.backblaze.b2.client.exceptions.B2LocalException;
@@ -27,9 +28,12 @@ import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -37,17 +41,19 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-import static com.backblaze.b2.client.B2LargeFileUploaderTest.When.IN_GET;
 import static com.backblaze.b2.client.B2LargeFileUploaderTest.When.IN_GET_AFTER_RUNNING_IN_SUBMIT;
 import static com.backblaze.b2.client.B2LargeFileUploaderTest.When.IN_SUBMIT;
 import static com.backblaze.b2.client.B2TestHelpers.bucketId;
@@ -61,6 +67,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -148,6 +155,9 @@ public class B2LargeFileUploaderTest {
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @After
     public void tearDown() {
         // clear the interrupted flag.
@@ -181,16 +191,7 @@ public class B2LargeFileUploaderTest {
         final B2FileVersion largeFileVersion = makeVersion(1, 2);
         when(webifier.startLargeFile(anyObject(), anyObject())).thenReturn(largeFileVersion);
 
-        // arrange to answer get_upload_part_url (which will be called several times, but it's ok to reuse the same value since it's all mocked!)
-        final B2GetUploadPartUrlRequest partUrlRequest = new B2GetUploadPartUrlRequest(largeFileVersion.getFileId());
-        final B2UploadPartUrlResponse partUrl = new B2UploadPartUrlResponse(largeFileVersion.getFileId(), "uploadPartUrl", "uploadPartAuthToken");
-        when(webifier.getUploadPartUrl(anyObject(), eq(partUrlRequest))).thenReturn(partUrl);
-
-        // arrange to answer upload_part, based on the request.
-        when(webifier.uploadPart(anyObject(), anyObject())).thenAnswer(invocationOnMock -> {
-            B2UploadPartRequest request = (B2UploadPartRequest) invocationOnMock.getArguments()[1];
-            return makePart(request.getPartNumber());
-        });
+        arrangeToUploadParts(largeFileVersion);
 
         // depending on thread timing we'll get one of these results:
         recordingListener.setExpected(
@@ -238,8 +239,10 @@ public class B2LargeFileUploaderTest {
         // we have to return
         final ExecutorService executor = new ThrowingExecutor(IN_SUBMIT, ExceptionType.INTERRUPTED);
 
+        // every part is announced before any are submitted.
         recordingListener.setExpected(
-                "B2UploadProgress{partIndex=0, partCount=2, startByte=0, length=1000, bytesSoFar=0, state=WAITING_TO_START}"
+                "B2UploadProgress{partIndex=0, partCount=2, startByte=0, length=1000, bytesSoFar=0, state=WAITING_TO_START}",
+                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=0, state=WAITING_TO_START}"
                 // nothing else cuz it throws.
         );
 
@@ -254,13 +257,18 @@ public class B2LargeFileUploaderTest {
         final B2FileVersion largeFileVersion = makeVersion(1, 2);
         when(webifier.startLargeFile(anyObject(), anyObject())).thenReturn(largeFileVersion);
 
-        // we have to return
-        final ExecutorService executor = new ThrowingExecutor(IN_GET, ExceptionType.INTERRUPTED);
+        arrangeToUploadParts(largeFileVersion);
+
+        // the parts get uploaded, but calling get() on their futures throws.
+        final ExecutorService executor = new ThrowingExecutor(IN_GET_AFTER_RUNNING_IN_SUBMIT, ExceptionType.INTERRUPTED);
 
         recordingListener.setExpected(
                 "B2UploadProgress{partIndex=0, partCount=2, startByte=0, length=1000, bytesSoFar=0, state=WAITING_TO_START}",
-                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=0, state=WAITING_TO_START}"
-                // nothing else cuz it throws.
+                "B2UploadProgress{partIndex=0, partCount=2, startByte=0, length=1000, bytesSoFar=0, state=STARTING}",
+                "B2UploadProgress{partIndex=0, partCount=2, startByte=0, length=1000, bytesSoFar=1000, state=SUCCEEDED}",
+                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=0, state=WAITING_TO_START}",
+                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=0, state=STARTING}",
+                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=1000, state=SUCCEEDED}"
         );
 
         thrown.expect(B2LocalException.class);
@@ -274,13 +282,18 @@ public class B2LargeFileUploaderTest {
         final B2FileVersion largeFileVersion = makeVersion(1, 2);
         when(webifier.startLargeFile(anyObject(), anyObject())).thenReturn(largeFileVersion);
 
-        // we have to return
-        final ExecutorService executor = new ThrowingExecutor(IN_GET, ExceptionType.B2_EXCEPTION);
+        arrangeToUploadParts(largeFileVersion);
+
+        // the parts get uploaded, but calling get() on their futures throws.
+        final ExecutorService executor = new ThrowingExecutor(IN_GET_AFTER_RUNNING_IN_SUBMIT, ExceptionType.B2_EXCEPTION);
 
         recordingListener.setExpected(
                 "B2UploadProgress{partIndex=0, partCount=2, startByte=0, length=1000, bytesSoFar=0, state=WAITING_TO_START}",
-                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=0, state=WAITING_TO_START}"
-                // nothing else cuz it throws.
+                "B2UploadProgress{partIndex=0, partCount=2, startByte=0, length=1000, bytesSoFar=0, state=STARTING}",
+                "B2UploadProgress{partIndex=0, partCount=2, startByte=0, length=1000, bytesSoFar=1000, state=SUCCEEDED}",
+                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=0, state=WAITING_TO_START}",
+                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=0, state=STARTING}",
+                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=1000, state=SUCCEEDED}"
         );
 
         thrown.expect(B2InternalErrorException.class);
@@ -294,13 +307,18 @@ public class B2LargeFileUploaderTest {
         final B2FileVersion largeFileVersion = makeVersion(1, 2);
         when(webifier.startLargeFile(anyObject(), anyObject())).thenReturn(largeFileVersion);
 
-        // we have to return
-        final ExecutorService executor = new ThrowingExecutor(IN_GET, ExceptionType.IO_EXCEPTION);
+        arrangeToUploadParts(largeFileVersion);
+
+        // the parts get uploaded, but calling get() on their futures throws.
+        final ExecutorService executor = new ThrowingExecutor(IN_GET_AFTER_RUNNING_IN_SUBMIT, ExceptionType.IO_EXCEPTION);
 
         recordingListener.setExpected(
                 "B2UploadProgress{partIndex=0, partCount=2, startByte=0, length=1000, bytesSoFar=0, state=WAITING_TO_START}",
-                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=0, state=WAITING_TO_START}"
-                // nothing else cuz it throws.
+                "B2UploadProgress{partIndex=0, partCount=2, startByte=0, length=1000, bytesSoFar=0, state=STARTING}",
+                "B2UploadProgress{partIndex=0, partCount=2, startByte=0, length=1000, bytesSoFar=1000, state=SUCCEEDED}",
+                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=0, state=WAITING_TO_START}",
+                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=0, state=STARTING}",
+                "B2UploadProgress{partIndex=1, partCount=2, startByte=1000, length=1000, bytesSoFar=1000, state=SUCCEEDED}"
         );
 
         thrown.expect(B2LocalException.class);
@@ -499,6 +517,28 @@ public class B2LargeFileUploaderTest {
         checkPartMatching(alreadyUploadedParts);
     }
 
+    @Test
+    public void testAlreadyUploadedPartsOfAnotherSizeAreUsed() throws IOException, B2Exception {
+        // the upload was started when we'd have picked 1000-byte parts.
+        final String largeFileId = fileId(1);
+        final List<B2Part> alreadyUploadedParts = B2Collections.listOf(
+                new B2Part(largeFileId, 1, 1000, makeSha1(1), 1111),
+                new B2Part(largeFileId, 2, 1000, makeSha1(2), 2222)
+        );
+
+        recordingListener.setExpected(
+                "B2UploadProgress{partIndex=0, partCount=3, startByte=0, length=1000, bytesSoFar=0, state=WAITING_TO_START}",
+                "B2UploadProgress{partIndex=0, partCount=3, startByte=0, length=1000, bytesSoFar=1000, state=SUCCEEDED}",
+                "B2UploadProgress{partIndex=1, partCount=3, startByte=1000, length=1000, bytesSoFar=0, state=WAITING_TO_START}",
+                "B2UploadProgress{partIndex=1, partCount=3, startByte=1000, length=1000, bytesSoFar=1000, state=SUCCEEDED}",
+                "B2UploadProgress{partIndex=2, partCount=3, startByte=2000, length=1124, bytesSoFar=0, state=WAITING_TO_START}",
+                "B2UploadProgress{partIndex=2, partCount=3, startByte=2000, length=1124, bytesSoFar=0, state=STARTING}",
+                "B2UploadProgress{partIndex=2, partCount=3, startByte=2000, length=1124, bytesSoFar=1124, state=SUCCEEDED}"
+        );
+
+        checkPartMatching(alreadyUploadedParts, 3);
+    }
+
     @Test
     public void testFourAlreadyUploadedPart_noneMatch() throws IOException, B2Exception {
         final String largeFileId = fileId(1);
@@ -524,6 +564,250 @@ public class B2LargeFileUploaderTest {
     }
 
 
+    @Test
+    public void testPartsInFlightAreLimitedAndAlreadyUploadedPartsSkipTheExecutor() throws IOException, B2Exception, InterruptedException {
+        final long contentLen = 10 * ACCOUNT_AUTH.getRecommendedPartSize();
+        when(contentSource.getContentLength()).thenReturn(contentLen);
+
+        final String largeFileId = fileId(1);
+        final B2FileVersion largeFileVersion = new B2FileVersion(largeFileId,
+                fileName(1),
+                contentLen,
+                B2ContentTypes.APPLICATION_OCTET,
+                null,
+                B2Collections.mapOf(),
+                "upload",
+                B2Clock.get().wallClockMillis());
+        arrangeToUploadParts(largeFileVersion);
+
+        // keep track of how many parts are being uploaded at once.
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlightSeen = new AtomicInteger();
+        doAnswer(invocationOnMock -> {
+            maxInFlightSeen.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                // give the other parts a chance to pile up.
+                Thread.sleep(10);
+                B2UploadPartRequest request = (B2UploadPartRequest) invocationOnMock.getArguments()[1];
+                return makePart(request.getPartNumber());
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }).when(webifier).uploadPart(anyObject(), anyObject());
+        when(webifier.finishLargeFile(anyObject(), anyObject())).thenReturn(largeFileVersion);
+
+        // count the tasks given to the executor.
+        final AtomicInteger submitCount = new AtomicInteger();
+        final ExecutorService executor = new ThreadPoolExecutor(4, 4, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>()) {
+            @Override
+            public <T> Future<T> submit(Callable<T> task) {
+                submitCount.incrementAndGet();
+                return super.submit(task);
+            }
+        };
+
+        // the first two parts are already there.
+        final List<B2Part> alreadyUploadedParts = B2Collections.listOf(
+                new B2Part(largeFileId, 1, 1000, makeSha1(1), 1111),
+                new B2Part(largeFileId, 2, 1000, makeSha1(2), 2222)
+        );
+
+        try {
+            makeUploader(PART_SIZES, executor, contentSource, B2UploadListener.noopListener(), 2)
+                    .finishUploadingLargeFile(largeFileVersion, alreadyUploadedParts);
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(8, submitCount.get());
+        assertTrue("saw " + maxInFlightSeen.get() + " parts in flight", maxInFlightSeen.get() <= 2);
+
+        // all ten parts should be finished, in order.
+        final ArgumentCaptor<B2FinishLargeFileRequest> finishRequestCaptor = ArgumentCaptor.forClass(B2FinishLargeFileRequest.class);
+        verify(webifier, times(1)).finishLargeFile(anyObject(), finishRequestCaptor.capture());
+        final List<String> sha1s = finishRequestCaptor.getValue().getPartSha1Array();
+        assertEquals(10, sha1s.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(makeSha1(i + 1), sha1s.get(i));
+        }
+    }
+
+    @Test
+    public void testJournalIsWrittenAndUsedToResume() throws IOException, B2Exception, InterruptedException {
+        final long contentLen = 4 * ACCOUNT_AUTH.getRecommendedPartSize();
+        when(contentSource.getContentLength()).thenReturn(contentLen);
+        when(contentSource.getSrcLastModifiedMillisOrNull()).thenReturn(1234L);
+
+        final String largeFileId = fileId(1);
+        final B2FileVersion largeFileVersion = new B2FileVersion(largeFileId,
+                fileName(1),
+                0,
+                B2ContentTypes.APPLICATION_OCTET,
+                null,
+                B2Collections.mapOf(),
+                B2FileVersion.START_ACTION,
+                B2Clock.get().wallClockMillis());
+        when(webifier.startLargeFile(anyObject(), anyObject())).thenReturn(largeFileVersion);
+        arrangeToUploadParts(largeFileVersion);
+
+        // the first time, part 3 fails.  parts are uploaded one at a time, so 4 isn't started.
+        final List<Integer> uploadedPartNumbers = new ArrayList<>();
+        doAnswer(invocationOnMock -> {
+            final B2UploadPartRequest request = (B2UploadPartRequest) invocationOnMock.getArguments()[1];
+            if (request.getPartNumber() == 3) {
+                throw new B2BadRequestException("bad_request", null, "testing");
+            }
+            uploadedPartNumbers.add(request.getPartNumber());
+            return makePart(request.getPartNumber());
+        }).when(webifier).uploadPart(anyObject(), anyObject());
+
+        final File journalFile = new File(tempFolder.getRoot(), "journal");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            try (B2LargeFileJournal journal = B2LargeFileJournal.open(journalFile)) {
+                makeUploader(PART_SIZES, executor, contentSource, B2UploadListener.noopListener(), 1, journal)
+                        .uploadOrResumeLargeFile();
+                fail("should have thrown");
+            } catch (B2BadRequestException e) {
+                assertEquals("testing", e.getMessage());
+            }
+            assertEquals(B2Collections.listOf(1, 2), uploadedPartNumbers);
+
+            // the second time, a new process resumes from the journal.
+            uploadedPartNumbers.clear();
+            doAnswer(invocationOnMock -> {
+                final B2UploadPartRequest request = (B2UploadPartRequest) invocationOnMock.getArguments()[1];
+                uploadedPartNumbers.add(request.getPartNumber());
+                return makePart(request.getPartNumber());
+            }).when(webifier).uploadPart(anyObject(), anyObject());
+            when(webifier.getFileInfo(anyObject(), anyObject())).thenReturn(largeFileVersion);
+            when(webifier.finishLargeFile(anyObject(), anyObject())).thenReturn(largeFileVersion);
+
+            try (B2LargeFileJournal journal = B2LargeFileJournal.open(journalFile)) {
+                assertEquals(largeFileId, journal.getLargeFileIdOrNull());
+                makeUploader(PART_SIZES, executor, contentSource, B2UploadListener.noopListener(), 1, journal)
+                        .uploadOrResumeLargeFile();
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        // only the missing parts were uploaded, there was only one start, and no listing.
+        assertEquals(B2Collections.listOf(3, 4), uploadedPartNumbers);
+        verify(webifier, times(1)).startLargeFile(anyObject(), anyObject());
+        verify(webifier, never()).listParts(anyObject(), anyObject());
+
+        final ArgumentCaptor<B2FinishLargeFileRequest> finishRequestCaptor = ArgumentCaptor.forClass(B2FinishLargeFileRequest.class);
+        verify(webifier, times(1)).finishLargeFile(anyObject(), finishRequestCaptor.capture());
+        final List<String> sha1s = finishRequestCaptor.getValue().getPartSha1Array();
+        assertEquals(4, sha1s.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(makeSha1(i + 1), sha1s.get(i));
+        }
+    }
+
+    @Test
+    public void testJournalStartsOverWhenTheSourceChanged() throws IOException, B2Exception {
+        when(contentSource.getSrcLastModifiedMillisOrNull()).thenReturn(5678L);
+
+        final B2FileVersion largeFileVersion = makeVersion(2, 1);
+        when(webifier.startLargeFile(anyObject(), anyObject())).thenReturn(largeFileVersion);
+        arrangeToUploadParts(largeFileVersion);
+        when(webifier.finishLargeFile(anyObject(), anyObject())).thenReturn(largeFileVersion);
+
+        // the journal has an upload of the source from when it was different.
+        final File journalFile = new File(tempFolder.getRoot(), "journal");
+        final B2PartSpec firstPart = PART_SIZES.pickParts(contentSource.getContentLength()).get(0);
+        try (B2LargeFileJournal journal = B2LargeFileJournal.open(journalFile)) {
+            journal.started(fileId(1), 1234L, contentSource.getContentLength(), firstPart.getLength());
+            journal.partSucceeded(fileId(1), firstPart, makeSha1(1), 1234L, contentSource.getContentLength());
+        }
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (B2LargeFileJournal journal = B2LargeFileJournal.open(journalFile)) {
+            makeUploader(PART_SIZES, executor, contentSource, B2UploadListener.noopListener(), 1, journal)
+                    .uploadOrResumeLargeFile();
+            assertEquals(fileId(2), journal.getLargeFileIdOrNull());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(webifier, never()).getFileInfo(anyObject(), anyObject());
+        verify(webifier, times(2)).uploadPart(anyObject(), anyObject());
+    }
+
+    @Test
+    public void testStragglerIsHedgedAndFirstSuccessWins() throws IOException, B2Exception, InterruptedException {
+        final int partCount = 8;
+        final long contentLen = partCount * ACCOUNT_AUTH.getRecommendedPartSize();
+        when(contentSource.getContentLength()).thenReturn(contentLen);
+
+        final B2FileVersion largeFileVersion = makeVersion(1, 1);
+        when(webifier.startLargeFile(anyObject(), anyObject())).thenReturn(largeFileVersion);
+        when(webifier.finishLargeFile(anyObject(), anyObject())).thenReturn(largeFileVersion);
+        arrangeToUploadParts(largeFileVersion);
+
+        // the first attempt at part 5 is stuck until it's cancelled.
+        final AtomicInteger part5Attempts = new AtomicInteger();
+        final CountDownLatch stragglerInterrupted = new CountDownLatch(1);
+        doAnswer(invocationOnMock -> {
+            final B2UploadPartRequest request = (B2UploadPartRequest) invocationOnMock.getArguments()[1];
+            if (request.getPartNumber() == 5 && part5Attempts.incrementAndGet() == 1) {
+                try {
+                    Thread.sleep(10 * 1000);
+                } catch (InterruptedException e) {
+                    stragglerInterrupted.countDown();
+                    throw e;
+                }
+            }
+            Thread.sleep(5);
+            return makePart(request.getPartNumber());
+        }).when(webifier).uploadPart(anyObject(), anyObject());
+
+        // we should only hear about each part succeeding once, and not about the straggler failing.
+        final List<String> expected = new ArrayList<>();
+        for (int iPart = 0; iPart < partCount; iPart++) {
+            final String prefix = "B2UploadProgress{partIndex=" + iPart + ", partCount=" + partCount + ", startByte=" + (iPart * 1000) + ", length=1000, ";
+            expected.add(prefix + "bytesSoFar=0, state=WAITING_TO_START}");
+            expected.add(prefix + "bytesSoFar=0, state=STARTING}");
+            expected.add(prefix + "bytesSoFar=1000, state=SUCCEEDED}");
+        }
+        recordingListener.setExpected(expected.toArray(new String[0]));
+
+        final B2PartHedgingPolicy hedgingPolicy = B2PartHedgingPolicy
+                .builder()
+                .setMinFinishedParts(3)
+                .setMinStragglerMillis(100)
+                .build();
+        final ExecutorService executor = Executors.newFixedThreadPool(partCount + 2);
+        try {
+            makeUploader(PART_SIZES, executor, contentSource, recordingListener, partCount, hedgingPolicy, null).uploadLargeFile();
+            assertTrue(stragglerInterrupted.await(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(2, part5Attempts.get());
+        verify(webifier, times(partCount + 1)).uploadPart(anyObject(), anyObject());
+
+        final ArgumentCaptor<B2FinishLargeFileRequest> finishRequestCaptor = ArgumentCaptor.forClass(B2FinishLargeFileRequest.class);
+        verify(webifier, times(1)).finishLargeFile(anyObject(), finishRequestCaptor.capture());
+        final List<String> sha1s = finishRequestCaptor.getValue().getPartSha1Array();
+        for (int i = 0; i < partCount; i++) {
+            assertEquals(makeSha1(i + 1), sha1s.get(i));
+        }
+    }
+
+    @Test
+    public void testMaxPartsInFlightMustBePositive() throws IOException {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("maxPartsInFlight must be positive.");
+        makeUploader(PART_SIZES, mock(ExecutorService.class), contentSource, recordingListener, 0);
+    }
+
     private void checkPartMatching(List<B2Part> alreadyUploadedParts,
                                    Integer... expectedUploadPartNumbers) throws IOException, B2Exception {
         final long contentLen = (3 * ACCOUNT_AUTH.getRecommendedPartSize() + 124);
@@ -591,7 +875,6 @@ public class B2LargeFileUploaderTest {
 
     enum When {
         IN_SUBMIT,
-        IN_GET,
         IN_GET_AFTER_RUNNING_IN_SUBMIT // running task during submit makes it more sequential.
     }
     enum ExceptionType {
@@ -682,10 +965,50 @@ public class B2LargeFileUploaderTest {
         return makeUploader(PART_SIZES, executor, contentSource, listener);
     }
 
+    private void arrangeToUploadParts(B2FileVersion largeFileVersion) throws B2Exception {
+        // arrange to answer get_upload_part_url (which will be called several times, but it's ok to reuse the same value since it's all mocked!)
+        final B2GetUploadPartUrlRequest partUrlRequest = new B2GetUploadPartUrlRequest(largeFileVersion.getFileId());
+        final B2UploadPartUrlResponse partUrl = new B2UploadPartUrlResponse(largeFileVersion.getFileId(), "uploadPartUrl", "uploadPartAuthToken");
+        when(webifier.getUploadPartUrl(anyObject(), eq(partUrlRequest))).thenReturn(partUrl);
+
+        // arrange to answer upload_part, based on the request.
+        when(webifier.uploadPart(anyObject(), anyObject())).thenAnswer(invocationOnMock -> {
+            B2UploadPartRequest request = (B2UploadPartRequest) invocationOnMock.getArguments()[1];
+            return makePart(request.getPartNumber());
+        });
+    }
+
     private B2LargeFileUploader makeUploader(B2PartSizes partSizes,
                                              ExecutorService executor,
                                              B2ContentSource contentSource,
                                              B2UploadListener listener) throws IOException {
+        return makeUploader(partSizes, executor, contentSource, listener, Integer.MAX_VALUE);
+    }
+
+    private B2LargeFileUploader makeUploader(B2PartSizes partSizes,
+                                             ExecutorService executor,
+                                             B2ContentSource contentSource,
+                                             B2UploadListener listener,
+                                             int maxPartsInFlight) throws IOException {
+        return makeUploader(partSizes, executor, contentSource, listener, maxPartsInFlight, null);
+    }
+
+    private B2LargeFileUploader makeUploader(B2PartSizes partSizes,
+                                             ExecutorService executor,
+                                             B2ContentSource contentSource,
+                                             B2UploadListener listener,
+                                             int maxPartsInFlight,
+                                             B2LargeFileJournal journalOrNull) throws IOException {
+        return makeUploader(partSizes, executor, contentSource, listener, maxPartsInFlight, null, journalOrNull);
+    }
+
+    private B2LargeFileUploader makeUploader(B2PartSizes partSizes,
+                                             ExecutorService executor,
+                                             B2ContentSource contentSource,
+                                             B2UploadListener listener,
+                                             int maxPartsInFlight,
+                                             B2PartHedgingPolicy hedgingPolicyOrNull,
+                                             B2LargeFileJournal journalOrNull) throws IOException {
         final B2UploadFileRequest request = B2UploadFileRequest
                 .builder(bucketId(1), fileName(1), B2ContentTypes.APPLICATION_OCTET, contentSource)
                 .setListener(listener)
@@ -699,7 +1022,11 @@ public class B2LargeFileUploaderTest {
                 executor,
                 partSizes,
                 request,
-                contentSource.getContentLength());
+                contentSource.getContentLength(),
+                maxPartsInFlight,
+                hedgingPolicyOrNull,
+                0,
+                journalOrNull);
 
     }
 }
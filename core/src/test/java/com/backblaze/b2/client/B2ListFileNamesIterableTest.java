@@ -11,12 +11,16 @@ import com.backblaze.b2.client.structures.B2FileVersion;
 import com.backblaze.b2.client.structures.B2ListFileNamesRequest;
 import com.backblaze.b2.client.structures.B2ListFileNamesResponse;
 import com.backblaze.b2.util.B2Collections;
+import com.backblaze.b2.util.B2ExecutorUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.backblaze.b2.client.B2TestHelpers.bucketId;
 import static com.backblaze.b2.client.B2TestHelpers.fileName;
@@ -26,6 +30,8 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class B2ListFileNamesIterableTest {
@@ -129,6 +135,132 @@ public class B2ListFileNamesIterableTest {
         assertTrue(!iter.hasNext());
     }
 
+    @Test
+    public void testPrefetching() throws B2Exception {
+        final List<List<B2FileVersion>> pages = arrangePages(4);
+        final B2ManualExecutor executor = new B2ManualExecutor();
+
+        // the first page is fetched right away and the fetch for the second is started.
+        final Iterator<B2FileVersion> iter = new B2ListFileNamesIterable(client, TRIVIAL_REQUEST)
+                .prefetching(executor, 2)
+                .iterator();
+        verify(client, times(1)).listFileNames(anyObject());
+        assertEquals(1, executor.countTasks());
+
+        // when the second page arrives, the third is fetched, but no more than that.
+        executor.runOne();
+        assertEquals(1, executor.countTasks());
+        executor.runOne();
+        assertEquals(0, executor.countTasks());
+        verify(client, times(3)).listFileNames(anyObject());
+
+        // moving on to the second page makes room for the fourth.
+        assertTrue(pages.get(0).get(0) == iter.next());
+        assertTrue(pages.get(0).get(1) == iter.next());
+        assertEquals(1, executor.countTasks());
+        executor.runAll();
+
+        for (int iPage = 1; iPage < pages.size(); iPage++) {
+            for (B2FileVersion version : pages.get(iPage)) {
+                assertTrue(iter.hasNext());
+                assertTrue(version == iter.next());
+            }
+        }
+        assertTrue(!iter.hasNext());
+        assertEquals(0, executor.countTasks());
+        verify(client, times(4)).listFileNames(anyObject());
+    }
+
+    @Test
+    public void testPrefetchingWithRealExecutor() throws B2Exception {
+        final List<List<B2FileVersion>> pages = arrangePages(10);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Iterator<B2FileVersion> iter = new B2ListFileNamesIterable(client, TRIVIAL_REQUEST)
+                    .prefetching(executor, 3)
+                    .iterator();
+            for (List<B2FileVersion> page : pages) {
+                for (B2FileVersion version : page) {
+                    assertTrue(iter.hasNext());
+                    assertTrue(version == iter.next());
+                }
+            }
+            assertTrue(!iter.hasNext());
+        } finally {
+            B2ExecutorUtils.shutdownAndAwaitTermination(executor, 10, 10);
+        }
+    }
+
+    @Test
+    public void testPrefetchingFailureSurfacesOnNext() throws B2Exception {
+        final List<List<B2FileVersion>> pages = arrangePages(3);
+        when(client.listFileNames(requestForPage(1))).thenThrow(new B2InternalErrorException("test", "testing"));
+        final B2ManualExecutor executor = new B2ManualExecutor();
+
+        final Iterator<B2FileVersion> iter = new B2ListFileNamesIterable(client, TRIVIAL_REQUEST)
+                .prefetching(executor, 2)
+                .iterator();
+        executor.runAll();
+
+        // the first page is still fine.
+        assertTrue(pages.get(0).get(0) == iter.next());
+
+        thrown.expect(B2RuntimeException.class);
+        thrown.expectMessage("failed to advance iterator: testing");
+        iter.next();
+    }
+
+    @Test
+    public void testPrefetchingRejectedByExecutorSurfacesOnNext() throws B2Exception {
+        final List<List<B2FileVersion>> pages = arrangePages(3);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+
+        // the first page is fetched on this thread, so it's still fine.
+        final Iterator<B2FileVersion> iter = new B2ListFileNamesIterable(client, TRIVIAL_REQUEST)
+                .prefetching(executor, 2)
+                .iterator();
+        assertTrue(pages.get(0).get(0) == iter.next());
+
+        thrown.expect(B2RuntimeException.class);
+        thrown.expectMessage("executor rejected fetching the next page");
+        iter.next();
+    }
+
+    @Test
+    public void testPrefetchDepthMustBePositive() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("prefetchDepth must be positive.");
+        new B2ListFileNamesIterable(client, TRIVIAL_REQUEST).prefetching(new B2ManualExecutor(), 0);
+    }
+
+    /**
+     * Arranges for the client to return nPages pages of two files each.
+     * @return the files on each page.
+     */
+    private List<List<B2FileVersion>> arrangePages(int nPages) throws B2Exception {
+        final List<List<B2FileVersion>> pages = new ArrayList<>();
+        for (int iPage = 0; iPage < nPages; iPage++) {
+            final List<B2FileVersion> files = B2Collections.listOf(
+                    makeVersion(2 * iPage, 2 * iPage),
+                    makeVersion(2 * iPage + 1, 2 * iPage + 1));
+            final String nextFileNameOrNull = (iPage + 1 < nPages) ? fileName(2 * iPage + 2) : null;
+            when(client.listFileNames(requestForPage(iPage))).thenReturn(new B2ListFileNamesResponse(files, nextFileNameOrNull));
+            pages.add(files);
+        }
+        return pages;
+    }
+
+    private B2ListFileNamesRequest requestForPage(int iPage) {
+        if (iPage == 0) {
+            return TRIVIAL_REQUEST;
+        }
+        return B2ListFileNamesRequest
+                .builder(BUCKET_ID)
+                .setStartFileName(fileName(2 * iPage))
+                .build();
+    }
+
     @Test
     public void testBuilder() {
         B2ListFileNamesRequest request = B2ListFileNamesRequest
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.client.structures.B2ListFileNamesRequest;
+import com.backblaze.b2.client.structures.B2ListFileNamesResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static com.backblaze.b2.client.B2TestHelpers.bucketId;
+import static com.backblaze.b2.client.B2TestHelpers.fileName;
+import static com.backblaze.b2.client.B2TestHelpers.makeVersion;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class B2ListFilesSpliteratorTest {
+    private static final String BUCKET_ID = bucketId(1);
+    private static final int FILES_PER_PAGE = 3;
+
+    private final B2StorageClientImpl client = mock(B2StorageClientImpl.class);
+    private final B2ListFileNamesRequest TRIVIAL_REQUEST = B2ListFileNamesRequest.builder(BUCKET_ID).build();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testSplitsAlongPages() throws B2Exception {
+        final List<List<B2FileVersion>> pages = arrangePages(3);
+        final Spliterator<B2FileVersion> spliterator = new B2ListFileNamesIterable(client, TRIVIAL_REQUEST).spliterator();
+
+        // the whole first page.
+        final Spliterator<B2FileVersion> first = spliterator.trySplit();
+        assertEquals(FILES_PER_PAGE, first.estimateSize());
+        assertEquals(pages.get(0), drain(first));
+
+        // the rest of the second page.
+        assertTrue(spliterator.tryAdvance(version -> assertEquals(pages.get(1).get(0), version)));
+        assertEquals(pages.get(1).subList(1, FILES_PER_PAGE), drain(spliterator.trySplit()));
+
+        // and the rest of the listing.
+        assertEquals(pages.get(2), drain(spliterator));
+        assertEquals(0, spliterator.estimateSize());
+        assertNull(spliterator.trySplit());
+    }
+
+    @Test
+    public void testDoesNotListUntilUsed() throws B2Exception {
+        final B2ListFileNamesIterable iterable = new B2ListFileNamesIterable(client, TRIVIAL_REQUEST);
+        iterable.spliterator();
+        iterable.stream().parallel().map(B2FileVersion::getFileName);
+        verify(client, never()).listFileNames(anyObject());
+    }
+
+    @Test
+    public void testParallelStream() throws B2Exception {
+        final List<String> expected = new ArrayList<>();
+        for (List<B2FileVersion> page : arrangePages(20)) {
+            for (B2FileVersion version : page) {
+                expected.add(version.getFileName());
+            }
+        }
+
+        final List<String> names = new B2ListFileNamesIterable(client, TRIVIAL_REQUEST)
+                .stream(2)
+                .parallel()
+                .map(B2FileVersion::getFileName)
+                .collect(Collectors.toList());
+        assertEquals(expected, names);
+    }
+
+    @Test
+    public void testWaitsForPagesToBePickedUp() throws Exception {
+        final List<List<B2FileVersion>> pages = arrangePages(3);
+        final Spliterator<B2FileVersion> spliterator = new B2ListFilesSpliterator(new B2ListFileNamesIterable(client, TRIVIAL_REQUEST), 1);
+        final Spliterator<B2FileVersion> first = spliterator.trySplit();
+
+        // the next split has to wait until someone starts on the first page.
+        final AtomicReference<Spliterator<B2FileVersion>> second = new AtomicReference<>();
+        final Thread thread = new Thread(() -> second.set(spliterator.trySplit()));
+        thread.start();
+        thread.join(100);
+        assertTrue(thread.isAlive());
+
+        assertTrue(first.tryAdvance(version -> assertEquals(pages.get(0).get(0), version)));
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertNotNull(second.get());
+        assertEquals(pages.get(1), drain(second.get()));
+    }
+
+    @Test
+    public void testBatchesWhenIteratorCannotHandOutPages() {
+        final List<B2FileVersion> versions = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            versions.add(makeVersion(i, i));
+        }
+        final Spliterator<B2FileVersion> spliterator = new B2ListFilesSpliterator(versions, 4);
+
+        assertEquals(versions.subList(0, 1000), drain(spliterator.trySplit()));
+        assertEquals(versions.subList(1000, 2000), drain(spliterator.trySplit()));
+        assertEquals(versions.subList(2000, 2500), drain(spliterator.trySplit()));
+        assertNull(spliterator.trySplit());
+    }
+
+    @Test
+    public void testMaxPagesBufferedMustBePositive() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("maxPagesBuffered must be positive.");
+        new B2ListFileNamesIterable(client, TRIVIAL_REQUEST).stream(0);
+    }
+
+    private static List<B2FileVersion> drain(Spliterator<B2FileVersion> spliterator) {
+        final List<B2FileVersion> versions = new ArrayList<>();
+        spliterator.forEachRemaining(versions::add);
+        return versions;
+    }
+
+    private List<List<B2FileVersion>> arrangePages(int nPages) throws B2Exception {
+        final List<List<B2FileVersion>> pages = new ArrayList<>();
+        for (int iPage = 0; iPage < nPages; iPage++) {
+            final List<B2FileVersion> files = new ArrayList<>();
+            for (int i = 0; i < FILES_PER_PAGE; i++) {
+                final int iFile = FILES_PER_PAGE * iPage + i;
+                files.add(makeVersion(iFile, iFile));
+            }
+            final String nextFileNameOrNull = (iPage + 1 < nPages) ? fileName(FILES_PER_PAGE * (iPage + 1)) : null;
+            when(client.listFileNames(requestForPage(iPage))).thenReturn(new B2ListFileNamesResponse(files, nextFileNameOrNull));
+            pages.add(files);
+        }
+        return pages;
+    }
+
+    private B2ListFileNamesRequest requestForPage(int iPage) {
+        if (iPage == 0) {
+            return TRIVIAL_REQUEST;
+        }
+        return B2ListFileNamesRequest
+                .builder(BUCKET_ID)
+                .setStartFileName(fileName(FILES_PER_PAGE * iPage))
+                .build();
+    }
+}
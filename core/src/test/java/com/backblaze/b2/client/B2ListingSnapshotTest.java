@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.client.structures.B2ListFileNamesRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.backblaze.b2.client.B2TestHelpers.bucketId;
+import static com.backblaze.b2.client.B2TestHelpers.fileId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class B2ListingSnapshotTest {
+    private static final String BUCKET_ID = bucketId(1);
+
+    // small enough that the test's snapshots need several segments.
+    private static final int SEGMENT_SIZE = B2ListingSnapshot.MIN_SEGMENT_SIZE;
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final B2StorageClient client = mock(B2StorageClient.class);
+
+    // what's in the bucket, by name.  all of the names are ascii, except
+    // one, so String order is the same as b2's order for them.
+    private final Map<String, B2FileVersion> bucket = new TreeMap<>();
+    private int nextId;
+
+    public B2ListingSnapshotTest() throws B2Exception {
+        for (String dir : Arrays.asList("a/", "b/", "b/sub/", "c/")) {
+            for (int i = 0; i < 50; i++) {
+                put(dir + String.format("%03d", i));
+            }
+        }
+        put("data.txt");
+        put("été");
+
+        when(client.fileNames((B2ListFileNamesRequest) anyObject())).thenAnswer(invocationOnMock -> {
+            final B2ListFileNamesRequest request = (B2ListFileNamesRequest) invocationOnMock.getArguments()[0];
+            final String prefix = (request.getPrefix() == null) ? "" : request.getPrefix();
+            final List<B2FileVersion> listed = new ArrayList<>();
+            for (B2FileVersion version : bucket.values()) {
+                if (version.getFileName().startsWith(prefix)) {
+                    listed.add(version);
+                }
+            }
+            return (B2ListFilesIterable) listed::iterator;
+        });
+    }
+
+    @Test
+    public void testCreateAndQuery() throws B2Exception {
+        final File file = tempFolder.getRoot().toPath().resolve("snapshot").toFile();
+        final B2ListingSnapshot snapshot = B2ListingSnapshot.create(client, file, BUCKET_ID, "", SEGMENT_SIZE);
+        assertTrue(file.length() > 3 * SEGMENT_SIZE);
+
+        checkMatchesBucket(snapshot);
+        checkMatchesBucket(B2ListingSnapshot.open(file));
+        assertEquals(BUCKET_ID, snapshot.getBucketId());
+        assertEquals("", snapshot.getPrefix());
+        assertEquals(nextId - 1, snapshot.getNewestUploadTimestamp());
+
+        assertTrue(snapshot.exists("b/sub/049"));
+        assertTrue(snapshot.exists("été"));
+        assertFalse(snapshot.exists("b/sub/"));
+        assertFalse(snapshot.exists("zzz"));
+        assertEquals(bucket.get("c/007"), snapshot.getOrNull("c/007"));
+        assertNull(snapshot.getOrNull("c/0071"));
+
+        // a range, and a prefix whose names aren't all together.
+        assertEquals(names("b/048", "b/049", "b/sub/000"), namesOf(snapshot.scan("b/048", "b/sub/001")));
+        assertEquals(50, namesOf(snapshot.scanPrefix("b/sub/")).size());
+        assertEquals(100, namesOf(snapshot.scanPrefix("b/")).size());
+        assertEquals(Collections.emptyList(), namesOf(snapshot.scanPrefix("d/")));
+    }
+
+    @Test
+    public void testRefreshOnlyRelistsChangedPrefixes() throws B2Exception {
+        final File file = tempFolder.getRoot().toPath().resolve("snapshot").toFile();
+        final B2ListingSnapshot snapshot = B2ListingSnapshot.create(client, file, BUCKET_ID, "", SEGMENT_SIZE);
+
+        // change things in b/ and in c/.
+        bucket.remove("b/003");
+        bucket.remove("b/sub/017");
+        put("b/new");
+        put("b/003");
+        put("c/new");
+
+        final B2ListingSnapshot refreshed = snapshot.refresh(client, Arrays.asList("b/sub/", "b/", "b/0"));
+
+        // the b/ changes are in, but we didn't look at c/.
+        assertFalse(refreshed.exists("b/sub/017"));
+        assertTrue(refreshed.exists("b/new"));
+        assertEquals(bucket.get("b/003"), refreshed.getOrNull("b/003"));
+        assertFalse(refreshed.exists("c/new"));
+        assertEquals(bucket.size() - 1, refreshed.getFileCount());
+        verify(client).fileNames(B2ListFileNamesRequest.builder(BUCKET_ID).setPrefix("b/").setMaxFileCount(10000).build());
+
+        // the old snapshot still has the old entries.
+        assertTrue(snapshot.exists("b/sub/017"));
+
+        // and refreshing everything catches up with the bucket.
+        checkMatchesBucket(refreshed.refreshAll(client));
+        checkMatchesBucket(B2ListingSnapshot.open(file));
+        verify(client, times(2)).fileNames(B2ListFileNamesRequest.builder(BUCKET_ID).setMaxFileCount(10000).build());
+    }
+
+    @Test
+    public void testRefreshedPrefixesMustBeUnderSnapshotPrefix() throws B2Exception {
+        final File file = tempFolder.getRoot().toPath().resolve("snapshot").toFile();
+        final B2ListingSnapshot snapshot = B2ListingSnapshot.create(client, file, BUCKET_ID, "b/", SEGMENT_SIZE);
+        assertEquals(100, snapshot.getFileCount());
+
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("changed prefix 'c/' isn't under the snapshot's prefix 'b/'.");
+        snapshot.refresh(client, Collections.singletonList("c/"));
+    }
+
+    @Test
+    public void testConcurrentCreatesDontShareATempFile() throws Exception {
+        final File file = tempFolder.getRoot().toPath().resolve("snapshot").toFile();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    B2ListingSnapshot.create(client, file, BUCKET_ID, "", SEGMENT_SIZE);
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+
+        assertEquals(Collections.emptyList(), failures);
+        checkMatchesBucket(B2ListingSnapshot.open(file));
+        assertEquals(names("snapshot"), Arrays.asList(tempFolder.getRoot().list()));
+    }
+
+    @Test
+    public void testOpenOtherFile() throws Exception {
+        final File file = tempFolder.newFile("notASnapshot");
+        Files.write(file.toPath(), "this is just some text.  it's not a snapshot.".getBytes("UTF-8"));
+
+        thrown.expect(B2Exception.class);
+        thrown.expectMessage(file + " isn't a listing snapshot");
+        B2ListingSnapshot.open(file);
+    }
+
+    private void checkMatchesBucket(B2ListingSnapshot snapshot) {
+        final List<B2FileVersion> all = new ArrayList<>();
+        snapshot.scan("", null).forEach(all::add);
+        assertEquals(new ArrayList<>(bucket.values()), all);
+        assertEquals(bucket.size(), snapshot.getFileCount());
+    }
+
+    private void put(String name) {
+        bucket.put(name, new B2FileVersion(fileId(nextId), name, 100 + nextId, null,
+                (nextId % 2 == 0) ? null : "sha1-" + nextId, Collections.emptyMap(), "upload", nextId));
+        nextId++;
+    }
+
+    private static List<String> names(String... names) {
+        return Arrays.asList(names);
+    }
+
+    private static List<String> namesOf(Iterable<B2FileVersion> versions) {
+        final List<String> names = new ArrayList<>();
+        versions.forEach(version -> names.add(version.getFileName()));
+        return names;
+    }
+}
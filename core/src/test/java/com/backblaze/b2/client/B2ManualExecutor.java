@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * B2ManualExecutor holds on to the tasks it's given until the test runs
+ * them, so tests can control exactly when background work happens.
+ *
+ * THREAD-SAFETY: tasks may be added from any thread.  the test decides
+ *                which thread runs them.
+ */
+class B2ManualExecutor extends AbstractExecutorService {
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    synchronized int countTasks() {
+        return tasks.size();
+    }
+
+    /**
+     * Runs the oldest task on the calling thread.
+     */
+    void runOne() {
+        final Runnable task;
+        synchronized (this) {
+            task = tasks.remove(0);
+        }
+        task.run();
+    }
+
+    /**
+     * Runs tasks on the calling thread until there aren't any left,
+     * including any tasks added by the tasks it runs.
+     */
+    void runAll() {
+        while (countTasks() > 0) {
+            runOne();
+        }
+    }
+
+    @Override
+    public synchronized void execute(Runnable command) {
+        tasks.add(command);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout,
+                                    TimeUnit unit) {
+        return false;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2ContentTypes;
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2InternalErrorException;
+import com.backblaze.b2.client.structures.B2DownloadByIdRequest;
+import com.backblaze.b2.client.structures.B2DownloadProgress;
+import com.backblaze.b2.client.structures.B2DownloadState;
+import com.backblaze.b2.client.structures.B2ParallelDownloadRequest;
+import com.backblaze.b2.util.B2ByteProgressListener;
+import com.backblaze.b2.util.B2ByteRange;
+import com.backblaze.b2.util.B2ExecutorUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.backblaze.b2.client.B2TestHelpers.fileId;
+import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class B2ParallelFileDownloaderTest {
+    private static final String FILE_ID = fileId(1);
+    private static final int CHUNK_SIZE = 1000;
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final B2StorageClient client = mock(B2StorageClient.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+    private final RecordingListener listener = new RecordingListener();
+
+    private final B2RangedContentServer server = new B2RangedContentServer(client);
+
+    // the ranges that were asked for.  null for the whole file.
+    private final List<B2ByteRange> ranges = server.getRanges();
+
+    @After
+    public void tearDown() {
+        B2ExecutorUtils.shutdownAndAwaitTermination(executor, 10, 10);
+    }
+
+    @Test
+    public void testDownloadsAllChunks() throws Exception {
+        final byte[] content = makeBytes(10 * CHUNK_SIZE);
+        server.arrangeContent(content, null, null);
+
+        final File file = download(3);
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(10, ranges.size());
+        assertEquals(B2ByteRange.between(0, CHUNK_SIZE - 1), ranges.get(0));
+        assertEquals("eof " + content.length, listener.getLastEvent());
+    }
+
+    @Test
+    public void testDownloadListener() throws Exception {
+        final byte[] content = makeBytes(5 * CHUNK_SIZE);
+        server.arrangeContent(content, null, null);
+
+        final List<B2DownloadProgress> progresses = Collections.synchronizedList(new ArrayList<>());
+        final B2ParallelDownloadRequest request = B2ParallelDownloadRequest
+                .builder(FILE_ID, destination())
+                .setChunkSize(CHUNK_SIZE)
+                .setDownloadListener(progresses::add)
+                .build();
+        new B2ParallelFileDownloader(client, executor, request).download();
+
+        // the first update is before we know how long the file is.
+        assertEquals(-1, progresses.get(0).getLength());
+
+        final B2DownloadProgress last = progresses.get(progresses.size() - 1);
+        assertEquals(B2DownloadState.SUCCEEDED, last.getState());
+        assertEquals(0, last.getStartByte());
+        assertEquals(content.length, last.getLength());
+        assertEquals(content.length, last.getBytesSoFar());
+    }
+
+    @Test
+    public void testShortLastChunk() throws Exception {
+        final byte[] content = makeBytes(2 * CHUNK_SIZE + 500);
+        server.arrangeContent(content, null, null);
+
+        final File file = download(3);
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+
+        final List<String> sortedRanges = new ArrayList<>();
+        for (B2ByteRange range : ranges) {
+            sortedRanges.add(range.toString());
+        }
+        Collections.sort(sortedRanges);
+        assertEquals("[bytes=0-999, bytes=1000-1999, bytes=2000-2499]", sortedRanges.toString());
+    }
+
+    @Test
+    public void testFileSmallerThanOneChunk() throws Exception {
+        final byte[] content = makeBytes(10);
+        server.arrangeContent(content, null, null);
+
+        final File file = download(3);
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(1, ranges.size());
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        server.arrangeContent(new byte[0], null, null);
+
+        final File file = download(3);
+        assertEquals(0, file.length());
+        assertEquals(2, ranges.size());
+        assertEquals(null, ranges.get(1));
+    }
+
+    @Test
+    public void testOldContentIsReplaced() throws Exception {
+        final byte[] content = makeBytes(3 * CHUNK_SIZE);
+        server.arrangeContent(content, null, null);
+
+        final File file = destination();
+        Files.write(file.toPath(), makeBytes(5 * CHUNK_SIZE));
+        download(2);
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testTruncatedChunkIsRetried() throws Exception {
+        final byte[] content = makeBytes(10 * CHUNK_SIZE);
+        server.arrangeContent(content, null, 3 * CHUNK_SIZE);
+
+        final File file = download(3);
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals("eof " + content.length, listener.getLastEvent());
+    }
+
+    @Test
+    public void testFailedChunkFailsTheDownload() throws Exception {
+        final byte[] content = makeBytes(10 * CHUNK_SIZE);
+        server.arrangeContent(content, null, null);
+        doAnswer(invocationOnMock -> {
+            final B2DownloadByIdRequest request = (B2DownloadByIdRequest) invocationOnMock.getArguments()[0];
+            if (request.getRange().start == 5 * CHUNK_SIZE) {
+                throw new B2InternalErrorException("test", null, "testing");
+            }
+            server.serve(content, null, request, (B2ContentSink) invocationOnMock.getArguments()[1], false);
+            return null;
+        }).when(client).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+
+        try {
+            download(3);
+            throw new RuntimeException("should have thrown");
+        } catch (B2InternalErrorException e) {
+            assertEquals("testing", e.getMessage());
+        }
+        assertTrue(listener.getLastEvent(), listener.getLastEvent().startsWith("exception "));
+    }
+
+    @Test
+    public void testChunkSizeMustBePositive() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("chunkSize must be positive.");
+        B2ParallelDownloadRequest.builder(FILE_ID, destination()).setChunkSize(0).build();
+    }
+
+    private File destination() {
+        return new File(tempFolder.getRoot(), "download");
+    }
+
+    private File download(int maxChunksInFlight) throws B2Exception {
+        final B2ParallelDownloadRequest request = B2ParallelDownloadRequest
+                .builder(FILE_ID, destination())
+                .setChunkSize(CHUNK_SIZE)
+                .setMaxChunksInFlight(maxChunksInFlight)
+                .setListener(listener)
+                .build();
+        final B2Headers headers = new B2ParallelFileDownloader(client, executor, request).download();
+        assertEquals(B2ContentTypes.TEXT_PLAIN, headers.getContentType());
+        return request.getDestination();
+    }
+
+    private static class RecordingListener implements B2ByteProgressListener {
+        private String lastEvent;
+
+        synchronized String getLastEvent() {
+            return lastEvent;
+        }
+
+        @Override
+        public synchronized void progress(long nBytesSoFar) {
+            lastEvent = "progress " + nBytesSoFar;
+        }
+
+        @Override
+        public synchronized void hitException(Exception e,
+                                              long nBytesSoFar) {
+            lastEvent = "exception " + nBytesSoFar;
+        }
+
+        @Override
+        public synchronized void reachedEof(long nBytesSoFar) {
+            lastEvent = "eof " + nBytesSoFar;
+        }
+    }
+}
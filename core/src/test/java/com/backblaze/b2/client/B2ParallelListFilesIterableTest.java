@@ -0,0 +1,315 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentSources.B2ContentTypes;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2InternalErrorException;
+import com.backblaze.b2.client.exceptions.B2RuntimeException;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.client.structures.B2ListFileNamesRequest;
+import com.backblaze.b2.client.structures.B2ListFileNamesResponse;
+import com.backblaze.b2.client.structures.B2ListFileVersionsRequest;
+import com.backblaze.b2.client.structures.B2ListFileVersionsResponse;
+import com.backblaze.b2.util.B2Collections;
+import com.backblaze.b2.util.B2ExecutorUtils;
+import com.backblaze.b2.util.B2StringUtil;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.backblaze.b2.client.B2TestHelpers.bucketId;
+import static com.backblaze.b2.client.B2TestHelpers.fileId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class B2ParallelListFilesIterableTest {
+    private static final String BUCKET_ID = bucketId(1);
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private final B2StorageClientImpl client = mock(B2StorageClientImpl.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    // every name in the bucket, in order.  all of them are under "data/".
+    private final List<String> allNames = new ArrayList<>();
+
+    // every version in the bucket, in order.  two for each name.
+    private final List<B2FileVersion> allVersions = new ArrayList<>();
+
+    // how many times listFileNames() has been called.
+    private final AtomicInteger namesListed = new AtomicInteger();
+
+    // if not null, listing names starting here fails.
+    private String failingStartFileNameOrNull;
+
+    public B2ParallelListFilesIterableTest() throws B2Exception {
+        for (char dir = 'a'; dir <= 'h'; dir++) {
+            for (int i = 0; i < 10; i++) {
+                final String name = "data/" + dir + "/" + i;
+                allNames.add(name);
+                allVersions.add(makeVersion(fileId(2 * allVersions.size()), name, "upload"));
+                allVersions.add(makeVersion(fileId(2 * allVersions.size()), name, "upload"));
+            }
+        }
+        doAnswer(invocationOnMock -> listNames((B2ListFileNamesRequest) invocationOnMock.getArguments()[0]))
+                .when(client).listFileNames(anyObject());
+        doAnswer(invocationOnMock -> listVersions((B2ListFileVersionsRequest) invocationOnMock.getArguments()[0]))
+                .when(client).listFileVersions(anyObject());
+    }
+
+    @After
+    public void tearDown() {
+        B2ExecutorUtils.shutdownAndAwaitTermination(executor, 10, 10);
+    }
+
+    @Test
+    public void testFileNamesWithSampling() throws B2Exception {
+        final B2ParallelListingPolicy policy = makePolicyBuilder().setRangeCount(4).build();
+        final List<String> names = new ArrayList<>();
+        for (B2FileVersion version : B2ParallelListFilesIterable.forFileNames(client, executor, policy, namesRequest())) {
+            names.add(version.getFileName());
+        }
+
+        // everything, exactly once.
+        Collections.sort(names);
+        assertEquals(allNames, names);
+
+        // the sample found the one top-level folder, looked inside it, and
+        // split the folders inside it evenly.
+        verify(client).listFileNames(B2ListFileNamesRequest
+                .builder(BUCKET_ID)
+                .setPrefix("data/")
+                .setDelimiter("/")
+                .setMaxFileCount(1000)
+                .build());
+        for (String splitPoint : Arrays.asList("data/c/", "data/e/", "data/g/")) {
+            verify(client).listFileNames(B2ListFileNamesRequest
+                    .builder(namesRequest())
+                    .setStartFileName(splitPoint)
+                    .build());
+        }
+    }
+
+    @Test
+    public void testFileVersionsWithSplitPoints() throws B2Exception {
+        final B2ParallelListingPolicy policy = makePolicyBuilder()
+                .setSplitPoints(Arrays.asList("data/f/", "data/b/5", "data/b/5"))
+                .build();
+        final B2ListFileVersionsRequest request = B2ListFileVersionsRequest
+                .builder(BUCKET_ID)
+                .setMaxFileCount(7)
+                .build();
+
+        final List<B2FileVersion> versions = new ArrayList<>();
+        B2ParallelListFilesIterable.forFileVersions(client, executor, policy, request).forEach(versions::add);
+
+        // everything, exactly once.
+        versions.sort((a, b) -> a.getFileId().compareTo(b.getFileId()));
+        assertEquals(allVersions, versions);
+
+        // we didn't need to sample.
+        verify(client, never()).listFileNames(anyObject());
+    }
+
+    @Test
+    public void testStartBetweenSplitPoints() throws B2Exception {
+        // start at the second version of "data/c/3".  the split points at or
+        // before it would list versions the request asked to skip.
+        final int iStart = 2 * allNames.indexOf("data/c/3") + 1;
+        final B2ParallelListingPolicy policy = makePolicyBuilder()
+                .setSplitPoints(Arrays.asList("data/b/", "data/c/3", "data/e/"))
+                .build();
+        final B2ListFileVersionsRequest request = B2ListFileVersionsRequest
+                .builder(BUCKET_ID)
+                .setStart("data/c/3", allVersions.get(iStart).getFileId())
+                .setMaxFileCount(7)
+                .build();
+
+        final List<B2FileVersion> versions = new ArrayList<>();
+        B2ParallelListFilesIterable.forFileVersions(client, executor, policy, request).forEach(versions::add);
+
+        // everything from the start, exactly once.
+        versions.sort((a, b) -> a.getFileId().compareTo(b.getFileId()));
+        assertEquals(allVersions.subList(iStart, allVersions.size()), versions);
+    }
+
+    @Test
+    public void testNamesOutsideBasicMultilingualPlane() throws B2Exception {
+        // in b2's order (UTF-8 bytes), the emoji comes after all of the others,
+        // even though String.compareTo() would put it before the last three.
+        allNames.clear();
+        allNames.addAll(Arrays.asList("a", "\uFF00", "\uFF01", "\uFF02", "\uD83D\uDE00"));
+        final B2ParallelListingPolicy policy = makePolicyBuilder()
+                .setSplitPoints(Arrays.asList("\uD83D\uDE00", "\uFF01"))
+                .build();
+        assertEquals(Arrays.asList("\uFF01", "\uD83D\uDE00"), policy.getSplitPointsOrNull());
+
+        final List<String> names = new ArrayList<>();
+        for (B2FileVersion version : B2ParallelListFilesIterable.forFileNames(client, executor, policy, namesRequest())) {
+            names.add(version.getFileName());
+        }
+        names.sort(B2StringUtil::compareUtf8);
+        assertEquals(allNames, names);
+    }
+
+    @Test
+    public void testFailureSurfacesOnNext() throws B2Exception {
+        failingStartFileNameOrNull = "data/e/";
+        final B2ParallelListingPolicy policy = makePolicyBuilder().setRangeCount(4).build();
+
+        int count = 0;
+        try {
+            for (B2FileVersion ignored : B2ParallelListFilesIterable.forFileNames(client, executor, policy, namesRequest())) {
+                count++;
+            }
+            fail("should've thrown");
+        } catch (B2RuntimeException e) {
+            // depending on the timing, it might fail before the first page is ready.
+            assertTrue(e.getMessage(), e.getMessage().endsWith("advance iterator: testing"));
+        }
+        assertTrue(count < allNames.size());
+    }
+
+    @Test
+    public void testRejectedFetchSurfacesOnNext() throws B2Exception {
+        final B2ParallelListingPolicy policy = makePolicyBuilder()
+                .setSplitPoints(Collections.singletonList("data/e/"))
+                .build();
+        executor.shutdown();
+
+        thrown.expect(B2RuntimeException.class);
+        thrown.expectMessage("executor rejected listing the next page");
+        for (B2FileVersion ignored : B2ParallelListFilesIterable.forFileNames(client, executor, policy, namesRequest())) {
+            fail("shouldn't have gotten any files");
+        }
+    }
+
+    @Test
+    public void testAbandonedIteratorStopsFetching() throws B2Exception {
+        final B2ParallelListingPolicy policy = makePolicyBuilder()
+                .setRangeCount(4)
+                .setMaxPagesBuffered(2)
+                .build();
+        B2ParallelListFilesIterable.forFileNames(client, executor, policy, namesRequest()).iterator();
+        B2ExecutorUtils.shutdownAndAwaitTermination(executor, 10, 10);
+
+        // two to sample, the page we're on, and two more.
+        assertTrue("made " + namesListed.get() + " requests", namesListed.get() <= 5);
+    }
+
+    @Test
+    public void testPolicy() {
+        final B2ParallelListingPolicy policy = B2ParallelListingPolicy
+                .builder()
+                .setSplitPoints(Arrays.asList("c", "a", "b", "a"))
+                .build();
+        assertEquals(Arrays.asList("a", "b", "c"), policy.getSplitPointsOrNull());
+        assertEquals(4, policy.getMaxRangesInFlight());
+
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("maxRequestsPerSecond must be positive.");
+        B2ParallelListingPolicy.builder().setMaxRequestsPerSecond(0).build();
+    }
+
+    private static B2ParallelListingPolicy.Builder makePolicyBuilder() {
+        return B2ParallelListingPolicy
+                .builder()
+                .setMaxRangesInFlight(3)
+                .setMaxRequestsPerSecond(100000);
+    }
+
+    private static B2ListFileNamesRequest namesRequest() {
+        return B2ListFileNamesRequest
+                .builder(BUCKET_ID)
+                .setMaxFileCount(7)
+                .build();
+    }
+
+    /**
+     * Lists allNames the way b2 would, including rolling names up into
+     * folders when there's a delimiter.
+     */
+    private B2ListFileNamesResponse listNames(B2ListFileNamesRequest request) throws B2Exception {
+        namesListed.incrementAndGet();
+        final String startOrNull = request.getStartFileName();
+        if (startOrNull != null && startOrNull.equals(failingStartFileNameOrNull)) {
+            throw new B2InternalErrorException("test", "testing");
+        }
+        final String prefix = (request.getPrefix() == null) ? "" : request.getPrefix();
+        final int maxFileCount = (request.getMaxFileCount() == null) ? 100 : request.getMaxFileCount();
+
+        final List<B2FileVersion> files = new ArrayList<>();
+        String nextFileNameOrNull = null;
+        for (String name : allNames) {
+            if ((startOrNull != null && B2StringUtil.compareUtf8(name, startOrNull) < 0) || !name.startsWith(prefix)) {
+                continue;
+            }
+
+            String entry = name;
+            String action = "upload";
+            if (request.getDelimiter() != null) {
+                final int iDelimiter = name.indexOf(request.getDelimiter(), prefix.length());
+                if (iDelimiter >= 0) {
+                    entry = name.substring(0, iDelimiter + 1);
+                    action = B2FileVersion.FOLDER_ACTION;
+                }
+            }
+            if (!files.isEmpty() && files.get(files.size() - 1).getFileName().equals(entry)) {
+                continue;
+            }
+            if (files.size() == maxFileCount) {
+                nextFileNameOrNull = entry;
+                break;
+            }
+            files.add(makeVersion(null, entry, action));
+        }
+        return new B2ListFileNamesResponse(files, nextFileNameOrNull);
+    }
+
+    private B2ListFileVersionsResponse listVersions(B2ListFileVersionsRequest request) {
+        final String startNameOrNull = request.getStartFileName();
+        final String startIdOrNull = request.getStartFileId();
+        final int maxFileCount = request.getMaxFileCount();
+
+        final List<B2FileVersion> files = new ArrayList<>();
+        for (B2FileVersion version : allVersions) {
+            if (startNameOrNull != null) {
+                final int cmp = B2StringUtil.compareUtf8(version.getFileName(), startNameOrNull);
+                if (cmp < 0 || (cmp == 0 && startIdOrNull != null && version.getFileId().compareTo(startIdOrNull) < 0)) {
+                    continue;
+                }
+            }
+            if (files.size() == maxFileCount) {
+                return new B2ListFileVersionsResponse(files, version.getFileName(), version.getFileId());
+            }
+            files.add(version);
+        }
+        return new B2ListFileVersionsResponse(files, null, null);
+    }
+
+    private static B2FileVersion makeVersion(String fileIdOrNull,
+                                             String name,
+                                             String action) {
+        return new B2FileVersion(fileIdOrNull, name, 0, B2ContentTypes.TEXT_PLAIN, null,
+                B2Collections.mapOf(), action, 0);
+    }
+}
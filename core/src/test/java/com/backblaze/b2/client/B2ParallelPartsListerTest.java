@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2InternalErrorException;
+import com.backblaze.b2.client.structures.B2ListPartsRequest;
+import com.backblaze.b2.client.structures.B2ListPartsResponse;
+import com.backblaze.b2.client.structures.B2Part;
+import com.backblaze.b2.util.B2ExecutorUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.backblaze.b2.client.B2TestHelpers.fileId;
+import static com.backblaze.b2.client.B2TestHelpers.makeSha1;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class B2ParallelPartsListerTest {
+    private static final String LARGE_FILE_ID = fileId(1);
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private final B2StorageClientImpl client = mock(B2StorageClientImpl.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    // the requests the client was asked to make.
+    private final List<B2ListPartsRequest> requests = Collections.synchronizedList(new ArrayList<>());
+
+    @After
+    public void tearDown() {
+        B2ExecutorUtils.shutdownAndAwaitTermination(executor, 10, 10);
+    }
+
+    @Test
+    public void testDensePartsUseOneRequestPerRange() throws B2Exception {
+        arrangeParts(2500, B2ParallelPartsLister.MAX_PARTS_PER_REQUEST);
+
+        final List<B2Part> parts = new B2ParallelPartsLister(client, executor, 2).listParts(LARGE_FILE_ID, 2500);
+        checkParts(parts, 2500);
+
+        // one request for each range, but they may have been made in any order.
+        assertEquals(3, requests.size());
+        final List<String> descriptions = new ArrayList<>();
+        for (B2ListPartsRequest request : requests) {
+            descriptions.add(request.getStartPartNumber() + "+" + request.getMaxPartCount());
+        }
+        Collections.sort(descriptions);
+        assertEquals("[1+1000, 1001+1000, 2001+500]", descriptions.toString());
+    }
+
+    @Test
+    public void testShortResponsesKeepGoingWithinTheRange() throws B2Exception {
+        // the server only hands out 300 parts at a time.
+        arrangeParts(2500, 300);
+
+        final List<B2Part> parts = new B2ParallelPartsLister(client, executor, 10).listParts(LARGE_FILE_ID, 2500);
+        checkParts(parts, 2500);
+
+        // 4 requests for each of the full ranges and 2 for the last one.
+        assertEquals(4 + 4 + 2, requests.size());
+    }
+
+    @Test
+    public void testPartsAfterTheLastPartNumberAreIgnored() throws B2Exception {
+        arrangeParts(1500, B2ParallelPartsLister.MAX_PARTS_PER_REQUEST);
+
+        checkParts(new B2ParallelPartsLister(client, executor, 1).listParts(LARGE_FILE_ID, 1200), 1200);
+    }
+
+    @Test
+    public void testFewerPartsThanExpected() throws B2Exception {
+        arrangeParts(5, B2ParallelPartsLister.MAX_PARTS_PER_REQUEST);
+
+        checkParts(new B2ParallelPartsLister(client, executor, 4).listParts(LARGE_FILE_ID, 3000), 5);
+    }
+
+    @Test
+    public void testExceptionFromListParts() throws B2Exception {
+        when(client.listParts(anyObject())).thenThrow(new B2InternalErrorException("test", null, "testing"));
+
+        thrown.expect(B2InternalErrorException.class);
+        thrown.expectMessage("testing");
+        new B2ParallelPartsLister(client, executor, 2).listParts(LARGE_FILE_ID, 2500);
+    }
+
+    @Test
+    public void testMaxRequestsInFlightMustBePositive() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("maxRequestsInFlight must be positive.");
+        new B2ParallelPartsLister(client, executor, 0);
+    }
+
+    /**
+     * Arranges for the client to have partCount dense parts and to return at
+     * most maxPerResponse of them per response.
+     */
+    private void arrangeParts(int partCount,
+                              int maxPerResponse) throws B2Exception {
+        when(client.listParts(anyObject())).thenAnswer(invocationOnMock -> {
+            final B2ListPartsRequest request = (B2ListPartsRequest) invocationOnMock.getArguments()[0];
+            requests.add(request);
+
+            final int start = request.getStartPartNumber();
+            final int count = Math.min(request.getMaxPartCount(), maxPerResponse);
+            final List<B2Part> parts = new ArrayList<>();
+            for (int partNumber = start; partNumber < start + count && partNumber <= partCount; partNumber++) {
+                parts.add(makePart(partNumber));
+            }
+            final int next = start + count;
+            return new B2ListPartsResponse(parts, (next <= partCount) ? next : null);
+        });
+    }
+
+    private static B2Part makePart(int partNumber) {
+        return new B2Part(LARGE_FILE_ID, partNumber, 1000, makeSha1(partNumber), partNumber);
+    }
+
+    private static void checkParts(List<B2Part> parts,
+                                   int expectedCount) {
+        assertEquals(expectedCount, parts.size());
+        for (int i = 0; i < expectedCount; i++) {
+            assertEquals(makePart(i + 1), parts.get(i));
+        }
+    }
+}
@@ -17,8 +17,11 @@ import java.io.InputStream;
 import static com.backblaze.b2.client.B2TestHelpers.SAMPLE_SHA1;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class B2PartOfContentSourceTest {
@@ -56,4 +59,21 @@ public class B2PartOfContentSourceTest {
         assertEquals(100, excerpt.getExcerptLength());
 
     }
+
+    @Test
+    public void testCreateInputStreamUsesRangeWhenAvailable() throws IOException {
+        final InputStream rangeStream = new ByteArrayInputStream(new byte[100]);
+        when(source.createInputStreamOrNull(26, 100)).thenReturn(rangeStream);
+
+        assertSame(rangeStream, partOf.createInputStream());
+        verify(source, never()).createInputStream();
+    }
+
+    @Test
+    public void testCreateInputStreamOrNullOffsetsIntoSource() throws IOException {
+        final InputStream rangeStream = new ByteArrayInputStream(new byte[10]);
+        when(source.createInputStreamOrNull(31, 10)).thenReturn(rangeStream);
+
+        assertSame(rangeStream, partOf.createInputStreamOrNull(5, 10));
+    }
 }
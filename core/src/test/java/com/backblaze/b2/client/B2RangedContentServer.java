@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2ContentTypes;
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.contentSources.B2HeadersImpl;
+import com.backblaze.b2.client.exceptions.B2ConnectionBrokenException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.structures.B2DownloadByIdRequest;
+import com.backblaze.b2.util.B2ByteRange;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doAnswer;
+
+/**
+ * B2RangedContentServer makes a mock client's downloadById() answer the
+ * way b2 does, including ranges, so tests of code that downloads files in
+ * chunks can check what was asked for.
+ *
+ * THREAD-SAFETY: requests may be served from any thread.
+ */
+class B2RangedContentServer {
+    private final B2StorageClient client;
+
+    // the ranges that were asked for.  null for the whole file.
+    private final List<B2ByteRange> ranges = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param client the mock client to answer for.
+     */
+    B2RangedContentServer(B2StorageClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @return the ranges that have been asked for, in order.  null means
+     *         the whole file.  tests may clear it.
+     */
+    List<B2ByteRange> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Arranges for the client to serve the content.  If truncatedChunkStartOrNull
+     * isn't null, the first attempt at the chunk starting there will be cut short
+     * and the client will retry it, just like the real client does.
+     */
+    void arrangeContent(byte[] content,
+                        String sha1OrNull,
+                        Integer truncatedChunkStartOrNull) throws B2Exception {
+        doAnswer(invocationOnMock -> {
+            final B2DownloadByIdRequest request = (B2DownloadByIdRequest) invocationOnMock.getArguments()[0];
+            final B2ContentSink sink = (B2ContentSink) invocationOnMock.getArguments()[1];
+            if (truncatedChunkStartOrNull != null &&
+                    request.getRange() != null &&
+                    request.getRange().start == (long) truncatedChunkStartOrNull) {
+                try {
+                    serve(content, sha1OrNull, request, sink, true);
+                    throw new RuntimeException("the sink should have noticed it was short");
+                } catch (B2ConnectionBrokenException e) {
+                    // that's what the retryer would retry.
+                }
+            }
+            serve(content, sha1OrNull, request, sink, false);
+            return null;
+        }).when(client).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+    }
+
+    /**
+     * Gives the sink the response b2 would send for the request.  A range
+     * that starts past the end of the content fails with a 416, like b2's.
+     *
+     * @param truncate if true, the stream ends halfway through the content
+     *                 its Content-Length promises.
+     */
+    void serve(byte[] content,
+               String sha1OrNull,
+               B2DownloadByIdRequest request,
+               B2ContentSink sink,
+               boolean truncate) throws B2Exception, IOException {
+        final B2ByteRange range = request.getRange();
+        ranges.add(range);
+
+        final B2HeadersImpl.Builder headers = B2HeadersImpl.builder();
+        headers.set(B2Headers.CONTENT_TYPE, B2ContentTypes.TEXT_PLAIN);
+        if (sha1OrNull != null) {
+            headers.set(B2Headers.CONTENT_SHA1, sha1OrNull);
+        }
+        int start = 0;
+        int end = content.length - 1;
+        if (range != null) {
+            if (range.start >= content.length) {
+                throw new B2Exception("range_not_satisfiable", 416, null, "range not satisfiable");
+            }
+            start = (int) (long) range.start;
+            end = (int) Math.min(range.end, content.length - 1);
+            headers.set(B2Headers.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + content.length);
+        }
+        final int length = end - start + 1;
+        headers.set(B2Headers.CONTENT_LENGTH, Integer.toString(length));
+
+        final int lengthToSend = truncate ? (length / 2) : length;
+        sink.readContent(headers.build(), new ByteArrayInputStream(content, start, lengthToSend));
+    }
+}
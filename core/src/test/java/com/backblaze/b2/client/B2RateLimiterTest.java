@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.util.B2Clock;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.junit.Assert.assertEquals;
+
+public class B2RateLimiterTest {
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private final TestClock clock = new TestClock();
+
+    @Test
+    public void testSpacesOutBursts() {
+        final B2RateLimiter limiter = new B2RateLimiter(clock, 10);
+        assertEquals(0, limiter.reserve());
+        assertEquals(100, limiter.reserve());
+        assertEquals(200, limiter.reserve());
+
+        // time passing uses up the wait.
+        clock.advance(250);
+        assertEquals(50, limiter.reserve());
+    }
+
+    @Test
+    public void testDoesNotSaveUpPermits() {
+        final B2RateLimiter limiter = new B2RateLimiter(clock, 10);
+        clock.advance(10000);
+        assertEquals(0, limiter.reserve());
+        assertEquals(100, limiter.reserve());
+    }
+
+    @Test
+    public void testFractionalRates() {
+        final B2RateLimiter limiter = new B2RateLimiter(clock, 3);
+        assertEquals(0, limiter.reserve());
+        assertEquals(333, limiter.reserve());
+        assertEquals(667, limiter.reserve());
+        assertEquals(1000, limiter.reserve());
+    }
+
+    @Test
+    public void testPermitsPerSecondMustBePositive() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("permitsPerSecond must be positive.");
+        new B2RateLimiter(clock, 0);
+    }
+
+    private static class TestClock extends B2Clock {
+        private long monotonicMillis = 1000000;
+
+        void advance(long deltaMillis) {
+            monotonicMillis += deltaMillis;
+        }
+
+        @Override
+        public long monotonicMillis() {
+            return monotonicMillis;
+        }
+
+        @Override
+        public long wallClockMillis() {
+            return monotonicMillis;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2ContentTypes;
+import com.backblaze.b2.client.exceptions.B2ConnectionBrokenException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2InternalErrorException;
+import com.backblaze.b2.client.exceptions.B2NotFoundException;
+import com.backblaze.b2.client.structures.B2DownloadByIdRequest;
+import com.backblaze.b2.client.structures.B2StreamingDownloadRequest;
+import com.backblaze.b2.util.B2ByteRange;
+import com.backblaze.b2.util.B2ExecutorUtils;
+import com.backblaze.b2.util.B2IoUtils;
+import com.backblaze.b2.util.B2Sha1;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.backblaze.b2.client.B2TestHelpers.fileId;
+import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class B2ReadAheadDownloadStreamTest {
+    private static final String FILE_ID = fileId(1);
+    private static final int CHUNK_SIZE = 1000;
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private final B2StorageClient client = mock(B2StorageClient.class);
+
+    // one thread, so that waiting for a no-op task means everything
+    // submitted before it is done.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final B2RangedContentServer server = new B2RangedContentServer(client);
+
+    // the ranges that were asked for.  null for the whole file.
+    private final List<B2ByteRange> ranges = server.getRanges();
+
+    @After
+    public void tearDown() {
+        B2ExecutorUtils.shutdownAndAwaitTermination(executor, 10, 10);
+    }
+
+    @Test
+    public void testReadsWholeFile() throws Exception {
+        final byte[] content = makeBytes(10 * CHUNK_SIZE + 123);
+        server.arrangeContent(content, B2Sha1.hexSha1OfBytes(content), null);
+
+        try (B2ReadAheadDownloadStream in = open(3)) {
+            assertEquals(content.length, in.getContentLength());
+            assertEquals(B2ContentTypes.TEXT_PLAIN, in.getHeaders().getContentType());
+            assertArrayEquals(content, readAll(in));
+        }
+        assertEquals(11, ranges.size());
+        assertEquals(B2ByteRange.between(10 * CHUNK_SIZE, content.length - 1), ranges.get(10));
+    }
+
+    @Test
+    public void testReadAheadIsBounded() throws Exception {
+        final byte[] content = makeBytes(10 * CHUNK_SIZE);
+        server.arrangeContent(content, null, null);
+
+        try (B2ReadAheadDownloadStream in = open(2)) {
+            // the first chunk, plus two more.
+            waitForExecutor();
+            assertEquals(3, ranges.size());
+
+            // finishing the first chunk doesn't start another one...
+            assertEquals(CHUNK_SIZE, B2IoUtils.readFully(in, new byte[CHUNK_SIZE]));
+            waitForExecutor();
+            assertEquals(3, ranges.size());
+
+            // ...but moving on to the next one does.
+            assertTrue(in.read() >= 0);
+            waitForExecutor();
+            assertEquals(4, ranges.size());
+            assertEquals(B2ByteRange.between(3 * CHUNK_SIZE, 4 * CHUNK_SIZE - 1), ranges.get(3));
+        }
+    }
+
+    @Test
+    public void testSmallAndEmptyFiles() throws Exception {
+        final byte[] small = makeBytes(10);
+        server.arrangeContent(small, null, null);
+        try (B2ReadAheadDownloadStream in = open(3)) {
+            assertArrayEquals(small, readAll(in));
+        }
+        assertEquals(1, ranges.size());
+
+        ranges.clear();
+        server.arrangeContent(new byte[0], B2Sha1.hexSha1OfBytes(new byte[0]), null);
+        try (B2ReadAheadDownloadStream in = open(3)) {
+            assertEquals(0, in.getContentLength());
+            assertEquals(-1, in.read());
+        }
+        assertEquals(2, ranges.size());
+        assertEquals(null, ranges.get(1));
+    }
+
+    @Test
+    public void testTruncatedChunkIsRetried() throws Exception {
+        final byte[] content = makeBytes(5 * CHUNK_SIZE);
+        server.arrangeContent(content, B2Sha1.hexSha1OfBytes(content), 3 * CHUNK_SIZE);
+
+        try (B2ReadAheadDownloadStream in = open(3)) {
+            assertArrayEquals(content, readAll(in));
+        }
+    }
+
+    @Test
+    public void testSha1Mismatch() throws Exception {
+        final byte[] content = makeBytes(3 * CHUNK_SIZE);
+        final String wrongSha1 = B2Sha1.hexSha1OfBytes(makeBytes(10));
+        server.arrangeContent(content, wrongSha1, null);
+
+        try (B2ReadAheadDownloadStream in = open(3)) {
+            readAll(in);
+            fail("should've thrown");
+        } catch (IOException e) {
+            assertEquals("sha1 mismatch from network.  expected " + wrongSha1 + ", but got " +
+                    B2Sha1.hexSha1OfBytes(content), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFailedFirstChunk() throws Exception {
+        doThrow(new B2NotFoundException("not_found", null, "no such file"))
+                .when(client).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+
+        thrown.expect(B2NotFoundException.class);
+        open(3);
+    }
+
+    @Test
+    public void testFailedLaterChunk() throws Exception {
+        final byte[] content = makeBytes(5 * CHUNK_SIZE);
+        final B2Exception failure = new B2InternalErrorException("test", null, "testing");
+        doAnswer(invocationOnMock -> {
+            final B2DownloadByIdRequest request = (B2DownloadByIdRequest) invocationOnMock.getArguments()[0];
+            if (request.getRange().start == 2 * CHUNK_SIZE) {
+                throw failure;
+            }
+            server.serve(content, null, request, (B2ContentSink) invocationOnMock.getArguments()[1], false);
+            return null;
+        }).when(client).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+
+        try (B2ReadAheadDownloadStream in = open(3)) {
+            assertEquals(2 * CHUNK_SIZE, B2IoUtils.readFully(in, new byte[2 * CHUNK_SIZE]));
+            in.read();
+            fail("should've thrown");
+        } catch (IOException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void testLaterChunkForTheWrongRangeFails() throws Exception {
+        final byte[] content = makeBytes(5 * CHUNK_SIZE);
+        doAnswer(invocationOnMock -> {
+            B2DownloadByIdRequest request = (B2DownloadByIdRequest) invocationOnMock.getArguments()[0];
+            if (request.getRange().start == 2 * CHUNK_SIZE) {
+                // the right length, but one byte off.
+                request = B2DownloadByIdRequest
+                        .builder(FILE_ID)
+                        .setRange(B2ByteRange.between(2 * CHUNK_SIZE + 1, 3 * CHUNK_SIZE))
+                        .build();
+            }
+            server.serve(content, null, request, (B2ContentSink) invocationOnMock.getArguments()[1], false);
+            return null;
+        }).when(client).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+
+        try (B2ReadAheadDownloadStream in = open(3)) {
+            assertEquals(2 * CHUNK_SIZE, B2IoUtils.readFully(in, new byte[2 * CHUNK_SIZE]));
+            in.read();
+            fail("should've thrown");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof B2ConnectionBrokenException);
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().startsWith("asked for bytes 2000-2999, but got Content-Length 1000"));
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        server.arrangeContent(makeBytes(10 * CHUNK_SIZE), null, null);
+
+        final B2ReadAheadDownloadStream in = open(3);
+        in.close();
+        in.close();
+
+        thrown.expect(IOException.class);
+        thrown.expectMessage("stream is closed");
+        in.read();
+    }
+
+    @Test
+    public void testReadAheadChunksMustBePositive() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("readAheadChunks must be positive.");
+        B2StreamingDownloadRequest.builder(FILE_ID).setReadAheadChunks(0).build();
+    }
+
+    private B2ReadAheadDownloadStream open(int readAheadChunks) throws B2Exception {
+        final B2StreamingDownloadRequest request = B2StreamingDownloadRequest
+                .builder(FILE_ID)
+                .setChunkSize(CHUNK_SIZE)
+                .setReadAheadChunks(readAheadChunks)
+                .build();
+        return B2ReadAheadDownloadStream.open(client, executor, request);
+    }
+
+    private void waitForExecutor() throws Exception {
+        executor.submit(() -> {}).get();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[300];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
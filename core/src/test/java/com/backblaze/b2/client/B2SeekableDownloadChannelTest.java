@@ -0,0 +1,300 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.contentSources.B2HeadersImpl;
+import com.backblaze.b2.client.exceptions.B2ConnectionBrokenException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.structures.B2DownloadByIdRequest;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.util.B2ByteRange;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.backblaze.b2.client.B2TestHelpers.fileId;
+import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class B2SeekableDownloadChannelTest {
+    private static final int BLOCK_SIZE = 100;
+    private static final int LEN = 2550;
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private final byte[] bytes = makeBytes(LEN);
+    private final B2StorageClient client = mock(B2StorageClient.class);
+
+    // the ranges that have been requested, in order.
+    private final List<B2ByteRange> ranges = new ArrayList<>();
+
+    public B2SeekableDownloadChannelTest() throws B2Exception {
+        doAnswer(invocationOnMock -> {
+            final B2DownloadByIdRequest request = (B2DownloadByIdRequest) invocationOnMock.getArguments()[0];
+            final B2ContentSink sink = (B2ContentSink) invocationOnMock.getArguments()[1];
+            final B2ByteRange range = request.getRange();
+            ranges.add(range);
+
+            final int start = range.start.intValue();
+            final int end = (int) Math.min(range.end, LEN - 1);
+            final B2Headers headers = B2HeadersImpl
+                    .builder()
+                    .set(B2Headers.CONTENT_LENGTH, "" + (end - start + 1))
+                    .set(B2Headers.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + LEN)
+                    .build();
+            sink.readContent(headers, new ByteArrayInputStream(bytes, start, end - start + 1));
+            return null;
+        }).when(client).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+    }
+
+    @Test
+    public void testReadingInOrderReadsAhead() throws IOException {
+        final B2SeekableDownloadChannel channel = makeChannel(16, 4);
+
+        // read it all, 50 bytes at a time.
+        final ByteBuffer all = ByteBuffer.allocate(LEN);
+        final ByteBuffer buffer = ByteBuffer.allocate(50);
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            all.put(buffer);
+            buffer.clear();
+        }
+        assertArrayEquals(bytes, all.array());
+        assertEquals(LEN, channel.position());
+
+        // the first read gets its block and four more.  after that, each
+        // miss gets five blocks, until we run out of file.
+        assertEquals(Arrays.asList(
+                B2ByteRange.between(0, 499),
+                B2ByteRange.between(500, 999),
+                B2ByteRange.between(1000, 1499),
+                B2ByteRange.between(1500, 1999),
+                B2ByteRange.between(2000, 2499),
+                B2ByteRange.between(2500, 2549)),
+                ranges);
+        assertEquals(6, channel.getRequestCount());
+    }
+
+    @Test
+    public void testRandomReadsDontReadAhead() throws IOException {
+        final B2SeekableDownloadChannel channel = makeChannel(16, 4);
+
+        checkRead(channel, 1234, 10);
+        checkRead(channel, 250, 10);
+        checkRead(channel, 2545, 10);
+
+        assertEquals(Arrays.asList(
+                B2ByteRange.between(1200, 1299),
+                B2ByteRange.between(200, 299),
+                B2ByteRange.between(2500, 2549)),
+                ranges);
+
+        // these are all cached.
+        checkRead(channel, 1200, 100);
+        checkRead(channel, 255, 5);
+        assertEquals(3, channel.getRequestCount());
+    }
+
+    @Test
+    public void testCoalescesMissingBlocks() throws IOException {
+        final B2SeekableDownloadChannel channel = makeChannel(16, 0);
+
+        // cache block 3, then read blocks 1 through 5.
+        checkRead(channel, 300, 1);
+        checkRead(channel, 150, 400);
+
+        assertEquals(Arrays.asList(
+                B2ByteRange.between(300, 399),
+                B2ByteRange.between(100, 299),
+                B2ByteRange.between(400, 599)),
+                ranges);
+    }
+
+    @Test
+    public void testBigReadIsLimitedToTheCacheSize() throws IOException {
+        final B2SeekableDownloadChannel channel = makeChannel(3, 4);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(1000);
+        assertEquals(300, channel.read(buffer));
+        assertArrayEquals(Arrays.copyOf(bytes, 300), Arrays.copyOf(buffer.array(), 300));
+
+        // the read-ahead is limited by the cache size too.
+        assertEquals(Arrays.asList(B2ByteRange.between(0, 299)), ranges);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedBlocksAreDropped() throws IOException {
+        final B2SeekableDownloadChannel channel = makeChannel(2, 0);
+
+        checkRead(channel, 0, 1);
+        checkRead(channel, 500, 1);
+        checkRead(channel, 1, 1);
+        checkRead(channel, 1000, 1);  // drops block 5
+        checkRead(channel, 2, 1);
+        checkRead(channel, 501, 1);
+
+        assertEquals(Arrays.asList(
+                B2ByteRange.between(0, 99),
+                B2ByteRange.between(500, 599),
+                B2ByteRange.between(1000, 1099),
+                B2ByteRange.between(500, 599)),
+                ranges);
+    }
+
+    @Test
+    public void testReadAtEnd() throws IOException {
+        final B2SeekableDownloadChannel channel = makeChannel(16, 4);
+
+        channel.position(LEN + 10);
+        assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+        channel.position(LEN - 1);
+        assertEquals(0, channel.read(ByteBuffer.allocate(0)));
+        assertEquals(0, ranges.size());
+    }
+
+    @Test
+    public void testSizeFromFileInfo() throws IOException, B2Exception {
+        final B2FileVersion version = mock(B2FileVersion.class);
+        when(version.getContentLength()).thenReturn((long) LEN);
+        when(client.getFileInfo(fileId(1))).thenReturn(version);
+
+        final B2SeekableDownloadChannel channel = B2SeekableDownloadChannel
+                .builder(client, fileId(1))
+                .setBlockSize(BLOCK_SIZE)
+                .build();
+        assertEquals(LEN, channel.size());
+        checkRead(channel, 2500, 50);
+    }
+
+    @Test
+    public void testShortResponseIsRetryable() throws B2Exception {
+        final B2SeekableDownloadChannel channel = makeChannel(16, 0);
+        doAnswer(invocationOnMock -> {
+            final B2ContentSink sink = (B2ContentSink) invocationOnMock.getArguments()[1];
+            final B2Headers headers = B2HeadersImpl
+                    .builder()
+                    .set(B2Headers.CONTENT_LENGTH, "500")
+                    .set(B2Headers.CONTENT_RANGE, "bytes 0-499/" + LEN)
+                    .build();
+            try {
+                sink.readContent(headers, new ByteArrayInputStream(bytes, 0, 450));
+                fail("should've thrown");
+            } catch (B2ConnectionBrokenException e) {
+                assertEquals("expected 500 bytes starting at 0, but got 450", e.getMessage());
+            }
+
+            // the wrong range is no good either.
+            final B2Headers wrongRange = B2HeadersImpl
+                    .builder()
+                    .set(B2Headers.CONTENT_LENGTH, "500")
+                    .set(B2Headers.CONTENT_RANGE, "bytes 100-599/" + LEN)
+                    .build();
+            try {
+                sink.readContent(wrongRange, new ByteArrayInputStream(bytes, 100, 500));
+                fail("should've thrown");
+            } catch (B2ConnectionBrokenException e) {
+                assertEquals("asked for bytes 0-499, but got Content-Length 500 and Content-Range bytes 100-599/" + LEN,
+                        e.getMessage());
+            }
+
+            // and then the retry works.
+            sink.readContent(headers, new ByteArrayInputStream(bytes, 0, 500));
+            return null;
+        }).when(client).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+
+        try {
+            checkRead(channel, 0, 500);
+        } catch (IOException e) {
+            fail("unexpected " + e);
+        }
+    }
+
+    @Test
+    public void testDownloadFailure() throws IOException, B2Exception {
+        final B2SeekableDownloadChannel channel = makeChannel(16, 4);
+        final B2Exception cause = new B2ConnectionBrokenException("read_failed", null, "gave up");
+        doThrow(cause).when(client).downloadById((B2DownloadByIdRequest) anyObject(), anyObject());
+
+        try {
+            channel.read(ByteBuffer.allocate(10));
+            fail("should've thrown");
+        } catch (IOException e) {
+            assertSame(cause, e.getCause());
+        }
+    }
+
+    @Test
+    public void testReadOnlyAndClose() throws IOException {
+        final B2SeekableDownloadChannel channel = makeChannel(16, 4);
+        try {
+            channel.write(ByteBuffer.allocate(1));
+            fail("should've thrown");
+        } catch (NonWritableChannelException e) {
+            // expected.
+        }
+        try {
+            channel.truncate(0);
+            fail("should've thrown");
+        } catch (NonWritableChannelException e) {
+            // expected.
+        }
+
+        channel.close();
+        assertFalse(channel.isOpen());
+        thrown.expect(ClosedChannelException.class);
+        channel.read(ByteBuffer.allocate(1));
+    }
+
+    @Test
+    public void testBuilder() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("maxReadAheadBlocks must not be negative.");
+        B2SeekableDownloadChannel.builder(client, fileId(1)).setMaxReadAheadBlocks(-1).build();
+    }
+
+    private B2SeekableDownloadChannel makeChannel(int maxCachedBlocks,
+                                                  int maxReadAheadBlocks) {
+        return B2SeekableDownloadChannel
+                .builder(client, fileId(1))
+                .setSize(LEN)
+                .setBlockSize(BLOCK_SIZE)
+                .setMaxCachedBlocks(maxCachedBlocks)
+                .setMaxReadAheadBlocks(maxReadAheadBlocks)
+                .build();
+    }
+
+    private void checkRead(B2SeekableDownloadChannel channel,
+                           int position,
+                           int length) throws IOException {
+        final int expectedLength = Math.min(length, LEN - position);
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.position(position);
+        assertEquals(expectedLength, channel.read(buffer));
+        assertEquals(position + expectedLength, channel.position());
+        assertArrayEquals(Arrays.copyOfRange(bytes, position, position + expectedLength),
+                Arrays.copyOf(buffer.array(), expectedLength));
+    }
+}
@@ -5,6 +5,7 @@
 package com.backblaze.b2.client;
 
 import com.backblaze.b2.client.contentHandlers.B2ContentSink;
+import com.backblaze.b2.client.contentHandlers.B2ResumableContentSink;
 import com.backblaze.b2.client.contentSources.B2ContentSource;
 import com.backblaze.b2.client.contentSources.B2ContentTypes;
 import com.backblaze.b2.client.exceptions.B2Exception;
@@ -603,6 +604,47 @@ public class B2StorageClientImplTest {
         request.hashCode();
     }
 
+    @Test
+    public void testDownloadById_resumable() throws B2Exception {
+        final B2ResumableContentSink handler = mock(B2ResumableContentSink.class);
+        when(handler.getRangeToRequestOrNull()).thenReturn(B2ByteRange.startAt(99));
+
+        // only the rest of the file is requested.
+        client.downloadById(B2DownloadByIdRequest.builder(fileId(1)).setB2ContentDisposition("attachment").build(), handler);
+        final B2DownloadByIdRequest resumed = B2DownloadByIdRequest
+                .builder(fileId(1))
+                .setRange(B2ByteRange.startAt(99))
+                .setB2ContentDisposition("attachment")
+                .build();
+        verify(webifier, times(1)).downloadById(anyObject(), eq(resumed), eq(handler));
+
+        // a request with its own range is sent as-is.
+        final B2DownloadByIdRequest ranged = B2DownloadByIdRequest
+                .builder(fileId(1))
+                .setRange(B2ByteRange.between(10, 12))
+                .build();
+        client.downloadById(ranged, handler);
+        verify(webifier, times(1)).downloadById(anyObject(), eq(ranged), eq(handler));
+
+        // and the handler might not have anything yet.
+        when(handler.getRangeToRequestOrNull()).thenReturn(null);
+        client.downloadById(fileId(1), handler);
+        verify(webifier, times(1)).downloadById(anyObject(), eq(B2DownloadByIdRequest.builder(fileId(1)).build()), eq(handler));
+    }
+
+    @Test
+    public void testDownloadByName_resumable() throws B2Exception {
+        final B2ResumableContentSink handler = mock(B2ResumableContentSink.class);
+        when(handler.getRangeToRequestOrNull()).thenReturn(B2ByteRange.startAt(99));
+
+        client.downloadByName(bucketName(1), fileName(1), handler);
+        final B2DownloadByNameRequest resumed = B2DownloadByNameRequest
+                .builder(bucketName(1), fileName(1))
+                .setRange(B2ByteRange.startAt(99))
+                .build();
+        verify(webifier, times(1)).downloadByName(anyObject(), eq(resumed), eq(handler));
+    }
+
     @Test
     public void testGetDownloadByIdUrl() throws B2Exception {
         final String expectedUrl = "http://example.com/blah";
@@ -854,6 +896,9 @@ public class B2StorageClientImplTest {
         // we should be using the existing largeFile, not starting a new one.
         verify(webifier, never()).startLargeFile(anyObject(), anyObject());
 
+        // part 1's size tells us which parts the upload was started with.
+        verify(webifier, times(1)).listParts(anyObject(), eq(B2ListPartsRequest.builder(largeFileId).setStartPartNumber(1).setMaxPartCount(1).build()));
+
         // we're only uploading 1 of the three, since two were already uploaded
         verify(webifier, times(1)).getUploadPartUrl(anyObject(), anyObject());
         verify(webifier, times(1)).uploadPart(anyObject(), anyObject());
@@ -9,7 +9,9 @@ import com.backblaze.b2.client.contentSources.B2ByteArrayContentSource;
 import com.backblaze.b2.client.contentSources.B2ContentSource;
 import com.backblaze.b2.client.contentSources.B2ContentTypes;
 import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.contentSources.B2HeadersImpl;
 import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
 import com.backblaze.b2.client.exceptions.B2UnauthorizedException;
 import com.backblaze.b2.client.structures.B2AccountAuthorization;
 import com.backblaze.b2.client.structures.B2AuthorizeAccountRequest;
@@ -21,6 +23,8 @@ import com.backblaze.b2.client.structures.B2DeleteBucketRequestReal;
 import com.backblaze.b2.client.structures.B2DeleteFileVersionRequest;
 import com.backblaze.b2.client.structures.B2DownloadByIdRequest;
 import com.backblaze.b2.client.structures.B2DownloadByNameRequest;
+import com.backblaze.b2.client.structures.B2DownloadProgress;
+import com.backblaze.b2.client.structures.B2DownloadState;
 import com.backblaze.b2.client.structures.B2FinishLargeFileRequest;
 import com.backblaze.b2.client.structures.B2GetDownloadAuthorizationRequest;
 import com.backblaze.b2.client.structures.B2GetFileInfoRequest;
@@ -53,9 +57,12 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.backblaze.b2.client.B2TestHelpers.bucketId;
@@ -70,6 +77,7 @@ import static com.backblaze.b2.client.exceptions.B2UnauthorizedException.Request
 import static com.backblaze.b2.client.exceptions.B2UnauthorizedException.RequestCategory.UPLOADING;
 import static com.backblaze.b2.json.B2Json.toJsonOrThrowRuntime;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.eq;
@@ -172,6 +180,12 @@ public class B2StorageClientWebifierImplTest {
     private static class RecordingWebApiClient implements B2WebApiClient {
         private String callDescription;
 
+        // if set, getContent() gives these to the handler.  if readFailureOrNull
+        // is set, reading the content throws it.
+        private B2Headers responseHeadersOrNull;
+        private byte[] responseContent;
+        private IOException readFailureOrNull;
+
         @Override
         public <ResponseType> ResponseType postJsonReturnJson(String url,
                                                               B2Headers headersOrNull,
@@ -256,6 +270,34 @@ public class B2StorageClientWebifierImplTest {
                     indent(url) + "\n" +
                     "headers:\n" +
                     indent(toString(headersOrNull)) + "\n");
+
+            if (responseHeadersOrNull != null) {
+                try {
+                    final InputStream in = (readFailureOrNull == null) ?
+                            new ByteArrayInputStream(responseContent) :
+                            new InputStream() {
+                                @Override
+                                public int read() throws IOException {
+                                    throw readFailureOrNull;
+                                }
+                            };
+                    handler.readContent(responseHeadersOrNull, in);
+                } catch (IOException e) {
+                    throw new B2LocalException("read_failed", "failed to read: " + e, e);
+                }
+            }
+        }
+
+        void setResponse(B2Headers responseHeaders,
+                         byte[] responseContent) {
+            this.responseHeadersOrNull = responseHeaders;
+            this.responseContent = responseContent;
+        }
+
+        void setFailingResponse(B2Headers responseHeaders,
+                                IOException readFailure) {
+            this.responseHeadersOrNull = responseHeaders;
+            this.readFailureOrNull = readFailure;
         }
 
         @Override
@@ -933,6 +975,87 @@ public class B2StorageClientWebifierImplTest {
         checkRequestCategory(OTHER, w -> w.downloadById(ACCOUNT_AUTH, request, noopContentHandler));
     }
 
+    @Test
+    public void testDownloadByIdWithListener() throws B2Exception {
+        final List<B2DownloadProgress> progresses = new ArrayList<>();
+        final B2DownloadByIdRequest request = B2DownloadByIdRequest
+                .builder(fileId(1))
+                .setRange(B2ByteRange.between(100, 112))
+                .setListener(progresses::add)
+                .build();
+        webApiClient.setResponse(B2HeadersImpl
+                        .builder()
+                        .set(B2Headers.CONTENT_LENGTH, "13")
+                        .set(B2Headers.CONTENT_RANGE, "bytes 100-112/1000")
+                        .build(),
+                CONTENTS_BYTES);
+
+        webifier.downloadById(ACCOUNT_AUTH, request, (headers, in) -> B2IoUtils.copy(in, new ByteArrayOutputStream()));
+
+        final B2DownloadProgress last = progresses.get(progresses.size() - 1);
+        assertEquals(B2DownloadState.SUCCEEDED, last.getState());
+        assertEquals(100, last.getStartByte());
+        assertEquals(13, last.getLength());
+        assertEquals(13, last.getBytesSoFar());
+    }
+
+    @Test
+    public void testDownloadByNameWithListenerAndFailingHandler() throws B2Exception {
+        final List<B2DownloadProgress> progresses = new ArrayList<>();
+        final B2DownloadByNameRequest request = B2DownloadByNameRequest
+                .builder(bucketName(1), fileName(1))
+                .setListener(progresses::add)
+                .build();
+        webApiClient.setResponse(B2HeadersImpl
+                        .builder()
+                        .set(B2Headers.CONTENT_LENGTH, "" + CONTENTS_BYTES.length)
+                        .build(),
+                CONTENTS_BYTES);
+
+        final B2Exception failure = new B2LocalException("test", "testing");
+        try {
+            webifier.downloadByName(ACCOUNT_AUTH, request, (headers, in) -> {
+                in.read();
+                throw failure;
+            });
+            fail("should've thrown");
+        } catch (B2Exception e) {
+            assertSame(failure, e);
+        }
+
+        final B2DownloadProgress last = progresses.get(progresses.size() - 1);
+        assertEquals(B2DownloadState.FAILED, last.getState());
+        assertEquals(0, last.getStartByte());
+        assertEquals(CONTENTS_BYTES.length, last.getLength());
+        assertEquals(1, last.getBytesSoFar());
+    }
+
+    @Test
+    public void testDownloadWithListenerAndFailingRead() throws B2Exception {
+        final List<B2DownloadProgress> progresses = new ArrayList<>();
+        final B2DownloadByIdRequest request = B2DownloadByIdRequest
+                .builder(fileId(1))
+                .setListener(progresses::add)
+                .build();
+        webApiClient.setFailingResponse(B2HeadersImpl
+                        .builder()
+                        .set(B2Headers.CONTENT_LENGTH, "" + CONTENTS_BYTES.length)
+                        .build(),
+                new IOException("testing"));
+
+        try {
+            webifier.downloadById(ACCOUNT_AUTH, request, (headers, in) -> B2IoUtils.copy(in, new ByteArrayOutputStream()));
+            fail("should've thrown");
+        } catch (B2Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("testing"));
+        }
+
+        // the stream reported the failure, so it's only reported once.
+        final long failures = progresses.stream().filter(progress -> progress.getState() == B2DownloadState.FAILED).count();
+        assertEquals(1, failures);
+        assertEquals(B2DownloadState.FAILED, progresses.get(progresses.size() - 1).getState());
+    }
+
     @Test
     public void testDownloadByName() throws B2Exception {
         final String expectedUrl = "downloadUrl1/file/bucketName1/files/0001";
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class B2StragglerDetectorTest {
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private final B2StragglerDetector detector = new B2StragglerDetector(B2PartHedgingPolicy
+            .builder()
+            .setStragglerFactor(2)
+            .setMinStragglerMillis(50)
+            .setMinFinishedParts(3)
+            .setMaxHedgesInFlight(4)
+            .build());
+
+    @Test
+    public void testNeedsEnoughFinishedParts() {
+        assertNull(detector.getStragglerMillisOrNull());
+        detector.partFinished(100);
+        detector.partFinished(100);
+        assertNull(detector.getStragglerMillisOrNull());
+        detector.partFinished(100);
+        assertEquals(200, (long) detector.getStragglerMillisOrNull());
+        assertEquals(4, detector.getMaxHedgesInFlight());
+    }
+
+    @Test
+    public void testUsesTheMedian() {
+        // added out of order, with one huge outlier.
+        detector.partFinished(300);
+        detector.partFinished(100000);
+        detector.partFinished(100);
+        detector.partFinished(200);
+        detector.partFinished(200);
+
+        // sorted: 100, 200, 200, 300, 100000
+        assertEquals(400, (long) detector.getStragglerMillisOrNull());
+    }
+
+    @Test
+    public void testHasAMinimum() {
+        detector.partFinished(1);
+        detector.partFinished(2);
+        detector.partFinished(3);
+        assertEquals(50, (long) detector.getStragglerMillisOrNull());
+    }
+
+    @Test
+    public void testFactorMustBeAtLeastOne() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("stragglerFactor must be at least 1.");
+        B2PartHedgingPolicy.builder().setStragglerFactor(0.5).build();
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentSources.B2ContentSource;
+import com.backblaze.b2.client.contentSources.B2ContentTypes;
+import com.backblaze.b2.client.exceptions.B2BadRequestException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.structures.B2AccountAuthorization;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.client.structures.B2FinishLargeFileRequest;
+import com.backblaze.b2.client.structures.B2Part;
+import com.backblaze.b2.client.structures.B2UploadFileRequest;
+import com.backblaze.b2.client.structures.B2UploadListener;
+import com.backblaze.b2.client.structures.B2UploadPartRequest;
+import com.backblaze.b2.client.structures.B2UploadProgress;
+import com.backblaze.b2.util.B2ExecutorUtils;
+import com.backblaze.b2.util.B2IoUtils;
+import com.backblaze.b2.util.B2Sha1;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.backblaze.b2.client.B2TestHelpers.bucketId;
+import static com.backblaze.b2.client.B2TestHelpers.fileName;
+import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
+import static com.backblaze.b2.client.B2TestHelpers.makeSha1;
+import static com.backblaze.b2.client.B2TestHelpers.makeVersion;
+import static com.backblaze.b2.client.B2TestHelpers.uploadPartUrlResponse;
+import static com.backblaze.b2.util.B2Collections.listOf;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class B2StreamingLargeFileUploaderTest {
+    private final B2Sleeper sleeper = mock(B2Sleeper.class);
+    private final B2Retryer retryer = new B2Retryer(sleeper);
+    private final B2StorageClientWebifier webifier = mock(B2StorageClientWebifier.class);
+    private final B2AccountAuthorizationCache accountAuthCache = mock(B2AccountAuthorizationCache.class);
+
+    private final B2AccountAuthorization ACCOUNT_AUTH = B2TestHelpers.makeAuth(1);
+    private final B2PartSizes PART_SIZES = B2PartSizes.from(ACCOUNT_AUTH);
+    private final int PART_SIZE = (int) ACCOUNT_AUTH.getRecommendedPartSize();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    // what the smallFileUploader was asked to upload, if anything.
+    private B2UploadFileRequest smallFileRequest;
+    private byte[] smallFileBytes;
+
+    // what the listener was told the large file's sha1 is, if anything.
+    private volatile String computedLargeFileSha1;
+
+    // the contents of each uploaded part, by part number.
+    private final Map<Integer, byte[]> uploadedParts = new TreeMap<>();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    public B2StreamingLargeFileUploaderTest() throws B2Exception {
+        when(webifier.startLargeFile(anyObject(), anyObject())).thenReturn(makeVersion(1, 1));
+        when(webifier.getUploadPartUrl(anyObject(), anyObject())).thenReturn(uploadPartUrlResponse(1, 1));
+        when(webifier.finishLargeFile(anyObject(), anyObject())).thenReturn(makeVersion(1, 1));
+    }
+
+    @After
+    public void tearDown() {
+        B2ExecutorUtils.shutdownAndAwaitTermination(executor, 10, 10);
+    }
+
+    @Test
+    public void testEmptyStreamIsUploadedAsSmallFile() throws B2Exception, IOException {
+        checkSmallFile(0);
+    }
+
+    @Test
+    public void testLessThanOnePartIsUploadedAsSmallFile() throws B2Exception, IOException {
+        checkSmallFile(PART_SIZE - 1);
+    }
+
+    @Test
+    public void testLessThanTwoPartsIsUploadedAsSmallFile() throws B2Exception, IOException {
+        checkSmallFile((2 * PART_SIZE) - 1);
+    }
+
+    private void checkSmallFile(int contentLen) throws B2Exception, IOException {
+        final byte[] content = makeBytes(contentLen);
+        final B2UploadFileRequest request = makeRequest(content);
+        makeUploader(request, 2).uploadFile();
+
+        assertEquals(request.getBucketId(), smallFileRequest.getBucketId());
+        assertEquals(request.getFileName(), smallFileRequest.getFileName());
+        assertEquals(request.getContentType(), smallFileRequest.getContentType());
+        assertEquals(request.getFileInfo(), smallFileRequest.getFileInfo());
+        assertEquals(contentLen, smallFileRequest.getContentSource().getContentLength());
+        assertArrayEquals(content, smallFileBytes);
+
+        verify(webifier, never()).startLargeFile(anyObject(), anyObject());
+        verify(webifier, never()).uploadPart(anyObject(), anyObject());
+    }
+
+    @Test
+    public void testExactlyTwoParts() throws B2Exception, IOException {
+        checkLargeFile(2 * PART_SIZE, 2, 2);
+    }
+
+    @Test
+    public void testSeveralPartsWithShortLastPart() throws B2Exception, IOException {
+        checkLargeFile((7 * PART_SIZE) + 123, 8, 3);
+    }
+
+    @Test
+    public void testOnePartInFlight() throws B2Exception, IOException {
+        checkLargeFile((4 * PART_SIZE) + 1, 5, 1);
+    }
+
+    private void checkLargeFile(int contentLen,
+                                int expectedPartCount,
+                                int maxPartsInFlight) throws B2Exception, IOException {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlightSeen = new AtomicInteger();
+        when(webifier.uploadPart(anyObject(), anyObject())).thenAnswer(invocationOnMock -> {
+            final int nowInFlight = inFlight.incrementAndGet();
+            maxInFlightSeen.accumulateAndGet(nowInFlight, Math::max);
+            try {
+                // give the other parts a chance to pile up.
+                Thread.sleep(10);
+                final B2UploadPartRequest partRequest = (B2UploadPartRequest) invocationOnMock.getArguments()[1];
+                return recordPart(partRequest);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+
+        final byte[] content = makeBytes(contentLen);
+        makeUploader(makeRequest(content), maxPartsInFlight).uploadFile();
+
+        assertEquals(expectedPartCount, uploadedParts.size());
+        assertTrue("saw " + maxInFlightSeen.get() + " parts in flight", maxInFlightSeen.get() <= maxPartsInFlight);
+
+        // the parts should put the content back together.
+        final ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        for (int partNumber = 1; partNumber <= expectedPartCount; partNumber++) {
+            final byte[] partBytes = uploadedParts.get(partNumber);
+            if (partNumber < expectedPartCount) {
+                assertEquals(PART_SIZE, partBytes.length);
+            }
+            reassembled.write(partBytes);
+        }
+        assertArrayEquals(content, reassembled.toByteArray());
+        assertEquals(B2Sha1.hexSha1OfBytes(content), computedLargeFileSha1);
+
+        // the sha1s should be given to finish in part order.
+        final String[] expectedSha1s = new String[expectedPartCount];
+        for (int partNumber = 1; partNumber <= expectedPartCount; partNumber++) {
+            expectedSha1s[partNumber - 1] = makeSha1(partNumber);
+        }
+        final B2FinishLargeFileRequest finishRequest = new B2FinishLargeFileRequest(makeVersion(1, 1).getFileId(), listOf(expectedSha1s));
+        verify(webifier, times(1)).finishLargeFile(anyObject(), eq(finishRequest));
+    }
+
+    @Test
+    public void testFailedPartStopsUpload() throws B2Exception, IOException {
+        when(webifier.uploadPart(anyObject(), anyObject())).thenAnswer(invocationOnMock -> {
+            final B2UploadPartRequest partRequest = (B2UploadPartRequest) invocationOnMock.getArguments()[1];
+            if (partRequest.getPartNumber() == 2) {
+                throw new B2BadRequestException("test", null, "testing");
+            }
+            return recordPart(partRequest);
+        });
+
+        try {
+            makeUploader(makeRequest(makeBytes(20 * PART_SIZE)), 1).uploadFile();
+            fail("should have thrown");
+        } catch (B2BadRequestException e) {
+            assertEquals("testing", e.getMessage());
+        }
+
+        // with only one part in flight, we notice the failure before reading many more parts.
+        assertTrue("uploaded " + uploadedParts.size() + " parts", uploadedParts.size() < 5);
+        verify(webifier, never()).finishLargeFile(anyObject(), anyObject());
+    }
+
+    @Test
+    public void testReadFailure() throws B2Exception, IOException {
+        final B2ContentSource source = mock(B2ContentSource.class);
+        when(source.createInputStream()).thenReturn(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("testing");
+            }
+        });
+        final B2UploadFileRequest request = B2UploadFileRequest
+                .builder(bucketId(1), fileName(1), B2ContentTypes.APPLICATION_OCTET, source)
+                .build();
+
+        thrown.expect(B2Exception.class);
+        thrown.expectMessage("failed to read from contentSource: java.io.IOException: testing");
+        makeUploader(request, 2).uploadFile();
+    }
+
+    @Test
+    public void testKnownLengthUsesPickedParts() throws B2Exception, IOException {
+        arrangeToRecordParts();
+
+        final byte[] content = makeBytes((3 * PART_SIZE) + 124);
+        makeUploader(makeRequest(content), (long) content.length, 2).uploadFile();
+
+        // the same parts that B2LargeFileUploader would make, so it can finish the file if needed.
+        final List<B2PartSpec> expectedSpecs = PART_SIZES.pickParts(content.length);
+        assertEquals(expectedSpecs.size(), uploadedParts.size());
+        for (B2PartSpec spec : expectedSpecs) {
+            final byte[] expectedBytes = Arrays.copyOfRange(content, (int) spec.getStart(), (int) (spec.getStart() + spec.getLength()));
+            assertArrayEquals(expectedBytes, uploadedParts.get(spec.getPartNumber()));
+        }
+        assertEquals(B2Sha1.hexSha1OfBytes(content), computedLargeFileSha1);
+    }
+
+    @Test
+    public void testKnownLengthContentEndsEarly() throws B2Exception, IOException {
+        arrangeToRecordParts();
+
+        thrown.expect(B2LocalException.class);
+        thrown.expectMessage("contentSource ended after 2500 bytes, but its contentLength is 3000.");
+        makeUploader(makeRequest(makeBytes(2500)), 3000L, 2).uploadFile();
+    }
+
+    @Test
+    public void testKnownLengthContentIsTooLong() throws B2Exception, IOException {
+        arrangeToRecordParts();
+
+        thrown.expect(B2LocalException.class);
+        thrown.expectMessage("contentSource has more than its contentLength (3000) bytes.");
+        makeUploader(makeRequest(makeBytes(3001)), 3000L, 2).uploadFile();
+    }
+
+    @Test
+    public void testMismatchedSha1IsNotFinished() throws B2Exception, IOException {
+        arrangeToRecordParts();
+
+        final byte[] content = makeBytes(3 * PART_SIZE);
+        try {
+            makeUploader(makeRequest(content, makeSha1(1)), (long) content.length, 2).uploadFile();
+            fail("should have thrown");
+        } catch (B2LocalException e) {
+            assertEquals("contentSource has sha1 '" + makeSha1(1) + "', but the content we read has sha1 '" + B2Sha1.hexSha1OfBytes(content) + "'", e.getMessage());
+        }
+        verify(webifier, never()).finishLargeFile(anyObject(), anyObject());
+    }
+
+    private void arrangeToRecordParts() throws B2Exception {
+        when(webifier.uploadPart(anyObject(), anyObject())).thenAnswer(invocationOnMock ->
+                recordPart((B2UploadPartRequest) invocationOnMock.getArguments()[1]));
+    }
+
+    @Test
+    public void testMaxPartsInFlightMustBePositive() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("maxPartsInFlight must be positive.");
+        makeUploader(makeRequest(makeBytes(1)), 0);
+    }
+
+    private synchronized B2Part recordPart(B2UploadPartRequest partRequest) throws IOException {
+        final int partNumber = partRequest.getPartNumber();
+        final byte[] partBytes = readAll(partRequest.getContentSource());
+        uploadedParts.put(partNumber, partBytes);
+
+        // each part should know its own sha1, so it doesn't have to be appended.
+        assertEquals(B2Sha1.hexSha1OfBytes(partBytes), partRequest.getContentSource().getSha1OrNull());
+        return new B2Part(makeVersion(1, 1).getFileId(), partNumber, uploadedParts.get(partNumber).length, makeSha1(partNumber), 1);
+    }
+
+    private B2UploadFileRequest makeRequest(byte[] content) {
+        return makeRequest(content, null);
+    }
+
+    private B2UploadFileRequest makeRequest(byte[] content,
+                                            String sha1OrNull) {
+        // getContentLength() must not be called, so make it fail on purpose.
+        final B2ContentSource source = new B2ContentSource() {
+            @Override
+            public long getContentLength() {
+                throw new IllegalStateException("shouldn't be called!");
+            }
+
+            @Override
+            public String getSha1OrNull() {
+                return sha1OrNull;
+            }
+
+            @Override
+            public Long getSrcLastModifiedMillisOrNull() {
+                return null;
+            }
+
+            @Override
+            public InputStream createInputStream() {
+                return new ByteArrayInputStream(content);
+            }
+        };
+        return B2UploadFileRequest
+                .builder(bucketId(1), fileName(1), B2ContentTypes.APPLICATION_OCTET, source)
+                .setCustomField("color", "blue")
+                .setListener(new B2UploadListener() {
+                    @Override
+                    public void progress(B2UploadProgress progress) {
+                    }
+
+                    @Override
+                    public void largeFileSha1Computed(B2FileVersion largeFileVersion,
+                                                      String largeFileSha1) {
+                        computedLargeFileSha1 = largeFileSha1;
+                    }
+                })
+                .build();
+    }
+
+    private B2StreamingLargeFileUploader makeUploader(B2UploadFileRequest request,
+                                                      int maxPartsInFlight) {
+        return makeUploader(request, null, maxPartsInFlight);
+    }
+
+    private B2StreamingLargeFileUploader makeUploader(B2UploadFileRequest request,
+                                                      Long contentLengthOrNull,
+                                                      int maxPartsInFlight) {
+        return new B2StreamingLargeFileUploader(
+                retryer,
+                webifier,
+                accountAuthCache,
+                B2DefaultRetryPolicy.supplier(),
+                executor,
+                PART_SIZES,
+                request,
+                contentLengthOrNull,
+                maxPartsInFlight,
+                0,
+                (smallRequest) -> {
+                    try {
+                        smallFileRequest = smallRequest;
+                        smallFileBytes = readAll(smallRequest.getContentSource());
+                        return makeVersion(1, 1);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+    }
+
+    private static byte[] readAll(B2ContentSource source) throws IOException {
+        try (InputStream in = source.createInputStream()) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            B2IoUtils.copy(in, out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -7,18 +7,29 @@ package com.backblaze.b2.client;
 import com.backblaze.b2.client.exceptions.B2Exception;
 import com.backblaze.b2.client.exceptions.B2InternalErrorException;
 import com.backblaze.b2.client.structures.B2UploadPartUrlResponse;
+import com.backblaze.b2.util.B2ExecutorUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static com.backblaze.b2.client.B2TestHelpers.bucketId;
 import static com.backblaze.b2.client.B2TestHelpers.makeAuth;
 import static com.backblaze.b2.client.B2TestHelpers.uploadPartUrlResponse;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -103,4 +114,95 @@ public class B2UploadPartUrlCacheTest {
 
         uploadPartCache.get(false);
     }
+
+    @Test
+    public void testPrewarmGetsUrlsInTheBackgroundAndRefills() throws B2Exception {
+        doReturn(makeAuth(1)).when(authCache).get();
+        arrangeNumberedResponses();
+
+        final B2ManualExecutor executor = new B2ManualExecutor();
+        uploadPartCache.prewarm(3, executor);
+        assertEquals(3, executor.countTasks());
+        verify(webifier, never()).getUploadPartUrl(anyObject(), anyObject());
+
+        executor.runAll();
+        verify(webifier, times(3)).getUploadPartUrl(anyObject(), anyObject());
+
+        // taking one from the pool starts getting a replacement.
+        assertEquals(uploadPartUrlResponse(bucketId(1), 1), uploadPartCache.get(false));
+        assertEquals(1, executor.countTasks());
+        executor.runAll();
+
+        // a retry throws one away, so it starts getting a replacement too.
+        assertEquals(uploadPartUrlResponse(bucketId(1), 5), uploadPartCache.get(true));
+        assertEquals(0, executor.countTasks());
+        uploadPartCache.get(false);
+        assertEquals(1, executor.countTasks());
+
+        // once we stop, fetches that haven't started don't bother.
+        uploadPartCache.stopPrewarming();
+        executor.runAll();
+        verify(webifier, times(5)).getUploadPartUrl(anyObject(), anyObject());
+    }
+
+    @Test
+    public void testGetWaitsForARunningFetch() throws Exception {
+        doReturn(makeAuth(1)).when(authCache).get();
+
+        // the first fetch takes a while.
+        final CountDownLatch fetchStarted = new CountDownLatch(1);
+        final CountDownLatch finishFetch = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        doAnswer(invocationOnMock -> {
+            final int call = calls.incrementAndGet();
+            if (call == 1) {
+                fetchStarted.countDown();
+                assertTrue(finishFetch.await(10, TimeUnit.SECONDS));
+            }
+            return uploadPartUrlResponse(bucketId(1), call);
+        }).when(webifier).getUploadPartUrl(anyObject(), anyObject());
+
+        final B2ManualExecutor executor = new B2ManualExecutor();
+        uploadPartCache.prewarm(1, executor);
+        final Thread fetcher = new Thread(executor::runOne);
+        fetcher.start();
+        assertTrue(fetchStarted.await(10, TimeUnit.SECONDS));
+
+        // get() waits for the running fetch instead of asking for another url.
+        final ExecutorService getter = Executors.newSingleThreadExecutor();
+        try {
+            final Future<B2UploadPartUrlResponse> future = getter.submit(() -> uploadPartCache.get(false));
+            Thread.sleep(50);
+            finishFetch.countDown();
+            assertEquals(uploadPartUrlResponse(bucketId(1), 1), future.get(10, TimeUnit.SECONDS));
+        } finally {
+            B2ExecutorUtils.shutdownAndAwaitTermination(getter, 10, 10);
+        }
+        fetcher.join();
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testFailedBackgroundFetchIsIgnored() throws B2Exception {
+        doReturn(makeAuth(1)).when(authCache).get();
+        doThrow(new B2InternalErrorException("testing", "testing message")).when(webifier).getUploadPartUrl(anyObject(), anyObject());
+
+        final B2ManualExecutor executor = new B2ManualExecutor();
+        uploadPartCache.prewarm(2, executor);
+        executor.runAll();
+
+        // the caller still hears about trouble getting its own url.
+        thrown.expect(B2InternalErrorException.class);
+        thrown.expectMessage("testing message");
+        uploadPartCache.get(false);
+    }
+
+    /**
+     * Arranges for the webifier to return a new response each time it's asked.
+     */
+    private void arrangeNumberedResponses() throws B2Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        doAnswer(invocationOnMock -> uploadPartUrlResponse(bucketId(1), calls.incrementAndGet()))
+                .when(webifier).getUploadPartUrl(anyObject(), anyObject());
+    }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client;
+
+import com.backblaze.b2.client.contentSources.B2ByteArrayContentSource;
+import com.backblaze.b2.client.contentSources.B2ContentTypes;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2InternalErrorException;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.client.structures.B2UploadFileRequest;
+import com.backblaze.b2.client.structures.B2UploadProgress;
+import com.backblaze.b2.client.structures.B2UploadState;
+import com.backblaze.b2.util.B2ExecutorUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.backblaze.b2.client.B2TestHelpers.bucketId;
+import static com.backblaze.b2.client.B2TestHelpers.fileName;
+import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
+import static com.backblaze.b2.client.B2TestHelpers.makeVersion;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class B2UploadSchedulerTest {
+    // files at least this big are uploaded as large files.
+    private static final int LARGE_FILE_SIZE = 1000;
+    private static final int PARTS_PER_LARGE_FILE = 4;
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private final B2StorageClient client = mock(B2StorageClient.class);
+    private final B2FilePolicy filePolicy = mock(B2FilePolicy.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(6);
+
+    // the most parts that were being uploaded at the same time.
+    private final AtomicInteger partsInFlight = new AtomicInteger();
+    private final AtomicInteger maxPartsInFlight = new AtomicInteger();
+
+    // what the listeners on the original requests heard about.
+    private final AtomicLong bytesHeardByListeners = new AtomicLong();
+
+    @Before
+    public void setUp() throws B2Exception {
+        when(client.getFilePolicy()).thenReturn(filePolicy);
+        when(filePolicy.shouldBeLargeFile(anyLong())).thenAnswer(invocationOnMock ->
+                ((Long) invocationOnMock.getArguments()[0]) >= LARGE_FILE_SIZE);
+
+        when(client.uploadSmallFile(anyObject())).thenAnswer(invocationOnMock -> {
+            final B2UploadFileRequest request = (B2UploadFileRequest) invocationOnMock.getArguments()[0];
+            uploadPart(request, 0, 1, request.getContentSource().getContentLength());
+            return makeVersion(1, 1);
+        });
+
+        // a large file hands its parts to the executor it's given, like B2LargeFileUploader does.
+        when(client.uploadLargeFile(anyObject(), anyObject(), eq(2))).thenAnswer(invocationOnMock -> {
+            final B2UploadFileRequest request = (B2UploadFileRequest) invocationOnMock.getArguments()[0];
+            final ExecutorService partExecutor = (ExecutorService) invocationOnMock.getArguments()[1];
+            final long partLength = request.getContentSource().getContentLength() / PARTS_PER_LARGE_FILE;
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int iPart = 0; iPart < PARTS_PER_LARGE_FILE; iPart++) {
+                final int partIndex = iPart;
+                futures.add(partExecutor.submit(() -> {
+                    uploadPart(request, partIndex, PARTS_PER_LARGE_FILE, partLength);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return makeVersion(2, 2);
+        });
+    }
+
+    @After
+    public void tearDown() {
+        B2ExecutorUtils.shutdownAndAwaitTermination(executor, 10, 10);
+    }
+
+    @Test
+    public void testRoutesByFilePolicyAndCountsBytes() throws Exception {
+        final B2UploadScheduler scheduler = makeScheduler();
+
+        final List<Future<B2FileVersion>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(scheduler.submit(makeRequest(i, 100)));
+            futures.add(scheduler.submit(makeRequest(i, LARGE_FILE_SIZE * 2), "tenant" + (i % 2)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(makeVersion((i % 2) + 1, (i % 2) + 1).getFileId(), futures.get(i).get().getFileId());
+        }
+
+        verify(client, times(10)).uploadSmallFile(anyObject());
+        verify(client, times(10)).uploadLargeFile(anyObject(), anyObject(), eq(2));
+
+        final long expectedBytes = 10 * 100 + 10 * LARGE_FILE_SIZE * 2;
+        assertEquals(expectedBytes, scheduler.getBytesUploaded());
+        assertEquals(expectedBytes, bytesHeardByListeners.get());
+        assertEquals(20, scheduler.getFilesUploaded());
+        assertTrue(scheduler.getBytesPerSecond() >= 0);
+
+        // the executor has room for more, but the scheduler didn't use it.
+        assertTrue("max was " + maxPartsInFlight.get(), maxPartsInFlight.get() <= 3);
+    }
+
+    @Test
+    public void testFailureIsTheFuturesCause() throws Exception {
+        doThrow(new B2InternalErrorException("test", null, "testing")).when(client).uploadSmallFile(anyObject());
+        final Future<B2FileVersion> future = makeScheduler().submit(makeRequest(1, 100));
+
+        thrown.expect(ExecutionException.class);
+        thrown.expectMessage("testing");
+        future.get();
+    }
+
+    @Test
+    public void testLargeFilesRejectedByExecutorFailTheirFutures() throws Exception {
+        final B2UploadScheduler scheduler = makeScheduler();
+        executor.shutdown();
+
+        // more files than may be in flight, so the rejected ones must give up their spots.
+        final List<Future<B2FileVersion>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(scheduler.submit(makeRequest(i, LARGE_FILE_SIZE * 2)));
+        }
+        for (Future<B2FileVersion> future : futures) {
+            assertTrue(future.isDone());
+            try {
+                future.get();
+                fail("should have thrown");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof B2LocalException);
+                assertTrue(e.getMessage(), e.getMessage().contains("executor rejected the upload of a large file"));
+            }
+        }
+        verify(client, never()).uploadLargeFile(anyObject(), anyObject(), eq(2));
+    }
+
+    @Test
+    public void testFilePolicyIsOnlyFetchedOnce() throws Exception {
+        final B2UploadScheduler scheduler = makeScheduler();
+        scheduler.submit(makeRequest(1, 100)).get();
+        scheduler.submit(makeRequest(2, 100)).get();
+
+        verify(client, times(1)).getFilePolicy();
+        verify(client, never()).uploadLargeFile(anyObject(), anyObject(), eq(2));
+    }
+
+    @Test
+    public void testMaxUploadsInFlightMustBePositive() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("maxUploadsInFlight must be positive.");
+        B2UploadScheduler.builder(client, executor).setMaxUploadsInFlight(0).build();
+    }
+
+    private B2UploadScheduler makeScheduler() {
+        return B2UploadScheduler
+                .builder(client, executor)
+                .setMaxUploadsInFlight(3)
+                .setMaxLargeFilesInFlight(2)
+                .setMaxPartsInFlightPerFile(2)
+                .setTenantWeight("tenant0", 3)
+                .build();
+    }
+
+    private B2UploadFileRequest makeRequest(int i,
+                                            int size) {
+        return B2UploadFileRequest
+                .builder(bucketId(1), fileName(i), B2ContentTypes.B2_AUTO, B2ByteArrayContentSource.build(makeBytes(size)))
+                .setListener(progress -> {
+                    if (progress.getState() == B2UploadState.SUCCEEDED) {
+                        bytesHeardByListeners.addAndGet(progress.getLength());
+                    }
+                })
+                .build();
+    }
+
+    private void uploadPart(B2UploadFileRequest request,
+                            int partIndex,
+                            int partCount,
+                            long length) throws InterruptedException {
+        final int inFlight = partsInFlight.incrementAndGet();
+        maxPartsInFlight.accumulateAndGet(inFlight, Math::max);
+        try {
+            Thread.sleep(2);
+        } finally {
+            partsInFlight.decrementAndGet();
+        }
+        request.getListener().progress(new B2UploadProgress(partIndex, partCount, partIndex * length, length, length, B2UploadState.SUCCEEDED));
+    }
+}
@@ -11,12 +11,16 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static com.backblaze.b2.client.B2TestHelpers.bucketId;
 import static com.backblaze.b2.client.B2TestHelpers.makeAuth;
 import static com.backblaze.b2.client.B2TestHelpers.uploadUrlResponse;
 import static com.backblaze.b2.client.B2UploadUrlCache.MAX_BUCKETS;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -144,4 +148,43 @@ public class B2UploadUrlCacheTest {
 
         uploadCache.get(bucketId(1), false);
     }
+
+    @Test
+    public void testPrewarmGetsUrlsInTheBackgroundAndRefills() throws B2Exception {
+        doReturn(makeAuth(1)).when(authCache).get();
+        final AtomicInteger calls = new AtomicInteger();
+        doAnswer(invocationOnMock -> uploadUrlResponse(bucketId(1), calls.incrementAndGet()))
+                .when(webifier).getUploadUrl(anyObject(), anyObject());
+
+        final B2ManualExecutor executor = new B2ManualExecutor();
+        uploadCache.prewarm(bucketId(1), 2, executor);
+        assertEquals(2, executor.countTasks());
+        executor.runAll();
+        verify(webifier, times(2)).getUploadUrl(anyObject(), anyObject());
+
+        // taking one from the pool starts getting a replacement.
+        assertEquals(uploadUrlResponse(bucketId(1), 1), uploadCache.get(bucketId(1), false));
+        assertEquals(1, executor.countTasks());
+        executor.runAll();
+        verify(webifier, times(3)).getUploadUrl(anyObject(), anyObject());
+
+        // other buckets aren't prewarmed.
+        doReturn(uploadUrlResponse(bucketId(2), 1)).when(webifier).getUploadUrl(anyObject(), anyObject());
+        assertEquals(uploadUrlResponse(bucketId(2), 1), uploadCache.get(bucketId(2), false));
+        assertEquals(0, executor.countTasks());
+
+        // once we stop, fetches that haven't started don't bother.
+        uploadCache.get(bucketId(1), false);
+        assertEquals(1, executor.countTasks());
+        uploadCache.stopPrewarming(bucketId(1));
+        executor.runAll();
+        verify(webifier, times(4)).getUploadUrl(anyObject(), anyObject());
+    }
+
+    @Test
+    public void testPoolSizeMustBePositive() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("poolSize must be positive.");
+        uploadCache.prewarm(bucketId(1), 0, new B2ManualExecutor());
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.contentHandlers;
+
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.contentSources.B2HeadersImpl;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.util.B2IoUtils;
+import com.backblaze.b2.util.B2Sha1;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.List;
+
+import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class B2ContentChunkedMemoryWriterTest {
+    private static final int LEN = 6123;
+    private static final int CHUNK_SIZE = 1000;
+
+    private final byte[] bytes = makeBytes(LEN);
+    private final String rightSha1 = B2Sha1.hexSha1OfBytes(bytes);
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testBuilder() {
+        final B2ContentChunkedMemoryWriter defaults = B2ContentChunkedMemoryWriter.build();
+        assertEquals(1024 * 1024, defaults.getChunkSize());
+        assertEquals(B2ContentVerificationPolicy.NETWORK_SHA1, defaults.getVerificationPolicy());
+
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("chunkSize must be positive.");
+        B2ContentChunkedMemoryWriter.builder().setChunkSize(0).build();
+    }
+
+    @Test
+    public void testReadContent() throws B2Exception, IOException {
+        final B2ContentChunkedMemoryWriter writer = makeWriter(B2ContentVerificationPolicy.FULL_READ_BACK);
+        assertEquals(0, writer.getLength());
+        assertTrue(writer.getReadOnlyBuffers().isEmpty());
+
+        writer.readContent(makeHeaders(LEN, rightSha1), new ByteArrayInputStream(bytes));
+
+        assertEquals(LEN, writer.getLength());
+        assertArrayEquals(bytes, readAll(writer.getInputStream()));
+
+        // full chunks, and the last one is just big enough.
+        final List<ByteBuffer> buffers = writer.getReadOnlyBuffers();
+        assertEquals(7, buffers.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(CHUNK_SIZE, buffers.get(i).remaining());
+        }
+        assertEquals(123, buffers.get(6).remaining());
+        assertEquals(123, buffers.get(6).capacity());
+
+        // and they have the contents.
+        final ByteBuffer all = ByteBuffer.allocate(LEN);
+        for (ByteBuffer buffer : buffers) {
+            all.put(buffer.duplicate());
+        }
+        assertArrayEquals(bytes, all.array());
+
+        try {
+            buffers.get(0).put((byte) 1);
+            fail("should've thrown");
+        } catch (ReadOnlyBufferException e) {
+            // expected.
+        }
+    }
+
+    @Test
+    public void testMoreThanContentLength() throws B2Exception, IOException {
+        final B2ContentChunkedMemoryWriter writer = makeWriter(B2ContentVerificationPolicy.NONE);
+
+        // we said 1500, but sent more.  we still keep it all.
+        writer.readContent(makeHeaders(1500, rightSha1), new ByteArrayInputStream(bytes));
+        assertArrayEquals(bytes, readAll(writer.getInputStream()));
+        assertEquals(500, writer.getReadOnlyBuffers().get(1).capacity());
+    }
+
+    @Test
+    public void testRetryStartsOver() throws B2Exception, IOException {
+        final B2ContentChunkedMemoryWriter writer = makeWriter(B2ContentVerificationPolicy.NETWORK_SHA1);
+        final byte[] other = makeBytes(2500);
+
+        writer.readContent(makeHeaders(other.length, B2Sha1.hexSha1OfBytes(other)), new ByteArrayInputStream(other));
+        writer.readContent(makeHeaders(LEN, rightSha1), new ByteArrayInputStream(bytes));
+        assertEquals(LEN, writer.getLength());
+        assertArrayEquals(bytes, readAll(writer.getInputStream()));
+    }
+
+    @Test
+    public void testSha1Mismatch() throws B2Exception {
+        final B2ContentChunkedMemoryWriter writer = makeWriter(B2ContentVerificationPolicy.NETWORK_SHA1);
+        final String wrongSha1 = B2Sha1.hexSha1OfBytes(makeBytes(LEN + 1));
+
+        thrown.expect(B2Exception.class);
+        thrown.expectMessage("sha1 mismatch from network.  expected " + wrongSha1 + ", but got " + rightSha1);
+        writer.readContent(makeHeaders(LEN, wrongSha1), new ByteArrayInputStream(bytes));
+    }
+
+    private static B2ContentChunkedMemoryWriter makeWriter(B2ContentVerificationPolicy policy) {
+        return B2ContentChunkedMemoryWriter
+                .builder()
+                .setChunkSize(CHUNK_SIZE)
+                .setVerificationPolicy(policy)
+                .build();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final byte[] buffer = new byte[2 * LEN];
+        final int n = B2IoUtils.readFully(in, buffer);
+        final byte[] result = new byte[n];
+        System.arraycopy(buffer, 0, result, 0, n);
+        return result;
+    }
+
+    private static B2Headers makeHeaders(int contentLength,
+                                         String sha1) {
+        return B2HeadersImpl
+                .builder()
+                .set(B2Headers.CONTENT_LENGTH, "" + contentLength)
+                .set(B2Headers.CONTENT_SHA1, sha1)
+                .build();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.contentHandlers;
+
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.contentSources.B2HeadersImpl;
+import com.backblaze.b2.client.exceptions.B2ConnectionBrokenException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.util.B2Sha1;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class B2ContentFileChannelWriterTest {
+    private static final int LEN = 6123;
+    private static final int BUFFER_SIZE = 1000;
+
+    private final byte[] bytes = makeBytes(LEN);
+    private final String rightSha1 = B2Sha1.hexSha1OfBytes(bytes);
+    private final String wrongSha1 = B2Sha1.hexSha1OfBytes(makeBytes(LEN + 1));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private File file;
+
+    @Before
+    public void setup() {
+        file = new File(tempFolder.getRoot(), "output");
+    }
+
+    @Test
+    public void testBuilder() {
+        final B2ContentFileChannelWriter defaults = B2ContentFileChannelWriter.builder(file).build();
+        assertEquals(1024 * 1024, defaults.getBufferSize());
+        assertEquals(B2ContentVerificationPolicy.NETWORK_SHA1, defaults.getVerificationPolicy());
+
+        final B2ContentFileChannelWriter custom = B2ContentFileChannelWriter
+                .builder(file)
+                .setBufferSize(BUFFER_SIZE)
+                .setVerificationPolicy(B2ContentVerificationPolicy.FULL_READ_BACK)
+                .build();
+        assertEquals(BUFFER_SIZE, custom.getBufferSize());
+        assertEquals(B2ContentVerificationPolicy.FULL_READ_BACK, custom.getVerificationPolicy());
+
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("bufferSize must be positive.");
+        B2ContentFileChannelWriter.builder(file).setBufferSize(0).build();
+    }
+
+    @Test
+    public void testFromStream() throws B2Exception, IOException {
+        final B2ContentFileChannelWriter writer = makeWriter(B2ContentVerificationPolicy.NETWORK_SHA1);
+        final B2Headers headers = makeHeaders(LEN, rightSha1);
+
+        writer.readContent(headers, new ByteArrayInputStream(bytes));
+
+        assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+        assertSame(headers, writer.getHeadersOrNull());
+    }
+
+    @Test
+    public void testFromChannel() throws B2Exception, IOException {
+        final File source = tempFolder.newFile("source");
+        Files.write(source.toPath(), bytes);
+        final B2ContentFileChannelWriter writer = makeWriter(B2ContentVerificationPolicy.NETWORK_SHA1);
+
+        try (InputStream in = new FileInputStream(source)) {
+            writer.readContent(makeHeaders(LEN, rightSha1), in);
+        }
+        assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testFromChannel_sha1Mismatch() throws B2Exception, IOException {
+        final File source = tempFolder.newFile("source");
+        Files.write(source.toPath(), bytes);
+        final B2ContentFileChannelWriter writer = makeWriter(B2ContentVerificationPolicy.NETWORK_SHA1);
+
+        thrown.expect(B2Exception.class);
+        thrown.expectMessage("sha1 mismatch from network.  expected " + wrongSha1 + ", but got " + rightSha1);
+        try (InputStream in = new FileInputStream(source)) {
+            writer.readContent(makeHeaders(LEN, wrongSha1), in);
+        }
+    }
+
+    @Test
+    public void testSha1Mismatch() throws B2Exception {
+        final B2ContentFileChannelWriter writer = makeWriter(B2ContentVerificationPolicy.NETWORK_SHA1);
+
+        thrown.expect(B2Exception.class);
+        thrown.expectMessage("sha1 mismatch from network.  expected " + wrongSha1 + ", but got " + rightSha1);
+        writer.readContent(makeHeaders(LEN, wrongSha1), new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void testNoneDoesntCheck() throws B2Exception, IOException {
+        final B2ContentFileChannelWriter writer = makeWriter(B2ContentVerificationPolicy.NONE);
+
+        writer.readContent(makeHeaders(LEN, wrongSha1), new ByteArrayInputStream(bytes));
+        assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testReadBackPolicies() throws B2Exception, IOException {
+        for (B2ContentVerificationPolicy policy : new B2ContentVerificationPolicy[] {
+                B2ContentVerificationPolicy.SAMPLED_READ_BACK,
+                B2ContentVerificationPolicy.FULL_READ_BACK }) {
+            final B2ContentFileChannelWriter writer = makeWriter(policy);
+            writer.readContent(makeHeaders(LEN, rightSha1), new ByteArrayInputStream(bytes));
+            assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    @Test
+    public void testRetryReplacesEarlierContent() throws B2Exception, IOException {
+        final B2ContentFileChannelWriter writer = makeWriter(B2ContentVerificationPolicy.NETWORK_SHA1);
+
+        // the first attempt breaks part way through.
+        try {
+            writer.readContent(makeHeaders(LEN, rightSha1), new BreakingInputStream(Arrays.copyOf(bytes, 2500)));
+            fail("should've thrown");
+        } catch (B2ConnectionBrokenException e) {
+            assertEquals("read failed: connection reset", e.getMessage());
+        }
+
+        // the retry reuses the buffers and starts over.
+        writer.readContent(makeHeaders(LEN, rightSha1), new ByteArrayInputStream(bytes));
+        assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+
+        // and a shorter download doesn't leave anything behind.
+        final byte[] shorter = makeBytes(10);
+        writer.readContent(makeHeaders(10, B2Sha1.hexSha1OfBytes(shorter)), new ByteArrayInputStream(shorter));
+        assertArrayEquals(shorter, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testEmpty() throws B2Exception, IOException {
+        final B2ContentFileChannelWriter writer = makeWriter(B2ContentVerificationPolicy.FULL_READ_BACK);
+
+        writer.readContent(makeHeaders(0, B2Sha1.hexSha1OfBytes(new byte[0])), new ByteArrayInputStream(new byte[0]));
+        assertEquals(0, file.length());
+    }
+
+    private B2ContentFileChannelWriter makeWriter(B2ContentVerificationPolicy policy) {
+        return B2ContentFileChannelWriter
+                .builder(file)
+                .setBufferSize(BUFFER_SIZE)
+                .setVerificationPolicy(policy)
+                .build();
+    }
+
+    private static B2Headers makeHeaders(int contentLength,
+                                         String sha1) {
+        return B2HeadersImpl
+                .builder()
+                .set(B2Headers.CONTENT_LENGTH, "" + contentLength)
+                .set(B2Headers.CONTENT_SHA1, sha1)
+                .build();
+    }
+
+    /**
+     * Returns the given bytes and then throws an IOException.
+     */
+    private static class BreakingInputStream extends InputStream {
+        private final ByteArrayInputStream in;
+
+        BreakingInputStream(byte[] bytes) {
+            this.in = new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b < 0) {
+                throw new IOException("connection reset");
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@SuppressWarnings("NullableProblems") byte[] b, int off, int len) throws IOException {
+            final int n = in.read(b, off, len);
+            if (n < 0) {
+                throw new IOException("connection reset");
+            }
+            return n;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import org.junit.Test;
 
 import java.io.File;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -21,10 +22,21 @@ public class B2ContentFileWriterTest {
 
     @Test
     public void testBuilder() {
+        // re-reading the whole file isn't the default anymore.
+        assertEquals(B2ContentVerificationPolicy.NETWORK_SHA1, B2ContentFileWriter
+                .builder(FILE)
+                .build()
+                .getVerificationPolicy());
         assertTrue(B2ContentFileWriter
                 .builder(FILE)
+                .setVerifySha1ByRereadingFromDestination(true)
                 .build()
                 .getVerifySha1ByRereadingFromDestination());
+        assertEquals(B2ContentVerificationPolicy.SAMPLED_READ_BACK, B2ContentFileWriter
+                .builder(FILE)
+                .setVerificationPolicy(B2ContentVerificationPolicy.SAMPLED_READ_BACK)
+                .build()
+                .getVerificationPolicy());
         assertTrue(!B2ContentFileWriter
                 .builder(FILE)
                 .setVerifySha1ByRereadingFromDestination(false)
@@ -13,11 +13,14 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 
 import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * This test *exercises* some of the code in B2ContentFileWriter.
@@ -46,6 +49,11 @@ public class B2ContentMemoryWriterTest {
                 .setVerifySha1ByRereadingFromDestination(false)
                 .build()
                 .getVerifySha1ByRereadingFromDestination());
+        assertEquals(B2ContentVerificationPolicy.NONE, B2ContentMemoryWriter
+                .builder()
+                .setVerificationPolicy(B2ContentVerificationPolicy.NONE)
+                .build()
+                .getVerificationPolicy());
     }
 
     @Test
@@ -71,6 +79,36 @@ public class B2ContentMemoryWriterTest {
         assertArrayEquals(makeBytes(LEN), writer.getBytes());
     }
 
+    @Test
+    public void testBufferIsPresized() throws B2Exception {
+        final B2ContentMemoryWriter writer = B2ContentMemoryWriter.build();
+        assertEquals(0, writer.getCapacity());
+
+        writer.readContent(makeHeaderWithSha1(LEN), in);
+        assertEquals(LEN, writer.getCapacity());
+    }
+
+    @Test
+    public void testAsReadOnlyByteBuffer() throws B2Exception {
+        final B2ContentMemoryWriter writer = B2ContentMemoryWriter.build();
+        assertEquals(0, writer.asReadOnlyByteBuffer().remaining());
+
+        writer.readContent(makeHeaderWithSha1(LEN), in);
+
+        final ByteBuffer buffer = writer.asReadOnlyByteBuffer();
+        assertEquals(LEN, buffer.remaining());
+        final byte[] contents = new byte[LEN];
+        buffer.duplicate().get(contents);
+        assertArrayEquals(bytes, contents);
+
+        try {
+            buffer.put((byte) 1);
+            fail("should've thrown");
+        } catch (ReadOnlyBufferException e) {
+            // expected.
+        }
+    }
+
     private B2Headers makeHeaderWithSha1(long contentLength) {
         return B2HeadersImpl
                 .builder()
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.contentHandlers;
+
+import com.backblaze.b2.client.B2TestHelpers;
+import com.backblaze.b2.client.contentSources.B2Headers;
+import com.backblaze.b2.client.contentSources.B2HeadersImpl;
+import com.backblaze.b2.client.exceptions.B2ConnectionBrokenException;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.exceptions.B2LocalException;
+import com.backblaze.b2.util.B2ByteRange;
+import com.backblaze.b2.util.B2Sha1;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class B2ContentResumableFileWriterTest {
+    private static final int FILE_LENGTH = 200 * 1000;
+    private static final byte[] CONTENT = B2TestHelpers.makeBytes(FILE_LENGTH);
+    private static final String SHA1 = B2Sha1.hexSha1OfBytes(CONTENT);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = new File(tempFolder.getRoot(), "output");
+    }
+
+    @Test
+    public void testBuilder() {
+        assertTrue(B2ContentResumableFileWriter.builder(file).build().getVerifySha1());
+        assertFalse(B2ContentResumableFileWriter.builder(file).setVerifySha1(false).build().getVerifySha1());
+    }
+
+    @Test
+    public void testWholeFile() throws B2Exception, IOException {
+        final B2ContentResumableFileWriter writer = B2ContentResumableFileWriter.builder(file).build();
+        assertNull(writer.getRangeToRequestOrNull());
+        assertNull(writer.getHeadersOrNull());
+
+        final B2Headers headers = makeHeaders(null, SHA1);
+        writer.readContent(headers, new ByteArrayInputStream(CONTENT));
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+        assertSame(headers, writer.getHeadersOrNull());
+        assertEquals(B2ByteRange.startAt(FILE_LENGTH - 1), writer.getRangeToRequestOrNull());
+    }
+
+    @Test
+    public void testWholeFileReplacesPartialFile() throws B2Exception, IOException {
+        Files.write(file.toPath(), new byte[] { 9, 9, 9 });
+        final B2ContentResumableFileWriter writer = B2ContentResumableFileWriter.builder(file).build();
+
+        writer.readContent(makeHeaders(null, SHA1), new ByteArrayInputStream(CONTENT));
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testResumesFromPartialFile() throws B2Exception, IOException {
+        Files.write(file.toPath(), Arrays.copyOf(CONTENT, 1000));
+        final B2ContentResumableFileWriter writer = B2ContentResumableFileWriter.builder(file).build();
+        assertEquals(B2ByteRange.startAt(999), writer.getRangeToRequestOrNull());
+
+        resume(writer, 999, SHA1);
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testResumesWhenAlreadyComplete() throws B2Exception, IOException {
+        Files.write(file.toPath(), CONTENT);
+        final B2ContentResumableFileWriter writer = B2ContentResumableFileWriter.builder(file).build();
+
+        resume(writer, FILE_LENGTH - 1, SHA1);
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testRetryResumesWhereTheLastAttemptStopped() throws B2Exception, IOException {
+        final B2ContentResumableFileWriter writer = B2ContentResumableFileWriter.builder(file).build();
+
+        // the first attempt breaks after 150,000 bytes.
+        try {
+            writer.readContent(makeHeaders(null, SHA1), new BreakingInputStream(CONTENT, 0, 150 * 1000));
+            fail("should've thrown");
+        } catch (B2ConnectionBrokenException e) {
+            assertEquals("read_failed", e.getCode());
+        }
+        assertEquals(150 * 1000, file.length());
+
+        // the retry only asks for the rest, and the sha1 still covers the whole thing.
+        final B2ByteRange range = writer.getRangeToRequestOrNull();
+        assertEquals(B2ByteRange.startAt(150 * 1000 - 1), range);
+        resume(writer, range.start, SHA1);
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testShortResponseIsRetryable() throws B2Exception, IOException {
+        final B2ContentResumableFileWriter writer = B2ContentResumableFileWriter.builder(file).build();
+
+        try {
+            writer.readContent(makeHeaders(null, SHA1), new ByteArrayInputStream(CONTENT, 0, 1000));
+            fail("should've thrown");
+        } catch (B2ConnectionBrokenException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("expected 200000 bytes starting at 0, but got 1000"));
+        }
+
+        // what we got is kept for next time.
+        assertEquals(1000, file.length());
+        resume(writer, 999, SHA1);
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testOverlapMismatchEmptiesTheFile() throws B2Exception, IOException {
+        final byte[] other = Arrays.copyOf(CONTENT, 1000);
+        other[999] = 42;
+        Files.write(file.toPath(), other);
+        final B2ContentResumableFileWriter writer = B2ContentResumableFileWriter.builder(file).build();
+
+        try {
+            resume(writer, 999, SHA1);
+            fail("should've thrown");
+        } catch (B2LocalException e) {
+            assertEquals("mismatch", e.getCode());
+            assertTrue(e.getMessage(), e.getMessage().contains("at byte 999"));
+        }
+        assertEquals(0, file.length());
+        assertNull(writer.getRangeToRequestOrNull());
+    }
+
+    @Test
+    public void testSha1MismatchEmptiesTheFile() throws B2Exception, IOException {
+        // the byte we ask for again matches, but an earlier one doesn't.
+        final byte[] other = Arrays.copyOf(CONTENT, 1000);
+        other[10] = 42;
+        Files.write(file.toPath(), other);
+        final B2ContentResumableFileWriter writer = B2ContentResumableFileWriter.builder(file).build();
+
+        try {
+            resume(writer, 999, SHA1);
+            fail("should've thrown");
+        } catch (B2LocalException e) {
+            assertEquals("mismatch", e.getCode());
+            assertTrue(e.getMessage(), e.getMessage().startsWith("sha1 mismatch.  expected " + SHA1));
+        }
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void testNoSha1Verification() throws B2Exception, IOException {
+        final byte[] other = Arrays.copyOf(CONTENT, 1000);
+        other[10] = 42;
+        Files.write(file.toPath(), other);
+        final B2ContentResumableFileWriter writer = B2ContentResumableFileWriter.builder(file).setVerifySha1(false).build();
+
+        resume(writer, 999, SHA1);
+        assertEquals(FILE_LENGTH, file.length());
+    }
+
+    @Test
+    public void testUsesLargeFileSha1() throws B2Exception, IOException {
+        Files.write(file.toPath(), Arrays.copyOf(CONTENT, 1000));
+        final B2ContentResumableFileWriter writer = B2ContentResumableFileWriter.builder(file).build();
+
+        final B2Headers headers = B2HeadersImpl
+                .builder(makeHeaders(999L, "none"))
+                .set(B2Headers.LARGE_FILE_SHA1, B2Sha1.hexSha1OfBytes(new byte[1]))
+                .build();
+        try {
+            writer.readContent(headers, new ByteArrayInputStream(CONTENT, 999, FILE_LENGTH - 999));
+            fail("should've thrown");
+        } catch (B2LocalException e) {
+            assertEquals("mismatch", e.getCode());
+        }
+    }
+
+    @Test
+    public void testResponseStartingPastTheEnd() throws B2Exception, IOException {
+        final B2ContentResumableFileWriter writer = B2ContentResumableFileWriter.builder(file).build();
+
+        try {
+            resume(writer, 1000, SHA1);
+            fail("should've thrown");
+        } catch (B2LocalException e) {
+            assertEquals("trouble", e.getCode());
+        }
+    }
+
+    private static void resume(B2ContentResumableFileWriter writer,
+                               long start,
+                               String sha1) throws B2Exception {
+        writer.readContent(makeHeaders(start, sha1),
+                new ByteArrayInputStream(CONTENT, (int) start, (int) (FILE_LENGTH - start)));
+    }
+
+    private static B2Headers makeHeaders(Long rangeStartOrNull,
+                                         String sha1) {
+        final B2HeadersImpl.Builder builder = B2HeadersImpl
+                .builder()
+                .set(B2Headers.CONTENT_SHA1, sha1);
+        if (rangeStartOrNull == null) {
+            builder.set(B2Headers.CONTENT_LENGTH, Integer.toString(FILE_LENGTH));
+        } else {
+            builder.set(B2Headers.CONTENT_LENGTH, Long.toString(FILE_LENGTH - rangeStartOrNull));
+            builder.set(B2Headers.CONTENT_RANGE, "bytes " + rangeStartOrNull + "-" + (FILE_LENGTH - 1) + "/" + FILE_LENGTH);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the given range of the bytes and then throws an IOException.
+     */
+    private static class BreakingInputStream extends InputStream {
+        private final ByteArrayInputStream in;
+
+        BreakingInputStream(byte[] bytes,
+                            int offset,
+                            int length) {
+            this.in = new ByteArrayInputStream(bytes, offset, length);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b < 0) {
+                throw new IOException("connection reset");
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@SuppressWarnings("NullableProblems") byte[] b, int off, int len) throws IOException {
+            final int n = in.read(b, off, len);
+            if (n < 0) {
+                throw new IOException("connection reset");
+            }
+            return n;
+        }
+    }
+}
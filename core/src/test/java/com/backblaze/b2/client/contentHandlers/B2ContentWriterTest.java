@@ -63,6 +63,10 @@ public class B2ContentWriterTest {
             super(verifySha1ByRereadingFromDestination);
         }
 
+        private Writer(B2ContentVerificationPolicy verificationPolicy) {
+            super(verificationPolicy);
+        }
+
         @Override
         protected OutputStream createDestinationOutputStream() throws IOException {
             if (throwInGetDestinationOutputStream) {
@@ -230,6 +234,57 @@ public class B2ContentWriterTest {
         assertTrue(!sha1WasVerifiedFromDestination(lackadaisicalWriter));
     }
 
+    @Test
+    public void testNoChecksWhenPolicyIsNone() throws B2Exception {
+        final String wrongSha1 = B2Sha1.hexSha1OfBytes(makeBytes(LEN+1));
+        final Writer trustingWriter = new Writer(B2ContentVerificationPolicy.NONE);
+        assertEquals(B2ContentVerificationPolicy.NONE, trustingWriter.getVerificationPolicy());
+
+        trustingWriter.readContent(makeHeadersWithLenAndSha1(bytes.length, wrongSha1), in);
+
+        assertArrayEquals(makeBytes(LEN), trustingWriter.getBytes());
+        assertTrue(!sha1WasVerifiedFromDestination(trustingWriter));
+    }
+
+    @Test
+    public void testNetworkSha1IsStillCheckedWithoutReadingBack() throws B2Exception {
+        final String wrongSha1 = B2Sha1.hexSha1OfBytes(makeBytes(LEN+1));
+        final Writer networkWriter = new Writer(B2ContentVerificationPolicy.NETWORK_SHA1);
+
+        thrown.expect(B2Exception.class);
+        thrown.expectMessage("sha1 mismatch from network.  expected " + wrongSha1 + ", but got " + rightSha1);
+        networkWriter.readContent(makeHeadersWithLenAndSha1(bytes.length, wrongSha1), in);
+    }
+
+    @Test
+    public void testSampledReadBackPasses() throws B2Exception {
+        final Writer samplingWriter = new Writer(B2ContentVerificationPolicy.SAMPLED_READ_BACK);
+
+        samplingWriter.readContent(makeHeadersWithLenAndSha1(bytes.length, rightSha1), in);
+
+        assertArrayEquals(makeBytes(LEN), samplingWriter.getBytes());
+        assertTrue(sha1WasVerifiedFromDestination(samplingWriter));
+    }
+
+    @Test
+    public void testSampledReadBackIsDoneEvenWithARange() throws B2Exception {
+        final Writer samplingWriter = new Writer(B2ContentVerificationPolicy.SAMPLED_READ_BACK);
+
+        samplingWriter.readContent(makeHeadersWithRange(LEN), in);
+
+        assertTrue(sha1WasVerifiedFromDestination(samplingWriter));
+    }
+
+    @Test
+    public void testSampledReadBackFails() throws B2Exception, IOException {
+        final Writer samplingWriter = new Writer(B2ContentVerificationPolicy.SAMPLED_READ_BACK);
+        samplingWriter.addToDestination("ab".getBytes()); // this will mess up what we read back.
+
+        thrown.expect(B2Exception.class);
+        thrown.expectMessage("the block at 0 read back from the destination doesn't match what was written to it.");
+        samplingWriter.readContent(makeHeadersWithLenAndSha1(bytes.length, rightSha1), in);
+    }
+
     @Test
     public void testThrowInCreateDestinationInputStream() throws B2Exception {
         writer.setThrowInCreateDestinationInputStream();
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.client.contentHandlers;
+
+import com.backblaze.b2.client.exceptions.B2Exception;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
+
+public class B2SampledReadBackTest {
+    private static final int LEN = 1000;
+    private final byte[] bytes = makeBytes(LEN);
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testMatches() throws B2Exception, IOException {
+        // blocks at 0, 300, 600, and 900.
+        final B2SampledReadBack samples = writeInPieces(4, 100);
+        samples.check(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void testSamplesEverythingWhenSmall() throws B2Exception, IOException {
+        final B2SampledReadBack samples = writeInPieces(4, 300);
+
+        final byte[] changed = bytes.clone();
+        changed[450] ^= 1;
+
+        thrown.expect(B2Exception.class);
+        thrown.expectMessage("the block at 300 read back from the destination doesn't match what was written to it.");
+        samples.check(new ByteArrayInputStream(changed));
+    }
+
+    @Test
+    public void testChangeInSampledBlockIsNoticed() throws B2Exception, IOException {
+        final B2SampledReadBack samples = writeInPieces(4, 100);
+
+        final byte[] changed = bytes.clone();
+        changed[650] ^= 1;
+
+        thrown.expect(B2Exception.class);
+        thrown.expectMessage("the block at 600 read back from the destination doesn't match what was written to it.");
+        samples.check(new ByteArrayInputStream(changed));
+    }
+
+    @Test
+    public void testChangeBetweenSamplesIsNotNoticed() throws B2Exception, IOException {
+        final B2SampledReadBack samples = writeInPieces(4, 100);
+
+        // that's the price of only sampling.
+        final byte[] changed = bytes.clone();
+        changed[450] ^= 1;
+        samples.check(new ByteArrayInputStream(changed));
+    }
+
+    @Test
+    public void testShortDestination() throws B2Exception, IOException {
+        final B2SampledReadBack samples = writeInPieces(4, 100);
+
+        thrown.expect(B2Exception.class);
+        thrown.expectMessage("the block at 900 read back from the destination doesn't match what was written to it.");
+        samples.check(new ByteArrayInputStream(Arrays.copyOf(bytes, 950)));
+    }
+
+    @Test
+    public void testEmpty() throws B2Exception, IOException {
+        final B2SampledReadBack samples = new B2SampledReadBack(0, 4, 100);
+        samples.check(new ByteArrayInputStream(new byte[0]));
+    }
+
+    /**
+     * Writes the bytes to a new B2SampledReadBack in pieces that don't line up with the blocks.
+     */
+    private B2SampledReadBack writeInPieces(int maxBlocks,
+                                           int blockSize) {
+        final B2SampledReadBack samples = new B2SampledReadBack(LEN, maxBlocks, blockSize);
+        final int pieceSize = 37;
+        for (int offset = 0; offset < LEN; offset += pieceSize) {
+            samples.wrote(bytes, offset, Math.min(pieceSize, LEN - offset));
+        }
+        return samples;
+    }
+}
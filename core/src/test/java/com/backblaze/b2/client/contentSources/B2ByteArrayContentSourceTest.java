@@ -45,6 +45,19 @@ public class B2ByteArrayContentSourceTest {
         assertArrayEquals(sourceBytes, readBytes);
     }
 
+    @Test
+    public void testCreateInputStreamOrNull() throws IOException {
+        final B2ContentSource contentSource = B2ByteArrayContentSource.build(sourceBytes);
+
+        assertArrayEquals("World".getBytes(), readAllBytes(() -> contentSource.createInputStreamOrNull(7, 5)));
+        assertArrayEquals(new byte[0], readAllBytes(() -> contentSource.createInputStreamOrNull(13, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateInputStreamOrNullPastEnd() throws IOException {
+        B2ByteArrayContentSource.build(sourceBytes).createInputStreamOrNull(7, 7);
+    }
+
     private interface InputStreamFactory {
         InputStream create() throws IOException;
     }
@@ -112,6 +112,52 @@ public class B2HeadersImplTest {
         withBogusContentLength.getContentLength();
     }
 
+    @Test
+    public void testGetContentRangeCompleteLengthOrNull() {
+        assertNull(makeEmpty().getContentRangeCompleteLengthOrNull());
+        assertEquals(5000L, (long) makeContentRange("bytes 0-999/5000").getContentRangeCompleteLengthOrNull());
+        assertNull(makeContentRange("bytes 0-999/*").getContentRangeCompleteLengthOrNull());
+
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("can't parse Content-Range 'bytes 0-999/lots'");
+        makeContentRange("bytes 0-999/lots").getContentRangeCompleteLengthOrNull();
+    }
+
+    @Test
+    public void testGetContentRangeStartOrNull() {
+        assertNull(makeEmpty().getContentRangeStartOrNull());
+        assertEquals(0L, (long) makeContentRange("bytes 0-999/5000").getContentRangeStartOrNull());
+        assertEquals(4000L, (long) makeContentRange("bytes 4000-4999/*").getContentRangeStartOrNull());
+        assertNull(makeContentRange("bytes */5000").getContentRangeStartOrNull());
+
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("can't parse Content-Range 'bytes x-999/5000'");
+        makeContentRange("bytes x-999/5000").getContentRangeStartOrNull();
+    }
+
+    @Test
+    public void testGetWholeFileSha1OrNull() {
+        assertNull(makeEmpty().getWholeFileSha1OrNull());
+        assertEquals(SAMPLE_SHA1, makeNormal().getWholeFileSha1OrNull());
+
+        // large files say "none" and might have the sha1 in their file info.
+        final B2Headers largeFile = B2HeadersImpl
+                .builder()
+                .set(B2Headers.CONTENT_SHA1, "none")
+                .set(B2Headers.CONTENT_RANGE, "bytes 0-9/100")
+                .set(B2Headers.LARGE_FILE_SHA1, SAMPLE_SHA1)
+                .build();
+        assertEquals(SAMPLE_SHA1, largeFile.getWholeFileSha1OrNull());
+        assertNull(B2HeadersImpl.builder().set(B2Headers.CONTENT_SHA1, "none").build().getWholeFileSha1OrNull());
+    }
+
+    private static B2Headers makeContentRange(String contentRange) {
+        return B2HeadersImpl
+                .builder()
+                .set(B2Headers.CONTENT_RANGE, contentRange)
+                .build();
+    }
+
     @Test
     public void testGetContentSha1OrNull() {
         assertEquals(SAMPLE_SHA1, makeNormal().getContentSha1OrNull());
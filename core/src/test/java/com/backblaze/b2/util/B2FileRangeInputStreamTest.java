@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017, Backblaze Inc. All Rights Reserved.
+ * License https://www.backblaze.com/using_b2_code.html
+ */
+package com.backblaze.b2.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class B2FileRangeInputStreamTest {
+    private static final String DIGITS_STR = "0123456789";
+    private static final int EOF = -1;
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testNegativeStartThrows() throws IOException {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("start must be non-negative.");
+
+        B2FileRangeInputStream.create(makeDigitsFile(), -1, 1);
+    }
+
+    @Test
+    public void testRanges() throws IOException {
+        final File file = makeDigitsFile();
+
+        assertEquals("", readAll(B2FileRangeInputStream.create(file, 0, 0)));
+        assertEquals("0123456789", readAll(B2FileRangeInputStream.create(file, 0, 10)));
+        assertEquals("78", readAll(B2FileRangeInputStream.create(file, 7, 2)));
+        assertEquals("9", readAll(B2FileRangeInputStream.create(file, 9, 1)));
+
+        // asking for more than the file has just stops at the end of the file.
+        assertEquals("56789", readAll(B2FileRangeInputStream.create(file, 5, 100)));
+        assertEquals("", readAll(B2FileRangeInputStream.create(file, 10, 3)));
+        assertEquals("", readAll(B2FileRangeInputStream.create(file, 20, 3)));
+    }
+
+    @Test
+    public void testReadOneByteAtATime() throws IOException {
+        try (InputStream in = B2FileRangeInputStream.create(makeDigitsFile(), 3, 2)) {
+            assertEquals(2, in.available());
+            assertEquals('3', in.read());
+            assertEquals('4', in.read());
+            assertEquals(EOF, in.read());
+            assertEquals(0, in.available());
+        }
+    }
+
+    @Test
+    public void testSkip() throws IOException {
+        try (InputStream in = B2FileRangeInputStream.create(makeDigitsFile(), 2, 6)) {
+            assertEquals(3, in.skip(3));
+            final byte[] buf = new byte[10];
+            assertEquals(3, in.read(buf));
+            assertArrayEquals("567".getBytes(), Arrays.copyOf(buf, 3));
+            assertEquals(0, in.skip(3));
+            assertEquals(EOF, in.read(buf));
+        }
+    }
+
+    @Test
+    public void testAccessors() throws IOException {
+        final B2FileRangeInputStream in = B2FileRangeInputStream.create(makeDigitsFile(), 4, 5);
+        assertEquals(4, in.getRangeStart());
+        assertEquals(5, in.getRangeLength());
+        in.close();
+    }
+
+    private File makeDigitsFile() throws IOException {
+        final File file = tempFolder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(DIGITS_STR.getBytes());
+        }
+        return file;
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        try (InputStream closeMe = in) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            B2IoUtils.copy(closeMe, out);
+            return new String(out.toByteArray());
+        }
+    }
+}
@@ -12,6 +12,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import static com.backblaze.b2.client.B2TestHelpers.makeBytes;
 import static org.junit.Assert.assertArrayEquals;
@@ -84,6 +85,31 @@ public class B2IoUtilsTest {
         B2IoUtils.readToEnd(in);
     }
 
+    @Test
+    public void testReadFully() throws IOException {
+        final byte[] original = makeBytes(10);
+
+        // a stream that only hands out a few bytes per read() call.
+        final InputStream in = new ByteArrayInputStream(original) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+
+        final byte[] buffer = new byte[8];
+        assertEquals(8, B2IoUtils.readFully(in, buffer));
+        assertArrayEquals(Arrays.copyOf(original, 8), buffer);
+
+        // only two bytes left.
+        assertEquals(2, B2IoUtils.readFully(in, buffer));
+        assertEquals(original[8], buffer[0]);
+        assertEquals(original[9], buffer[1]);
+
+        // at the end.
+        assertEquals(0, B2IoUtils.readFully(in, buffer));
+    }
+
     @Test
     public void test_forCoverage() {
         new B2IoUtils();
@@ -23,6 +23,10 @@ public class B2Sha1Test {
         assertEquals(expectedSha1, B2Sha1.hexSha1OfBytes(bytes));
         assertEquals(expectedSha1, B2Sha1.hexSha1OfInputStream(new ByteArrayInputStream(bytes)));
 
+        // the same bytes in the middle of a bigger array.
+        final byte[] padded = B2StringUtil.getUtf8Bytes("__hello world___");
+        assertEquals(expectedSha1, B2Sha1.hexSha1OfBytes(padded, 2, bytes.length));
+
         final String upperSha1 = expectedSha1.toUpperCase();
         assertTrue(!expectedSha1.equals(upperSha1));
         assertTrue(B2Sha1.equalHexSha1s(expectedSha1, upperSha1));
@@ -9,6 +9,7 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import static com.backblaze.b2.util.B2StringUtil.allDecimal;
+import static com.backblaze.b2.util.B2StringUtil.compareUtf8;
 import static com.backblaze.b2.util.B2StringUtil.decimalNumberInRange;
 import static com.backblaze.b2.util.B2StringUtil.decimalSubstringToInt;
 import static com.backblaze.b2.util.B2StringUtil.getUtf8Bytes;
@@ -88,6 +89,22 @@ public class B2StringUtilTest {
         assertArrayEquals(new byte[] { (byte) 0xc3, (byte) 0xa2, (byte) 0xc6, (byte) 0x83, (byte) 0xc3, (byte) 0xa7 }, getUtf8Bytes("âƃç"));
     }
 
+    @Test
+    public void testCompareUtf8() {
+        final String emoji = "\uD83D\uDE00";
+        for (String[] pair : new String[][] {{"", "a"}, {"a", "ab"}, {"ab", "b"}, {"\uFF01", emoji}, {emoji, emoji + "a"}}) {
+            assertTrue(compareUtf8(pair[0], pair[1]) < 0);
+            assertTrue(compareUtf8(pair[1], pair[0]) > 0);
+            assertTrue(compareUtf8(getUtf8Bytes(pair[0]), getUtf8Bytes(pair[1])) < 0);
+            assertTrue(compareUtf8(getUtf8Bytes(pair[1]), getUtf8Bytes(pair[0])) > 0);
+        }
+        assertEquals(0, compareUtf8(emoji, emoji));
+        assertEquals(0, compareUtf8(getUtf8Bytes(emoji), getUtf8Bytes(emoji)));
+
+        // unlike compareTo().
+        assertTrue(emoji.compareTo("\uFF01") < 0);
+    }
+
     @Test
     public void testToHexString() {
         assertEquals("", toHexString(null));
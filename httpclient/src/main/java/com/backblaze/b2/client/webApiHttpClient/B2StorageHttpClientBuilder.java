@@ -5,6 +5,7 @@
 package com.backblaze.b2.client.webApiHttpClient;
 
 import com.backblaze.b2.client.B2AccountAuthorizer;
+import com.backblaze.b2.client.B2AdaptivePartSizer;
 import com.backblaze.b2.client.B2AccountAuthorizerSimpleImpl;
 import com.backblaze.b2.client.B2ClientConfig;
 import com.backblaze.b2.client.B2DefaultRetryPolicy;
@@ -29,6 +30,7 @@ public class B2StorageHttpClientBuilder {
     private B2WebApiClient webApiClient;
     private HttpClientFactory httpClientFactory;
     private Supplier<B2RetryPolicy> retryPolicySupplier;
+    private B2AdaptivePartSizer adaptivePartSizer;
 
     @SuppressWarnings("WeakerAccess")
     public static B2StorageHttpClientBuilder builder(B2ClientConfig config) {
@@ -78,7 +80,8 @@ public class B2StorageHttpClientBuilder {
         return new B2StorageClientImpl(
                 webifier,
                 config,
-                retryPolicySupplier);
+                retryPolicySupplier,
+                adaptivePartSizer);
     }
 
     public B2StorageHttpClientBuilder setHttpClientFactory(HttpClientFactory httpClientFactory) {
@@ -99,4 +102,10 @@ public class B2StorageHttpClientBuilder {
         this.retryPolicySupplier = retryPolicySupplier;
         return this;
     }
+
+    @SuppressWarnings("unused")
+    public B2StorageHttpClientBuilder setAdaptivePartSizer(B2AdaptivePartSizer adaptivePartSizer) {
+        this.adaptivePartSizer = adaptivePartSizer;
+        return this;
+    }
 }
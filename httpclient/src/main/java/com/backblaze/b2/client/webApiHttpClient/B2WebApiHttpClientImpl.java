@@ -65,12 +65,8 @@ public class B2WebApiHttpClientImpl implements B2WebApiClient {
                                                           B2Headers headersOrNull,
                                                           Object request,
                                                           Class<ResponseType> responseClass) throws B2Exception {
-        final String responseString = postJsonAndReturnString(url, headersOrNull, request);
-        try {
-            return bzJson.fromJson(responseString, responseClass, B2Json.ALLOW_EXTRA_FIELDS);
-        } catch (B2JsonException e) {
-            throw new B2LocalException("parsing_failed", "can't convert response from json: " + e.getMessage(), e);
-        }
+        ByteArrayEntity requestEntity = parseToByteArrayEntityUsingBzJson(request);
+        return postAndReturnJson(url, headersOrNull, requestEntity, responseClass);
     }
 
     @Override
@@ -79,13 +75,8 @@ public class B2WebApiHttpClientImpl implements B2WebApiClient {
                                                           InputStream inputStream,
                                                           long contentLength,
                                                           Class<ResponseType> responseClass) throws B2Exception {
-        try {
-            InputStreamEntity requestEntity = new InputStreamEntity(inputStream, contentLength);
-            String responseJson = postAndReturnString(url, headersOrNull, requestEntity);
-            return B2Json.get().fromJson(responseJson, responseClass, B2Json.ALLOW_EXTRA_FIELDS);
-        } catch (B2JsonException e) {
-            throw new B2LocalException("parsing_failed", "can't convert response from json: " + e.getMessage(), e);
-        }
+        InputStreamEntity requestEntity = new InputStreamEntity(inputStream, contentLength);
+        return postAndReturnJson(url, headersOrNull, requestEntity, responseClass);
     }
 
     @Override
@@ -137,26 +128,28 @@ public class B2WebApiHttpClientImpl implements B2WebApiClient {
         return builder.build();
     }
 
-    private String postJsonAndReturnString(String url,
-                                           B2Headers headersOrNull,
-                                           Object request) throws B2Exception {
-        ByteArrayEntity requestEntity = parseToByteArrayEntityUsingBzJson(request);
-        return postAndReturnString(url, headersOrNull, requestEntity);
-    }
-
     /**
-     * POSTs to a web service that returns content, and returns the content
-     * as a single string.
+     * POSTs to a web service that returns JSON, and converts the JSON into
+     * an object of the given class.
+     *
+     * A successful response is parsed as it comes off the connection,
+     * instead of being read into a String first, so we never hold both the
+     * text of a big response (like a page of a listing) and the objects made
+     * from it.  Error responses are small, so they're still read into a
+     * String.
      *
      * @param url the url to post to
      * @param headersOrNull the headers, if any.
      * @param requestEntity the entity to post.
-     * @return the body of the response.
+     * @param responseClass the class to convert the response body into (with B2Json)
+     * @param <ResponseType> the class
+     * @return the response object.
      * @throws B2Exception if there's any trouble
      */
-    private String postAndReturnString(String url, B2Headers headersOrNull, HttpEntity requestEntity)
-            throws B2Exception {
-
+    private <ResponseType> ResponseType postAndReturnJson(String url,
+                                                          B2Headers headersOrNull,
+                                                          HttpEntity requestEntity,
+                                                          Class<ResponseType> responseClass) throws B2Exception {
         CloseableHttpResponse response = null;
         try {
             HttpPost post = new HttpPost(url);
@@ -170,14 +163,20 @@ public class B2WebApiHttpClientImpl implements B2WebApiClient {
             response = clientFactory.create().execute(post);
 
             HttpEntity responseEntity = response.getEntity();
-            String responseText = EntityUtils.toString(responseEntity, "UTF-8");
-
             int statusCode = response.getStatusLine().getStatusCode();
             if (statusCode == HttpStatus.SC_OK) {
-                return responseText;
+                final ResponseType result = bzJson.fromJsonUntilEof(responseEntity.getContent(), responseClass, B2Json.ALLOW_EXTRA_FIELDS);
+
+                // fromJsonUntilEof() has read to the end, but this makes sure
+                // the connection can be reused.
+                EntityUtils.consume(responseEntity);
+                return result;
             } else {
+                String responseText = EntityUtils.toString(responseEntity, UTF8);
                 throw extractExceptionFromErrorResponse(response, responseText);
             }
+        } catch (B2JsonException e) {
+            throw new B2LocalException("parsing_failed", "can't convert response from json: " + e.getMessage(), e);
         } catch (IOException e) {
             throw translateToB2Exception(e, url);
         }